@@ -0,0 +1,38 @@
+package com.db.logger.api;
+
+/**
+ * Named logger with it's own level: record is claimed only if it's level is
+ * enabled, otherwise no-op message is returned, and nothing is written at all.
+ * Level could be changed at any time, from any thread, and takes effect
+ * immediately
+ */
+public interface Category {
+	public String name();
+
+	public Level level();
+
+	public void setLevel( final Level level );
+
+	public boolean isEnabled( final Level level );
+
+	/** @return message to fill and submit, or no-op message, if level is disabled */
+	public LogMessage log( final Level level,
+	                       final String messageFormat );
+
+	/**
+	 * Pre-resolved handle, same as {@linkplain FastLogger#messageThreadLocal(String)}:
+	 * level is checked on each use, so handle follows level changes
+	 */
+	public LogMessage message( final Level level,
+	                           final String messageFormat );
+
+	public LogMessage trace( final String messageFormat );
+
+	public LogMessage debug( final String messageFormat );
+
+	public LogMessage info( final String messageFormat );
+
+	public LogMessage warn( final String messageFormat );
+
+	public LogMessage error( final String messageFormat );
+}
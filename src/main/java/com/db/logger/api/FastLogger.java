@@ -12,4 +12,38 @@ public interface FastLogger {
 
 	public LogMessage log( final String messageFormat );
 
+	/**
+	 * Claims ring space for up to records records of format with single CAS. Batch
+	 * must be ended whatever happens, or claimed records will never be released:
+	 * <pre>
+	 * final LogBatch batch = logger.batch( "order %d filled: %d", orders.size() );
+	 * try {
+	 *     for( final Order order : orders ) {
+	 *         batch.next().with( order.id ).with( order.qty ).submit();
+	 *     }
+	 * } finally {
+	 *     batch.end();
+	 * }
+	 * </pre>
+	 * At most a few dozens of records are claimed at once (see implementation),
+	 * records beyond are claimed one by one. Records with string arguments are not
+	 * known in size beforehand: they are claimed one by one too, as usual
+	 */
+	public LogBatch batch( final String messageFormat,
+	                       final int records );
+
+	/**
+	 * Registers frequently logged value, so it could be logged by id only, by
+	 * {@linkplain FluentLogBuilder#withSymbol(int)}, into %s placeholder
+	 *
+	 * @return id of symbol: the same for equal values
+	 */
+	public int symbol( final CharSequence value );
+
+	/**
+	 * @return named logger with it's own level (initially {@code -Dlog-level}, INFO
+	 * by default): the same instance for the same name
+	 */
+	public Category category( final String name );
+
 }
@@ -0,0 +1,37 @@
+package com.db.logger.api;
+
+/**
+ * Levels of records, in order of severity. Id of level is written into record
+ * header, so it must fit into 7 bits.
+ * <p/>
+ * {@linkplain #OFF} is threshold only: set as {@linkplain Category} level, it
+ * disables everything, but nothing is ever logged at OFF
+ */
+public enum Level {
+	TRACE( 1 ),
+	DEBUG( 2 ),
+	INFO( 3 ),
+	WARN( 4 ),
+	ERROR( 5 ),
+	OFF( 0x7F );
+
+	private final int id;
+
+	private Level( final int id ) {
+		this.id = id;
+	}
+
+	public int id() {
+		return id;
+	}
+
+	/** @return level with id, or null, if there is no such level */
+	public static Level byId( final int id ) {
+		for( final Level level : values() ) {
+			if( level.id == id ) {
+				return level;
+			}
+		}
+		return null;
+	}
+}
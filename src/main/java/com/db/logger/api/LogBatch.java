@@ -0,0 +1,29 @@
+package com.db.logger.api;
+
+import java.io.Closeable;
+
+/**
+ * Burst of records of the same format, which ring space is claimed at once (see
+ * {@linkplain FastLogger#batch(String, int)}): each record is still filled and
+ * submitted as usual, and is visible to drainer once submitted, but claiming it
+ * costs nothing. Batch is bound to the thread created it.
+ * <p/>
+ * Records claimed but not used are released by {@linkplain #end()} (or
+ * {@linkplain #close()}), which must be called soon, and on any path out, so
+ * call it in finally: drainer can't go past unused record until then, and
+ * records of a batch not ended are lost for good
+ */
+public interface LogBatch extends Closeable/*, AutoCloseable*/ {
+	/**
+	 * @return builder of next record: it is published by {@linkplain FluentLogBuilder#submit()}.
+	 * If all records claimed are used already, record is claimed alone
+	 */
+	public FluentLogBuilder next();
+
+	/** Releases records claimed, but not used */
+	public void end();
+
+	/** The same as {@linkplain #end()} */
+	@Override
+	public void close();
+}
@@ -13,6 +13,30 @@ public interface LogMessage {
 
 	public FluentLogBuilder with( final long value );
 
+	/**
+	 * Characters are copied into record (UTF-8), so value could be reused right
+	 * after the call. Too long values are truncated
+	 */
+	public FluentLogBuilder with( final CharSequence value );
+
+	/** Bytes (UTF-8 text, supposedly) are copied into record. Too long values are truncated */
+	public FluentLogBuilder with( final byte[] value,
+	                              final int offset,
+	                              final int length );
+
+	/** Only id of constant (as symbol, see {@linkplain FastLogger#symbol(CharSequence)}) is written */
+	public FluentLogBuilder with( final Enum<?> value );
+
+	/** @param symbolId as returned by {@linkplain FastLogger#symbol(CharSequence)} */
+	public FluentLogBuilder withSymbol( final int symbolId );
+
+	/**
+	 * Attaches Throwable to the record: only it's id is written, stack trace is
+	 * rendered by drainer, so Throwable should not be modified after the call.
+	 * Could be called at any point before submit(), null is ignored
+	 */
+	public FluentLogBuilder with( final Throwable throwable );
+
 	public void submit();
 
 }
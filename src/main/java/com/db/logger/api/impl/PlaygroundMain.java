@@ -2,13 +2,14 @@ package com.db.logger.api.impl;
 
 import java.io.*;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.util.concurrent.*;
 
 import com.db.logger.api.impl.logger.*;
+import com.db.logger.api.impl.logger.buffer.DirectMemoryLongsBuffer;
 import com.db.logger.api.impl.logger.buffer.ICircularLongsBuffer;
-import com.db.logger.api.impl.logger.buffer.UnsafeCircularLongsBuffer;
-import com.db.logger.api.impl.io.RawWriter;
+import com.db.logger.api.impl.io.CatalogWriter;
+import com.db.logger.api.impl.io.ChannelRawWriter;
+import com.db.logger.api.impl.io.LogDecoder;
 import com.db.logger.timesource.impl.JDKCombinedTimestampSource;
 import com.db.logger.timesource.impl.SynchronousJDKOffsetCalculator;
 import org.apache.commons.logging.Log;
@@ -31,12 +32,19 @@ public class PlaygroundMain {
 	public static void main( final String[] args ) throws Exception {
 
 		final int length = ( 1 << 14 );
-		final ICircularLongsBuffer buffer = new UnsafeCircularLongsBuffer( length );
+		//direct memory: drainer writes records from it to file without copying
+		final ICircularLongsBuffer buffer = new DirectMemoryLongsBuffer(
+				ByteBuffer.allocateDirect( length * 8 ),
+				length,
+				RecordHelper.NOT_SET
+		);
 
 		final File file = new File( "output.log" );
 		log.info( "File " + file );
 		file.delete();
 //		file.deleteOnExit();
+		final File catalogFile = new File( file.getPath() + LogDecoder.CATALOG_SUFFIX );
+		catalogFile.delete();
 		final FastLoggerImpl logger = new FastLoggerImpl(
 				new ThreadFactory() {
 					@Override
@@ -45,8 +53,12 @@ public class PlaygroundMain {
 					}
 				},
 				buffer,
-				WaitingStrategy.SPINNING,
-				new RawFileWriter( file )
+				new WaitingStrategy.SpinYieldPark( 1024, 64, WaitingStrategy.SpinYieldPark.DEFAULT_PARK_NANOS, Integer.MAX_VALUE ),
+				OverflowPolicy.BLOCK,
+				new DrainerIdleStrategy(),
+				new ChannelRawWriter( file ),
+				new CatalogWriter( catalogFile ),
+				TIMESTAMP_SOURCE
 		);
 
 		logger.startDraining();
@@ -79,36 +91,4 @@ public class PlaygroundMain {
 		log.info( "Finished" );
 		System.exit( 1 );
 	}
-
-	private static class RawFileWriter implements RawWriter {
-		private final ByteBuffer buffer;
-		private final FileChannel channel;
-
-		public RawFileWriter( final File file ) throws IOException {
-			this( new FileOutputStream( file ).getChannel() );
-		}
-
-		public RawFileWriter( final FileChannel channel ) {
-			this.channel = channel;
-			buffer = ByteBuffer.allocateDirect( 1 << 16 );
-		}
-
-		@Override
-		public ByteBuffer buffer() {
-			return buffer;
-		}
-
-		@Override
-		public void flush() throws IOException {
-			buffer.flip();
-			channel.write( buffer );
-			buffer.clear();
-		}
-
-		@Override
-		public void close() throws IOException {
-			flush();
-			channel.close();
-		}
-	}
 }
@@ -0,0 +1,24 @@
+package com.db.logger.api.impl.io;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Sink of drained records, fed by {@linkplain AppenderPipeline}. Records come in
+ * chunks, in the same binary format drainer writes into {@linkplain RawWriter}
+ * (so they could be read by {@linkplain RawLogReader#RawLogReader(ByteBuffer)}),
+ * chunk always contains whole records. Each appender is called from it's own
+ * thread only.
+ * <p/>
+ * {@linkplain #flush()} is called whenever there are no more chunks queued for
+ * appender, so appender could buffer output between flushes
+ */
+public interface Appender extends Flushable, Closeable {
+	/**
+	 * @param records read-only, in native byte order. Valid only during the call:
+	 *                it's content is reused after return
+	 */
+	public void append( final ByteBuffer records ) throws IOException;
+}
@@ -0,0 +1,306 @@
+package com.db.logger.api.impl.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Fans drained records out to several {@linkplain Appender}s: drainer writes into
+ * pipeline as into any {@linkplain RawWriter}, and filled buffers (chunks) are
+ * handed to appenders by {@linkplain #deliver()}, which drainer of
+ * {@linkplain com.db.logger.api.impl.logger.FastLoggerImpl} calls at the end of
+ * each pass, <b>after</b> catalog is dumped -- so appenders decoding records
+ * in-process always find their formats in catalog mirror (see
+ * {@linkplain CatalogWriter#CatalogWriter(java.io.Writer, DecodingCatalog)}).
+ * <p/>
+ * Chunks are shared (read-only) between appenders, and reused once all appenders
+ * are done with them. Each appender runs on it's own thread, with bounded queue
+ * of chunks: if appender is slow (or stuck), chunks it has no room for are
+ * dropped for it (see {@linkplain #droppedChunks(int)}), so drainer, and reclaim
+ * of ring cells, never waits for appenders. Appender failures are logged and
+ * counted (see {@linkplain #failures(int)}), and do not affect other appenders.
+ * <p/>
+ * Dropped chunk could contain TIMESTAMP record: timestamps of records following
+ * it (up to the next TIMESTAMP, at most a second later) are wrong for appender
+ * which dropped it
+ */
+public class AppenderPipeline implements RawWriter {
+	private static final Log log = LogFactory.getLog( AppenderPipeline.class );
+
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+	/** per appender */
+	public static final int DEFAULT_QUEUE_CHUNKS = 16;
+	/** how long {@linkplain #close()} waits for appenders */
+	public static final long DEFAULT_CLOSE_TIMEOUT_MILLIS = Long.getLong( "appender-close-timeout-ms", 5000 );
+
+	private final Sink[] sinks;
+	private final int bufferSize;
+
+	/** chunks ready to reuse */
+	private final Queue<Chunk> freeChunks = new ConcurrentLinkedQueue<Chunk>();
+	/** chunk being filled by drainer */
+	private Chunk current;
+	/** flushed, but not yet delivered */
+	private final List<Chunk> filled = new ArrayList<Chunk>();
+
+	private boolean closed = false;
+
+	public AppenderPipeline( final ThreadFactory threadFactory,
+	                         final Appender... appenders ) {
+		this( threadFactory, DEFAULT_BUFFER_SIZE, DEFAULT_QUEUE_CHUNKS, appenders );
+	}
+
+	/**
+	 * @param bufferSize  size of chunk, must fit the largest record
+	 * @param queueChunks max chunks queued for each appender
+	 */
+	public AppenderPipeline( final ThreadFactory threadFactory,
+	                         final int bufferSize,
+	                         final int queueChunks,
+	                         final Appender... appenders ) {
+		checkArgument( threadFactory != null, "threadFactory can't be null" );
+		checkArgument( bufferSize > 0, "bufferSize(%s) must be > 0", bufferSize );
+		checkArgument( queueChunks > 0, "queueChunks(%s) must be > 0", queueChunks );
+		checkArgument( appenders.length > 0, "at least one appender required" );
+		this.bufferSize = bufferSize;
+		this.sinks = new Sink[appenders.length];
+		for( int i = 0; i < appenders.length; i++ ) {
+			checkArgument( appenders[i] != null, "appender[%s] can't be null", i );
+			sinks[i] = new Sink( appenders[i], queueChunks, i );
+		}
+		this.current = acquireChunk();
+		for( final Sink sink : sinks ) {
+			sink.thread = threadFactory.newThread( sink );
+			sink.thread.start();
+		}
+	}
+
+	@Override
+	public ByteBuffer buffer() {
+		return current.buffer;
+	}
+
+	/** Filled buffer is put aside until {@linkplain #deliver()}, new one is given by {@linkplain #buffer()} */
+	@Override
+	public void flush() throws IOException {
+		if( current.buffer.position() > 0 ) {
+			filled.add( current );
+			current = acquireChunk();
+		}
+	}
+
+	/** Hands everything written so far to appenders. Never blocks */
+	public void deliver() {
+		checkState( !closed, "Pipeline is closed" );
+		if( current.buffer.position() > 0 ) {
+			filled.add( current );
+			current = acquireChunk();
+		}
+		for( final Chunk chunk : filled ) {
+			chunk.buffer.flip();
+			chunk.references.set( sinks.length );
+			for( final Sink sink : sinks ) {
+				if( !sink.queue.offer( chunk ) ) {
+					sink.droppedChunks.incrementAndGet();
+					chunk.release();
+				}
+			}
+		}
+		filled.clear();
+	}
+
+	/** Same as {@linkplain #close(long, TimeUnit)} with {@linkplain #DEFAULT_CLOSE_TIMEOUT_MILLIS} */
+	@Override
+	public void close() throws IOException {
+		close( DEFAULT_CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS );
+	}
+
+	/**
+	 * Delivers the rest, waits (up to timeout) for appenders to process all queued
+	 * chunks, and closes them. Appender not done in time (i.e. stuck) is abandoned:
+	 * it's thread is interrupted, and chunks still queued for it are lost.
+	 * Repeated calls do nothing
+	 *
+	 * @return true if all appenders are closed in time
+	 */
+	public boolean close( final long timeout,
+	                      final TimeUnit unit ) throws IOException {
+		if( closed ) {
+			return true;
+		}
+		deliver();
+		closed = true;
+		final long deadline = System.nanoTime() + unit.toNanos( timeout );
+		final boolean[] poisoned = new boolean[sinks.length];
+		boolean allClosed = true;
+		try {
+			//appenders with room in queue start closing right away...
+			for( int i = 0; i < sinks.length; i++ ) {
+				poisoned[i] = sinks[i].queue.offer( Chunk.POISON );
+			}
+			//...while we wait for room in queues of the others
+			for( int i = 0; i < sinks.length; i++ ) {
+				if( !poisoned[i] ) {
+					poisoned[i] = sinks[i].queue.offer( Chunk.POISON, deadline - System.nanoTime(), TimeUnit.NANOSECONDS );
+				}
+			}
+			for( int i = 0; i < sinks.length; i++ ) {
+				final Sink sink = sinks[i];
+				if( poisoned[i] ) {
+					TimeUnit.NANOSECONDS.timedJoin( sink.thread, deadline - System.nanoTime() );
+				}
+				if( sink.thread.isAlive() ) {
+					log.warn( "Appender " + sink.appender + " is not closed in " + timeout + " " + unit
+							          + ": abandon it, queued chunks are lost" );
+					sink.thread.interrupt();
+					allClosed = false;
+				}
+			}
+		} catch( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new IOException( "Interrupted while waiting for appenders", e );
+		}
+		return allClosed;
+	}
+
+	public int appendersCount() {
+		return sinks.length;
+	}
+
+	/** @return chunks appender #index missed because it's queue was full */
+	public long droppedChunks( final int index ) {
+		return sinks[index].droppedChunks.get();
+	}
+
+	/** @return exceptions thrown by appender #index */
+	public long failures( final int index ) {
+		return sinks[index].failures.get();
+	}
+
+	private Chunk acquireChunk() {
+		final Chunk chunk = freeChunks.poll();
+		if( chunk != null ) {
+			return chunk;
+		}
+		return new Chunk(
+				ByteBuffer.allocateDirect( bufferSize ).order( ByteOrder.nativeOrder() ),
+				freeChunks,
+				sinks.length
+		);
+	}
+
+	private static final class Chunk {
+		private static final Chunk POISON = new Chunk( ByteBuffer.allocate( 0 ), null, 0 );
+
+		private final ByteBuffer buffer;
+		/** read-only view of buffer for each appender, reused with the chunk */
+		private final ByteBuffer[] views;
+		private final Queue<Chunk> freeChunks;
+		/** appenders not yet done with the chunk */
+		private final AtomicInteger references = new AtomicInteger( 0 );
+
+		private Chunk( final ByteBuffer buffer,
+		               final Queue<Chunk> freeChunks,
+		               final int appendersCount ) {
+			this.buffer = buffer;
+			this.freeChunks = freeChunks;
+			this.views = new ByteBuffer[appendersCount];
+			for( int i = 0; i < appendersCount; i++ ) {
+				views[i] = buffer.asReadOnlyBuffer().order( buffer.order() );
+			}
+		}
+
+		/** @return view of appender #index, positioned at records delivered */
+		private ByteBuffer view( final int index ) {
+			final ByteBuffer view = views[index];
+			view.clear();
+			view.limit( buffer.limit() );
+			return view;
+		}
+
+		private void release() {
+			if( references.decrementAndGet() == 0 ) {
+				buffer.clear();
+				freeChunks.offer( this );
+			}
+		}
+	}
+
+	private static final class Sink implements Runnable {
+		private final Appender appender;
+		/** of appender in pipeline */
+		private final int index;
+		private final BlockingQueue<Chunk> queue;
+		private final AtomicLong droppedChunks = new AtomicLong( 0 );
+		private final AtomicLong failures = new AtomicLong( 0 );
+
+		private Thread thread;
+
+		private Sink( final Appender appender,
+		              final int queueChunks,
+		              final int index ) {
+			this.appender = appender;
+			this.index = index;
+			this.queue = new ArrayBlockingQueue<Chunk>( queueChunks );
+		}
+
+		@Override
+		public void run() {
+			try {
+				while( true ) {
+					Chunk chunk = queue.poll();
+					if( chunk == null ) {
+						flush();
+						chunk = queue.take();
+					}
+					if( chunk == Chunk.POISON ) {
+						break;
+					}
+					try {
+						appender.append( chunk.view( index ) );
+					} catch( Throwable t ) {
+						failures.incrementAndGet();
+						log.error( "Appender " + appender + " failed", t );
+					} finally {
+						chunk.release();
+					}
+				}
+			} catch( InterruptedException e ) {
+				log.warn( "Appender " + appender + " thread interrupted: queued chunks are lost" );
+			} finally {
+				flush();
+				try {
+					appender.close();
+				} catch( Throwable t ) {
+					failures.incrementAndGet();
+					log.error( "Appender " + appender + " close failed", t );
+				}
+			}
+		}
+
+		private void flush() {
+			try {
+				appender.flush();
+			} catch( Throwable t ) {
+				failures.incrementAndGet();
+				log.error( "Appender " + appender + " flush failed", t );
+			}
+		}
+	}
+}
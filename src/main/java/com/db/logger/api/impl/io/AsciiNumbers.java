@@ -0,0 +1,134 @@
+package com.db.logger.api.impl.io;
+
+/**
+ * Garbage-free rendering of numbers as ASCII, as {@linkplain java.util.Formatter}
+ * renders them: digits are written into caller's scratch array, right-aligned,
+ * and index of first byte is returned, so caller knows length before copying
+ * (i.e. to pad it to width).
+ * <p/>
+ * Fixed-point doubles are rendered by scaled long arithmetic, which is exact
+ * while scaled value is well below 2^53, and matches Formatter's HALF_UP rounding
+ * unless value is (nearly) halfway between two results -- there binary error of
+ * scaling could decide either way, so such values (and too large, or too precise
+ * ones) are refused, and caller should fall back to Formatter
+ */
+final class AsciiNumbers {
+	/** enough for any long, and any double accepted by {@linkplain #formatFixed(double, int, byte[])} */
+	public static final int SCRATCH_LENGTH = 64;
+
+	/** could be rendered as scaled long exactly */
+	private static final double MAX_SCALED = 1e12;
+	public static final int MAX_PRECISION = 9;
+
+	private static final long[] POWERS_OF_10 = {
+			1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L
+	};
+
+	private static final byte[] DIGITS = {
+			'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+	};
+	private static final byte[] UPPER_DIGITS = {
+			'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'
+	};
+
+	private AsciiNumbers() {
+		throw new AssertionError( "Not for instantiation" );
+	}
+
+	/** @return index of first byte of decimal value in scratch */
+	public static int formatLong( final long value,
+	                              final byte[] scratch ) {
+		int pos = scratch.length;
+		//negative range is larger: Long.MIN_VALUE has no positive counterpart
+		long negative = ( value < 0 ) ? value : -value;
+		do {
+			final long quotient = negative / 10;
+			scratch[--pos] = DIGITS[( int ) ( quotient * 10 - negative )];
+			negative = quotient;
+		} while( negative != 0 );
+		if( value < 0 ) {
+			scratch[--pos] = '-';
+		}
+		return pos;
+	}
+
+	/**
+	 * Two's complement, as {@linkplain Long#toHexString(long)} / {@linkplain Long#toOctalString(long)} do
+	 *
+	 * @param shift 4 for hex, 3 for octal
+	 * @return index of first byte of value in scratch
+	 */
+	public static int formatUnsigned( final long value,
+	                                  final int shift,
+	                                  final boolean upperCase,
+	                                  final byte[] scratch ) {
+		final byte[] digits = upperCase ? UPPER_DIGITS : DIGITS;
+		final long mask = ( 1L << shift ) - 1;
+		int pos = scratch.length;
+		long rest = value;
+		do {
+			scratch[--pos] = digits[( int ) ( rest & mask )];
+			rest >>>= shift;
+		} while( rest != 0 );
+		return pos;
+	}
+
+	/**
+	 * As %.{precision}f does
+	 *
+	 * @return index of first byte of value in scratch, or -1 if value can't be
+	 * rendered exactly here: caller should use {@linkplain java.util.Formatter}
+	 */
+	public static int formatFixed( final double value,
+	                               final int precision,
+	                               final byte[] scratch ) {
+		if( Double.isNaN( value ) ) {
+			return putAscii( "NaN", scratch );
+		}
+		if( Double.isInfinite( value ) ) {
+			return putAscii( value > 0 ? "Infinity" : "-Infinity", scratch );
+		}
+		if( precision < 0 || precision > MAX_PRECISION ) {
+			return -1;
+		}
+		final boolean negative = ( value < 0 ) || ( value == 0 && 1 / value < 0 );
+		final double scaled = Math.abs( value ) * POWERS_OF_10[precision];
+		if( scaled >= MAX_SCALED ) {
+			return -1;
+		}
+		final double fraction = scaled - Math.floor( scaled );
+		if( Math.abs( fraction - 0.5 ) <= 4 * Math.ulp( scaled ) ) {
+			return -1;//halfway: let Formatter decide
+		}
+		final long rounded = ( long ) ( scaled + 0.5 );
+
+		int pos = scratch.length;
+		long integer = rounded;
+		if( precision > 0 ) {
+			long fractional = rounded % POWERS_OF_10[precision];
+			integer = rounded / POWERS_OF_10[precision];
+			for( int i = 0; i < precision; i++ ) {
+				scratch[--pos] = DIGITS[( int ) ( fractional % 10 )];
+				fractional /= 10;
+			}
+			scratch[--pos] = '.';
+		}
+		do {
+			scratch[--pos] = DIGITS[( int ) ( integer % 10 )];
+			integer /= 10;
+		} while( integer != 0 );
+		if( negative ) {
+			scratch[--pos] = '-';
+		}
+		return pos;
+	}
+
+	private static int putAscii( final String value,
+	                             final byte[] scratch ) {
+		final int pos = scratch.length - value.length();
+		for( int i = 0; i < value.length(); i++ ) {
+			scratch[pos + i] = ( byte ) value.charAt( i );
+		}
+		return pos;
+	}
+}
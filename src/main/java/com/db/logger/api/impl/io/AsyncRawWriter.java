@@ -0,0 +1,230 @@
+package com.db.logger.api.impl.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * {@linkplain RawWriter} decorator which moves I/O off the drainer thread: drainer
+ * fills buffer N while dedicated I/O thread writes buffers N-1, N-2... into
+ * underlying writer. So slow disk does not stop reclamation of ring cells directly
+ * -- only once all buffers are in flight, and then {@linkplain WhenAllBuffersBusy}
+ * decides: wait for I/O thread, or drop the buffer just filled.
+ * <p/>
+ * Buffers are direct, allocated once, at construction. Each buffer handed over
+ * is written to underlying writer (zero-copy, if it is {@linkplain ChunkedRawWriter},
+ * record by record otherwise, so records still never span it's flush), and
+ * underlying writer is flushed. I/O failures are logged and counted (see
+ * {@linkplain #failures()}): buffer is lost, but writer keeps going
+ * <p/>
+ * {@linkplain #buffer()} and {@linkplain #flush()} are to be called from single
+ * (drainer) thread
+ */
+public class AsyncRawWriter implements RawWriter {
+	private static final Log log = LogFactory.getLog( AsyncRawWriter.class );
+
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+	public static final int DEFAULT_BUFFERS = 4;
+
+	/** what flush() does if all buffers are being written */
+	public enum WhenAllBuffersBusy {
+		/** wait for I/O thread to free a buffer: producers are back-pressured through the ring */
+		BLOCK,
+		/** discard records of buffer just filled, and reuse it: ring is reclaimed at any cost */
+		DROP
+	}
+
+	/** period of checking I/O thread is alive, while waiting for it */
+	private static final long IO_THREAD_CHECK_MILLIS = 100;
+
+	private static final ByteBuffer POISON = ByteBuffer.allocate( 0 );
+
+	private final RawWriter output;
+	private final WhenAllBuffersBusy policy;
+
+	private final BlockingQueue<ByteBuffer> freeBuffers;
+	private final BlockingQueue<ByteBuffer> filledBuffers;
+	private final Thread ioThread;
+
+	/** buffer being filled by drainer */
+	private ByteBuffer current;
+
+	private final AtomicLong droppedBuffers = new AtomicLong( 0 );
+	private final AtomicLong blockedFlushes = new AtomicLong( 0 );
+	private final AtomicLong failures = new AtomicLong( 0 );
+
+	private boolean closed = false;
+
+	public AsyncRawWriter( final RawWriter output,
+	                       final ThreadFactory threadFactory ) {
+		this( output, threadFactory, DEFAULT_BUFFERS, DEFAULT_BUFFER_SIZE, WhenAllBuffersBusy.BLOCK );
+	}
+
+	/**
+	 * @param buffers    depth of pipeline: buffer being filled + buffers in flight, >= 2
+	 * @param bufferSize must fit the largest record
+	 */
+	public AsyncRawWriter( final RawWriter output,
+	                       final ThreadFactory threadFactory,
+	                       final int buffers,
+	                       final int bufferSize,
+	                       final WhenAllBuffersBusy policy ) {
+		checkArgument( output != null, "output can't be null" );
+		checkArgument( threadFactory != null, "threadFactory can't be null" );
+		checkArgument( buffers >= 2, "buffers(%s) must be >= 2", buffers );
+		checkArgument( bufferSize > 0, "bufferSize(%s) must be > 0", bufferSize );
+		checkArgument( policy != null, "policy can't be null" );
+		this.output = output;
+		this.policy = policy;
+
+		this.freeBuffers = new ArrayBlockingQueue<ByteBuffer>( buffers );
+		//+1 for POISON
+		this.filledBuffers = new ArrayBlockingQueue<ByteBuffer>( buffers + 1 );
+		for( int i = 1; i < buffers; i++ ) {
+			freeBuffers.add( ByteBuffer.allocateDirect( bufferSize ).order( ByteOrder.nativeOrder() ) );
+		}
+		this.current = ByteBuffer.allocateDirect( bufferSize ).order( ByteOrder.nativeOrder() );
+
+		this.ioThread = threadFactory.newThread( new Writer() );
+		this.ioThread.start();
+	}
+
+	@Override
+	public ByteBuffer buffer() {
+		return current;
+	}
+
+	/** Hands filled buffer to I/O thread, new one is given by {@linkplain #buffer()} */
+	@Override
+	public void flush() throws IOException {
+		checkState( !closed, "Writer is closed" );
+		if( current.position() == 0 ) {
+			return;
+		}
+		ByteBuffer next = freeBuffers.poll();
+		if( next == null ) {
+			if( policy == WhenAllBuffersBusy.DROP ) {
+				droppedBuffers.incrementAndGet();
+				current.clear();
+				return;
+			}
+			blockedFlushes.incrementAndGet();
+			next = waitForFreeBuffer();
+		}
+		current.flip();
+		filledBuffers.add( current );
+		current = next;
+	}
+
+	/** @throws IOException if I/O thread is dead: no buffer will ever be freed then */
+	private ByteBuffer waitForFreeBuffer() throws IOException {
+		try {
+			while( true ) {
+				final ByteBuffer buffer = freeBuffers.poll( IO_THREAD_CHECK_MILLIS, TimeUnit.MILLISECONDS );
+				if( buffer != null ) {
+					return buffer;
+				}
+				if( !ioThread.isAlive() ) {
+					//last buffer could be freed just before the thread exited
+					final ByteBuffer last = freeBuffers.poll();
+					if( last != null ) {
+						return last;
+					}
+					throw new IOException( "I/O thread of " + this + " is dead: no buffer will be freed" );
+				}
+			}
+		} catch( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new IOException( "Interrupted while waiting for free buffer", e );
+		}
+	}
+
+	/** Hands the rest to I/O thread, waits for it to write everything, and closes underlying writer */
+	@Override
+	public void close() throws IOException {
+		if( closed ) {
+			return;
+		}
+		current.flip();
+		if( current.hasRemaining() ) {
+			filledBuffers.add( current );
+		}
+		closed = true;
+		filledBuffers.add( POISON );
+		try {
+			ioThread.join();
+		} catch( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new IOException( "Interrupted while waiting for I/O thread", e );
+		} finally {
+			output.close();
+		}
+	}
+
+	/** @return buffers discarded by {@linkplain WhenAllBuffersBusy#DROP} */
+	public long droppedBuffers() {
+		return droppedBuffers.get();
+	}
+
+	/** @return flushes which waited for I/O thread with {@linkplain WhenAllBuffersBusy#BLOCK} */
+	public long blockedFlushes() {
+		return blockedFlushes.get();
+	}
+
+	/** @return buffers failed to be written */
+	public long failures() {
+		return failures.get();
+	}
+
+	@Override
+	public String toString() {
+		return "AsyncRawWriter[" + output + "]";
+	}
+
+	private final class Writer implements Runnable {
+		private final RawWriterAppender copier = new RawWriterAppender( output );
+
+		@Override
+		public void run() {
+			try {
+				while( true ) {
+					final ByteBuffer buffer = filledBuffers.take();
+					if( buffer == POISON ) {
+						break;
+					}
+					try {
+						write( buffer );
+					} catch( Throwable t ) {
+						failures.incrementAndGet();
+						log.error( "Writing to " + output + " failed", t );
+					} finally {
+						buffer.clear();
+						freeBuffers.offer( buffer );
+					}
+				}
+			} catch( InterruptedException e ) {
+				log.warn( "I/O thread of " + AsyncRawWriter.this + " interrupted: queued buffers are lost" );
+			}
+		}
+
+		private void write( final ByteBuffer buffer ) throws IOException {
+			if( output instanceof ChunkedRawWriter ) {
+				( ( ChunkedRawWriter ) output ).write( buffer );
+			} else {
+				copier.append( buffer );
+			}
+			output.flush();
+		}
+	}
+}
@@ -0,0 +1,284 @@
+package com.db.logger.api.impl.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import static com.db.logger.api.impl.logger.RecordHelper.*;
+
+/**
+ * Compact encoding of block of records: most cells are small numbers (formatIds,
+ * counters, timestamp deltas), so their 8 bytes are mostly zeros.
+ * <p/>
+ * Record is encoded as [type][level][varint formatId][varint cellsCount], and
+ * then cells, 2 per group: [code of cell 2i | code of cell 2i+1 << 4][bytes of
+ * cell 2i][bytes of cell 2i+1]. Code 0..8 means that many low bytes of zigzag(value)
+ * follow, code 9..15 means value has only (code-8) high bytes non-zero, and they
+ * follow -- it's how doubles usually look. Timestamp cells are delta-encoded: LOG_RECORD
+ * timestamp against previous LOG_RECORD timestamp, TIMESTAMP value against previous
+ * TIMESTAMP value. Deltas start from 0 at each block, so each block is decodable
+ * alone.
+ * <p/>
+ * Encoder also tracks last TIMESTAMP value seen, so block written could be
+ * prefixed with the anchor its timestamps are relative to (see {@linkplain CompressingRawWriter})
+ */
+@NotThreadSafe
+final class BlockCodec {
+	/** type, level, varint formatId, varint cellsCount */
+	private static final int MAX_HEADER_BYTES = 1 + 1 + 5 + 3;
+
+	private byte[] encoded = new byte[1024];
+
+	private boolean anchorKnown = false;
+	private long anchor = 0;
+
+	/** @return true if some TIMESTAMP record was encoded already */
+	public boolean anchorKnown() {
+		return anchorKnown;
+	}
+
+	/** @return value of last TIMESTAMP record encoded */
+	public long anchor() {
+		return anchor;
+	}
+
+	/** encoded bytes are in [0, length) */
+	public byte[] encoded() {
+		return encoded;
+	}
+
+	/**
+	 * Encodes complete records in [from, to) of records buffer
+	 *
+	 * @return length of encoded data in {@linkplain #encoded()}
+	 * @throws IOException if invalid header met
+	 */
+	public int encode( final ByteBuffer records,
+	                   final int from,
+	                   final int to ) throws IOException {
+		final int rawBytes = to - from;
+		ensureCapacity( rawBytes + rawBytes / 16 + MAX_HEADER_BYTES );
+
+		long lastTimestamp = 0;
+		long lastAnchor = 0;
+		int out = 0;
+		int position = from;
+		while( position < to ) {
+			final long header = records.getLong( position );
+			if( !isValidHeader( header ) ) {
+				throw new IOException( "Invalid header " + Long.toHexString( header ) + " at " + position );
+			}
+			final RecordType type = type( header );
+			final int cellsCount = cellsCount( header );
+			if( position + ( cellsCount + 1 ) * 8 > to ) {
+				throw new IOException( "Record at " + position + " is incomplete: records must not span flush" );
+			}
+			ensureCapacity( out + MAX_HEADER_BYTES + cellsCount * 9 + 1 );
+
+			encoded[out++] = type.id();
+			encoded[out++] = ( byte ) level( header );
+			out = putVarint( encoded, out, formatId( header ) & 0xFFFFFFFFL );
+			out = putVarint( encoded, out, cellsCount );
+
+			final int cellsStart = position + 8;
+			for( int i = 0; i < cellsCount; i += 2 ) {
+				final int codes = out++;
+				final long first = delta( records.getLong( cellsStart + i * 8 ), i, type, lastTimestamp, lastAnchor );
+				int code = cellCode( first );
+				out = putCell( encoded, out, first, code );
+				if( i + 1 < cellsCount ) {
+					final long second = records.getLong( cellsStart + ( i + 1 ) * 8 );
+					final int secondCode = cellCode( second );
+					out = putCell( encoded, out, second, secondCode );
+					code |= secondCode << 4;
+				}
+				encoded[codes] = ( byte ) code;
+			}
+
+			if( cellsCount > 0 && type == RecordType.LOG_RECORD ) {
+				lastTimestamp = records.getLong( cellsStart );
+			} else if( cellsCount > 0 && type == RecordType.TIMESTAMP ) {
+				lastAnchor = records.getLong( cellsStart );
+				anchor = lastAnchor;
+				anchorKnown = true;
+			}
+			position = cellsStart + cellsCount * 8;
+		}
+		return out;
+	}
+
+	private static long delta( final long cell,
+	                           final int index,
+	                           final RecordType type,
+	                           final long lastTimestamp,
+	                           final long lastAnchor ) {
+		if( index != 0 ) {
+			return cell;
+		}
+		if( type == RecordType.LOG_RECORD ) {
+			return cell - lastTimestamp;
+		} else if( type == RecordType.TIMESTAMP ) {
+			return cell - lastAnchor;
+		}
+		return cell;
+	}
+
+	/**
+	 * Decodes data encoded by {@linkplain #encode(ByteBuffer, int, int)} into
+	 * records, appending them to output
+	 *
+	 * @throws IOException if data is corrupted
+	 */
+	public static void decode( final byte[] data,
+	                           final int offset,
+	                           final int length,
+	                           final ByteBuffer output ) throws IOException {
+		final int end = offset + length;
+		final long[] value = new long[1];
+
+		long lastTimestamp = 0;
+		long lastAnchor = 0;
+		int in = offset;
+		try {
+			while( in < end ) {
+				final long header = ( ( data[in++] & 0xFFL ) << 48 ) | ( ( data[in++] & 0x7FL ) << 56 );
+				in = getVarint( data, in, value );
+				final long formatId = value[0];
+				in = getVarint( data, in, value );
+				final long cellsCount = value[0];
+				if( formatId > 0xFFFFFFFFL || cellsCount > 0xFFFF ) {
+					throw new IOException( "Block corrupted at " + in );
+				}
+				output.putLong( header | ( formatId << 16 ) | cellsCount );
+				final RecordType type = type( header );
+
+				int codes = 0;
+				for( int i = 0; i < cellsCount; i++ ) {
+					if( ( i & 1 ) == 0 ) {
+						codes = data[in++];
+					}
+					in = getCell( data, in, codes & 0xF, value );
+					codes >>= 4;
+					long cell = value[0];
+					if( i == 0 && type == RecordType.LOG_RECORD ) {
+						cell += lastTimestamp;
+						lastTimestamp = cell;
+					} else if( i == 0 && type == RecordType.TIMESTAMP ) {
+						cell += lastAnchor;
+						lastAnchor = cell;
+					}
+					output.putLong( cell );
+				}
+			}
+		} catch( IllegalArgumentException e ) {
+			//unknown record type
+			throw new IOException( "Block corrupted at " + in, e );
+		} catch( IndexOutOfBoundsException e ) {
+			throw new IOException( "Block corrupted: truncated", e );
+		}
+		if( in != end ) {
+			throw new IOException( "Block corrupted: " + ( in - end ) + " bytes beyond end" );
+		}
+	}
+
+	/** @return 0..8 -- zigzag bytes, 9..15 -- 8 + high bytes of raw value */
+	private static int cellCode( final long value ) {
+		final long zigzag = ( value << 1 ) ^ ( value >> 63 );
+		final int zigzagBytes = ( 64 - Long.numberOfLeadingZeros( zigzag ) + 7 ) >>> 3;
+		if( zigzagBytes <= 1 ) {
+			return zigzagBytes;
+		}
+		final int highBytes = 8 - ( Long.numberOfTrailingZeros( value ) >>> 3 );
+		if( highBytes < zigzagBytes && highBytes < 8 ) {
+			return 8 + highBytes;
+		}
+		return zigzagBytes;
+	}
+
+	private static int putCell( final byte[] out,
+	                            final int position,
+	                            final long value,
+	                            final int code ) {
+		if( code <= 8 ) {
+			final long zigzag = ( value << 1 ) ^ ( value >> 63 );
+			return putBytes( out, position, zigzag, code );
+		}
+		final int highBytes = code - 8;
+		return putBytes( out, position, value >>> ( ( 8 - highBytes ) << 3 ), highBytes );
+	}
+
+	private static int getCell( final byte[] in,
+	                            final int position,
+	                            final int code,
+	                            final long[] value ) {
+		if( code <= 8 ) {
+			final long zigzag = getBytes( in, position, code );
+			value[0] = ( zigzag >>> 1 ) ^ -( zigzag & 1 );
+			return position + code;
+		}
+		final int highBytes = code - 8;
+		value[0] = getBytes( in, position, highBytes ) << ( ( 8 - highBytes ) << 3 );
+		return position + highBytes;
+	}
+
+	/** low count bytes of value, little-endian */
+	private static int putBytes( final byte[] out,
+	                             final int position,
+	                             final long value,
+	                             final int count ) {
+		for( int i = 0; i < count; i++ ) {
+			out[position + i] = ( byte ) ( value >>> ( i << 3 ) );
+		}
+		return position + count;
+	}
+
+	private static long getBytes( final byte[] in,
+	                              final int position,
+	                              final int count ) {
+		long value = 0;
+		for( int i = 0; i < count; i++ ) {
+			value |= ( in[position + i] & 0xFFL ) << ( i << 3 );
+		}
+		return value;
+	}
+
+	private static int putVarint( final byte[] out,
+	                              final int position,
+	                              final long value ) {
+		int pos = position;
+		long rest = value;
+		while( ( rest & ~0x7FL ) != 0 ) {
+			out[pos++] = ( byte ) ( ( rest & 0x7F ) | 0x80 );
+			rest >>>= 7;
+		}
+		out[pos++] = ( byte ) rest;
+		return pos;
+	}
+
+	private static int getVarint( final byte[] in,
+	                              final int position,
+	                              final long[] value ) {
+		int pos = position;
+		long result = 0;
+		for( int shift = 0; ; shift += 7 ) {
+			final byte b = in[pos++];
+			result |= ( b & 0x7FL ) << shift;
+			if( b >= 0 ) {
+				break;
+			}
+			if( shift > 56 ) {
+				throw new IllegalArgumentException( "varint is too long" );
+			}
+		}
+		value[0] = result;
+		return pos;
+	}
+
+	private void ensureCapacity( final int required ) {
+		if( encoded.length < required ) {
+			encoded = Arrays.copyOf( encoded, Math.max( required, encoded.length * 2 ) );
+		}
+	}
+}
@@ -0,0 +1,209 @@
+package com.db.logger.api.impl.io;
+
+import java.io.*;
+
+import com.db.logger.api.impl.logger.MessageInfo;
+import com.db.logger.api.impl.logger.RecordHelper.RecordType;
+import com.google.common.base.Charsets;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Writes catalog of message formats alongside binary log, so binary records (which
+ * contain only formatId) could be decoded offline. Catalog is plain UTF-8 text, one
+ * entry per line:
+ * <pre>
+ *     F &lt;tab&gt; formatId &lt;tab&gt; argumentsCount &lt;tab&gt; format
+ *     S &lt;tab&gt; symbolId &lt;tab&gt; symbol
+ *     T &lt;tab&gt; traceId &lt;tab&gt; stack trace
+ *     R &lt;tab&gt; runId
+ * </pre>
+ * Each distinct stack trace is written once: logged Throwable itself is written
+ * into binary log, with id of it's trace (see {@linkplain RecordType#THROWABLE}).
+ * Text fields are escaped: '\\', '\t', '\n', '\r' are written as "\\\\", "\\t", "\\n", "\\r"
+ * <p/>
+ * Catalog is append-only: entries are written as they appear, and flushed
+ * immediately, so catalog is always ahead of binary log records referencing it.
+ * <p/>
+ * Ids restart in each process (and each drainer of it), while the same catalog
+ * file (and binary log, see {@linkplain MappedFileWriter}) could be continued, so
+ * drainer starts it's entries by R entry, and it's records by RUN record of the
+ * same run id (see {@linkplain #writeRun(long)}). Entries are looked up in the run
+ * of last RUN record decoded, or in the last run, if there were none (see
+ * {@linkplain DecodingCatalog#selectRun(long)}).
+ * <p/>
+ * Entries could be also mirrored into in-process {@linkplain DecodingCatalog}, for
+ * appenders rendering records on the fly (see {@linkplain TextAppender}). Use
+ * {@linkplain com.google.common.io.CharStreams#nullWriter()} as writer if only
+ * mirror is needed
+ */
+public class CatalogWriter implements Flushable, Closeable {
+	public static final char MESSAGE_ENTRY = 'F';
+	public static final char SYMBOL_ENTRY = 'S';
+	public static final char TRACE_ENTRY = 'T';
+	public static final char RUN_ENTRY = 'R';
+	public static final char FIELDS_SEPARATOR = '\t';
+
+	private final Writer writer;
+	/** may be null */
+	private final DecodingCatalog mirror;
+
+	public CatalogWriter( final File file ) throws IOException {
+		this(
+				new BufferedWriter(
+						new OutputStreamWriter(
+								new FileOutputStream( file, /*append=*/true ),
+								Charsets.UTF_8
+						)
+				)
+		);
+	}
+
+	public CatalogWriter( final Writer writer ) {
+		this( writer, null );
+	}
+
+	/** @param mirror each entry written is also added here. May be null */
+	public CatalogWriter( final Writer writer,
+	                      final DecodingCatalog mirror ) {
+		checkArgument( writer != null, "writer can't be null" );
+		this.writer = writer;
+		this.mirror = mirror;
+	}
+
+	public void writeMessage( final MessageInfo messageInfo ) throws IOException {
+		writer.append( MESSAGE_ENTRY )
+				.append( FIELDS_SEPARATOR )
+				.append( String.valueOf( messageInfo.formatId ) )
+				.append( FIELDS_SEPARATOR )
+				.append( String.valueOf( messageInfo.argumentsCount ) )
+				.append( FIELDS_SEPARATOR );
+		escape( messageInfo.format, writer );
+		writer.append( '\n' );
+		if( mirror != null ) {
+			mirror.add( messageInfo );
+		}
+	}
+
+	public void writeSymbol( final int symbolId,
+	                         final String symbol ) throws IOException {
+		writer.append( SYMBOL_ENTRY )
+				.append( FIELDS_SEPARATOR )
+				.append( String.valueOf( symbolId ) )
+				.append( FIELDS_SEPARATOR );
+		escape( symbol, writer );
+		writer.append( '\n' );
+		if( mirror != null ) {
+			mirror.addSymbol( symbolId, symbol );
+		}
+	}
+
+	public void writeTrace( final int traceId,
+	                        final String trace ) throws IOException {
+		writer.append( TRACE_ENTRY )
+				.append( FIELDS_SEPARATOR )
+				.append( String.valueOf( traceId ) )
+				.append( FIELDS_SEPARATOR );
+		escape( trace, writer );
+		writer.append( '\n' );
+		if( mirror != null ) {
+			mirror.addTrace( traceId, trace );
+		}
+	}
+
+	/**
+	 * Throwable is written into binary log, not into catalog, so it is only added
+	 * to mirror, if any: appenders render records before THROWABLE record follows
+	 */
+	public void mirrorThrowable( final int throwableId,
+	                             final int traceId,
+	                             final String description ) {
+		if( mirror != null ) {
+			mirror.addThrowable( throwableId, traceId, description );
+		}
+	}
+
+	/**
+	 * Trace is evicted from drainer's table, and it's id is never used again in
+	 * this run: it is removed from mirror, if any, so mirror does not grow
+	 */
+	public void forgetTrace( final int traceId ) {
+		if( mirror != null ) {
+			mirror.removeTrace( traceId );
+		}
+	}
+
+	/**
+	 * Entries written after this one, up to the next R entry, belong to the run.
+	 * Mirror is not affected: it is filled by this process only, so it has no runs
+	 */
+	public void writeRun( final long runId ) throws IOException {
+		writer.append( RUN_ENTRY )
+				.append( FIELDS_SEPARATOR )
+				.append( String.valueOf( runId ) )
+				.append( '\n' );
+	}
+
+	@Override
+	public void flush() throws IOException {
+		writer.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		writer.close();
+	}
+
+	static void escape( final CharSequence value,
+	                    final Writer writer ) throws IOException {
+		for( int i = 0; i < value.length(); i++ ) {
+			final char ch = value.charAt( i );
+			switch( ch ) {
+				case '\\':
+					writer.append( "\\\\" );
+					break;
+				case '\t':
+					writer.append( "\\t" );
+					break;
+				case '\n':
+					writer.append( "\\n" );
+					break;
+				case '\r':
+					writer.append( "\\r" );
+					break;
+				default:
+					writer.append( ch );
+			}
+		}
+	}
+
+	static String unescape( final String value ) {
+		if( value.indexOf( '\\' ) < 0 ) {
+			return value;
+		}
+		final StringBuilder sb = new StringBuilder( value.length() );
+		for( int i = 0; i < value.length(); i++ ) {
+			final char ch = value.charAt( i );
+			if( ch == '\\' && i + 1 < value.length() ) {
+				i++;
+				final char escaped = value.charAt( i );
+				switch( escaped ) {
+					case 't':
+						sb.append( '\t' );
+						break;
+					case 'n':
+						sb.append( '\n' );
+						break;
+					case 'r':
+						sb.append( '\r' );
+						break;
+					default:
+						sb.append( escaped );
+				}
+			} else {
+				sb.append( ch );
+			}
+		}
+		return sb.toString();
+	}
+}
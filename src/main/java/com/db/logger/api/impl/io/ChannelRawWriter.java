@@ -0,0 +1,69 @@
+package com.db.logger.api.impl.io;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * {@linkplain RawWriter} over channel (usually file), with direct buffer. Chunks
+ * are written to channel directly, so it's zero-copy for direct memory chunks
+ */
+@NotThreadSafe
+public class ChannelRawWriter implements ChunkedRawWriter {
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+	private final ByteBuffer buffer;
+	private final WritableByteChannel channel;
+
+	public ChannelRawWriter( final File file ) throws IOException {
+		this( new FileOutputStream( file ).getChannel(), DEFAULT_BUFFER_SIZE );
+	}
+
+	public ChannelRawWriter( final WritableByteChannel channel,
+	                         final int bufferSize ) {
+		checkArgument( channel != null, "channel can't be null" );
+		checkArgument( bufferSize > 0, "bufferSize(%s) must be > 0", bufferSize );
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect( bufferSize ).order( ByteOrder.nativeOrder() );
+	}
+
+	@Override
+	public ByteBuffer buffer() {
+		return buffer;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		buffer.flip();
+		writeFully( buffer );
+		buffer.clear();
+	}
+
+	@Override
+	public void write( final ByteBuffer chunk ) throws IOException {
+		if( buffer.position() > 0 ) {
+			flush();
+		}
+		writeFully( chunk );
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void writeFully( final ByteBuffer data ) throws IOException {
+		while( data.hasRemaining() ) {
+			channel.write( data );
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package com.db.logger.api.impl.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@linkplain RawWriter} which could also write chunk of (off-heap) memory
+ * directly, without copying it into {@linkplain #buffer()} first -- so drainer
+ * could hand region of ring buffer to it as is.
+ */
+public interface ChunkedRawWriter extends RawWriter {
+	/**
+	 * Writes chunk [position, limit) after all the content written to
+	 * {@linkplain #buffer()} so far. Chunk content is not retained after return.
+	 * Buffer must be re-get by {@linkplain #buffer()} after call
+	 */
+	public void write( final ByteBuffer chunk ) throws IOException;
+}
@@ -0,0 +1,146 @@
+package com.db.logger.api.impl.io;
+
+import java.io.*;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import static com.db.logger.api.impl.io.CompressingRawWriter.*;
+import static com.db.logger.api.impl.logger.RecordHelper.timestampHeader;
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Reads blocks written by {@linkplain CompressingRawWriter}, and decodes them
+ * back into records, block by block. Channel could be positioned at start of
+ * any block: blocks are independent, and each block of records is prefixed with
+ * TIMESTAMP record its timestamps are relative to (if there was one before it).
+ * <p/>
+ * Zero magic is treated as end of data (zero-filled tail of pre-allocated
+ * file), as well as incomplete last block
+ */
+@NotThreadSafe
+public class CompressedLogReader implements Closeable {
+	private final ReadableByteChannel channel;
+
+	private final ByteBuffer frameHeader = ByteBuffer.allocate( FRAME_HEADER_BYTES + 8 )
+			.order( ByteOrder.LITTLE_ENDIAN );
+	private byte[] payload = new byte[0];
+	private byte[] encoded = new byte[0];
+	private ByteBuffer records = ByteBuffer.allocate( 0 );
+
+	public CompressedLogReader( final File file ) throws IOException {
+		this( new FileInputStream( file ).getChannel() );
+	}
+
+	public CompressedLogReader( final ReadableByteChannel channel ) {
+		checkArgument( channel != null, "channel can't be null" );
+		this.channel = channel;
+	}
+
+	/** @return true if file starts with block written by {@linkplain CompressingRawWriter} */
+	public static boolean isCompressed( final File file ) throws IOException {
+		final DataInputStream input = new DataInputStream( new FileInputStream( file ) );
+		try {
+			final byte[] magic = new byte[4];
+			input.readFully( magic );
+			return ByteBuffer.wrap( magic ).order( ByteOrder.LITTLE_ENDIAN ).getInt() == MAGIC;
+		} catch( EOFException e ) {
+			return false;
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * @return records of next block, in native byte order, valid until next call,
+	 * or null if there are no more (complete) blocks
+	 * @throws IOException if block is corrupted
+	 */
+	public ByteBuffer nextBlock() throws IOException {
+		frameHeader.clear().limit( FRAME_HEADER_BYTES );
+		if( !readFully( frameHeader ) ) {
+			return null;
+		}
+		final int magic = frameHeader.getInt( 0 );
+		if( magic == 0 ) {
+			return null;
+		}
+		if( magic != MAGIC ) {
+			throw new IOException( "Invalid block magic " + Integer.toHexString( magic ) + ": stream corrupted?" );
+		}
+		final int flags = frameHeader.get( 4 );
+		final int rawBytes = frameHeader.getInt( 5 );
+		final int encodedBytes = frameHeader.getInt( 9 );
+		final int payloadBytes = frameHeader.getInt( 13 );
+		if( rawBytes < 0 || encodedBytes < 0 || payloadBytes < 0 ) {
+			throw new IOException( "Invalid block lengths: stream corrupted?" );
+		}
+		final boolean anchored = ( flags & FLAG_ANCHOR ) != 0;
+		long anchor = 0;
+		if( anchored ) {
+			frameHeader.limit( FRAME_HEADER_BYTES + 8 );
+			if( !readFully( frameHeader ) ) {
+				return null;
+			}
+			anchor = frameHeader.getLong( FRAME_HEADER_BYTES );
+		}
+
+		if( payload.length < payloadBytes ) {
+			payload = new byte[payloadBytes];
+		}
+		if( !readFully( ByteBuffer.wrap( payload, 0, payloadBytes ) ) ) {
+			return null;
+		}
+
+		byte[] data = payload;
+		if( ( flags & FLAG_LZ ) != 0 ) {
+			if( encoded.length < encodedBytes ) {
+				encoded = new byte[encodedBytes];
+			}
+			final int decompressed = LzCodec.decompress( payload, 0, payloadBytes, encoded );
+			if( decompressed != encodedBytes ) {
+				throw new IOException( "Block decompressed to " + decompressed + " bytes, instead of " + encodedBytes );
+			}
+			data = encoded;
+		} else if( payloadBytes != encodedBytes ) {
+			throw new IOException( "Uncompressed block payload " + payloadBytes + " != " + encodedBytes );
+		}
+
+		final int capacity = rawBytes + ( anchored ? 16 : 0 );
+		if( records.capacity() < capacity ) {
+			records = ByteBuffer.allocate( capacity ).order( ByteOrder.nativeOrder() );
+		}
+		records.clear();
+		if( anchored ) {
+			records.putLong( timestampHeader() ).putLong( anchor );
+		}
+		try {
+			BlockCodec.decode( data, 0, encodedBytes, records );
+		} catch( BufferOverflowException e ) {
+			throw new IOException( "Block decoded to more than " + rawBytes + " bytes", e );
+		}
+		if( records.position() != capacity ) {
+			throw new IOException( "Block decoded to " + records.position() + " bytes, instead of " + capacity );
+		}
+		records.flip();
+		return records;
+	}
+
+	/** @return false if end of stream is met before buffer is filled */
+	private boolean readFully( final ByteBuffer buffer ) throws IOException {
+		while( buffer.hasRemaining() ) {
+			if( channel.read( buffer ) < 0 ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
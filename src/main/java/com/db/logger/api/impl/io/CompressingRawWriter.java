@@ -0,0 +1,171 @@
+package com.db.logger.api.impl.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * {@linkplain RawWriter} stage which compresses records block by block before
+ * passing them to underlying writer. Each {@linkplain #flush()} turns records
+ * collected in {@linkplain #buffer()} into a block: cells are delta- and
+ * varint-encoded (see {@linkplain BlockCodec}), and then, optionally, LZ-compressed
+ * (see {@linkplain LzCodec}) -- if it makes the block smaller.
+ * <p/>
+ * Block frame is [magic x4][flags x1][raw bytes x4][encoded bytes x4][payload bytes x4][anchor x8, if FLAG_ANCHOR][payload],
+ * little-endian. Blocks do not depend on each other: delta-encoding starts anew
+ * in each block, and block carries last TIMESTAMP value written before it, so
+ * reader could start from any block (see {@linkplain CompressedLogReader}), i.e.
+ * file could be split by blocks and decoded in parallel. Block is not split across
+ * underlying writer flushes, unless it does not fit into empty underlying buffer
+ * <p/>
+ * Records must not span {@linkplain #flush()} -- drainer never does it
+ */
+@NotThreadSafe
+public class CompressingRawWriter implements RawWriter {
+	public static final int DEFAULT_BLOCK_SIZE = 1 << 16;
+	/** run LZ pass over delta-encoded blocks */
+	public static final boolean DEFAULT_LZ = Boolean.parseBoolean( System.getProperty( "compress-lz", "true" ) );
+
+	/** 'FLB1' */
+	static final int MAGIC = 0x31424C46;
+	static final int FLAG_LZ = 1;
+	static final int FLAG_ANCHOR = 2;
+	/** without anchor */
+	static final int FRAME_HEADER_BYTES = 4 + 1 + 4 + 4 + 4;
+
+	private final RawWriter output;
+	private final ByteBuffer buffer;
+
+	private final BlockCodec codec = new BlockCodec();
+	/** null if LZ pass is off */
+	private final LzCodec lz;
+	private byte[] compressed = new byte[0];
+	private final byte[] frameHeader = new byte[FRAME_HEADER_BYTES + 8];
+
+	private long rawBytes = 0;
+	private long writtenBytes = 0;
+
+	public CompressingRawWriter( final RawWriter output ) {
+		this( output, DEFAULT_BLOCK_SIZE, DEFAULT_LZ );
+	}
+
+	public CompressingRawWriter( final RawWriter output,
+	                             final int blockSize,
+	                             final boolean lz ) {
+		checkArgument( output != null, "output can't be null" );
+		checkArgument( blockSize > 0, "blockSize(%s) must be > 0", blockSize );
+		this.output = output;
+		this.buffer = ByteBuffer.allocate( blockSize ).order( ByteOrder.nativeOrder() );
+		this.lz = lz ? new LzCodec() : null;
+	}
+
+	@Override
+	public ByteBuffer buffer() {
+		return buffer;
+	}
+
+	/** Compresses records written so far into block, and flushes underlying writer */
+	@Override
+	public void flush() throws IOException {
+		if( buffer.position() > 0 ) {
+			writeBlock();
+			buffer.clear();
+		}
+		output.flush();
+	}
+
+	private void writeBlock() throws IOException {
+		final boolean anchorKnown = codec.anchorKnown();
+		final long anchor = codec.anchor();
+		final int blockBytes = buffer.position();
+		final int encodedBytes = codec.encode( buffer, 0, blockBytes );
+
+		int flags = anchorKnown ? FLAG_ANCHOR : 0;
+		byte[] payload = codec.encoded();
+		int payloadBytes = encodedBytes;
+		if( lz != null ) {
+			final int maxCompressed = LzCodec.maxCompressedLength( encodedBytes );
+			if( compressed.length < maxCompressed ) {
+				compressed = new byte[maxCompressed];
+			}
+			final int compressedBytes = lz.compress( payload, encodedBytes, compressed );
+			if( compressedBytes < encodedBytes ) {
+				flags |= FLAG_LZ;
+				payload = compressed;
+				payloadBytes = compressedBytes;
+			}
+		}
+
+		int headerBytes = putInt( frameHeader, 0, MAGIC );
+		frameHeader[headerBytes++] = ( byte ) flags;
+		headerBytes = putInt( frameHeader, headerBytes, blockBytes );
+		headerBytes = putInt( frameHeader, headerBytes, encodedBytes );
+		headerBytes = putInt( frameHeader, headerBytes, payloadBytes );
+		if( anchorKnown ) {
+			headerBytes = putInt( frameHeader, headerBytes, ( int ) anchor );
+			headerBytes = putInt( frameHeader, headerBytes, ( int ) ( anchor >>> 32 ) );
+		}
+
+		if( output.buffer().remaining() < headerBytes + payloadBytes ) {
+			output.flush();
+		}
+		write( frameHeader, headerBytes );
+		write( payload, payloadBytes );
+
+		rawBytes += blockBytes;
+		writtenBytes += headerBytes + payloadBytes;
+	}
+
+	/** spans underlying flushes, if needed */
+	private void write( final byte[] data,
+	                    final int length ) throws IOException {
+		ByteBuffer out = output.buffer();
+		for( int written = 0; written < length; ) {
+			if( !out.hasRemaining() ) {
+				output.flush();
+				out = output.buffer();
+			}
+			final int bytes = Math.min( out.remaining(), length - written );
+			out.put( data, written, bytes );
+			written += bytes;
+		}
+	}
+
+	private static int putInt( final byte[] data,
+	                           final int position,
+	                           final int value ) {
+		data[position] = ( byte ) value;
+		data[position + 1] = ( byte ) ( value >>> 8 );
+		data[position + 2] = ( byte ) ( value >>> 16 );
+		data[position + 3] = ( byte ) ( value >>> 24 );
+		return position + 4;
+	}
+
+	/** @return bytes of records compressed so far */
+	public long rawBytes() {
+		return rawBytes;
+	}
+
+	/** @return bytes of blocks (with frame headers) written to underlying writer so far */
+	public long writtenBytes() {
+		return writtenBytes;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			output.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "CompressingRawWriter[" + output + "]";
+	}
+}
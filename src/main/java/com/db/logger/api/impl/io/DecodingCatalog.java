@@ -0,0 +1,224 @@
+package com.db.logger.api.impl.io;
+
+import java.io.*;
+
+import com.db.logger.api.impl.logger.MessageInfo;
+import com.google.common.base.Charsets;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import static com.db.logger.api.impl.io.CatalogWriter.FIELDS_SEPARATOR;
+import static com.db.logger.api.impl.io.CatalogWriter.MESSAGE_ENTRY;
+import static com.db.logger.api.impl.io.CatalogWriter.RUN_ENTRY;
+import static com.db.logger.api.impl.io.CatalogWriter.SYMBOL_ENTRY;
+import static com.db.logger.api.impl.io.CatalogWriter.TRACE_ENTRY;
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Offline counterpart of {@linkplain com.db.logger.api.impl.logger.MessagesCatalog}:
+ * formatId -> MessageInfo, symbolId -> symbol and traceId -> stack trace
+ * mappings, loaded from catalog written by {@linkplain CatalogWriter}.
+ * <p/>
+ * Logged Throwables are in binary log, not in catalog: only mirror has them (see
+ * {@linkplain CatalogWriter#mirrorThrowable(int, int, String)}), and only
+ * {@linkplain #MAX_MIRRORED_THROWABLES} last ones.
+ * <p/>
+ * Catalog could have entries of a few runs (see {@linkplain CatalogWriter#writeRun(long)}),
+ * which ids overlap: entries are looked up in the selected run only.
+ * <p/>
+ * Thread-safe: it could be filled by drainer (as mirror, see
+ * {@linkplain CatalogWriter#CatalogWriter(Writer, DecodingCatalog)}) while
+ * appenders read it
+ */
+public class DecodingCatalog {
+	/** Throwables older than this many ids are removed from mirror */
+	public static final int MAX_MIRRORED_THROWABLES = Integer.getInteger( "mirrored-throwables", 4096 );
+
+	/** runs by id, see {@linkplain CatalogWriter#writeRun(long)}. Empty for mirror */
+	private final TLongObjectMap<Run> runs = new TLongObjectHashMap<Run>();
+	/** entries are added to */
+	private Run filling = new Run();
+	/** entries are looked up in: the last run, until other one is selected */
+	private Run current = filling;
+
+	public static DecodingCatalog load( final File file ) throws IOException {
+		final Reader reader = new InputStreamReader(
+				new FileInputStream( file ),
+				Charsets.UTF_8
+		);
+		try {
+			return load( reader );
+		} finally {
+			reader.close();
+		}
+	}
+
+	public static DecodingCatalog load( final Reader reader ) throws IOException {
+		final DecodingCatalog catalog = new DecodingCatalog();
+		final BufferedReader lines = new BufferedReader( reader );
+		for( String line = lines.readLine(); line != null; line = lines.readLine() ) {
+			if( line.isEmpty() ) {
+				continue;
+			}
+			catalog.parseEntry( line );
+		}
+		return catalog;
+	}
+
+	public synchronized MessageInfo messageInfo( final int formatId ) {
+		return current.messages.get( formatId );
+	}
+
+	public synchronized void add( final MessageInfo messageInfo ) {
+		checkArgument( messageInfo != null, "messageInfo can't be null" );
+		filling.messages.put( messageInfo.formatId, messageInfo );
+	}
+
+	/** @return symbol by id, or null, if unknown */
+	public synchronized String symbol( final int symbolId ) {
+		return current.symbols.get( symbolId );
+	}
+
+	public synchronized void addSymbol( final int symbolId,
+	                       final String symbol ) {
+		checkArgument( symbol != null, "symbol can't be null" );
+		filling.symbols.put( symbolId, symbol );
+	}
+
+	/** @return description and stack trace of Throwable, as printStackTrace() prints it, or null, if unknown */
+	public synchronized String throwable( final int throwableId ) {
+		final String description = throwableDescription( throwableId );
+		if( description == null ) {
+			return null;
+		}
+		return throwable( description, throwableTrace( throwableId ) );
+	}
+
+	/** @param trace may be null, if unknown */
+	static String throwable( final String description,
+	                         final String trace ) {
+		if( trace == null || trace.isEmpty() ) {
+			return description;
+		}
+		return description + '\n' + trace;
+	}
+
+	/** @return Throwable.toString(), or null, if unknown */
+	public synchronized String throwableDescription( final int throwableId ) {
+		return current.throwableDescriptions.get( throwableId );
+	}
+
+	/** @return stack trace of Throwable, without description line, or null, if unknown */
+	public synchronized String throwableTrace( final int throwableId ) {
+		if( !current.throwableTraces.containsKey( throwableId ) ) {
+			return null;
+		}
+		return current.traces.get( current.throwableTraces.get( throwableId ) );
+	}
+
+	/** @return stack trace, without description line, or null, if unknown */
+	public synchronized String trace( final int traceId ) {
+		return current.traces.get( traceId );
+	}
+
+	public synchronized void addTrace( final int traceId,
+	                      final String trace ) {
+		checkArgument( trace != null, "trace can't be null" );
+		filling.traces.put( traceId, trace );
+	}
+
+	public synchronized void removeTrace( final int traceId ) {
+		filling.traces.remove( traceId );
+	}
+
+	/** Throwable with id less by {@linkplain #MAX_MIRRORED_THROWABLES}, if any, is removed */
+	public synchronized void addThrowable( final int throwableId,
+	                          final int traceId,
+	                          final String description ) {
+		checkArgument( description != null, "description can't be null" );
+		filling.throwableTraces.put( throwableId, traceId );
+		filling.throwableDescriptions.put( throwableId, description );
+		filling.throwableTraces.remove( throwableId - MAX_MIRRORED_THROWABLES );
+		filling.throwableDescriptions.remove( throwableId - MAX_MIRRORED_THROWABLES );
+	}
+
+	/** entries added after this call belong to the run, and are looked up by default */
+	public synchronized void startRun( final long runId ) {
+		filling = new Run();
+		current = filling;
+		runs.put( runId, filling );
+	}
+
+	/**
+	 * Entries are looked up in the run from now on. If catalog has no runs (e.g. it
+	 * is mirror) call is ignored. If run is unknown (catalog is truncated?) nothing
+	 * is found, rather than entries of other run
+	 *
+	 * @return true if run is known, or catalog has no runs
+	 */
+	public synchronized boolean selectRun( final long runId ) {
+		if( runs.isEmpty() ) {
+			return true;
+		}
+		final Run run = runs.get( runId );
+		current = ( run != null ) ? run : new Run();
+		return run != null;
+	}
+
+	private void parseEntry( final String line ) throws IOException {
+		final String[] fields = line.split( String.valueOf( FIELDS_SEPARATOR ), -1 );
+		final char type = fields[0].charAt( 0 );
+		switch( type ) {
+			case MESSAGE_ENTRY: {
+				if( fields.length != 4 ) {
+					throw new IOException( "Malformed catalog entry: [" + line + "]" );
+				}
+				final int formatId = Integer.parseInt( fields[1] );
+				final int argumentsCount = Integer.parseInt( fields[2] );
+				final String format = CatalogWriter.unescape( fields[3] );
+				try {
+					add( new MessageInfo( format, argumentsCount, formatId ) );
+				} catch( IllegalArgumentException e ) {
+					throw new IOException( "Malformed catalog entry: [" + line + "]", e );
+				}
+				break;
+			}
+			case SYMBOL_ENTRY: {
+				if( fields.length != 3 ) {
+					throw new IOException( "Malformed catalog entry: [" + line + "]" );
+				}
+				addSymbol( Integer.parseInt( fields[1] ), CatalogWriter.unescape( fields[2] ) );
+				break;
+			}
+			case TRACE_ENTRY: {
+				if( fields.length != 3 ) {
+					throw new IOException( "Malformed catalog entry: [" + line + "]" );
+				}
+				addTrace( Integer.parseInt( fields[1] ), CatalogWriter.unescape( fields[2] ) );
+				break;
+			}
+			case RUN_ENTRY: {
+				if( fields.length != 2 ) {
+					throw new IOException( "Malformed catalog entry: [" + line + "]" );
+				}
+				startRun( Long.parseLong( fields[1] ) );
+				break;
+			}
+			default:
+				throw new IOException( "Unknown catalog entry type: [" + line + "]" );
+		}
+	}
+
+	private static final class Run {
+		private final TIntObjectMap<MessageInfo> messages = new TIntObjectHashMap<MessageInfo>();
+		private final TIntObjectMap<String> symbols = new TIntObjectHashMap<String>();
+		private final TIntObjectMap<String> traces = new TIntObjectHashMap<String>();
+		/** throwableId -> traceId */
+		private final TIntIntMap throwableTraces = new TIntIntHashMap();
+		private final TIntObjectMap<String> throwableDescriptions = new TIntObjectHashMap<String>();
+	}
+}
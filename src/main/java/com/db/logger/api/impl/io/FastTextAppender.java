@@ -0,0 +1,520 @@
+package com.db.logger.api.impl.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+import com.db.logger.api.Level;
+import com.db.logger.api.impl.logger.MessageInfo;
+import com.db.logger.api.impl.logger.MessageTemplate;
+import com.google.common.base.Charsets;
+import net.jcip.annotations.NotThreadSafe;
+
+import static com.db.logger.api.impl.logger.RecordHelper.*;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Renders records as UTF-8 text, same lines as {@linkplain LogDecoder} does, but
+ * straight into {@linkplain RawWriter#buffer()}: no Strings, no StringBuilder, no
+ * {@linkplain java.util.Formatter} on the common path. Templates are taken from
+ * catalog mirrored in-process (see {@linkplain CatalogWriter#CatalogWriter(java.io.Writer, DecodingCatalog)}),
+ * so they are the very {@linkplain MessageTemplate}s parsed by MessagesCatalog at
+ * registration. Numbers are rendered by {@linkplain AsciiNumbers} into reused
+ * scratch array, 'yyyy-MM-dd HH:mm:ss' is re-computed only once a second, string
+ * arguments are copied as UTF-8 bytes they are stored in -- so after warm up
+ * there is no allocation per record at all.
+ * <p/>
+ * Rendered without Formatter are: %d, %x, %X, %o, %f (precision up to
+ * {@linkplain AsciiNumbers#MAX_PRECISION}) and %s, with width, and with either
+ * '-' or '0' flag. Anything else (%e, %g, %S, ',' flag...) and doubles
+ * {@linkplain AsciiNumbers#formatFixed(double, int, byte[]) refused} by fast path
+ * fall back to String.format().
+ * <p/>
+ * Unlike {@linkplain TextAppender}, records are not re-ordered by timestamp: they
+ * are written in the order drainer wrote them
+ */
+@NotThreadSafe
+public class FastTextAppender implements Appender {
+	private static final long NANOS_PER_SECOND = 1000000000L;
+	private static final long SECONDS_PER_DAY = 86400L;
+
+	/** level name padded to 5 chars, and space, by level id. Empty for NO_LEVEL */
+	private static final byte[][] LEVELS = new byte[0x80][];
+
+	static {
+		for( int id = 0; id < LEVELS.length; id++ ) {
+			if( id == NO_LEVEL ) {
+				LEVELS[id] = new byte[0];
+				continue;
+			}
+			final Level level = Level.byId( id );
+			final String name = ( level != null ) ? level.name() : "L" + id;
+			final StringBuilder sb = new StringBuilder( name );
+			while( sb.length() < 5 ) {
+				sb.append( ' ' );
+			}
+			sb.append( ' ' );
+			LEVELS[id] = ascii( sb.toString() );
+		}
+	}
+
+	private final DecodingCatalog catalog;
+	private final RawWriter output;
+
+	private ByteBuffer buffer;
+
+	/** last TIMESTAMP record value */
+	private long anchorTimestamp = 0;
+
+	/** 'yyyy-MM-dd HH:mm:ss.nnnnnnnnn': seconds part is re-formatted only when formattedSecond changes */
+	private final byte[] timestampText = new byte[29];
+	private long formattedSecond = Long.MIN_VALUE;
+
+	private final byte[] scratch = new byte[AsciiNumbers.SCRATCH_LENGTH];
+	/** single char encoded to UTF-8 */
+	private final byte[] charBytes = new byte[4];
+
+	public FastTextAppender( final DecodingCatalog catalog,
+	                         final RawWriter output ) {
+		checkArgument( catalog != null, "catalog can't be null" );
+		checkArgument( output != null, "output can't be null" );
+		this.catalog = catalog;
+		this.output = output;
+		this.buffer = output.buffer();
+	}
+
+	@Override
+	public void append( final ByteBuffer records ) throws IOException {
+		final int limit = records.limit();
+		int position = records.position();
+		while( position + 8 <= limit ) {
+			final long header = records.getLong( position );
+			if( header == 0 ) {
+				return;
+			}
+			if( !isValidHeader( header ) ) {
+				throw new IOException( "Invalid header " + Long.toHexString( header ) + ": chunk corrupted?" );
+			}
+			final int cellsStart = position + 8;
+			final int cellsCount = cellsCount( header );
+			if( cellsStart + cellsCount * 8 > limit ) {
+				return;
+			}
+			final RecordType type = type( header );
+			if( type == RecordType.TIMESTAMP ) {
+				anchorTimestamp = records.getLong( cellsStart );
+			} else if( type == RecordType.LOG_RECORD ) {
+				renderRecord( records, header, cellsStart, cellsCount );
+			}
+			position = cellsStart + cellsCount * 8;
+		}
+	}
+
+	private void renderRecord( final ByteBuffer records,
+	                           final long header,
+	                           final int cellsStart,
+	                           final int cellsCount ) throws IOException {
+		putTimestamp( anchorTimestamp + records.getLong( cellsStart ) );
+		putByte( ' ' );
+		putBytes( LEVELS[level( header )] );
+
+		final int formatId = formatId( header );
+		final MessageInfo messageInfo = catalog.messageInfo( formatId );
+		if( messageInfo == null ) {
+			putChars( "<unknown format #" );
+			putNumber( AsciiNumbers.formatLong( formatId, scratch ) );
+			putByte( '>' );
+			for( int i = 1; i < cellsCount; i++ ) {
+				putByte( ' ' );
+				putNumber( AsciiNumbers.formatLong( cell( records, cellsStart, i ), scratch ) );
+			}
+			putByte( '\n' );
+			return;
+		}
+
+		final MessageTemplate template = messageInfo.template;
+		final int slots = template.argumentsCount();
+		int cell = 1;
+		for( int i = 0; i < slots; i++ ) {
+			putChars( template.literal( i ) );
+			if( cell >= cellsCount ) {
+				putChars( "<missing>" );
+				continue;
+			}
+			final MessageTemplate.Slot slot = template.slot( i );
+			final long value = cell( records, cellsStart, cell );
+			if( slot.type == MessageTemplate.ArgumentType.STRING && isSymbolCell( value ) ) {
+				final int symbolId = symbolId( value );
+				final String symbol = catalog.symbol( symbolId );
+				if( symbol != null ) {
+					putString( slot, symbol );
+				} else {
+					putFallback( slot, "<unknown symbol #" + symbolId + ">" );
+				}
+				cell++;
+			} else if( slot.type == MessageTemplate.ArgumentType.STRING ) {
+				//length is clamped by record size: record could be broken
+				final int length = ( int ) Math.max( 0, Math.min( value, ( cellsCount - cell - 1 ) * 8L ) );
+				putString( slot, records, cellsStart + ( cell + 1 ) * 8, length );
+				cell += stringCells( length );
+			} else {
+				putNumber( slot, value );
+				cell++;
+			}
+		}
+		putChars( template.literal( slots ) );
+		if( cell < cellsCount ) {
+			//attached Throwable
+			final int throwableId = ( int ) cell( records, cellsStart, cell );
+			putByte( '\n' );
+			final String description = catalog.throwableDescription( throwableId );
+			if( description == null ) {
+				putChars( "<unknown throwable #" );
+				putNumber( AsciiNumbers.formatLong( throwableId, scratch ) );
+				putByte( '>' );
+			} else {
+				putChars( description );
+				final String trace = catalog.throwableTrace( throwableId );
+				if( trace != null && !trace.isEmpty() ) {
+					putByte( '\n' );
+					putChars( trace );
+				}
+			}
+		}
+		putByte( '\n' );
+	}
+
+	private static long cell( final ByteBuffer records,
+	                          final int cellsStart,
+	                          final int index ) {
+		return records.getLong( cellsStart + index * 8 );
+	}
+
+	/* ======================= timestamp ============================ */
+
+	private void putTimestamp( final long timestampNanos ) throws IOException {
+		long second = timestampNanos / NANOS_PER_SECOND;
+		long nanos = timestampNanos % NANOS_PER_SECOND;
+		if( nanos < 0 ) {
+			second--;
+			nanos += NANOS_PER_SECOND;
+		}
+		if( second != formattedSecond ) {
+			formatSecond( second, timestampText );
+			timestampText[19] = '.';
+			formattedSecond = second;
+		}
+		putDigits( timestampText, 20, nanos, 9 );
+		putBytes( timestampText, 0, timestampText.length );
+	}
+
+	/** 'yyyy-MM-dd HH:mm:ss' UTC, by days-to-civil arithmetic (proleptic Gregorian) */
+	static void formatSecond( final long epochSecond,
+	                          final byte[] text ) {
+		long days = epochSecond / SECONDS_PER_DAY;
+		long secondOfDay = epochSecond % SECONDS_PER_DAY;
+		if( secondOfDay < 0 ) {
+			days--;
+			secondOfDay += SECONDS_PER_DAY;
+		}
+		//shift epoch to 0000-03-01: leap day is at the end of year then
+		final long shifted = days + 719468;
+		final long era = ( shifted >= 0 ? shifted : shifted - 146096 ) / 146097;
+		final long dayOfEra = shifted - era * 146097;
+		final long yearOfEra = ( dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096 ) / 365;
+		final long dayOfYear = dayOfEra - ( 365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100 );
+		final long monthFromMarch = ( 5 * dayOfYear + 2 ) / 153;
+		final long day = dayOfYear - ( 153 * monthFromMarch + 2 ) / 5 + 1;
+		final long month = ( monthFromMarch < 10 ) ? monthFromMarch + 3 : monthFromMarch - 9;
+		final long year = yearOfEra + era * 400 + ( month <= 2 ? 1 : 0 );
+
+		putDigits( text, 0, year, 4 );
+		text[4] = '-';
+		putDigits( text, 5, month, 2 );
+		text[7] = '-';
+		putDigits( text, 8, day, 2 );
+		text[10] = ' ';
+		putDigits( text, 11, secondOfDay / 3600, 2 );
+		text[13] = ':';
+		putDigits( text, 14, ( secondOfDay / 60 ) % 60, 2 );
+		text[16] = ':';
+		putDigits( text, 17, secondOfDay % 60, 2 );
+	}
+
+	private static void putDigits( final byte[] text,
+	                               final int offset,
+	                               final long value,
+	                               final int digits ) {
+		long rest = value;
+		for( int i = offset + digits - 1; i >= offset; i-- ) {
+			text[i] = ( byte ) ( '0' + rest % 10 );
+			rest /= 10;
+		}
+	}
+
+	/* ======================= arguments ============================ */
+
+	private void putNumber( final MessageTemplate.Slot slot,
+	                        final long cell ) throws IOException {
+		final int start;
+		switch( slot.conversion ) {
+			case 'd':
+				start = AsciiNumbers.formatLong( cell, scratch );
+				break;
+			case 'x':
+				start = AsciiNumbers.formatUnsigned( cell, 4, false, scratch );
+				break;
+			case 'X':
+				start = AsciiNumbers.formatUnsigned( cell, 4, true, scratch );
+				break;
+			case 'o':
+				start = AsciiNumbers.formatUnsigned( cell, 3, false, scratch );
+				break;
+			case 'f':
+				//Formatter's default precision is 6
+				start = AsciiNumbers.formatFixed(
+						Double.longBitsToDouble( cell ),
+						slot.precision < 0 ? 6 : slot.precision,
+						scratch
+				);
+				break;
+			default:
+				start = -1;
+		}
+		//precision of integral conversion is rejected by Formatter: let it throw, as decoder does
+		if( start < 0
+				|| !isSimpleFlags( slot )
+				|| ( slot.type == MessageTemplate.ArgumentType.LONG && slot.precision >= 0 ) ) {
+			if( slot.type == MessageTemplate.ArgumentType.DOUBLE ) {
+				putChars( String.format( Locale.ROOT, slot.spec, Double.longBitsToDouble( cell ) ) );
+			} else {
+				putChars( String.format( Locale.ROOT, slot.spec, cell ) );
+			}
+			return;
+		}
+
+		final int length = scratch.length - start;
+		final int padding = Math.max( 0, slot.width - length );
+		if( padding == 0 ) {
+			putNumber( start );
+		} else if( slot.flags.isEmpty()
+				|| ( slot.type == MessageTemplate.ArgumentType.DOUBLE && !isFinite( start ) ) ) {
+			//NaN and Infinity are not zero-padded by Formatter
+			putPadding( ' ', padding );
+			putNumber( start );
+		} else if( slot.flags.charAt( 0 ) == '-' ) {
+			putNumber( start );
+			putPadding( ' ', padding );
+		} else if( scratch[start] == '-' ) {
+			//'0': zeros go after sign
+			putByte( '-' );
+			putPadding( '0', padding );
+			putNumber( start + 1 );
+		} else {
+			putPadding( '0', padding );
+			putNumber( start );
+		}
+	}
+
+	/** no flags, or single '-' or '0' with width (Formatter rejects them without width) */
+	private static boolean isSimpleFlags( final MessageTemplate.Slot slot ) {
+		final String flags = slot.flags;
+		if( flags.isEmpty() ) {
+			return true;
+		}
+		return flags.length() == 1
+				&& ( flags.charAt( 0 ) == '-' || flags.charAt( 0 ) == '0' )
+				&& slot.width >= 0;
+	}
+
+	/** %s is rendered here with no flags, or with '-' flag */
+	private static boolean isSimpleString( final MessageTemplate.Slot slot ) {
+		return slot.conversion == 's'
+				&& ( slot.flags.isEmpty() || ( slot.flags.equals( "-" ) && slot.width >= 0 ) );
+	}
+
+	/** double rendered in scratch[start..] is digits (not NaN or Infinity) */
+	private boolean isFinite( final int start ) {
+		final byte ch = ( scratch[start] == '-' ) ? scratch[start + 1] : scratch[start];
+		return ch >= '0' && ch <= '9';
+	}
+
+	/** inline UTF-8 string of record */
+	private void putString( final MessageTemplate.Slot slot,
+	                        final ByteBuffer records,
+	                        final int bytesStart,
+	                        final int length ) throws IOException {
+		if( !isSimpleString( slot ) ) {
+			putFallback( slot, decodeString( records, bytesStart, length ) );
+			return;
+		}
+		int bytes = length;
+		int chars = 0;
+		//width and precision are in chars (UTF-16 units), as Formatter counts them
+		for( int i = 0; i < length; i++ ) {
+			final int b = inlineByte( records, bytesStart, i ) & 0xFF;
+			if( ( b & 0xC0 ) == 0x80 ) {
+				continue;//continuation
+			}
+			final int units = ( b >= 0xF0 ) ? 2 : 1;
+			if( slot.precision >= 0 && chars + units > slot.precision ) {
+				bytes = i;
+				break;
+			}
+			chars += units;
+		}
+		final int padding = Math.max( 0, slot.width - chars );
+		if( padding > 0 && slot.flags.isEmpty() ) {
+			putPadding( ' ', padding );
+		}
+		for( int i = 0; i < bytes; i++ ) {
+			putByte( inlineByte( records, bytesStart, i ) );
+		}
+		if( padding > 0 && !slot.flags.isEmpty() ) {
+			putPadding( ' ', padding );
+		}
+	}
+
+	/** symbol */
+	private void putString( final MessageTemplate.Slot slot,
+	                        final String value ) throws IOException {
+		if( !isSimpleString( slot ) ) {
+			putFallback( slot, value );
+			return;
+		}
+		final int chars = ( slot.precision >= 0 ) ? Math.min( slot.precision, value.length() ) : value.length();
+		final int padding = Math.max( 0, slot.width - chars );
+		if( padding > 0 && slot.flags.isEmpty() ) {
+			putPadding( ' ', padding );
+		}
+		putChars( value, chars );
+		if( padding > 0 && !slot.flags.isEmpty() ) {
+			putPadding( ' ', padding );
+		}
+	}
+
+	private void putFallback( final MessageTemplate.Slot slot,
+	                          final String value ) throws IOException {
+		if( slot.conversion == 's' && slot.flags.isEmpty() && slot.width < 0 && slot.precision < 0 ) {
+			putChars( value );
+		} else {
+			putChars( String.format( Locale.ROOT, slot.spec, value ) );
+		}
+	}
+
+	private static byte inlineByte( final ByteBuffer records,
+	                                final int bytesStart,
+	                                final int index ) {
+		return stringByte( records.getLong( bytesStart + ( index & ~7 ) ), index );
+	}
+
+	private static String decodeString( final ByteBuffer records,
+	                                    final int bytesStart,
+	                                    final int length ) {
+		final byte[] bytes = new byte[length];
+		for( int i = 0; i < length; i++ ) {
+			bytes[i] = inlineByte( records, bytesStart, i );
+		}
+		return new String( bytes, Charsets.UTF_8 );
+	}
+
+	/* ======================= output ============================ */
+
+	private void putByte( final int value ) throws IOException {
+		if( !buffer.hasRemaining() ) {
+			output.flush();
+			buffer = output.buffer();
+			checkState( buffer.hasRemaining(), "output buffer is still full after flush" );
+		}
+		buffer.put( ( byte ) value );
+	}
+
+	private void putBytes( final byte[] bytes ) throws IOException {
+		putBytes( bytes, 0, bytes.length );
+	}
+
+	private void putBytes( final byte[] bytes,
+	                       final int offset,
+	                       final int length ) throws IOException {
+		if( buffer.remaining() >= length ) {
+			buffer.put( bytes, offset, length );
+			return;
+		}
+		//spans flush
+		for( int i = 0; i < length; i++ ) {
+			putByte( bytes[offset + i] );
+		}
+	}
+
+	/** number rendered in scratch[start..] */
+	private void putNumber( final int start ) throws IOException {
+		putBytes( scratch, start, scratch.length - start );
+	}
+
+	private void putPadding( final char padding,
+	                         final int count ) throws IOException {
+		for( int i = 0; i < count; i++ ) {
+			putByte( padding );
+		}
+	}
+
+	private void putChars( final String value ) throws IOException {
+		putChars( value, value.length() );
+	}
+
+	/** UTF-8 encoded, char by char: unpaired surrogates are encoded as '?', as String.getBytes() does */
+	private void putChars( final String value,
+	                       final int chars ) throws IOException {
+		for( int i = 0; i < chars; i++ ) {
+			final char ch = value.charAt( i );
+			if( ch < 0x80 ) {
+				putByte( ch );
+			} else if( ch < 0x800 ) {
+				charBytes[0] = ( byte ) ( 0xC0 | ( ch >> 6 ) );
+				charBytes[1] = ( byte ) ( 0x80 | ( ch & 0x3F ) );
+				putBytes( charBytes, 0, 2 );
+			} else if( Character.isHighSurrogate( ch )
+					&& i + 1 < chars
+					&& Character.isLowSurrogate( value.charAt( i + 1 ) ) ) {
+				final int codePoint = Character.toCodePoint( ch, value.charAt( ++i ) );
+				charBytes[0] = ( byte ) ( 0xF0 | ( codePoint >> 18 ) );
+				charBytes[1] = ( byte ) ( 0x80 | ( ( codePoint >> 12 ) & 0x3F ) );
+				charBytes[2] = ( byte ) ( 0x80 | ( ( codePoint >> 6 ) & 0x3F ) );
+				charBytes[3] = ( byte ) ( 0x80 | ( codePoint & 0x3F ) );
+				putBytes( charBytes, 0, 4 );
+			} else if( ch >= Character.MIN_SURROGATE && ch <= Character.MAX_SURROGATE ) {
+				putByte( '?' );
+			} else {
+				charBytes[0] = ( byte ) ( 0xE0 | ( ch >> 12 ) );
+				charBytes[1] = ( byte ) ( 0x80 | ( ( ch >> 6 ) & 0x3F ) );
+				charBytes[2] = ( byte ) ( 0x80 | ( ch & 0x3F ) );
+				putBytes( charBytes, 0, 3 );
+			}
+		}
+	}
+
+	private static byte[] ascii( final String value ) {
+		final byte[] bytes = new byte[value.length()];
+		for( int i = 0; i < bytes.length; i++ ) {
+			bytes[i] = ( byte ) value.charAt( i );
+		}
+		return bytes;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		output.flush();
+		buffer = output.buffer();
+	}
+
+	@Override
+	public void close() throws IOException {
+		output.close();
+	}
+
+	@Override
+	public String toString() {
+		return "FastTextAppender[" + output + "]";
+	}
+}
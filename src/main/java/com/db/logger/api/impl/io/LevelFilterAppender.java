@@ -0,0 +1,78 @@
+package com.db.logger.api.impl.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.db.logger.api.Level;
+import com.db.logger.api.impl.logger.RecordHelper;
+import net.jcip.annotations.NotThreadSafe;
+
+import static com.db.logger.api.impl.logger.RecordHelper.*;
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Passes to delegate only records of level &gt;= minLevel (e.g. error-only file).
+ * Records logged without level are filtered out, TIMESTAMP records are always
+ * passed, since timestamps of following records are relative to them, and so
+ * are RUN records, since formats of following records are looked up by them.
+ * THROWABLE records are passed too: they are not matched against records
+ */
+@NotThreadSafe
+public class LevelFilterAppender implements Appender {
+	private final Appender delegate;
+	private final int minLevel;
+
+	/** filtered records, grows up to the largest chunk */
+	private ByteBuffer filtered = ByteBuffer.allocate( 0 );
+
+	public LevelFilterAppender( final Appender delegate,
+	                            final Level minLevel ) {
+		checkArgument( delegate != null, "delegate can't be null" );
+		checkArgument( minLevel != null, "minLevel can't be null" );
+		this.delegate = delegate;
+		this.minLevel = minLevel.id();
+	}
+
+	@Override
+	public void append( final ByteBuffer records ) throws IOException {
+		if( filtered.capacity() < records.remaining() ) {
+			filtered = ByteBuffer.allocate( records.remaining() ).order( ByteOrder.nativeOrder() );
+		}
+		filtered.clear();
+		final int limit = records.limit();
+		while( records.position() < limit ) {
+			final long header = records.getLong( records.position() );
+			final int recordBytes = ( RecordHelper.cellsCount( header ) + 1 ) * 8;
+			final RecordType type = type( header );
+			final boolean pass = ( type == RecordType.TIMESTAMP )
+					|| ( type == RecordType.RUN )
+					|| ( type == RecordType.THROWABLE )
+					|| ( type == RecordType.LOG_RECORD && level( header ) != NO_LEVEL && level( header ) >= minLevel );
+			if( pass ) {
+				records.limit( records.position() + recordBytes );
+				filtered.put( records );
+				records.limit( limit );
+			} else {
+				records.position( records.position() + recordBytes );
+			}
+		}
+		filtered.flip();
+		delegate.append( filtered );
+	}
+
+	@Override
+	public void flush() throws IOException {
+		delegate.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		delegate.close();
+	}
+
+	@Override
+	public String toString() {
+		return "LevelFilterAppender[>=" + Level.byId( minLevel ) + ", " + delegate + "]";
+	}
+}
@@ -0,0 +1,414 @@
+package com.db.logger.api.impl.io;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+import com.db.logger.api.Level;
+import com.db.logger.api.impl.logger.MessageInfo;
+import com.db.logger.api.impl.logger.MessageTemplate;
+import com.google.common.base.Charsets;
+import net.jcip.annotations.NotThreadSafe;
+
+import static com.db.logger.api.impl.logger.RecordHelper.*;
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Offline decoder: turns binary log (as written by drainer) back into text, using
+ * catalog written by {@linkplain CatalogWriter} alongside. Streams records one by
+ * one, so heap usage does not depend on log size.
+ * <p/>
+ * Each record is prefixed with record timestamp (UTC, nanoseconds), restored from
+ * last TIMESTAMP record + record's delta. Drainer writes records in the order
+ * they were claimed (or ring by ring, with per-thread buffers), which may differ
+ * from timestamps order, so lines are re-ordered by timestamp inside sliding
+ * window of {@linkplain #DEFAULT_REORDER_WINDOW} records (-Dreorder-window).
+ * <p/>
+ * Level of record, if any, follows timestamp. Throwable attached to record is printed on lines following it, as
+ * printStackTrace() prints it. Drainer writes Throwable (as THROWABLE record) after the
+ * record, so record is held until it's Throwable is met, or end of decode() call, or
+ * next RUN record. Throwable is looked up in catalog too, if it is mirror (see
+ * {@linkplain DecodingCatalog#throwable(int)})
+ * <p/>
+ * RUN record selects catalog run following records are looked up in (see
+ * {@linkplain DecodingCatalog#selectRun(long)}), so log continued by a few
+ * processes is decoded with catalog continued the same way
+ * <p/>
+ * Usage: LogDecoder binary-log [catalog [output]]
+ * <p/>
+ * catalog defaults to binary-log + {@linkplain #CATALOG_SUFFIX}, output defaults
+ * to stdout. If binary-log does not exist, but it's segments (as written by
+ * {@linkplain MappedFileWriter}) do, all segments are decoded in order. Files
+ * written through {@linkplain CompressingRawWriter} are recognized, and decoded
+ * block by block
+ */
+@NotThreadSafe
+public class LogDecoder {
+	public static final String CATALOG_SUFFIX = ".catalog";
+	/** in records. 0 means no re-ordering */
+	public static final int DEFAULT_REORDER_WINDOW = Integer.getInteger( "reorder-window", 1 << 16 );
+
+	private static final long NANOS_PER_SECOND = 1000000000L;
+	/** THROWABLE records met before records referencing them, kept at most */
+	private static final int MAX_UNCLAIMED_THROWABLES = 1024;
+
+	private final DecodingCatalog catalog;
+	private final int reorderWindow;
+
+	/** reused between records to avoid garbage */
+	private final StringBuilder line = new StringBuilder( 256 );
+
+	/** records decoded, but not yet written because of re-ordering */
+	private final PriorityQueue<DecodedLine> pending;
+	private long sequence = 0;
+
+	/** last TIMESTAMP record value */
+	private long anchorTimestamp = 0;
+
+	/** Throwables of THROWABLE records met before records referencing them, by id */
+	private final Map<Integer, String> throwables = new LinkedHashMap<Integer, String>() {
+		@Override
+		protected boolean removeEldestEntry( final Map.Entry<Integer, String> eldest ) {
+			return size() > MAX_UNCLAIMED_THROWABLES;
+		}
+	};
+	/** lines waiting for THROWABLE record, by it's id */
+	private final Map<Integer, DecodedLine> awaiting = new HashMap<Integer, DecodedLine>();
+	/** lines to be written in this order: head waits for it's Throwable */
+	private final Queue<DecodedLine> held = new ArrayDeque<DecodedLine>();
+	/** Throwable id record rendered last waits for, 0 if none */
+	private int awaitedThrowableId = 0;
+
+	/** formatted 'yyyy-MM-dd HH:mm:ss' is cached: it changes only once a second */
+	private final SimpleDateFormat secondsFormat = new SimpleDateFormat( "yyyy-MM-dd HH:mm:ss", Locale.ROOT );
+	private long formattedSecond = Long.MIN_VALUE;
+	private String formattedSecondText = null;
+
+	public LogDecoder( final DecodingCatalog catalog ) {
+		this( catalog, DEFAULT_REORDER_WINDOW );
+	}
+
+	public LogDecoder( final DecodingCatalog catalog,
+	                   final int reorderWindow ) {
+		checkArgument( catalog != null, "catalog can't be null" );
+		checkArgument( reorderWindow >= 0, "reorderWindow(%s) must be >= 0", reorderWindow );
+		this.catalog = catalog;
+		this.reorderWindow = reorderWindow;
+		this.pending = new PriorityQueue<DecodedLine>( Math.max( 1, Math.min( reorderWindow, 1 << 16 ) ) );
+		secondsFormat.setTimeZone( TimeZone.getTimeZone( "UTC" ) );
+	}
+
+	/**
+	 * All decoded records are written to output on return, so neither pending
+	 * re-ordering window, nor records waiting for Throwable span across decode() calls
+	 *
+	 * @return number of records decoded
+	 */
+	public long decode( final RawLogReader reader,
+	                    final Appendable output ) throws IOException {
+		long records = 0;
+		while( reader.next() ) {
+			final long header = reader.header();
+			final RecordType type = type( header );
+			if( type == RecordType.TIMESTAMP ) {
+				anchorTimestamp = reader.cell( 0 );
+			} else if( type == RecordType.RUN ) {
+				//Throwable ids restart in each run
+				stopAwaitingThrowables( output );
+				throwables.clear();
+				catalog.selectRun( reader.cell( 0 ) );
+			} else if( type == RecordType.THROWABLE ) {
+				attachThrowable( reader, output );
+			} else if( type == RecordType.LOG_RECORD ) {
+				final long timestamp = anchorTimestamp + reader.cell( 0 );
+				line.setLength( 0 );
+				appendTimestamp( timestamp, line );
+				line.append( ' ' );
+				appendLevel( level( header ), line );
+				render( reader, header, line );
+				line.append( '\n' );
+				if( reorderWindow == 0 && awaitedThrowableId == 0 && held.isEmpty() ) {
+					output.append( line );
+				} else {
+					final DecodedLine decoded = new DecodedLine( timestamp, sequence++, line.toString(), awaitedThrowableId );
+					if( awaitedThrowableId != 0 ) {
+						awaiting.put( awaitedThrowableId, decoded );
+					}
+					if( reorderWindow == 0 ) {
+						write( decoded, output );
+					} else {
+						pending.add( decoded );
+						if( pending.size() > reorderWindow ) {
+							write( pending.poll(), output );
+						}
+					}
+				}
+				records++;
+			}
+		}
+		stopAwaitingThrowables( output );
+		return records;
+	}
+
+	private void attachThrowable( final RawLogReader reader,
+	                              final Appendable output ) throws IOException {
+		//[throwableId][traceId][length][bytes]
+		final int cellsCount = reader.cellsCount();
+		if( cellsCount < 3 ) {
+			return;
+		}
+		final int throwableId = ( int ) reader.cell( 0 );
+		final int traceId = ( int ) reader.cell( 1 );
+		final int length = ( int ) Math.max( 0, Math.min(
+				reader.cell( 2 ),
+				( cellsCount - 3 ) * 8L
+		) );
+		final String throwable = DecodingCatalog.throwable(
+				readString( reader, 3, length ),
+				catalog.trace( traceId )
+		);
+		final DecodedLine waiting = awaiting.remove( throwableId );
+		if( waiting != null ) {
+			waiting.attach( throwable );
+			writeHeld( output );
+		} else if( catalog.throwableDescription( throwableId ) == null ) {
+			//...not known to mirror: record is still ahead
+			throwables.put( throwableId, throwable );
+		}
+	}
+
+	/** writes all lines: ones still waiting get Throwable from catalog, if any */
+	private void stopAwaitingThrowables( final Appendable output ) throws IOException {
+		while( !pending.isEmpty() ) {
+			write( pending.poll(), output );
+		}
+		for( final Map.Entry<Integer, DecodedLine> entry : awaiting.entrySet() ) {
+			final int throwableId = entry.getKey();
+			final String throwable = catalog.throwable( throwableId );
+			entry.getValue().attach( throwable != null ? throwable : "<unknown throwable #" + throwableId + ">" );
+		}
+		awaiting.clear();
+		writeHeld( output );
+	}
+
+	private void write( final DecodedLine line,
+	                    final Appendable output ) throws IOException {
+		if( held.isEmpty() && line.awaitedThrowableId == 0 ) {
+			output.append( line.text );
+		} else {
+			held.add( line );
+			writeHeld( output );
+		}
+	}
+
+	private void writeHeld( final Appendable output ) throws IOException {
+		while( !held.isEmpty() && held.peek().awaitedThrowableId == 0 ) {
+			output.append( held.poll().text );
+		}
+	}
+
+	private void appendTimestamp( final long timestampNanos,
+	                              final StringBuilder sb ) {
+		long second = timestampNanos / NANOS_PER_SECOND;
+		long nanos = timestampNanos % NANOS_PER_SECOND;
+		if( nanos < 0 ) {
+			second--;
+			nanos += NANOS_PER_SECOND;
+		}
+		if( second != formattedSecond ) {
+			formattedSecondText = secondsFormat.format( new Date( second * 1000 ) );
+			formattedSecond = second;
+		}
+		sb.append( formattedSecondText ).append( '.' );
+		//zero-padded to 9 digits
+		for( long divisor = NANOS_PER_SECOND / 10; divisor > 0; divisor /= 10 ) {
+			sb.append( ( char ) ( '0' + ( nanos / divisor ) % 10 ) );
+		}
+	}
+
+	/** level name, padded to 5 chars, and space. Nothing, if record has no level */
+	private static void appendLevel( final int levelId,
+	                                 final StringBuilder sb ) {
+		if( levelId == NO_LEVEL ) {
+			return;
+		}
+		final Level level = Level.byId( levelId );
+		final int start = sb.length();
+		if( level != null ) {
+			sb.append( level.name() );
+		} else {
+			sb.append( "L" ).append( levelId );
+		}
+		while( sb.length() - start < 5 ) {
+			sb.append( ' ' );
+		}
+		sb.append( ' ' );
+	}
+
+	private void render( final RawLogReader reader,
+	                     final long header,
+	                     final StringBuilder sb ) {
+		final int formatId = formatId( header );
+		//cell 0 is timestamp
+		final int cellsCount = reader.cellsCount();
+		final MessageInfo messageInfo = catalog.messageInfo( formatId );
+		awaitedThrowableId = 0;
+		if( messageInfo == null ) {
+			sb.append( "<unknown format #" ).append( formatId ).append( '>' );
+			for( int i = 1; i < cellsCount; i++ ) {
+				sb.append( ' ' ).append( reader.cell( i ) );
+			}
+			return;
+		}
+
+		final MessageTemplate template = messageInfo.template;
+		final int slots = template.argumentsCount();
+		int cell = 1;
+		for( int i = 0; i < slots; i++ ) {
+			sb.append( template.literal( i ) );
+			if( cell >= cellsCount ) {
+				sb.append( "<missing>" );
+				continue;
+			}
+			final MessageTemplate.Slot slot = template.slot( i );
+			if( slot.type == MessageTemplate.ArgumentType.STRING && isSymbolCell( reader.cell( cell ) ) ) {
+				final int symbolId = symbolId( reader.cell( cell ) );
+				final String symbol = catalog.symbol( symbolId );
+				slot.appendTo( sb, symbol != null ? symbol : "<unknown symbol #" + symbolId + ">" );
+				cell++;
+			} else if( slot.type == MessageTemplate.ArgumentType.STRING ) {
+				//length is clamped by record size: record could be broken
+				final int length = ( int ) Math.max( 0, Math.min(
+						reader.cell( cell ),
+						( cellsCount - cell - 1 ) * 8L
+				) );
+				slot.appendTo( sb, readString( reader, cell + 1, length ) );
+				cell += stringCells( length );
+			} else {
+				slot.appendTo( sb, reader.cell( cell ) );
+				cell++;
+			}
+		}
+		sb.append( template.literal( slots ) );
+		if( cell < cellsCount ) {
+			//attached Throwable
+			final int throwableId = ( int ) reader.cell( cell );
+			String throwable = throwables.remove( throwableId );
+			if( throwable == null ) {
+				throwable = catalog.throwable( throwableId );
+			}
+			if( throwable != null ) {
+				sb.append( '\n' ).append( throwable );
+			} else {
+				awaitedThrowableId = throwableId;
+			}
+		}
+	}
+
+	/** reused between strings */
+	private byte[] stringBytes = new byte[1024];
+
+	private String readString( final RawLogReader reader,
+	                           final int firstCell,
+	                           final int length ) {
+		if( stringBytes.length < length ) {
+			stringBytes = new byte[Math.max( length, stringBytes.length * 2 )];
+		}
+		for( int i = 0; i < length; i++ ) {
+			stringBytes[i] = stringByte( reader.cell( firstCell + ( i >> 3 ) ), i );
+		}
+		return new String( stringBytes, 0, length, Charsets.UTF_8 );
+	}
+
+	private static final class DecodedLine implements Comparable<DecodedLine> {
+		public final long timestamp;
+		/** to keep order of records with same timestamp */
+		public final long sequence;
+		public String text;
+		/** id of Throwable line waits for, 0 if none */
+		public int awaitedThrowableId;
+
+		private DecodedLine( final long timestamp,
+		                     final long sequence,
+		                     final String text,
+		                     final int awaitedThrowableId ) {
+			this.timestamp = timestamp;
+			this.sequence = sequence;
+			this.text = text;
+			this.awaitedThrowableId = awaitedThrowableId;
+		}
+
+		/** inserts throwable before line's trailing '\n' */
+		public void attach( final String throwable ) {
+			text = text.substring( 0, text.length() - 1 ) + '\n' + throwable + '\n';
+			awaitedThrowableId = 0;
+		}
+
+		@Override
+		public int compareTo( final DecodedLine other ) {
+			if( timestamp != other.timestamp ) {
+				return timestamp < other.timestamp ? -1 : 1;
+			}
+			if( sequence != other.sequence ) {
+				return sequence < other.sequence ? -1 : 1;
+			}
+			return 0;
+		}
+	}
+
+	private static void decodeCompressed( final LogDecoder decoder,
+	                                      final File binaryFile,
+	                                      final Appendable output ) throws IOException {
+		final CompressedLogReader reader = new CompressedLogReader( binaryFile );
+		try {
+			for( ByteBuffer block = reader.nextBlock(); block != null; block = reader.nextBlock() ) {
+				decoder.decode( new RawLogReader( block ), output );
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	public static void main( final String[] args ) throws Exception {
+		if( args.length < 1 || args.length > 3 ) {
+			System.err.println( "Usage: LogDecoder binary-log [catalog [output]]" );
+			System.exit( 1 );
+		}
+		final File binaryLog = new File( args[0] );
+		final File catalogFile = new File( args.length > 1 ? args[1] : args[0] + CATALOG_SUFFIX );
+
+		final List<File> binaryFiles = binaryLog.exists() ?
+				Collections.singletonList( binaryLog ) :
+				MappedFileWriter.segmentFiles( binaryLog );
+		if( binaryFiles.isEmpty() ) {
+			System.err.println( "Neither " + binaryLog + " nor it's segments are found" );
+			System.exit( 2 );
+		}
+
+		final LogDecoder decoder = new LogDecoder( DecodingCatalog.load( catalogFile ) );
+		final Writer output = new BufferedWriter(
+				new OutputStreamWriter(
+						args.length > 2 ? new FileOutputStream( args[2] ) : System.out,
+						Charsets.UTF_8
+				),
+				1 << 16
+		);
+		try {
+			for( final File binaryFile : binaryFiles ) {
+				if( CompressedLogReader.isCompressed( binaryFile ) ) {
+					decodeCompressed( decoder, binaryFile, output );
+					continue;
+				}
+				final RawLogReader reader = new RawLogReader( binaryFile );
+				try {
+					decoder.decode( reader, output );
+				} finally {
+					reader.close();
+				}
+			}
+		} finally {
+			output.close();
+		}
+	}
+}
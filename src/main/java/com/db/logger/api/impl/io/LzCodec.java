@@ -0,0 +1,171 @@
+package com.db.logger.api.impl.io;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Fast LZ77 pass in the spirit of LZ4 block format: greedy matching by hash of
+ * 4 bytes, sequences are [token][literals length ext][literals][offset x2][match
+ * length ext], token is literals length (high nibble) and match length - 4 (low
+ * nibble), 15 means length continues in following bytes (255 + 255 + ... + rest).
+ * Offsets are 16 bits, so window is 64K. Last sequence has literals only.
+ * <p/>
+ * Not byte-compatible with LZ4: it is only used inside blocks of
+ * {@linkplain CompressingRawWriter}. Hash table is the only state, reused
+ * between blocks
+ */
+@NotThreadSafe
+final class LzCodec {
+	private static final int MIN_MATCH = 4;
+	/** last bytes are always literals: match search reads 4 bytes ahead */
+	private static final int LAST_LITERALS = 5;
+	private static final int MAX_OFFSET = 0xFFFF;
+	private static final int HASH_BITS = 12;
+
+	/** position + 1 of last occurrence of 4 bytes hash, 0 if none */
+	private final int[] table = new int[1 << HASH_BITS];
+
+	/** @return max length of compressed data of given length */
+	public static int maxCompressedLength( final int length ) {
+		return length + length / 255 + 16;
+	}
+
+	/**
+	 * @param output at least {@linkplain #maxCompressedLength(int)} bytes
+	 * @return length of compressed data in output
+	 */
+	public int compress( final byte[] input,
+	                     final int length,
+	                     final byte[] output ) {
+		Arrays.fill( table, 0 );
+		int out = 0;
+		int anchor = 0;
+		int pos = 0;
+		final int matchLimit = length - LAST_LITERALS;
+		while( pos + MIN_MATCH <= matchLimit ) {
+			final int sequence = getInt( input, pos );
+			final int hash = ( sequence * -1640531535 ) >>> ( 32 - HASH_BITS );
+			final int candidate = table[hash] - 1;
+			table[hash] = pos + 1;
+			if( candidate < 0
+					|| pos - candidate > MAX_OFFSET
+					|| getInt( input, candidate ) != sequence ) {
+				pos++;
+				continue;
+			}
+			int matchLength = MIN_MATCH;
+			while( pos + matchLength < matchLimit
+					&& input[candidate + matchLength] == input[pos + matchLength] ) {
+				matchLength++;
+			}
+			final int token = out;
+			out = putSequence( input, anchor, pos - anchor, output, out );
+			output[out++] = ( byte ) ( pos - candidate );
+			output[out++] = ( byte ) ( ( pos - candidate ) >>> 8 );
+			final int matchRest = matchLength - MIN_MATCH;
+			output[token] |= ( byte ) Math.min( matchRest, 15 );
+			if( matchRest >= 15 ) {
+				out = putLengthExtension( output, out, matchRest - 15 );
+			}
+			pos += matchLength;
+			anchor = pos;
+		}
+		//last literals
+		return putSequence( input, anchor, length - anchor, output, out );
+	}
+
+	/** token (with literals length only) and literals */
+	private static int putSequence( final byte[] input,
+	                                final int from,
+	                                final int literals,
+	                                final byte[] output,
+	                                final int position ) {
+		int out = position;
+		output[out++] = ( byte ) ( Math.min( literals, 15 ) << 4 );
+		if( literals >= 15 ) {
+			out = putLengthExtension( output, out, literals - 15 );
+		}
+		System.arraycopy( input, from, output, out, literals );
+		return out + literals;
+	}
+
+	private static int putLengthExtension( final byte[] output,
+	                                       final int position,
+	                                       final int rest ) {
+		int out = position;
+		int remaining = rest;
+		while( remaining >= 255 ) {
+			output[out++] = ( byte ) 255;
+			remaining -= 255;
+		}
+		output[out++] = ( byte ) remaining;
+		return out;
+	}
+
+	/**
+	 * @return length of decompressed data in output
+	 * @throws IOException if data is corrupted, or does not fit into output
+	 */
+	public static int decompress( final byte[] input,
+	                              final int offset,
+	                              final int length,
+	                              final byte[] output ) throws IOException {
+		final int end = offset + length;
+		int in = offset;
+		int out = 0;
+		try {
+			while( true ) {
+				final int token = input[in++] & 0xFF;
+				int literals = token >>> 4;
+				if( literals == 15 ) {
+					int b;
+					do {
+						b = input[in++] & 0xFF;
+						literals += b;
+					} while( b == 255 );
+				}
+				System.arraycopy( input, in, output, out, literals );
+				in += literals;
+				out += literals;
+				if( in >= end ) {
+					break;//last sequence
+				}
+
+				final int matchOffset = ( input[in++] & 0xFF ) | ( ( input[in++] & 0xFF ) << 8 );
+				int matchLength = token & 0xF;
+				if( matchLength == 15 ) {
+					int b;
+					do {
+						b = input[in++] & 0xFF;
+						matchLength += b;
+					} while( b == 255 );
+				}
+				matchLength += MIN_MATCH;
+				if( matchOffset == 0 || matchOffset > out || out + matchLength > output.length ) {
+					throw new IOException( "Corrupted data at " + ( in - offset ) );
+				}
+				//overlapping copy: byte by byte
+				for( int i = 0; i < matchLength; i++ ) {
+					output[out + i] = output[out - matchOffset + i];
+				}
+				out += matchLength;
+			}
+		} catch( IndexOutOfBoundsException e ) {
+			throw new IOException( "Corrupted data: truncated, or does not fit output", e );
+		}
+		if( in != end ) {
+			throw new IOException( "Corrupted data: " + ( in - end ) + " bytes beyond end" );
+		}
+		return out;
+	}
+
+	private static int getInt( final byte[] data,
+	                           final int position ) {
+		return ( data[position] & 0xFF )
+				| ( ( data[position + 1] & 0xFF ) << 8 )
+				| ( ( data[position + 2] & 0xFF ) << 16 )
+				| ( ( data[position + 3] & 0xFF ) << 24 );
+	}
+}
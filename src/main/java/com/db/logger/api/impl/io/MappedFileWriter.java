@@ -0,0 +1,213 @@
+package com.db.logger.api.impl.io;
+
+import java.io.*;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.db.logger.api.impl.logger.UnsafeHelper;
+import net.jcip.annotations.NotThreadSafe;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * {@linkplain RawWriter} over memory-mapped, fixed size segment files: base.00000,
+ * base.00001, ... Writer started over segments left by previous run continues
+ * after the last of them: existing segment is never overwritten (writer fails
+ * to roll into it, if there is a gap in numbering)
+ * <p/>
+ * {@linkplain #buffer()} is the mapping of current segment itself, so writing
+ * to it is just a memory stores, without syscalls -- OS writes pages back in
+ * background. {@linkplain #flush()} does nothing until current segment has less
+ * then max drainer write (biggest record, with anchor and SEQUENCE record
+ * before it) space left -- then it rolls to the next segment.
+ * Next segment is created, mapped, and pre-touched (page by page) in background
+ * thread while current one is being filled, so roll is usually just a pointer
+ * swap, and drainer does not pay for page faults.
+ * <p/>
+ * Segments are pre-allocated, so unused tail of segment is zero-filled: zero
+ * header means end of data for {@linkplain RawLogReader}. On roll/close
+ * segment is truncated to the data actually written.
+ * <p/>
+ * {@linkplain #flush()} does not force data to disk (it's in page cache, so
+ * it survives process crash, but not OS crash). Use {@linkplain #sync()} for it
+ */
+@NotThreadSafe
+public class MappedFileWriter implements RawWriter {
+	private static final Log log = LogFactory.getLog( MappedFileWriter.class );
+
+	public static final int PAGE_SIZE = 4096;
+	/**
+	 * Most drainer could write between flushes: record (header.cellsCount is 16
+	 * bits wide), +2 cells of TIMESTAMP anchor and +2 cells of SEQUENCE record,
+	 * which both could precede it
+	 */
+	private static final int MAX_WRITE_SIZE = ( 0xFFFF + 1 + 2 + 2 ) * 8;
+
+	private final File base;
+	private final int segmentSize;
+
+	private final ExecutorService preparer;
+
+	private Segment current;
+	private Future<Segment> next;
+	private int segmentNo;
+
+	public MappedFileWriter( final File base,
+	                         final int segmentSize,
+	                         final ThreadFactory threadFactory ) throws IOException {
+		checkArgument( base != null, "base can't be null" );
+		checkArgument( threadFactory != null, "threadFactory can't be null" );
+		checkArgument( segmentSize % PAGE_SIZE == 0,
+		               "segmentSize(%s) must be multiple of page size(%s)", segmentSize, PAGE_SIZE );
+		checkArgument( segmentSize > MAX_WRITE_SIZE,
+		               "segmentSize(%s) must be > max write size(%s)", segmentSize, MAX_WRITE_SIZE );
+		this.base = base;
+		this.segmentSize = segmentSize;
+
+		this.preparer = Executors.newSingleThreadExecutor( threadFactory );
+
+		this.segmentNo = segmentFiles( base ).size();
+		this.current = Segment.prepare( segmentFile( base, segmentNo ), segmentSize );
+		this.next = prepareAsync( segmentNo + 1 );
+	}
+
+	@Override
+	public MappedByteBuffer buffer() {
+		return current.buffer;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if( current.buffer.remaining() < MAX_WRITE_SIZE ) {
+			roll();
+		}
+	}
+
+	/** Forces content of current segment to storage device */
+	public void sync() {
+		current.buffer.force();
+	}
+
+	public int segmentNo() {
+		return segmentNo;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			current.close( /*truncate=*/true );
+		} finally {
+			preparer.shutdown();
+			try {
+				final Segment unused = next.get();
+				unused.close( /*truncate=*/false );
+				if( !unused.file.delete() ) {
+					log.warn( "Can't delete unused segment " + unused.file );
+				}
+			} catch( Exception e ) {
+				log.warn( "Can't cleanup next segment", e );
+			}
+		}
+	}
+
+	private void roll() throws IOException {
+		final Segment ready;
+		try {
+			ready = next.get();
+		} catch( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException( "Interrupted while waiting for next segment" );
+		} catch( ExecutionException e ) {
+			throw new IOException( "Can't prepare segment " + ( segmentNo + 1 ), e.getCause() );
+		}
+		current.close( /*truncate=*/true );
+
+		current = ready;
+		segmentNo++;
+		next = prepareAsync( segmentNo + 1 );
+	}
+
+	private Future<Segment> prepareAsync( final int segmentNo ) {
+		final File file = segmentFile( base, segmentNo );
+		return preparer.submit( new Callable<Segment>() {
+			@Override
+			public Segment call() throws Exception {
+				return Segment.prepare( file, segmentSize );
+			}
+		} );
+	}
+
+	public static File segmentFile( final File base,
+	                                final int segmentNo ) {
+		return new File( base.getPath() + String.format( ".%05d", segmentNo ) );
+	}
+
+	/** @return all consecutive existing segments of base, in order */
+	public static List<File> segmentFiles( final File base ) {
+		final List<File> segments = new ArrayList<File>();
+		for( int no = 0; ; no++ ) {
+			final File segment = segmentFile( base, no );
+			if( !segment.exists() ) {
+				return segments;
+			}
+			segments.add( segment );
+		}
+	}
+
+	private static final class Segment {
+		public final File file;
+		public final RandomAccessFile raf;
+		public final MappedByteBuffer buffer;
+
+		private Segment( final File file,
+		                 final RandomAccessFile raf,
+		                 final MappedByteBuffer buffer ) {
+			this.file = file;
+			this.raf = raf;
+			this.buffer = buffer;
+		}
+
+		/** create, pre-allocate, map and pre-touch */
+		public static Segment prepare( final File file,
+		                               final int size ) throws IOException {
+			if( file.exists() ) {
+				throw new IOException( "Segment " + file + " already exists: it would be overwritten" );
+			}
+			final RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+			try {
+				raf.setLength( size );
+				final MappedByteBuffer buffer = raf.getChannel().map(
+						FileChannel.MapMode.READ_WRITE,
+						0,
+						size
+				);
+				buffer.order( ByteOrder.nativeOrder() );
+				//touch each page so it'll be faulted in now, not by drainer
+				for( int offset = 0; offset < size; offset += PAGE_SIZE ) {
+					buffer.put( offset, ( byte ) 0 );
+				}
+				return new Segment( file, raf, buffer );
+			} catch( IOException e ) {
+				raf.close();
+				throw e;
+			}
+		}
+
+		public void close( final boolean truncate ) throws IOException {
+			final int written = buffer.position();
+			UnsafeHelper.unmap( buffer );
+			try {
+				if( truncate ) {
+					raf.getChannel().truncate( written );
+				}
+			} finally {
+				raf.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package com.db.logger.api.impl.io;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+
+import com.db.logger.api.impl.logger.RecordHelper;
+import net.jcip.annotations.NotThreadSafe;
+
+import static com.db.logger.api.impl.logger.RecordHelper.NOT_SET;
+import static com.db.logger.api.impl.logger.RecordHelper.isValidHeader;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Streaming cursor over binary log, as it was written by drainer to
+ * {@linkplain RawWriter}: sequence of [header][cell x cellsCount] records,
+ * 8 bytes per cell (see {@linkplain com.db.logger.api.impl.logger.RecordHelper}
+ * for cells layout of each record type).
+ * <p/>
+ * Uses fixed-size buffer, so files of any size could be read with constant
+ * amount of heap. Expected usage scenario:
+ * <pre>
+ *     final RawLogReader reader = ...;
+ *     while( reader.next() ){
+ *        final long header = reader.header();
+ *        for( int i = 0; i < reader.cellsCount(); i++ ){
+ *            final long cell = reader.cell( i );
+ *            ...
+ *        }
+ *     }
+ *     reader.close();
+ * </pre>
+ */
+@NotThreadSafe
+public class RawLogReader implements Closeable {
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+	/** header.cellsCount is 16 bits wide */
+	private static final int MAX_RECORD_SIZE = ( 0xFFFF + 1 ) * 8;
+
+	/** null if records are read from buffer given */
+	private final ReadableByteChannel channel;
+	private final ByteBuffer buffer;
+
+	private boolean eof = false;
+
+	private long header = NOT_SET;
+	private int cellsCount = 0;
+	/** position of first cell (after header) of current record in buffer */
+	private int cellsStart = 0;
+
+	public RawLogReader( final File file ) throws IOException {
+		this( new FileInputStream( file ).getChannel(), ByteOrder.nativeOrder() );
+	}
+
+	public RawLogReader( final ReadableByteChannel channel,
+	                     final ByteOrder order ) {
+		this( channel, order, DEFAULT_BUFFER_SIZE );
+	}
+
+	public RawLogReader( final ReadableByteChannel channel,
+	                     final ByteOrder order,
+	                     final int bufferSize ) {
+		checkArgument( channel != null, "channel can't be null" );
+		checkArgument( order != null, "order can't be null" );
+		checkArgument( bufferSize >= MAX_RECORD_SIZE,
+		               "bufferSize(%s) must be >= max record size(%s)",
+		               bufferSize, MAX_RECORD_SIZE );
+
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect( bufferSize ).order( order );
+		this.buffer.flip();//empty, ready to read
+	}
+
+	/**
+	 * Reads records already in memory (i.e. chunk given to {@linkplain Appender}),
+	 * without copying. Buffer content must not change while it is read
+	 */
+	public RawLogReader( final ByteBuffer records ) {
+		checkArgument( records != null, "records can't be null" );
+		this.channel = null;
+		this.buffer = records.slice().order( records.order() );
+		this.eof = true;
+	}
+
+	/**
+	 * Moves to the next record. Zero header is treated as end of data: it is
+	 * unused tail of pre-allocated file (see {@linkplain MappedFileWriter})
+	 *
+	 * @return false if no more (complete) records available
+	 * @throws IOException if stream is corrupted (not valid header met)
+	 */
+	public boolean next() throws IOException {
+		//skip current record
+		buffer.position( cellsStart + cellsCount * 8 );
+		header = NOT_SET;
+		cellsCount = 0;
+		cellsStart = buffer.position();
+
+		if( !ensureAvailable( 8 ) ) {
+			return false;
+		}
+		final long header = buffer.getLong( buffer.position() );
+		if( header == 0 ) {
+			return false;
+		}
+		if( !isValidHeader( header ) ) {
+			throw new IOException( "Invalid header " + Long.toHexString( header ) + ": stream corrupted?" );
+		}
+		final int cellsCount = RecordHelper.cellsCount( header );
+		if( !ensureAvailable( ( cellsCount + 1 ) * 8 ) ) {
+			return false;
+		}
+		this.header = header;
+		this.cellsCount = cellsCount;
+		this.cellsStart = buffer.position() + 8;
+		return true;
+	}
+
+	public long header() {
+		checkState( header != NOT_SET, "No current record: call next() first" );
+		return header;
+	}
+
+	/** @return count of cells following header in current record */
+	public int cellsCount() {
+		return cellsCount;
+	}
+
+	/** index is not checked against [0, cellsCount) for speed */
+	public long cell( final int index ) {
+		return buffer.getLong( cellsStart + index * 8 );
+	}
+
+	@Override
+	public void close() throws IOException {
+		if( channel != null ) {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Ensures at least bytes are available in buffer from current position,
+	 * reading more from channel if needed
+	 *
+	 * @return false if EOF reached before required bytes become available
+	 */
+	private boolean ensureAvailable( final int bytes ) throws IOException {
+		while( buffer.remaining() < bytes ) {
+			if( eof ) {
+				return false;
+			}
+			buffer.compact();
+			try {
+				final int read = channel.read( buffer );
+				if( read < 0 ) {
+					eof = true;
+				}
+			} finally {
+				buffer.flip();
+			}
+		}
+		return true;
+	}
+}
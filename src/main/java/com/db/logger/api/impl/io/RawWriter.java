@@ -19,6 +19,8 @@ import java.nio.ByteBuffer;
  *     }
  * w.close();
  * </pre>
+ * Buffer is expected to be in {@linkplain java.nio.ByteOrder#nativeOrder() native}
+ * byte order -- this is what {@linkplain LogDecoder} expects by default.
  *
  * @author cherrus
  *         created 11/14/13 at 10:16 AM
@@ -0,0 +1,61 @@
+package com.db.logger.api.impl.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.db.logger.api.impl.logger.RecordHelper;
+import net.jcip.annotations.NotThreadSafe;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Binary log appender: records are copied into {@linkplain RawWriter} as they
+ * are, so output is the same as if drainer wrote into writer directly. Records
+ * never span writer flush
+ */
+@NotThreadSafe
+public class RawWriterAppender implements Appender {
+	private final RawWriter writer;
+
+	public RawWriterAppender( final RawWriter writer ) {
+		checkArgument( writer != null, "writer can't be null" );
+		this.writer = writer;
+	}
+
+	@Override
+	public void append( final ByteBuffer records ) throws IOException {
+		ByteBuffer output = writer.buffer();
+		if( output.remaining() >= records.remaining() ) {
+			output.put( records );
+			return;
+		}
+		//record by record
+		final int limit = records.limit();
+		while( records.position() < limit ) {
+			final long header = records.getLong( records.position() );
+			final int recordBytes = ( RecordHelper.cellsCount( header ) + 1 ) * 8;
+			if( output.remaining() < recordBytes ) {
+				writer.flush();
+				output = writer.buffer();
+			}
+			records.limit( records.position() + recordBytes );
+			output.put( records );
+			records.limit( limit );
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		writer.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		writer.close();
+	}
+
+	@Override
+	public String toString() {
+		return "RawWriterAppender[" + writer + "]";
+	}
+}
@@ -0,0 +1,220 @@
+package com.db.logger.api.impl.io;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.db.logger.api.impl.logger.MessageInfo;
+import com.db.logger.api.impl.logger.buffer.ICircularLongsBuffer;
+import com.db.logger.api.impl.logger.buffer.MappedRingFile;
+import com.google.common.base.Charsets;
+import net.jcip.annotations.NotThreadSafe;
+
+import static com.db.logger.api.impl.logger.RecordHelper.*;
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Post-mortem reader of ring buffer left by crashed process in
+ * {@linkplain MappedRingFile}: records which were not drained yet are still there.
+ * There is no live {@linkplain com.db.logger.api.impl.logger.Sequencer}, so the
+ * ring is recovered from cells only:
+ * <ul>
+ * <li>drained cells are reclaimed (NOT_SET), so the longest run of NOT_SET cells
+ * is free space, and the first cell after it is the oldest record. Records are
+ * placed in ring by their sequence, so going from there gives them in claim order.
+ * If ring was full, there is no free space, and it is read from cell 0</li>
+ * <li>valid record headers (see {@linkplain #isPlausible(long, long)}) are taken,
+ * PADDING is skipped</li>
+ * <li>record claimed, but not published at crash (torn) is skipped by it's pending
+ * marker length. Record with unknown length (header not written at all) and
+ * garbage are skipped cell by cell, until next plausible header</li>
+ * </ul>
+ * Recovered records are given in drainer output format, so they could be decoded
+ * by {@linkplain LogDecoder}. Records drained by bulk drain, but not yet reclaimed
+ * at crash, have timestamps already rewritten to deltas: they were handed to
+ * writer, and are recovered with wrong timestamps.
+ * <p/>
+ * Usage: RingRecoveryReader ring-file catalog [output]
+ */
+@NotThreadSafe
+public class RingRecoveryReader {
+	/** re-anchor timestamps if delta is above it, as drainer does */
+	private static final long ANCHOR_PERIOD_NANOS = 1000000000L;
+
+	private final ICircularLongsBuffer ring;
+	/** may be null: then arguments count of records are not checked */
+	private final DecodingCatalog catalog;
+
+	private int recoveredRecords = 0;
+	private int tornRecords = 0;
+	private int skippedCells = 0;
+
+	/** @param catalog formats of records, used to tell garbage from records. May be null */
+	public RingRecoveryReader( final ICircularLongsBuffer ring,
+	                           final DecodingCatalog catalog ) {
+		checkArgument( ring != null, "ring can't be null" );
+		this.ring = ring;
+		this.catalog = catalog;
+	}
+
+	/** @return records recovered, in drainer output format, in native byte order */
+	public ByteBuffer recover() {
+		final int length = ring.length();
+		final long start = oldestCell();
+		final long end = start + length - freeCells( start );
+
+		final ByteArrayOutputStream records = new ByteArrayOutputStream();
+		final ByteBuffer record = ByteBuffer.allocate( ( 0xFFFF + 1 + 2 ) * 8 ).order( ByteOrder.nativeOrder() );
+		long anchorTimestamp = 0;
+		boolean anchorWritten = false;
+		for( long pos = start; pos < end; ) {
+			final long header = ring.get( pos );
+			//garbage could look like pending marker too, but not of record fitting into region
+			if( isPendingHeader( header )
+					&& pendingCellsCount( header ) >= 0
+					&& pendingCellsCount( header ) <= start + length - pos - 1 ) {
+				tornRecords++;
+				pos += pendingCellsCount( header ) + 1;
+				continue;
+			}
+			//record could go past end: it's last cells could be NOT_SET arguments
+			if( !isPlausible( header, start + length - pos - 1 ) ) {
+				skippedCells++;
+				pos++;
+				continue;
+			}
+			final int cellsCount = cellsCount( header );
+			if( type( header ) == RecordType.LOG_RECORD ) {
+				final long timestamp = ring.get( pos + TIMESTAMP_OFFSET );
+				record.clear();
+				final long delta = timestamp - anchorTimestamp;
+				if( !anchorWritten || delta > ANCHOR_PERIOD_NANOS || delta < -ANCHOR_PERIOD_NANOS ) {
+					record.putLong( timestampHeader() );
+					record.putLong( timestamp );
+					anchorTimestamp = timestamp;
+					anchorWritten = true;
+				}
+				record.putLong( header );
+				record.putLong( timestamp - anchorTimestamp );
+				for( int i = TIMESTAMP_OFFSET + 1; i <= cellsCount; i++ ) {
+					record.putLong( ring.get( pos + i ) );
+				}
+				records.write( record.array(), 0, record.position() );
+				recoveredRecords++;
+			}
+			pos += cellsCount + 1;
+		}
+		return ByteBuffer.wrap( records.toByteArray() ).order( ByteOrder.nativeOrder() );
+	}
+
+	public int recoveredRecords() {
+		return recoveredRecords;
+	}
+
+	/** @return records claimed, but not published at crash */
+	public int tornRecords() {
+		return tornRecords;
+	}
+
+	/** @return cells of records with unknown length, or garbage */
+	public int skippedCells() {
+		return skippedCells;
+	}
+
+	/**
+	 * @param cellsLeft cells after header, up to the oldest record
+	 * @return true if header looks like header of LOG_RECORD or PADDING, which fits
+	 * into region, and (if catalog knows it's format) has as many cells as format needs
+	 */
+	private boolean isPlausible( final long header,
+	                             final long cellsLeft ) {
+		if( !isValidHeader( header ) ) {
+			return false;
+		}
+		final RecordType type;
+		try {
+			type = type( header );
+		} catch( IllegalArgumentException e ) {
+			return false;
+		}
+		final int cellsCount = cellsCount( header );
+		if( cellsCount > cellsLeft ) {
+			return false;
+		}
+		if( type == RecordType.PADDING ) {
+			return true;
+		}
+		if( type != RecordType.LOG_RECORD || cellsCount < TIMESTAMP_OFFSET ) {
+			return false;
+		}
+		final MessageInfo messageInfo = ( catalog != null ) ? catalog.messageInfo( formatId( header ) ) : null;
+		if( messageInfo == null ) {
+			return true;
+		}
+		final int argumentsCells = cellsCount - TIMESTAMP_OFFSET;
+		if( messageInfo.template.isFixedSize() ) {
+			//+1 for Throwable id
+			return argumentsCells == messageInfo.argumentsCount
+					|| argumentsCells == messageInfo.argumentsCount + 1;
+		}
+		return argumentsCells >= messageInfo.argumentsCount;
+	}
+
+	/** @return first cell after the longest run of NOT_SET cells, or 0, if there is no NOT_SET cell */
+	private long oldestCell() {
+		final int length = ring.length();
+		int bestEnd = 0;
+		int bestRun = 0;
+		int run = 0;
+		//twice around, so run wrapping around the end is found too
+		for( int i = 0; i < 2 * length && bestRun < length; i++ ) {
+			if( ring.get( i ) == NOT_SET ) {
+				run++;
+				if( run > bestRun ) {
+					bestRun = run;
+					bestEnd = i + 1;
+				}
+			} else {
+				run = 0;
+			}
+		}
+		return bestEnd % length;
+	}
+
+	/** @return count of NOT_SET cells just before start (going backwards) */
+	private int freeCells( final long start ) {
+		final int length = ring.length();
+		int free = 0;
+		while( free < length && ring.get( start + length - 1 - free ) == NOT_SET ) {
+			free++;
+		}
+		return free;
+	}
+
+	public static void main( final String[] args ) throws Exception {
+		if( args.length < 2 || args.length > 3 ) {
+			System.err.println( "Usage: RingRecoveryReader ring-file catalog [output]" );
+			System.exit( 1 );
+		}
+		final DecodingCatalog catalog = DecodingCatalog.load( new File( args[1] ) );
+		final MappedRingFile ringFile = MappedRingFile.open( new File( args[0] ) );
+		final Writer output = new BufferedWriter(
+				new OutputStreamWriter(
+						args.length > 2 ? new FileOutputStream( args[2] ) : System.out,
+						Charsets.UTF_8
+				),
+				1 << 16
+		);
+		try {
+			final RingRecoveryReader recovery = new RingRecoveryReader( ringFile.buffer(), catalog );
+			final ByteBuffer records = recovery.recover();
+			new LogDecoder( catalog ).decode( new RawLogReader( records ), output );
+			System.err.println( recovery.recoveredRecords() + " records recovered, "
+					                    + recovery.tornRecords() + " torn records, "
+					                    + recovery.skippedCells() + " cells skipped" );
+		} finally {
+			output.close();
+			ringFile.close();
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package com.db.logger.api.impl.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.jcip.annotations.ThreadSafe;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Keeps last N records, rendered as text (see {@linkplain TextAppender}), in
+ * memory: e.g. for diagnostics endpoint. {@linkplain #tail()} could be called
+ * from any thread
+ */
+@ThreadSafe
+public class TailAppender implements Appender {
+	private final LogDecoder decoder;
+
+	/** last records, as ring: lines[(next-1) % length] is the latest */
+	private final String[] lines;
+	private long next = 0;
+
+	/** LogDecoder appends each record by single call */
+	private final Appendable collector = new Appendable() {
+		@Override
+		public Appendable append( final CharSequence record ) {
+			add( record.toString() );
+			return this;
+		}
+
+		@Override
+		public Appendable append( final CharSequence record,
+		                          final int start,
+		                          final int end ) {
+			return append( record.subSequence( start, end ) );
+		}
+
+		@Override
+		public Appendable append( final char ch ) {
+			return append( String.valueOf( ch ) );
+		}
+	};
+
+	public TailAppender( final DecodingCatalog catalog,
+	                     final int capacity ) {
+		checkArgument( capacity > 0, "capacity(%s) must be > 0", capacity );
+		this.decoder = new LogDecoder( catalog );
+		this.lines = new String[capacity];
+	}
+
+	@Override
+	public void append( final ByteBuffer records ) throws IOException {
+		decoder.decode( new RawLogReader( records ), collector );
+	}
+
+	private synchronized void add( final String record ) {
+		lines[( int ) ( next % lines.length )] = record;
+		next++;
+	}
+
+	/** @return last records (each ends with '\n'), oldest first */
+	public synchronized List<String> tail() {
+		final int count = ( int ) Math.min( next, lines.length );
+		final List<String> tail = new ArrayList<String>( count );
+		for( long i = next - count; i < next; i++ ) {
+			tail.add( lines[( int ) ( i % lines.length )] );
+		}
+		return tail;
+	}
+
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	public void close() {
+	}
+
+	@Override
+	public String toString() {
+		return "TailAppender[" + lines.length + "]";
+	}
+}
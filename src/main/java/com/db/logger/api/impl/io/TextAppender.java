@@ -0,0 +1,47 @@
+package com.db.logger.api.impl.io;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Renders records as text, same as offline {@linkplain LogDecoder} does, using
+ * catalog mirrored in-process (see {@linkplain CatalogWriter#CatalogWriter(Writer, DecodingCatalog)}).
+ * Records are re-ordered by timestamp only inside each chunk
+ */
+@NotThreadSafe
+public class TextAppender implements Appender {
+	private final LogDecoder decoder;
+	private final Writer output;
+
+	public TextAppender( final DecodingCatalog catalog,
+	                     final Writer output ) {
+		checkArgument( output != null, "output can't be null" );
+		this.decoder = new LogDecoder( catalog );
+		this.output = output;
+	}
+
+	@Override
+	public void append( final ByteBuffer records ) throws IOException {
+		decoder.decode( new RawLogReader( records ), output );
+	}
+
+	@Override
+	public void flush() throws IOException {
+		output.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		output.close();
+	}
+
+	@Override
+	public String toString() {
+		return "TextAppender[" + output + "]";
+	}
+}
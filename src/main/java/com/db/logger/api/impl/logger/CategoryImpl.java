@@ -0,0 +1,106 @@
+package com.db.logger.api.impl.logger;
+
+import com.db.logger.api.Category;
+import com.db.logger.api.Level;
+import com.db.logger.api.LogMessage;
+import com.db.logger.api.impl.logger.formatters.DummyLogBuilder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Level is volatile, so check of enabled level is a single volatile read (plain
+ * load on x86), and new level is seen by all logging threads at their next call.
+ * Levels below {@linkplain #MIN_LEVEL} (-Dmin-log-level) are disabled by static
+ * final check, so JIT folds such calls away completely, and they can't be enabled
+ * without restart
+ */
+public final class CategoryImpl implements Category {
+	public static final Level MIN_LEVEL = Level.valueOf( System.getProperty( "min-log-level", "TRACE" ) );
+	/** level of new categories */
+	public static final Level DEFAULT_LEVEL = Level.valueOf( System.getProperty( "log-level", "INFO" ) );
+
+	private final String name;
+	private final FastLoggerImpl logger;
+
+	private volatile Level level;
+
+	CategoryImpl( final String name,
+	              final FastLoggerImpl logger,
+	              final Level level ) {
+		checkArgument( name != null, "name can't be null" );
+		checkArgument( logger != null, "logger can't be null" );
+		checkArgument( level != null, "level can't be null" );
+		this.name = name;
+		this.logger = logger;
+		this.level = level;
+	}
+
+	@Override
+	public String name() {
+		return name;
+	}
+
+	@Override
+	public Level level() {
+		return level;
+	}
+
+	@Override
+	public void setLevel( final Level level ) {
+		checkArgument( level != null, "level can't be null" );
+		this.level = level;
+	}
+
+	@Override
+	public boolean isEnabled( final Level level ) {
+		return level.id() >= MIN_LEVEL.id()
+				&& level != Level.OFF
+				&& level.id() >= this.level.id();
+	}
+
+	@Override
+	public LogMessage log( final Level level,
+	                       final String messageFormat ) {
+		if( !isEnabled( level ) ) {
+			return DummyLogBuilder.INSTANCE;
+		}
+		return logger.log( level, messageFormat );
+	}
+
+	@Override
+	public LogMessage message( final Level level,
+	                           final String messageFormat ) {
+		checkArgument( level != null, "level can't be null" );
+		return logger.messageThreadLocal( this, level, messageFormat );
+	}
+
+	@Override
+	public LogMessage trace( final String messageFormat ) {
+		return log( Level.TRACE, messageFormat );
+	}
+
+	@Override
+	public LogMessage debug( final String messageFormat ) {
+		return log( Level.DEBUG, messageFormat );
+	}
+
+	@Override
+	public LogMessage info( final String messageFormat ) {
+		return log( Level.INFO, messageFormat );
+	}
+
+	@Override
+	public LogMessage warn( final String messageFormat ) {
+		return log( Level.WARN, messageFormat );
+	}
+
+	@Override
+	public LogMessage error( final String messageFormat ) {
+		return log( Level.ERROR, messageFormat );
+	}
+
+	@Override
+	public String toString() {
+		return "Category[" + name + ":" + level + "]";
+	}
+}
@@ -0,0 +1,150 @@
+package com.db.logger.api.impl.logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * What drainer does between passes over ring buffers.
+ * <ul>
+ * <li>if last pass drained more then half of ring -- next pass starts immediately,
+ * and park period is halved (down to minParkNanos)</li>
+ * <li>if last pass drained less then 1/8 of ring (or nothing) -- park period is
+ * doubled (up to maxParkNanos)</li>
+ * <li>if last pass drained nothing -- drainer spins for spinPasses passes, then
+ * yields for yieldPasses passes, and only then parks</li>
+ * <li>otherwise drainer parks for current period</li>
+ * </ul>
+ * So drainer of idle logger costs nothing but (rare) wakeups, and drainer of
+ * loaded logger polls often enough to keep rings from overflow. Producer could
+ * also wake drainer up early by {@linkplain #wakeUp()}: ring buffer does it
+ * if it is filled above high-water mark (see {@linkplain #highWaterMark(int)})
+ * <p/>
+ * {@linkplain #idle(int, int)} must be called from drainer thread only, {@linkplain #wakeUp()}
+ * could be called from any thread
+ */
+public class DrainerIdleStrategy {
+	public static final long DEFAULT_MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos( 50 );
+	public static final long DEFAULT_MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos( 100 );
+	public static final double DEFAULT_HIGH_WATER_MARK = 0.5;
+
+	private final int spinPasses;
+	private final int yieldPasses;
+	private final long minParkNanos;
+	private final long maxParkNanos;
+	private final double highWaterMarkRatio;
+
+	/** drainer thread, while it is parked, null otherwise */
+	private volatile Thread parkedDrainer = null;
+
+	//drainer thread state
+	private int idlePasses = 0;
+	private long parkNanos;
+
+	/**
+	 * @param highWaterMarkRatio fraction of ring length, occupied cells above which
+	 *                           producer wakes drainer up. 1 means never.
+	 */
+	public DrainerIdleStrategy( final int spinPasses,
+	                            final int yieldPasses,
+	                            final long minParkNanos,
+	                            final long maxParkNanos,
+	                            final double highWaterMarkRatio ) {
+		checkArgument( spinPasses >= 0, "spinPasses(%s) must be >= 0", spinPasses );
+		checkArgument( yieldPasses >= 0, "yieldPasses(%s) must be >= 0", yieldPasses );
+		checkArgument( minParkNanos > 0, "minParkNanos(%s) must be > 0", minParkNanos );
+		checkArgument( maxParkNanos >= minParkNanos,
+		               "maxParkNanos(%s) must be >= minParkNanos(%s)", maxParkNanos, minParkNanos );
+		checkArgument( highWaterMarkRatio > 0 && highWaterMarkRatio <= 1,
+		               "highWaterMarkRatio(%s) must be in (0,1]", highWaterMarkRatio );
+		this.spinPasses = spinPasses;
+		this.yieldPasses = yieldPasses;
+		this.minParkNanos = minParkNanos;
+		this.maxParkNanos = maxParkNanos;
+		this.highWaterMarkRatio = highWaterMarkRatio;
+
+		this.parkNanos = minParkNanos;
+	}
+
+	/** No spinning/yielding: drainer parks as soon as there is nothing to drain */
+	public DrainerIdleStrategy() {
+		this( 0, 0, DEFAULT_MIN_PARK_NANOS, DEFAULT_MAX_PARK_NANOS, DEFAULT_HIGH_WATER_MARK );
+	}
+
+	/** @return occupied cells count of ring of ringLength, above which drainer should be woken up */
+	public int highWaterMark( final int ringLength ) {
+		return ( int ) Math.ceil( ringLength * highWaterMarkRatio );
+	}
+
+	/**
+	 * @param drainedCells cells drained by last pass (max over rings, if many)
+	 * @param ringLength   length of ring drainedCells are drained from
+	 */
+	public void idle( final int drainedCells,
+	                  final int ringLength ) {
+		parkNanos = nextParkPeriod( drainedCells, ringLength, parkNanos );
+		if( drainedCells > ringLength / 2 ) {
+			idlePasses = 0;
+			return;
+		}
+		if( drainedCells == 0 ) {
+			idlePasses++;
+			if( idlePasses <= spinPasses ) {
+				return;
+			}
+			if( idlePasses <= spinPasses + yieldPasses ) {
+				Thread.yield();
+				return;
+			}
+		} else {
+			idlePasses = 0;
+		}
+		park( parkNanos );
+	}
+
+	/** current park period, for monitoring */
+	public long parkNanos() {
+		return parkNanos;
+	}
+
+	/** Wakes drainer up, if it is parked now. Cheap (volatile read) if not */
+	public void wakeUp() {
+		final Thread drainer = parkedDrainer;
+		if( drainer != null ) {
+			LockSupport.unpark( drainer );
+		}
+	}
+
+	private void park( final long nanos ) {
+		final Thread current = Thread.currentThread();
+		checkState( parkedDrainer == null, "%s is already parked: >1 drainer?", parkedDrainer );
+		parkedDrainer = current;
+		try {
+			LockSupport.parkNanos( this, nanos );
+		} finally {
+			parkedDrainer = null;
+		}
+	}
+
+	private long nextParkPeriod( final int drainedCells,
+	                             final int ringLength,
+	                             final long currentParkNanos ) {
+		if( drainedCells < ringLength / 8 ) {
+			return Math.min( maxParkNanos, currentParkNanos * 2 );
+		} else if( drainedCells > ringLength / 2 ) {
+			return Math.max( minParkNanos, currentParkNanos / 2 );
+		} else {
+			return currentParkNanos;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"DrainerIdleStrategy[spin %d, yield %d, park %d..%d ns, high-water %.2f]",
+				spinPasses, yieldPasses, minParkNanos, maxParkNanos, highWaterMarkRatio
+		);
+	}
+}
@@ -1,58 +1,308 @@
 package com.db.logger.api.impl.logger;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.db.logger.api.Category;
 import com.db.logger.api.FastLogger;
 import com.db.logger.api.FluentLogBuilder;
+import com.db.logger.api.Level;
+import com.db.logger.api.LogBatch;
 import com.db.logger.api.LogMessage;
 import com.db.logger.api.impl.logger.buffer.ICircularLongsBuffer;
+import com.db.logger.api.impl.logger.formatters.DummyLogBuilder;
 import com.db.logger.api.impl.logger.formatters.RawLogMessage;
 import com.db.logger.api.impl.logger.formatters.SimpleLogMessage;
+import com.db.logger.api.impl.io.AppenderPipeline;
+import com.db.logger.api.impl.io.CatalogWriter;
 import com.db.logger.api.impl.io.RawWriter;
-import com.google.common.base.Throwables;
+import com.db.logger.timesource.ITimestampSource;
+import com.db.logger.timesource.impl.JDKCombinedTimestampSource;
+import com.db.logger.timesource.impl.SynchronousJDKOffsetCalculator;
+import com.google.common.base.Supplier;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import static com.db.logger.api.impl.logger.RecordHelper.*;
-import static com.db.logger.api.impl.logger.RecordHelper.isValidHeader;
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
 
 /**
+ * Two modes are supported:
+ * <ul>
+ * <li>shared: all logging threads claim records in one multi-producer ring
+ * buffer ({@linkplain MCSDSequencer})</li>
+ * <li>per-thread: each logging thread gets it's own single-producer ring
+ * buffer ({@linkplain SCSDSequencer}) on first use, so there is no contention
+ * between producers at all. Drainer round-robins over all registered buffers.
+ * Buffers of dead threads are drained, unregistered, and reused for new
+ * threads</li>
+ * </ul>
+ * Record claimed by producer died (or thrown) before submit wedges it's ring
+ * forever. With unpublishedRecordTimeoutMillis > 0 each ring gets
+ * {@linkplain UnpublishedRecordWatchdog}, which drops such records after timeout.
+ * It is disabled by default: records of watched rings are published by CAS, not
+ * by plain store, and producer stalled longer than timeout loses it's record
+ *
  * @author ruslan
  *         created 24.08.13 at 15:14
  */
 public class FastLoggerImpl implements FastLogger {
 	private static final Log log = LogFactory.getLog( FastLoggerImpl.class );
 
+	/** how long thread stuck at shutdown deadline is given after interrupt, before it is abandoned */
+	public static final long ABANDON_GRACE_MILLIS = 100;
+
 	private final ThreadFactory threadFactory;
 
-	private final RingBuffer ringBuffer;
+	private final WaitingStrategy waitingStrategy;
+	private final OverflowPolicy overflowPolicy;
+	private final DrainerIdleStrategy drainerIdleStrategy;
+
+	/** null in per-thread mode */
+	private final RingBuffer sharedRingBuffer;
+
+	/** null in shared mode */
+	private final Supplier<? extends ICircularLongsBuffer> perThreadBuffers;
+
+	/**
+	 * all ring buffers to drain. In shared mode it's only sharedRingBuffer. Ring is
+	 * removed under it's lock, together with adding it's counters to *ByRemovedRings
+	 * totals, so counters readers (also under the lock) count it exactly once
+	 */
+	private final List<ProducerRing> rings = new CopyOnWriteArrayList<ProducerRing>();
+	/** buffers of dead threads, ready to reuse */
+	private final Queue<ICircularLongsBuffer> freeBuffers = new ConcurrentLinkedQueue<ICircularLongsBuffer>();
+	/** records dropped by rings already unregistered */
+	private final AtomicLong droppedByRemovedRings = new AtomicLong( 0 );
+	/** records tombstoned in rings already unregistered */
+	private final AtomicLong tombstonedByRemovedRings = new AtomicLong( 0 );
 
 	private final RawWriter writer;
 
+	/** may be null, if catalog is not needed (e.g. benchmarks) */
+	private final CatalogWriter catalogWriter;
+
+	/** each record is stamped with it at start */
+	private final ITimestampSource timestampSource;
+
+	/** 0 if records not published in time are not dropped */
+	private final long unpublishedRecordTimeoutMillis;
+
 
+	/**
+	 * Records are stamped by {@linkplain JDKCombinedTimestampSource} (nanoseconds
+	 * resolution), exception is thrown if buffer is full ({@linkplain OverflowPolicy#THROW})
+	 */
 	public FastLoggerImpl( final ThreadFactory threadFactory,
 	                       final ICircularLongsBuffer buffer,
 	                       final WaitingStrategy waitingStrategy,
 	                       final RawWriter writer ) {
+		this(
+				threadFactory,
+				buffer,
+				waitingStrategy,
+				OverflowPolicy.THROW,
+				new DrainerIdleStrategy(),
+				writer,
+				null,
+				new JDKCombinedTimestampSource( new SynchronousJDKOffsetCalculator() )
+		);
+	}
+
+	/**
+	 * @param waitingStrategy how producers wait for space in full buffer. If it is
+	 *                        {@linkplain WaitingStrategy.Wakeable}, drainer wakes
+	 *                        waiting producers up after each pass
+	 * @param overflowPolicy  what to do if waitingStrategy gives up
+	 * @param drainerIdleStrategy what drainer does between passes. Must not be
+	 *                        shared between loggers
+	 * @param catalogWriter   messages catalog is dumped here as new messages appear,
+	 *                        so binary log written to writer could be decoded offline
+	 *                        by {@linkplain com.db.logger.api.impl.io.LogDecoder}
+	 * @param timestampSource each record is stamped by it's value at record start.
+	 *                        It is called on logging threads, so it should be cheap
+	 *                        (i.e. {@linkplain JDKCombinedTimestampSource})
+	 */
+	public FastLoggerImpl( final ThreadFactory threadFactory,
+	                       final ICircularLongsBuffer buffer,
+	                       final WaitingStrategy waitingStrategy,
+	                       final OverflowPolicy overflowPolicy,
+	                       final DrainerIdleStrategy drainerIdleStrategy,
+	                       final RawWriter writer,
+	                       final CatalogWriter catalogWriter,
+	                       final ITimestampSource timestampSource ) {
+		this(
+				threadFactory,
+				buffer,
+				waitingStrategy,
+				overflowPolicy,
+				drainerIdleStrategy,
+				writer,
+				catalogWriter,
+				timestampSource,
+				0
+		);
+	}
+
+	/**
+	 * @param unpublishedRecordTimeoutMillis record claimed, but not published for
+	 *                                       this long, is dropped (see
+	 *                                       {@linkplain UnpublishedRecordWatchdog}).
+	 *                                       0 disables it
+	 */
+	public FastLoggerImpl( final ThreadFactory threadFactory,
+	                       final ICircularLongsBuffer buffer,
+	                       final WaitingStrategy waitingStrategy,
+	                       final OverflowPolicy overflowPolicy,
+	                       final DrainerIdleStrategy drainerIdleStrategy,
+	                       final RawWriter writer,
+	                       final CatalogWriter catalogWriter,
+	                       final ITimestampSource timestampSource,
+	                       final long unpublishedRecordTimeoutMillis ) {
 		checkArgument( threadFactory != null, "threadFactory can't be null" );
 		checkArgument( waitingStrategy != null, "waitingStrategy can't be null" );
+		checkArgument( overflowPolicy != null, "overflowPolicy can't be null" );
+		checkArgument( drainerIdleStrategy != null, "drainerIdleStrategy can't be null" );
 		checkArgument( buffer != null, "buffer can't be null" );
 		checkArgument( writer != null, "writer can't be null" );
+		checkArgument( timestampSource != null, "timestampSource can't be null" );
+		checkArgument( unpublishedRecordTimeoutMillis >= 0,
+		               "unpublishedRecordTimeoutMillis(%s) must be >= 0", unpublishedRecordTimeoutMillis );
 
 
 		this.threadFactory = threadFactory;
+		this.waitingStrategy = waitingStrategy;
+		this.overflowPolicy = overflowPolicy;
+		this.drainerIdleStrategy = drainerIdleStrategy;
+		this.timestampSource = timestampSource;
+		this.unpublishedRecordTimeoutMillis = unpublishedRecordTimeoutMillis;
 
 		final int length = buffer.length();
-		this.ringBuffer = new RingBuffer(
+		this.sharedRingBuffer = new RingBuffer(
 				new MCSDSequencer( length ),
 				buffer,
-				waitingStrategy
+				waitingStrategy,
+				overflowPolicy,
+				drainerIdleStrategy,
+				newWatchdog()
 		);
+		this.perThreadBuffers = null;
+		rings.add( new ProducerRing( sharedRingBuffer, null ) );
 
 		this.writer = writer;
+		this.catalogWriter = catalogWriter;
+	}
+
+	/**
+	 * Per-thread mode: each logging thread will get it's own buffer from
+	 * perThreadBuffers (or buffer of already dead thread) on first log call
+	 *
+	 * @param catalogWriter may be null
+	 */
+	public FastLoggerImpl( final ThreadFactory threadFactory,
+	                       final Supplier<? extends ICircularLongsBuffer> perThreadBuffers,
+	                       final WaitingStrategy waitingStrategy,
+	                       final OverflowPolicy overflowPolicy,
+	                       final DrainerIdleStrategy drainerIdleStrategy,
+	                       final RawWriter writer,
+	                       final CatalogWriter catalogWriter,
+	                       final ITimestampSource timestampSource ) {
+		this(
+				threadFactory,
+				perThreadBuffers,
+				waitingStrategy,
+				overflowPolicy,
+				drainerIdleStrategy,
+				writer,
+				catalogWriter,
+				timestampSource,
+				0
+		);
+	}
+
+	/**
+	 * Per-thread mode, with {@linkplain UnpublishedRecordWatchdog} for each thread
+	 * ring, if unpublishedRecordTimeoutMillis > 0
+	 *
+	 * @param catalogWriter may be null
+	 */
+	public FastLoggerImpl( final ThreadFactory threadFactory,
+	                       final Supplier<? extends ICircularLongsBuffer> perThreadBuffers,
+	                       final WaitingStrategy waitingStrategy,
+	                       final OverflowPolicy overflowPolicy,
+	                       final DrainerIdleStrategy drainerIdleStrategy,
+	                       final RawWriter writer,
+	                       final CatalogWriter catalogWriter,
+	                       final ITimestampSource timestampSource,
+	                       final long unpublishedRecordTimeoutMillis ) {
+		checkArgument( threadFactory != null, "threadFactory can't be null" );
+		checkArgument( waitingStrategy != null, "waitingStrategy can't be null" );
+		checkArgument( overflowPolicy != null, "overflowPolicy can't be null" );
+		checkArgument( drainerIdleStrategy != null, "drainerIdleStrategy can't be null" );
+		checkArgument( perThreadBuffers != null, "perThreadBuffers can't be null" );
+		checkArgument( writer != null, "writer can't be null" );
+		checkArgument( timestampSource != null, "timestampSource can't be null" );
+		checkArgument( unpublishedRecordTimeoutMillis >= 0,
+		               "unpublishedRecordTimeoutMillis(%s) must be >= 0", unpublishedRecordTimeoutMillis );
+
+		this.threadFactory = threadFactory;
+		this.waitingStrategy = waitingStrategy;
+		this.overflowPolicy = overflowPolicy;
+		this.drainerIdleStrategy = drainerIdleStrategy;
+		this.timestampSource = timestampSource;
+		this.unpublishedRecordTimeoutMillis = unpublishedRecordTimeoutMillis;
+
+		this.sharedRingBuffer = null;
+		this.perThreadBuffers = perThreadBuffers;
+
+		this.writer = writer;
+		this.catalogWriter = catalogWriter;
+	}
+
+	private final ThreadLocal<RingBuffer> localRingBuffer = new ThreadLocal<RingBuffer>() {
+		@Override
+		protected RingBuffer initialValue() {
+			if( sharedRingBuffer != null ) {
+				return sharedRingBuffer;
+			}
+			return registerThreadRing( Thread.currentThread() );
+		}
+	};
+
+	private RingBuffer registerThreadRing( final Thread owner ) {
+		ICircularLongsBuffer buffer = freeBuffers.poll();
+		if( buffer == null ) {
+			buffer = perThreadBuffers.get();
+			checkState( buffer != null, "perThreadBuffers returns null" );
+		}
+		final RingBuffer ringBuffer = new RingBuffer(
+				new SCSDSequencer( buffer.length() ),
+				buffer,
+				waitingStrategy,
+				overflowPolicy,
+				drainerIdleStrategy,
+				newWatchdog()
+		);
+		rings.add( new ProducerRing( ringBuffer, owner ) );
+		//ring is added _before_ check, so either shutdown() sees it, or it sees closed
+		if( closed ) {
+			ringBuffer.close();
+		}
+		return ringBuffer;
+	}
+
+	/** @return watchdog for new ring, or null if disabled */
+	private UnpublishedRecordWatchdog newWatchdog() {
+		return ( unpublishedRecordTimeoutMillis > 0 ) ?
+				new UnpublishedRecordWatchdog( unpublishedRecordTimeoutMillis, TimeUnit.MILLISECONDS ) :
+				null;
 	}
 
 //	private final ThreadLocal<R> localEntryBuilder = new ThreadLocal<R>() {
@@ -62,54 +312,167 @@ public class FastLoggerImpl implements FastLogger {
 //		}
 //	};
 
+	/**
+	 * Returned message is bound to ring buffer it is created with, so in per-thread
+	 * mode it could be used only by creating thread -- and only while it is alive:
+	 * ring of dead thread is reused by another one. It is too easy to misuse, so
+	 * it is not supported in per-thread mode: use {@linkplain #messageThreadLocal(String)}
+	 *
+	 * @throws IllegalStateException in per-thread mode
+	 */
 	@Override
 	public synchronized SimpleLogMessage messageSimple( final String messageFormat ) {
+		checkState( sharedRingBuffer != null,
+		            "messageSimple() is not supported in per-thread mode: use messageThreadLocal()" );
 		final MessageInfo messageInfo = lookupMessageInfo( messageFormat );
 		return new SimpleLogMessage(
-				messageFormat,
-				messageInfo.formatId,
-				messageInfo.argumentsCount,
-				ringBuffer
+				messageInfo,
+				sharedRingBuffer,
+				timestampSource,
+				symbols,
+				throwables
 		);
 	}
 
-	private final ThreadLocal<RawLogMessage> holder = new ThreadLocal<RawLogMessage>() {
+	private final ThreadLocal<LocalState> holder = new ThreadLocal<LocalState>() {
 		@Override
-		protected RawLogMessage initialValue() {
-			return new RawLogMessage( ringBuffer );
+		protected LocalState initialValue() {
+			return new LocalState( new RawLogMessage( localRingBuffer.get(), timestampSource, symbols, throwables ) );
 		}
 	};
 
 
+	/**
+	 * Pre-resolved handle: format is looked up in catalog once, here, so logging
+	 * through returned message does no lookup at all. Handle is not bound to
+	 * calling thread, so it could be obtained once per call site and kept in
+	 * static final field:
+	 * <pre>
+	 * private static final LogMessage ORDER_FILLED = logger.messageThreadLocal( "order %d filled: %d" );
+	 * ...
+	 * ORDER_FILLED.with( orderId ).with( qty ).submit();
+	 * </pre>
+	 */
 	@Override
-	public synchronized LogMessage messageThreadLocal( final String messageFormat ) {
+	public LogMessage messageThreadLocal( final String messageFormat ) {
+		final MessageInfo messageInfo = lookupMessageInfo( messageFormat );
+
+		return new ThreadLocalLogMessage( messageInfo, null, null );
+	}
+
+	/** same as {@linkplain #messageThreadLocal(String)}, but submits nothing while level is disabled in category */
+	LogMessage messageThreadLocal( final CategoryImpl category,
+	                               final Level level,
+	                               final String messageFormat ) {
 		final MessageInfo messageInfo = lookupMessageInfo( messageFormat );
 
-		return new ThreadLocalLogMessage( messageInfo );
+		return new ThreadLocalLogMessage( messageInfo, category, level );
 	}
 
 	private final MessagesCatalog messages = new MessagesCatalog( 2048 );
+	private final SymbolTable symbols = new SymbolTable();
+	private final ThrowableTable throwables = new ThrowableTable();
+	private final ConcurrentMap<String, CategoryImpl> categories = new ConcurrentHashMap<String, CategoryImpl>();
 
 	public MessageInfo lookupMessageInfo( final String messageFormat ) {
 		return messages.lookupMessageInfo( messageFormat );
 	}
 
+	/**
+	 * Format is looked up in thread-local identity cache first (see {@linkplain MessageInfoCache}),
+	 * and only on miss in shared catalog. For call sites on hot path
+	 * {@linkplain #messageThreadLocal(String)} handle is still cheaper
+	 */
 	public LogMessage log( final String messageFormat ) {
-		final MessageInfo messageInfo = lookupMessageInfo( messageFormat );
-		final RawLogMessage message = holder.get();
-		return message.setup( messageInfo ).start();
+		return log( null, messageFormat );
+	}
+
+	/**
+	 * Level is only written into record here: it is {@linkplain Category} who
+	 * decides is it enabled
+	 *
+	 * @param level may be null
+	 */
+	public LogMessage log( final Level level,
+	                       final String messageFormat ) {
+		final LocalState state = holder.get();
+		return state.message.setup( state.lookupMessageInfo( messageFormat ), level ).start();
+	}
+
+	@Override
+	public LogBatch batch( final String messageFormat,
+	                       final int records ) {
+		final LocalState state = holder.get();
+		return state.message.setup( state.lookupMessageInfo( messageFormat ) ).startBatch( records );
+	}
+
+	@Override
+	public Category category( final String name ) {
+		checkArgument( name != null, "name can't be null" );
+		final CategoryImpl category = categories.get( name );
+		if( category != null ) {
+			return category;
+		}
+		final CategoryImpl newCategory = new CategoryImpl( name, this, CategoryImpl.DEFAULT_LEVEL );
+		final CategoryImpl existing = categories.putIfAbsent( name, newCategory );
+		return existing != null ? existing : newCategory;
+	}
+
+	@Override
+	public int symbol( final CharSequence value ) {
+		return symbols.register( value );
+	}
+
+	/** @return total count of records dropped due to {@linkplain OverflowPolicy#DROP_AND_COUNT} */
+	public long droppedRecords() {
+		synchronized( rings ) {
+			long dropped = droppedByRemovedRings.get();
+			for( final ProducerRing ring : rings ) {
+				dropped += ring.ringBuffer.droppedRecords();
+			}
+			return dropped;
+		}
+	}
+
+	/**
+	 * @return total count of records claimed, but never published, and dropped by
+	 * {@linkplain UnpublishedRecordWatchdog}
+	 */
+	public long tombstonedRecords() {
+		synchronized( rings ) {
+			long tombstoned = tombstonedByRemovedRings.get();
+			for( final ProducerRing ring : rings ) {
+				final UnpublishedRecordWatchdog watchdog = ring.ringBuffer.watchdog();
+				if( watchdog != null ) {
+					tombstoned += watchdog.tombstones();
+				}
+			}
+			return tombstoned;
+		}
+	}
+
+	/** @return count of ring buffers registered now: in per-thread mode it's count of live (or not yet drained) producers */
+	int registeredRings() {
+		return rings.size();
+	}
+
+	/** @return count of buffers of dead threads, ready to reuse: buffer is added here after it's ring is unregistered */
+	int reusableBuffers() {
+		return freeBuffers.size();
 	}
 
 	private Thread drainerThread = null;
+	private Drainer drainer = null;
+
+	/** set by {@linkplain #shutdown(long, TimeUnit)}: new rings are closed right away */
+	private volatile boolean closed = false;
+	private boolean shutdown = false;
+	private Thread shutdownHook = null;
 
 	public synchronized void startDraining() {
+		checkState( !shutdown, "logger is shut down" );
 		if( drainerThread == null ) {
-			final Drainer drainer = new Drainer(
-					ringBuffer, new ConsumingDrainer(
-					ringBuffer.buffer(),
-					writer
-			)
-			);
+			drainer = newDrainer();
 			drainerThread = threadFactory.newThread(
 					drainer
 			);
@@ -119,14 +482,131 @@ public class FastLoggerImpl implements FastLogger {
 		}
 	}
 
+	private Drainer newDrainer() {
+		return new Drainer(
+				rings,
+				freeBuffers,
+				droppedByRemovedRings,
+				tombstonedByRemovedRings,
+				waitingStrategy,
+				drainerIdleStrategy,
+				writer,
+				messages,
+				symbols,
+				throwables,
+				catalogWriter
+		);
+	}
+
 	public synchronized void stopDraining() throws InterruptedException {
 		if( drainerThread != null ) {
 			drainerThread.interrupt();
 			drainerThread.join();
 			drainerThread = null;
+			drainer = null;
 		}
 	}
 
+	/**
+	 * Orderly shutdown: all rings are closed for new records (they are dropped, and
+	 * counted in {@linkplain #droppedRecords()}), drainer thread (if any) is stopped,
+	 * and whatever is left in rings is drained -- waiting up to timeout for
+	 * records claimed, but not yet published. Then writer and catalog are flushed
+	 * and closed. Repeated calls do nothing.
+	 * <p/>
+	 * Nothing is waited for past timeout (but {@linkplain #ABANDON_GRACE_MILLIS}
+	 * given to stuck threads): drainer thread not stopped in time is interrupted,
+	 * and if it is still stuck -- abandoned, together with writer it owns. Appenders
+	 * of {@linkplain AppenderPipeline} not closed in time are abandoned too
+	 *
+	 * @return true if all rings were drained to empty in time
+	 */
+	public synchronized boolean shutdown( final long timeout,
+	                                      final TimeUnit unit ) throws IOException, InterruptedException {
+		if( shutdown ) {
+			return true;
+		}
+		shutdown = true;
+		final long deadline = System.nanoTime() + unit.toNanos( timeout );
+		closed = true;
+		for( final ProducerRing ring : rings ) {
+			ring.ringBuffer.close();
+		}
+		removeShutdownHook();
+
+		final Drainer finalDrainer;
+		if( drainerThread != null ) {
+			//stop by flag, not interrupt: interrupt closes writer's channel, if it is in I/O now
+			drainer.stop();
+			drainerIdleStrategy.wakeUp();
+			TimeUnit.NANOSECONDS.timedJoin( drainerThread, deadline - System.nanoTime() );
+			if( drainerThread.isAlive() ) {
+				log.warn( "Drainer " + drainerThread + " is not stopped in time: interrupt it" );
+				drainerThread.interrupt();
+				drainerThread.join( ABANDON_GRACE_MILLIS );
+			}
+			if( drainerThread.isAlive() ) {
+				//it still owns rings, writer and catalog: none of them could be touched
+				log.warn( "Drainer " + drainerThread + " is stuck: abandon it, rest of records is lost" );
+				drainerThread = null;
+				drainer = null;
+				return false;
+			}
+			finalDrainer = drainer;
+			drainerThread = null;
+			drainer = null;
+		} else {
+			finalDrainer = newDrainer();
+		}
+
+		final boolean drained = finalDrainer.drainToEmpty( deadline );
+		if( !drained ) {
+			log.warn( "Rings are not drained to empty in " + timeout + " " + unit + ": rest of records is lost" );
+		}
+		try {
+			if( writer instanceof AppenderPipeline ) {
+				final long remainingMillis = TimeUnit.NANOSECONDS.toMillis( deadline - System.nanoTime() );
+				( ( AppenderPipeline ) writer ).close( Math.max( remainingMillis, ABANDON_GRACE_MILLIS ), TimeUnit.MILLISECONDS );
+			} else {
+				writer.close();
+			}
+		} finally {
+			if( catalogWriter != null ) {
+				catalogWriter.close();
+			}
+		}
+		return drained;
+	}
+
+	/** JVM shutdown will call {@linkplain #shutdown(long, TimeUnit)}, unless it is called before */
+	public synchronized void registerShutdownHook( final long timeout,
+	                                               final TimeUnit unit ) {
+		checkState( !shutdown, "logger is shut down" );
+		checkState( shutdownHook == null, "shutdown hook is already registered" );
+		shutdownHook = new Thread( "fast-logger-shutdown" ) {
+			@Override
+			public void run() {
+				try {
+					shutdown( timeout, unit );
+				} catch( Exception e ) {
+					log.error( "Shutdown failed", e );
+				}
+			}
+		};
+		Runtime.getRuntime().addShutdownHook( shutdownHook );
+	}
+
+	private void removeShutdownHook() {
+		if( shutdownHook != null && Thread.currentThread() != shutdownHook ) {
+			try {
+				Runtime.getRuntime().removeShutdownHook( shutdownHook );
+			} catch( IllegalStateException e ) {
+				//JVM is shutting down already
+			}
+		}
+		shutdownHook = null;
+	}
+
 	//	public interface Reporter extends Closeable {
 //
 //		public void process( final ICircularLongArray buffer,
@@ -136,140 +616,296 @@ public class FastLoggerImpl implements FastLogger {
 //		public void close();
 //	}
 
-	private static class Drainer implements Runnable, MCSDSequencer.Drainer {
-		//TODO setup!
-		private static final int MIN_PERIOD_MS = 1;
-		private static final int MAX_PERIOD_MS = 1000;
+	/** Ring buffer with it's producer thread (if any) and consumer */
+	private static final class ProducerRing {
+		public final RingBuffer ringBuffer;
+		/** null for shared ring buffer: it is never unregistered */
+		public final Thread owner;
 
-		private long reportingPeriodMs = MIN_PERIOD_MS;
+		private ProducerRing( final RingBuffer ringBuffer,
+		                      final Thread owner ) {
+			this.ringBuffer = ringBuffer;
+			this.owner = owner;
+		}
 
-		private final ConsumingDrainer consumer;
-		private final RingBuffer ringBuffer;
+		public boolean isOrphaned() {
+			return owner != null && !owner.isAlive();
+		}
+	}
 
-		private Drainer( final RingBuffer ringBuffer,
-		                 final ConsumingDrainer consumer ) {
-			this.consumer = consumer;
-			this.ringBuffer = ringBuffer;
+	private static class Drainer implements Runnable, MCSDSequencer.Drainer {
+		/** register() is a few stores: if it is not done for this long, producer is lost */
+		private static final long REGISTER_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos( 1 );
+		private static final Random RUN_IDS = new Random();
+
+		private final List<ProducerRing> rings;
+		private final Queue<ICircularLongsBuffer> freeBuffers;
+		private final AtomicLong droppedByRemovedRings;
+		private final AtomicLong tombstonedByRemovedRings;
+		/** null if producers do not park */
+		private final WaitingStrategy.Wakeable wakeable;
+		private final DrainerIdleStrategy idleStrategy;
+		private final RawWriter writer;
+		/** writer, if it is pipeline, null otherwise */
+		private final AppenderPipeline pipeline;
+
+		private final MessagesCatalog messages;
+		private final SymbolTable symbols;
+		private final ThrowableTable throwables;
+		private final CatalogWriter catalogWriter;
+		private int lastDumpedFormatId = 0;
+		private int lastDumpedSymbolId = 0;
+		private int lastDumpedThrowableId = 0;
+		/** id register() of is in progress since stalledThrowableSince, 0 if none */
+		private int stalledThrowableId = 0;
+		private long stalledThrowableSince;
+		private final StackTraceTable traces = new StackTraceTable();
+		/**
+		 * catalog is dumped from the first id by each drainer, so each one starts
+		 * new run, see {@linkplain CatalogWriter#writeRun(long)}
+		 */
+		private final long runId = RUN_IDS.nextLong() & Long.MAX_VALUE;
+		private boolean runStarted = false;
+
+		/** one for all rings: they all are written into the same output */
+		private final WritingDrainer consumer;
+
+		private Drainer( final List<ProducerRing> rings,
+		                 final Queue<ICircularLongsBuffer> freeBuffers,
+		                 final AtomicLong droppedByRemovedRings,
+		                 final AtomicLong tombstonedByRemovedRings,
+		                 final WaitingStrategy waitingStrategy,
+		                 final DrainerIdleStrategy idleStrategy,
+		                 final RawWriter writer,
+		                 final MessagesCatalog messages,
+		                 final SymbolTable symbols,
+		                 final ThrowableTable throwables,
+		                 final CatalogWriter catalogWriter ) {
+			this.rings = rings;
+			this.freeBuffers = freeBuffers;
+			this.droppedByRemovedRings = droppedByRemovedRings;
+			this.tombstonedByRemovedRings = tombstonedByRemovedRings;
+			this.wakeable = ( waitingStrategy instanceof WaitingStrategy.Wakeable ) ?
+					( WaitingStrategy.Wakeable ) waitingStrategy :
+					null;
+			this.idleStrategy = idleStrategy;
+			this.writer = writer;
+			this.pipeline = ( writer instanceof AppenderPipeline ) ?
+					( AppenderPipeline ) writer :
+					null;
+			this.messages = messages;
+			this.symbols = symbols;
+			this.throwables = throwables;
+			this.catalogWriter = catalogWriter;
+			this.consumer = new WritingDrainer( writer );
 		}
 
+		private volatile boolean stopped = false;
+
 		@Override
 		public void run() {
-			while( !Thread.interrupted() ) {
+			while( !stopped && !Thread.interrupted() ) {
 				try {
-					ringBuffer.drainTo( this );
-					Thread.yield();
-//					reportingPeriodMs = nextWaitPeriod(
-//							processedRecords,
-//							ringBuffer.length(),
-//							reportingPeriodMs
-//					);
-//					Thread.sleep( reportingPeriodMs );
-//				} catch( InterruptedException e ) {
-//					log.info( "Reporting engine " + consumer + " interrupted" );
-//					return;
+					pass();
+					idleStrategy.idle( maxDrainedCells, maxDrainedRingLength );
 				} catch( Throwable t ) {
 					log.error( "Reporting engine " + consumer + " error", t );
 				}
 			}
 		}
 
-		private int processedRecords = -1;
+		/** run() exits after current pass */
+		public void stop() {
+			stopped = true;
+		}
 
-		@Override
-		public int available( final long startSequence,
-		                      final long sentinelSequence ) {
-			processedRecords = consumer.available(
-					startSequence,
-					sentinelSequence
-			);
-			return processedRecords;
-		}
-
-		private long nextWaitPeriod( final int processed,
-		                             final int maxProcessed,
-		                             final long currentWaitMs ) {
-			//TODO smooth transition
-			//TODO limit max/min wait time
-			if( processed < maxProcessed / 8 ) {
-				final long wait = currentWaitMs * 2;
-				return Math.min( MAX_PERIOD_MS, wait );
-			} else if( processed > maxProcessed / 2 ) {
-				final long wait = currentWaitMs / 2;
-				return Math.max( MIN_PERIOD_MS, wait );
-			} else {
-				return currentWaitMs;
+		/**
+		 * Drains until all rings are empty, or deadline. Must not be called while
+		 * run() is running
+		 *
+		 * @return true if all rings are empty
+		 */
+		public boolean drainToEmpty( final long deadlineNanos ) throws IOException {
+			while( true ) {
+				pass();
+				if( allRingsEmpty() ) {
+					return true;
+				}
+				if( System.nanoTime() - deadlineNanos > 0 ) {
+					return false;
+				}
+				Thread.yield();
 			}
 		}
-	}
-
-	private static class ConsumingDrainer implements Sequencer.Drainer {
-		private static final int SPINS_PER_TURN = 256;
 
-		private final ICircularLongsBuffer buffer;
-		private final RawWriter writer;
+		private void pass() throws IOException {
+			if( catalogWriter != null && !runStarted ) {
+				startRun();
+			}
+			drainAll();
+			if( wakeable != null ) {
+				wakeable.wakeUp();
+			}
+			//dump _after_ drain: any record drained has it's format registered
+			//before it's header was published, so it'll be in catalog
+			dumpNewMessages();
+			//...and only then hand records to appenders, which may decode them
+			if( pipeline != null ) {
+				pipeline.deliver();
+			}
+		}
 
-		private ConsumingDrainer( final ICircularLongsBuffer buffer,
-		                          final RawWriter writer ) {
-			this.buffer = buffer;
-			this.writer = writer;
+		private boolean allRingsEmpty() {
+			for( final ProducerRing ring : rings ) {
+				if( !ring.ringBuffer.isEmpty() ) {
+					return false;
+				}
+			}
+			return true;
 		}
 
-		private int spinsAvailable;
+		/** fullest ring of last pass: it defines how long to wait before next one */
+		private int maxDrainedCells;
+		private int maxDrainedRingLength;
+
+		private void drainAll() {
+			maxDrainedCells = 0;
+			maxDrainedRingLength = 1;
+			for( final ProducerRing ring : rings ) {
+				//read owner state _before_ drain: if it was dead before drain
+				//started, nothing could be added after drain finished
+				final boolean orphaned = ring.isOrphaned();
+
+				consumer.drainFrom( ring.ringBuffer.buffer(), ring.ringBuffer.watchdog() );
+				processedCells = 0;
+				ring.ringBuffer.drainTo( this );
+				//compare fill ratios: processed/length
+				if( ( long ) processedCells * maxDrainedRingLength
+						> ( long ) maxDrainedCells * ring.ringBuffer.length() ) {
+					maxDrainedCells = processedCells;
+					maxDrainedRingLength = ring.ringBuffer.length();
+				}
 
-		@Override
-		public int available( final long startSequence,
-		                      final long sentinelSequence ) {
-			spinsAvailable = SPINS_PER_TURN;
-			ByteBuffer output = writer.buffer();
-			try {
-				for( long pos = startSequence; pos < sentinelSequence; pos++ ) {
-					final long header = readHeader( pos );
-					if( !isValidHeader( header ) ) {
-						return ( int ) ( pos - startSequence );
-					}
-					final RecordType type = type( header );
-					final int formatId = formatId( header );
-					final int argumentsCount = argumentsCount( header );
-
-					//ensure output has space
-					if( output.remaining() < ( argumentsCount + 1 ) * 8 ) {
-						writer.flush();
-						output = writer.buffer();
+				if( orphaned && ring.ringBuffer.isEmpty() ) {
+					//counters go to totals before ring is unregistered, both under
+					//lock of counters readers: total never goes down
+					synchronized( rings ) {
+						droppedByRemovedRings.addAndGet( ring.ringBuffer.droppedRecords() );
+						if( ring.ringBuffer.watchdog() != null ) {
+							tombstonedByRemovedRings.addAndGet( ring.ringBuffer.watchdog().tombstones() );
+						}
+						rings.remove( ring );
 					}
+					freeBuffers.offer( ring.ringBuffer.buffer() );
+				}
+			}
+		}
 
-					//write header + argCount arguments
-					for( int i = 0; i <= argumentsCount; i++ ) {
-						final long arg = buffer.get( pos + i );
-						buffer.put( pos + i, NOT_SET );//need to reclaim each cell!
-						output.putLong( arg );
-					}
+		/** R entry goes before any entry of the drainer, RUN record -- before any record */
+		private void startRun() throws IOException {
+			catalogWriter.writeRun( runId );
+			catalogWriter.flush();
+			consumer.writeRun( runId );
+			runStarted = true;
+		}
 
-					pos += argumentsCount;
-				}
-				return ( int ) ( sentinelSequence - startSequence );
-			} catch( IOException e ) {
-				throw Throwables.propagate( e );
+		private void dumpNewMessages() throws IOException {
+			if( catalogWriter == null
+					|| ( messages.lastFormatId() == lastDumpedFormatId
+					&& symbols.lastSymbolId() == lastDumpedSymbolId
+					&& throwables.lastThrowableId() == lastDumpedThrowableId ) ) {
+				return;
+			}
+			final List<MessageInfo> newMessages = messages.messagesSince( lastDumpedFormatId );
+			for( final MessageInfo messageInfo : newMessages ) {
+				catalogWriter.writeMessage( messageInfo );
+				lastDumpedFormatId = messageInfo.formatId;
 			}
+			final List<String> newSymbols = symbols.symbolsSince( lastDumpedSymbolId );
+			for( final String symbol : newSymbols ) {
+				lastDumpedSymbolId++;
+				catalogWriter.writeSymbol( lastDumpedSymbolId, symbol );
+			}
+			dumpNewThrowables();
+			catalogWriter.flush();
 		}
 
-		private long readHeader( final long pos ) {
-			for(; spinsAvailable >= 0; spinsAvailable-- ) {
-				final long header = buffer.getVolatile( pos );
-				if( isValidHeader( header ) ) {
-					return header;
+		/**
+		 * Stack traces are rendered here, on drainer thread, each distinct one only
+		 * once, into catalog. Throwable itself is written into binary log, after
+		 * records drained: it is per-instance, so it would make catalog grow with log
+		 */
+		private void dumpNewThrowables() throws IOException {
+			while( lastDumpedThrowableId < throwables.lastThrowableId() ) {
+				final int throwableId = lastDumpedThrowableId + 1;
+				final Throwable throwable = throwables.take( throwableId );
+				if( throwable != null ) {
+					final int lastTraceId = traces.lastTraceId();
+					final int traceId = traces.traceIdOf( throwable );
+					if( traces.evictedTraceId() != 0 ) {
+						catalogWriter.forgetTrace( traces.evictedTraceId() );
+					}
+					if( traceId > lastTraceId ) {
+						catalogWriter.writeTrace( traceId, traces.trace( traceId ) );
+					}
+					final String description = throwable.toString();
+					consumer.writeThrowable( throwableId, traceId, description );
+					catalogWriter.mirrorThrowable( throwableId, traceId, description );
+				} else if( !throwables.isLost( throwableId ) && !isRegisterStalled( throwableId ) ) {
+					break;//register() is still in progress: next pass
 				}
+				lastDumpedThrowableId = throwableId;
 			}
-			return NOT_SET;
 		}
-	}
 
+		/**
+		 * Producer could die (or be descheduled for long) in the middle of register():
+		 * id is taken, but Throwable is never put. Id is given up as lost after
+		 * {@linkplain #REGISTER_TIMEOUT_NANOS}, so ids after it are not stuck forever
+		 */
+		private boolean isRegisterStalled( final int throwableId ) {
+			final long now = System.nanoTime();
+			if( throwableId != stalledThrowableId ) {
+				stalledThrowableId = throwableId;
+				stalledThrowableSince = now;
+				return false;
+			}
+			if( now - stalledThrowableSince < REGISTER_TIMEOUT_NANOS ) {
+				return false;
+			}
+			log.warn( "Throwable " + throwableId + " is not registered for "
+					          + TimeUnit.NANOSECONDS.toMillis( now - stalledThrowableSince )
+					          + " ms: supposed to be lost" );
+			stalledThrowableId = 0;
+			return true;
+		}
+
+		private int processedCells = 0;
+
+		@Override
+		public int available( final long startSequence,
+		                      final long sentinelSequence ) {
+			processedCells = consumer.available(
+					startSequence,
+					sentinelSequence
+			);
+			return processedCells;
+		}
+	}
 
 	private final class ThreadLocalLogMessage implements LogMessage {
 
 		private final MessageInfo messageInfo;
+		/** null if not leveled */
+		private final CategoryImpl category;
+		private final Level level;
 
-		private ThreadLocalLogMessage( final MessageInfo messageInfo ) {
+		private ThreadLocalLogMessage( final MessageInfo messageInfo,
+		                               final CategoryImpl category,
+		                               final Level level ) {
 			this.messageInfo = messageInfo;
+			this.category = category;
+			this.level = level;
 		}
 
 		@Override
@@ -282,14 +918,44 @@ public class FastLoggerImpl implements FastLogger {
 			return setupLocal().with( value );
 		}
 
+		@Override
+		public FluentLogBuilder with( final CharSequence value ) {
+			return setupLocal().with( value );
+		}
+
+		@Override
+		public FluentLogBuilder with( final byte[] value,
+		                              final int offset,
+		                              final int length ) {
+			return setupLocal().with( value, offset, length );
+		}
+
+		@Override
+		public FluentLogBuilder with( final Enum<?> value ) {
+			return setupLocal().with( value );
+		}
+
+		@Override
+		public FluentLogBuilder withSymbol( final int symbolId ) {
+			return setupLocal().withSymbol( symbolId );
+		}
+
+		@Override
+		public FluentLogBuilder with( final Throwable throwable ) {
+			return setupLocal().with( throwable );
+		}
+
 		@Override
 		public void submit() {
 			setupLocal().submit();
 		}
 
-		private RawLogMessage setupLocal() {
-			final RawLogMessage formatter = holder.get();
-			return formatter.setup( messageInfo ).start();
+		private FluentLogBuilder setupLocal() {
+			if( category != null && !category.isEnabled( level ) ) {
+				return DummyLogBuilder.INSTANCE;
+			}
+			final RawLogMessage formatter = holder.get().message;
+			return formatter.setup( messageInfo, level ).start();
 		}
 
 		@Override
@@ -302,4 +968,24 @@ public class FastLoggerImpl implements FastLogger {
 			return messageInfo.argumentsCount;
 		}
 	}
+
+	/** Per-thread state of producer */
+	private final class LocalState {
+		private final RawLogMessage message;
+		private final MessageInfoCache cache = new MessageInfoCache();
+
+		private LocalState( final RawLogMessage message ) {
+			this.message = message;
+		}
+
+		/** cache first, shared catalog on miss */
+		private MessageInfo lookupMessageInfo( final String messageFormat ) {
+			MessageInfo messageInfo = cache.get( messageFormat );
+			if( messageInfo == null ) {
+				messageInfo = FastLoggerImpl.this.lookupMessageInfo( messageFormat );
+				cache.put( messageFormat, messageInfo );
+			}
+			return messageInfo;
+		}
+	}
 }
@@ -1,5 +1,7 @@
 package com.db.logger.api.impl.logger;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 /**
  * @author ruslan
  *         created 07.12.13 at 16:25
@@ -8,12 +10,25 @@ public final class MessageInfo {
 	public final String format;
 	public final int argumentsCount;
 	public final int formatId;
+	/** format, compiled once at registration */
+	public final MessageTemplate template;
+
+	public MessageInfo( final MessageTemplate template,
+	                    final int formatId ) {
+		checkArgument( template != null, "template can't be null" );
+		this.template = template;
+		this.format = template.format();
+		this.argumentsCount = template.argumentsCount();
+		this.formatId = formatId;
+	}
 
+	/** @throws IllegalArgumentException if argumentsCount does not match format placeholders */
 	public MessageInfo( final String format,
 	                    final int argumentsCount,
 	                    final int formatId ) {
-		this.format = format;
-		this.argumentsCount = argumentsCount;
-		this.formatId = formatId;
+		this( MessageTemplate.parse( format ), formatId );
+		checkArgument( this.argumentsCount == argumentsCount,
+		               "[%s] has %s placeholders, but %s arguments declared",
+		               format, this.argumentsCount, argumentsCount );
 	}
 }
@@ -0,0 +1,51 @@
+package com.db.logger.api.impl.logger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Small direct-mapped cache of {@linkplain MessageInfo}, keyed by format string
+ * <b>identity</b>. Format strings at call sites are mostly literals, so they are
+ * interned, and the same String instance comes again and again from the same
+ * call site -- so reference comparison is enough to hit, and there is no need
+ * to probe shared {@linkplain MessagesCatalog} (with it's volatile reads) on
+ * each log() call. Miss (collision, or non-interned format) just falls back to
+ * catalog, so cache is always correct, it only could be not effective.
+ * <p/>
+ * Not thread-safe: supposed to be used as thread-local
+ */
+final class MessageInfoCache {
+	public static final int DEFAULT_SIZE = 64;
+
+	private final String[] formats;
+	private final MessageInfo[] infos;
+	private final int mask;
+
+	MessageInfoCache( final int size ) {
+		checkArgument( Integer.bitCount( size ) == 1, "size(%s) must be power of 2", size );
+		this.formats = new String[size];
+		this.infos = new MessageInfo[size];
+		this.mask = size - 1;
+	}
+
+	MessageInfoCache() {
+		this( DEFAULT_SIZE );
+	}
+
+	/** @return cached info for exactly this format instance, or null */
+	public MessageInfo get( final String format ) {
+		//String.hashCode() is cached in instance, so it is just a field read
+		final int index = format.hashCode() & mask;
+		if( formats[index] == format ) {
+			return infos[index];
+		}
+		return null;
+	}
+
+	/** evicts whatever was in the slot before */
+	public void put( final String format,
+	                 final MessageInfo info ) {
+		final int index = format.hashCode() & mask;
+		formats[index] = format;
+		infos[index] = info;
+	}
+}
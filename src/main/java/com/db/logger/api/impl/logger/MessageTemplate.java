@@ -0,0 +1,314 @@
+package com.db.logger.api.impl.logger;
+
+import java.util.ArrayList;
+import java.util.IllegalFormatException;
+import java.util.List;
+import java.util.Locale;
+
+import net.jcip.annotations.Immutable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Compiled message format: format string is parsed once, at registration, into
+ * literal[0] slot[0] literal[1] slot[1] ... slot[n-1] literal[n]. Each slot knows
+ * type of cell it takes, so decoder knows is cell a raw long, or
+ * {@linkplain Double#doubleToLongBits(double)}, without re-parsing the format.
+ * <p/>
+ * Supported placeholders are subset of {@linkplain java.util.Formatter} syntax:
+ * %[flags][width][.precision]conversion, where conversion is one of
+ * <ul>
+ * <li>d, o, x, X: long</li>
+ * <li>e, E, f, g, G, a, A: double</li>
+ * <li>s, S: string, stored inline in record (see {@linkplain RecordHelper})</li>
+ * </ul>
+ * '%%' and '%n' are literals, not slots. Explicit argument indexes ('%1$d', '%&lt;d')
+ * are not supported: each slot takes next cell. Placeholders not supported are
+ * not slots too: they are kept in text as is (see {@linkplain #parse(String)})
+ */
+@Immutable
+public final class MessageTemplate {
+	private static final String FLAGS = "-#+ 0,(";
+
+	public enum ArgumentType {
+		LONG,
+		DOUBLE,
+		STRING
+	}
+
+	private final String format;
+	/** literals.length == slots.length + 1 */
+	private final String[] literals;
+	private final Slot[] slots;
+	/** no STRING slots: record size is known before arguments are given */
+	private final boolean fixedSize;
+
+	private MessageTemplate( final String format,
+	                         final String[] literals,
+	                         final Slot[] slots ) {
+		this.format = format;
+		this.literals = literals;
+		this.slots = slots;
+
+		boolean fixedSize = true;
+		for( final Slot slot : slots ) {
+			if( slot.type == ArgumentType.STRING ) {
+				fixedSize = false;
+			}
+		}
+		this.fixedSize = fixedSize;
+	}
+
+	/**
+	 * Placeholder which is malformed, not supported, or rejected by
+	 * {@linkplain java.util.Formatter} (i.e. '%.2d') is not a slot: it is kept in
+	 * text as is. Format is parsed on logging thread, on first use, so it should
+	 * not throw there -- and slot should not throw later, on decode
+	 *
+	 * @throws IllegalArgumentException if format is null
+	 */
+	public static MessageTemplate parse( final String format ) {
+		checkArgument( format != null, "format can't be null" );
+		final List<String> literals = new ArrayList<String>();
+		final List<Slot> slots = new ArrayList<Slot>();
+
+		final StringBuilder literal = new StringBuilder();
+		final int length = format.length();
+		for( int i = 0; i < length; i++ ) {
+			final char ch = format.charAt( i );
+			if( ch != '%' ) {
+				literal.append( ch );
+				continue;
+			}
+			final int specStart = i;
+			int pos = i + 1;
+			boolean malformed = false;
+
+			final int flagsStart = pos;
+			while( pos < length && FLAGS.indexOf( format.charAt( pos ) ) >= 0 ) {
+				pos++;
+			}
+			final String flags = format.substring( flagsStart, pos );
+
+			final int widthStart = pos;
+			while( pos < length && Character.isDigit( format.charAt( pos ) ) ) {
+				pos++;
+			}
+			final int width = parseNumber( format, widthStart, pos );
+			if( width == Integer.MIN_VALUE ) {
+				malformed = true;
+			}
+
+			int precision = -1;
+			if( pos < length && format.charAt( pos ) == '.' ) {
+				pos++;
+				final int precisionStart = pos;
+				while( pos < length && Character.isDigit( format.charAt( pos ) ) ) {
+					pos++;
+				}
+				precision = parseNumber( format, precisionStart, pos );
+				if( precision < 0 ) {
+					malformed = true;
+				}
+			}
+
+			if( pos >= length ) {
+				//dangling '%...' at the end
+				literal.append( format, specStart, length );
+				break;
+			}
+			final char conversion = format.charAt( pos );
+			i = pos;
+			final String spec = format.substring( specStart, pos + 1 );
+
+			final boolean bare = ( pos == specStart + 1 );
+			if( ( conversion == '%' || conversion == 'n' ) && bare ) {
+				literal.append( conversion == '%' ? "%" : "\n" );
+				continue;
+			}
+
+			final ArgumentType type = argumentType( conversion );
+			if( malformed || type == null || !isAcceptedByFormatter( spec, type ) ) {
+				literal.append( spec );
+				continue;
+			}
+			literals.add( literal.toString() );
+			literal.setLength( 0 );
+			slots.add( new Slot(
+					spec,
+					conversion,
+					flags,
+					width,
+					precision,
+					type
+			) );
+		}
+		literals.add( literal.toString() );
+
+		return new MessageTemplate(
+				format,
+				literals.toArray( new String[literals.size()] ),
+				slots.toArray( new Slot[slots.size()] )
+		);
+	}
+
+	/** @return -1 if there are no digits, {@linkplain Integer#MIN_VALUE} if number is too big */
+	private static int parseNumber( final String format,
+	                                final int start,
+	                                final int end ) {
+		if( end == start ) {
+			return -1;
+		}
+		try {
+			return Integer.parseInt( format.substring( start, end ) );
+		} catch( NumberFormatException e ) {
+			return Integer.MIN_VALUE;
+		}
+	}
+
+	/** flags, width and precision could be wrong for conversion: Formatter is the judge */
+	private static boolean isAcceptedByFormatter( final String spec,
+	                                              final ArgumentType type ) {
+		final Object sample;
+		switch( type ) {
+			case LONG:
+				sample = 0L;
+				break;
+			case DOUBLE:
+				sample = 0.0;
+				break;
+			default:
+				sample = "";
+		}
+		try {
+			String.format( Locale.ROOT, spec, sample );
+			return true;
+		} catch( IllegalFormatException e ) {
+			return false;
+		}
+	}
+
+	private static ArgumentType argumentType( final char conversion ) {
+		switch( conversion ) {
+			case 'd':
+			case 'o':
+			case 'x':
+			case 'X':
+				return ArgumentType.LONG;
+			case 's':
+			case 'S':
+				return ArgumentType.STRING;
+			case 'e':
+			case 'E':
+			case 'f':
+			case 'g':
+			case 'G':
+			case 'a':
+			case 'A':
+				return ArgumentType.DOUBLE;
+			default:
+				return null;
+		}
+	}
+
+	public String format() {
+		return format;
+	}
+
+	public int argumentsCount() {
+		return slots.length;
+	}
+
+	public ArgumentType argumentType( final int index ) {
+		return slots[index].type;
+	}
+
+	/** @return true if record size does not depend on arguments values: there are no STRING slots */
+	public boolean isFixedSize() {
+		return fixedSize;
+	}
+
+	public Slot slot( final int index ) {
+		return slots[index];
+	}
+
+	/** @return literal text before slot[index], or after last slot, if index == argumentsCount() */
+	public String literal( final int index ) {
+		return literals[index];
+	}
+
+	@Override
+	public String toString() {
+		return "MessageTemplate[" + format + "]";
+	}
+
+	@Immutable
+	public static final class Slot {
+		/** as it is in format, i.e. '%-8.3f' */
+		public final String spec;
+		public final char conversion;
+		/** empty if none */
+		public final String flags;
+		/** -1 if not set */
+		public final int width;
+		/** -1 if not set */
+		public final int precision;
+		public final ArgumentType type;
+
+		/** no flags, width, precision -- could be rendered without Formatter */
+		private final boolean bare;
+
+		private Slot( final String spec,
+		              final char conversion,
+		              final String flags,
+		              final int width,
+		              final int precision,
+		              final ArgumentType type ) {
+			this.spec = spec;
+			this.conversion = conversion;
+			this.flags = flags;
+			this.width = width;
+			this.precision = precision;
+			this.type = type;
+			this.bare = flags.isEmpty() && width < 0 && precision < 0;
+		}
+
+		/** Appends STRING argument, formatted as this slot requires */
+		public void appendTo( final StringBuilder sb,
+		                      final String value ) {
+			if( bare && conversion == 's' ) {
+				sb.append( value );
+			} else {
+				sb.append( String.format( Locale.ROOT, spec, value ) );
+			}
+		}
+
+		/** Appends LONG/DOUBLE argument, given as raw cell value, formatted as this slot requires */
+		public void appendTo( final StringBuilder sb,
+		                      final long cell ) {
+			if( type == ArgumentType.DOUBLE ) {
+				sb.append( String.format( Locale.ROOT, spec, Double.longBitsToDouble( cell ) ) );
+				return;
+			}
+			if( bare ) {
+				switch( conversion ) {
+					case 'd':
+						sb.append( cell );
+						return;
+					case 'x':
+						sb.append( Long.toHexString( cell ) );
+						return;
+					case 'o':
+						sb.append( Long.toOctalString( cell ) );
+						return;
+				}
+			}
+			sb.append( String.format( Locale.ROOT, spec, cell ) );
+		}
+
+		@Override
+		public String toString() {
+			return spec + ":" + type;
+		}
+	}
+}
@@ -1,38 +1,63 @@
 package com.db.logger.api.impl.logger;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
 /**
+ * Open-addressing hash table of messages formats. Lookup of already registered
+ * format is lock-free: current table is read by volatile read, and it's slots
+ * are read with acquire semantics, so MessageInfo published by writer is seen
+ * fully initialized.
+ * <p/>
+ * New formats are registered under lock. If table becomes more then half full,
+ * it is copied into table twice as large, and new table is published by volatile
+ * write -- readers are never blocked by resize: they either see old table (and
+ * go to slow path if format is not found there), or the new one
+ *
  * @author ruslan
  *         created 10.12.13 at 19:22
  */
 public class MessagesCatalog {
 	private static final Object FREE = null;
 
-	private final MessageInfo[] entries;
-	private int id = 0;
+	/** table is resized when it's fill exceeds 1/MAX_FILL_FACTOR */
+	private static final int MAX_FILL_FACTOR = 2;
 
+	/** written only under lock */
+	private volatile AtomicReferenceArray<MessageInfo> entries;
+	/**
+	 * Last id given. Written only under lock, but read without it by drainer, to
+	 * check is there anything new to dump
+	 */
+	private volatile int id = 0;
 
+
+	/** @param size initial size of table, it grows as needed */
 	public MessagesCatalog( final int size ) {
 		checkArgument( size > 1, "size[%s] must be >1", size );
 		checkArgument( Integer.bitCount( size ) == 1, "size[%s] must be 2^n", size );
 
-		entries = new MessageInfo[size];
+		entries = new AtomicReferenceArray<MessageInfo>( size );
 	}
 
 
+	/**
+	 * @throws IllegalArgumentException if format is new, and it is not valid
+	 *                                  {@linkplain MessageTemplate}
+	 */
 	public MessageInfo lookupMessageInfo( final String messageFormat ) {
 		final int hash = messageFormat.hashCode() & 0x7fffffff;
 
-		final int length = entries.length;
+		final AtomicReferenceArray<MessageInfo> entries = this.entries;
+		final int length = entries.length();
 		final int mask = length - 1;
 		final int startIndex = hash;
 
 		for( int i = 0; i < length; i++ ) {
 			final int index = ( startIndex + i ) & mask;
-			final MessageInfo cur = entries[index];
+			final MessageInfo cur = entries.get( index );
 			if( cur == FREE ) {
 				//cache miss
 				return recheckAndStore( messageFormat, hash );
@@ -41,20 +66,22 @@ public class MessagesCatalog {
 				return cur;
 			}
 		}
-
-		throw new IllegalStateException( "Table overloaded" );
+		//table is never full: it is resized when half full
+		throw new AssertionError( "Table overloaded" );
 	}
 
 	private synchronized MessageInfo recheckAndStore( final String format,
 	                                                  final int hash ) {
-		//we restart search from start since anybody could race with us
-		final int length = entries.length;
+		//we restart search from start since anybody could race with us, and
+		//table could be resized since
+		final AtomicReferenceArray<MessageInfo> entries = this.entries;
+		final int length = entries.length();
 		final int mask = length - 1;
 		final int startIndex = hash;
 
 		for( int i = 0; i < length; i++ ) {
 			final int index = ( startIndex + i ) & mask;
-			final MessageInfo cur = entries[index];
+			final MessageInfo cur = entries.get( index );
 			if( cur == FREE ) {
 				//cache miss
 				return createAndStore( format, index );
@@ -63,34 +90,84 @@ public class MessagesCatalog {
 				return cur;
 			}
 		}
-		throw new IllegalStateException( "Table overloaded" );
+		throw new AssertionError( "Table overloaded" );
 	}
 
+	/** must be called under lock */
 	private MessageInfo createAndStore( final String format,
 	                                    final int index ) {
-		id++;
 		final MessageInfo messageInfo = new MessageInfo(
-				format,
-				calculateArgumentsCount( format ),
-				id
+				MessageTemplate.parse( format ),
+				id + 1
 		);
-		entries[index] = messageInfo;
+		entries.set( index, messageInfo );
+		id++;
+
+		if( id * MAX_FILL_FACTOR > entries.length() ) {
+			entries = resized( entries, entries.length() * 2 );
+		}
 		return messageInfo;
 	}
 
-	private static int calculateArgumentsCount( final String formatMessage ) {
-		int argumentsCount = 0;
-		for( int i = 0; i < formatMessage.length(); i++ ) {
-			if( formatMessage.charAt( i ) == '%' ) {//TODO RC: not safe! '%%' is not placeholder
-				argumentsCount++;
+	private static AtomicReferenceArray<MessageInfo> resized( final AtomicReferenceArray<MessageInfo> entries,
+	                                                         final int newLength ) {
+		final AtomicReferenceArray<MessageInfo> newEntries = new AtomicReferenceArray<MessageInfo>( newLength );
+		final int mask = newLength - 1;
+		for( int i = 0; i < entries.length(); i++ ) {
+			final MessageInfo entry = entries.get( i );
+			if( entry == FREE ) {
+				continue;
+			}
+			final int hash = entry.format.hashCode() & 0x7fffffff;
+			for( int probe = 0; ; probe++ ) {
+				final int index = ( hash + probe ) & mask;
+				if( newEntries.get( index ) == FREE ) {
+					newEntries.lazySet( index, entry );
+					break;
+				}
+			}
+		}
+		//published by volatile write of table reference
+		return newEntries;
+	}
+
+	/** @return id of last registered message, or 0 if catalog is empty */
+	public int lastFormatId() {
+		return id;
+	}
+
+	/**
+	 * Collects all messages with formatId in (sinceFormatId, lastFormatId()], in
+	 * order of ids
+	 */
+	public synchronized List<MessageInfo> messagesSince( final int sinceFormatId ) {
+		final List<MessageInfo> result = new ArrayList<MessageInfo>( Math.max( id - sinceFormatId, 0 ) );
+		final AtomicReferenceArray<MessageInfo> entries = this.entries;
+		for( int i = 0; i < entries.length(); i++ ) {
+			final MessageInfo entry = entries.get( i );
+			if( entry != FREE && entry.formatId > sinceFormatId ) {
+				result.add( entry );
 			}
 		}
-		return argumentsCount;
+		Collections.sort( result, BY_FORMAT_ID );
+		return result;
 	}
 
+	private static final Comparator<MessageInfo> BY_FORMAT_ID = new Comparator<MessageInfo>() {
+		@Override
+		public int compare( final MessageInfo o1,
+		                    final MessageInfo o2 ) {
+			return o1.formatId < o2.formatId ? -1 : ( o1.formatId == o2.formatId ? 0 : 1 );
+		}
+	};
 
 	public synchronized void purge() {
-		Arrays.fill( entries, FREE );
+		entries = new AtomicReferenceArray<MessageInfo>( entries.length() );
 		id = 0;
 	}
+
+	/** current table length, for monitoring */
+	public int capacity() {
+		return entries.length();
+	}
 }
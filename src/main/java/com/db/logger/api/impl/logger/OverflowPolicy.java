@@ -0,0 +1,18 @@
+package com.db.logger.api.impl.logger;
+
+/**
+ * What to do with the record if there is no space for it in ring buffer, even
+ * after {@linkplain WaitingStrategy} gave up waiting
+ */
+public enum OverflowPolicy {
+	/** record is silently dropped, drop is counted in {@linkplain RingBuffer#droppedRecords()} */
+	DROP_AND_COUNT,
+	/**
+	 * producer waits until space is available, calling {@linkplain WaitingStrategy}
+	 * again and again. It's better to use {@linkplain WaitingStrategy.SpinYieldPark}
+	 * with it, so blocked producers do not burn CPU
+	 */
+	BLOCK,
+	/** {@linkplain IllegalStateException} is thrown */
+	THROW
+}
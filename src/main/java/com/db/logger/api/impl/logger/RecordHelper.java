@@ -1,6 +1,42 @@
 package com.db.logger.api.impl.logger;
 
 /**
+ * Record is [header][cell x cellsCount]. Record layouts by type:
+ * <ul>
+ * <li>LOG_RECORD: [header][timestamp][argument x (cellsCount-1)]. In ring buffer
+ * timestamp is full nanoseconds value from {@linkplain com.db.logger.timesource.ITimestampSource},
+ * in drainer output it is delta from last TIMESTAMP record</li>
+ * <li>TIMESTAMP: [header][nanoseconds], written by drainer only, as anchor for
+ * following LOG_RECORDs timestamps</li>
+ * <li>PADDING: [header][cell x cellsCount], claimed, but abandoned by builder (see
+ * {@linkplain com.db.logger.api.impl.logger.formatters.RawLogMessage}): content is
+ * meaningless, decoder skips it</li>
+ * <li>SEQUENCE: [header][ring sequence], written by drainer only, before the
+ * record it drains ahead of unpublished one (see {@linkplain WritingDrainer}):
+ * sequence of the record in ring buffer, so it's original order could be restored.
+ * Decoder skips it</li>
+ * <li>RUN: [header][run id], written by drainer only, before any other record of
+ * the run: catalog ids restart in each run, so decoder looks them up in the
+ * catalog run of this id (see {@linkplain com.db.logger.api.impl.io.CatalogWriter#writeRun(long)})</li>
+ * <li>THROWABLE: [header][throwable id][trace id][description], written by drainer
+ * only, after the records it has drained: Throwable attached to LOG_RECORD, with
+ * it's description (toString(), as string argument) and id of it's stack trace in
+ * catalog (see {@linkplain StackTraceTable})</li>
+ * </ul>
+ * Header cell of claimed, but not yet published record holds pending marker
+ * (see {@linkplain #pendingHeader(long, int)}): it is never a valid header, but tells
+ * drainer how many cells the record has taken.
+ * LOG_RECORD argument takes 1 cell, if it is long or double, or
+ * {@linkplain #stringCells(int)} cells, if it is string: [length in bytes][bytes],
+ * where bytes (UTF-8) are packed 8 per cell, first byte is lowest (see
+ * {@linkplain #stringByte(long, int)}) -- so layout does not depend on byte order
+ * of buffers. Which arguments are strings is known from
+ * {@linkplain MessageTemplate} of record's format. String argument could also be
+ * single negative cell: -id of {@linkplain SymbolTable} symbol (see {@linkplain #symbolCell(int)}).
+ * <p/>
+ * LOG_RECORD could have one more cell after arguments: id of attached Throwable
+ * in {@linkplain ThrowableTable}, which THROWABLE record follows later
+ *
  * @author ruslan
  *         created 22.11.13 at 0:12
  */
@@ -8,9 +44,21 @@ public abstract class RecordHelper {
 
 	public static final long NOT_SET = -1L;
 
+	/** level of records logged without level, see {@linkplain com.db.logger.api.Level#id()} */
+	public static final int NO_LEVEL = 0;
+
+	/** LOG_RECORD: offset of timestamp cell from header */
+	public static final int TIMESTAMP_OFFSET = 1;
+	/** LOG_RECORD: offset of first argument cell from header */
+	public static final int ARGUMENTS_OFFSET = 2;
+
 	public enum RecordType {
 		LOG_RECORD( 1 ),
-		TIMESTAMP( 2 );
+		TIMESTAMP( 2 ),
+		PADDING( 3 ),
+		SEQUENCE( 4 ),
+		RUN( 5 ),
+		THROWABLE( 6 );
 		private final byte id;
 
 		private RecordType( final int id ) {
@@ -24,11 +72,110 @@ public abstract class RecordHelper {
 
 	public static long header( final RecordType type,
 	                           final int formatId,
-	                           final int argumentsCount ) {
-		//[type x 15][formatId x 32][argumentsCount x 16]
-		return ( ( ( long ) type.id() ) << 48 )
-				| ( formatId << 16 )
-				| argumentsCount;
+	                           final int cellsCount ) {
+		return header( type, NO_LEVEL, formatId, cellsCount );
+	}
+
+	public static long header( final RecordType type,
+	                           final int level,
+	                           final int formatId,
+	                           final int cellsCount ) {
+		//[0][level x 7][type x 8][formatId x 32][cellsCount x 16]: highest bit is
+		//never set, so valid header is always > 0
+		return ( ( ( long ) ( level & 0x7F ) ) << 56 )
+				| ( ( ( long ) type.id() ) << 48 )
+				| ( ( formatId & 0xFFFFFFFFL ) << 16 )
+				| ( cellsCount & 0xFFFFL );
+	}
+
+	/** @param argumentsCells cells taken by arguments: argumentsCount, if there are no strings */
+	public static long logRecordHeader( final int formatId,
+	                                    final int argumentsCells ) {
+		return logRecordHeader( formatId, argumentsCells, NO_LEVEL );
+	}
+
+	/** @param level id of {@linkplain com.db.logger.api.Level}, or {@linkplain #NO_LEVEL} */
+	public static long logRecordHeader( final int formatId,
+	                                    final int argumentsCells,
+	                                    final int level ) {
+		return header( RecordType.LOG_RECORD, level, formatId, argumentsCells + 1 );
+	}
+
+	public static long timestampHeader() {
+		return header( RecordType.TIMESTAMP, 0, 1 );
+	}
+
+	/** @param cellsCount cells following header */
+	public static long paddingHeader( final int cellsCount ) {
+		return header( RecordType.PADDING, 0, cellsCount );
+	}
+
+	/** header of SEQUENCE record: it is followed by ring sequence of the next record */
+	public static long sequenceHeader() {
+		return header( RecordType.SEQUENCE, 0, 1 );
+	}
+
+	/** header of RUN record: it is followed by run id */
+	public static long runHeader() {
+		return header( RecordType.RUN, 0, 1 );
+	}
+
+	/** @param descriptionLength length of description, in bytes */
+	public static long throwableHeader( final int descriptionLength ) {
+		return header( RecordType.THROWABLE, 0, 2 + stringCells( descriptionLength ) );
+	}
+
+	/**
+	 * @param position   ring sequence of claimed record
+	 * @param cellsCount cells following header of claimed record
+	 * @return marker, put into header cell of claimed record until it is published:
+	 * highest bit set (so it is not valid header), low 31 bits of position, and
+	 * cellsCount in low 32 bits. Position makes markers of records claimed in the
+	 * same cell on different laps different, so publishing by CAS over the marker
+	 * (see {@linkplain RingBuffer#publish(long, long)}) can't hit record of later lap
+	 */
+	public static long pendingHeader( final long position,
+	                                  final int cellsCount ) {
+		return Long.MIN_VALUE | ( ( position & 0x7FFFFFFFL ) << 32 ) | ( cellsCount & 0xFFFFFFFFL );
+	}
+
+	public static boolean isPendingHeader( final long header ) {
+		return header < 0 && header != NOT_SET;
+	}
+
+	/** @return count of cells following header of claimed record, see {@linkplain #pendingHeader(long, int)} */
+	public static int pendingCellsCount( final long pendingHeader ) {
+		return ( int ) pendingHeader;
+	}
+
+	/** @return total cells (including header) of LOG_RECORD with argumentsCount arguments */
+	public static int logRecordSize( final int argumentsCount ) {
+		return argumentsCount + ARGUMENTS_OFFSET;
+	}
+
+	/** @return cells taken by string argument of length bytes, including length cell */
+	public static int stringCells( final int length ) {
+		return 1 + ( length + 7 ) / 8;
+	}
+
+	/** @return cell of string argument, which is symbol with id > 0 */
+	public static long symbolCell( final int symbolId ) {
+		return -( long ) symbolId;
+	}
+
+	/** @return true if cell of string argument is symbol id, not length of inline string */
+	public static boolean isSymbolCell( final long cell ) {
+		return cell < 0;
+	}
+
+	public static int symbolId( final long symbolCell ) {
+		return ( int ) -symbolCell;
+	}
+
+	/** @return byte #index (from start of string) packed into it's cell */
+	public static byte stringByte( final long cell,
+	                               final int index ) {
+		return ( byte ) ( cell >>> ( ( index & 7 ) << 3 ) );
 	}
 
 	public static boolean isValidHeader( final long header ) {
@@ -36,22 +183,36 @@ public abstract class RecordHelper {
 	}
 
 	public static RecordType type( final long header ) {
-		final int typeNo = ( int ) ( header >> 48 );
+		final int typeNo = ( int ) ( ( header >> 48 ) & 0xFF );
 		switch( typeNo ) {
 			case 1:
 				return RecordType.LOG_RECORD;
 			case 2:
 				return RecordType.TIMESTAMP;
+			case 3:
+				return RecordType.PADDING;
+			case 4:
+				return RecordType.SEQUENCE;
+			case 5:
+				return RecordType.RUN;
+			case 6:
+				return RecordType.THROWABLE;
 			default:
 				throw new IllegalArgumentException( "type " + typeNo + " is unknown" );
 		}
 	}
 
+	/** @return id of record's {@linkplain com.db.logger.api.Level}, or {@linkplain #NO_LEVEL} */
+	public static int level( final long header ) {
+		return ( int ) ( ( header >>> 56 ) & 0x7F );
+	}
+
 	public static int formatId( final long header ) {
 		return ( int ) ( ( header >> 16 ) & 0xFFFFFFFFL );
 	}
 
-	public static int argumentsCount( final long header ) {
+	/** @return count of cells following header */
+	public static int cellsCount( final long header ) {
 		return ( int ) ( header & 0xFFFFL );
 	}
 }
@@ -1,8 +1,13 @@
 package com.db.logger.api.impl.logger;
 
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import com.db.logger.api.impl.logger.buffer.ICircularLongsBuffer;
 
+import static com.db.logger.api.impl.logger.Sequencer.INVALID_INDEX;
+import static com.google.common.base.Preconditions.checkArgument;
+
 /**
  * @author ruslan
  *         created 05.12.13 at 0:41
@@ -11,13 +16,67 @@ public final class RingBuffer {
 	private final ICircularLongsBuffer buffer;
 	private final Sequencer sequencer;
 	private final WaitingStrategy waitingStrategy;
+	private final OverflowPolicy overflowPolicy;
+
+	/** null if drainer should not be woken up by producers */
+	private final DrainerIdleStrategy drainerIdleStrategy;
+	private final int highWaterMark;
+	/** null if unpublished records are not tombstoned */
+	private final UnpublishedRecordWatchdog watchdog;
+
+	/** it's updated only on overflow, so it is not contended in normal flow */
+	private final AtomicLong droppedRecords = new AtomicLong( 0 );
 
+	/** no more claims, see {@linkplain #close()} */
+	private volatile boolean closed = false;
+
+	/** Throws exception if claim fails ({@linkplain OverflowPolicy#THROW}) */
 	public RingBuffer( final Sequencer sequencer,
 	                   final ICircularLongsBuffer buffer,
 	                   final WaitingStrategy waitingStrategy ) {
+		this( sequencer, buffer, waitingStrategy, OverflowPolicy.THROW );
+	}
+
+	public RingBuffer( final Sequencer sequencer,
+	                   final ICircularLongsBuffer buffer,
+	                   final WaitingStrategy waitingStrategy,
+	                   final OverflowPolicy overflowPolicy ) {
+		this( sequencer, buffer, waitingStrategy, overflowPolicy, null );
+	}
+
+	/**
+	 * @param drainerIdleStrategy producer wakes drainer up through it if buffer is
+	 *                            filled above it's high-water mark. May be null
+	 */
+	public RingBuffer( final Sequencer sequencer,
+	                   final ICircularLongsBuffer buffer,
+	                   final WaitingStrategy waitingStrategy,
+	                   final OverflowPolicy overflowPolicy,
+	                   final DrainerIdleStrategy drainerIdleStrategy ) {
+		this( sequencer, buffer, waitingStrategy, overflowPolicy, drainerIdleStrategy, null );
+	}
+
+	/**
+	 * @param watchdog tombstones records of this ring not published in time, so
+	 *                 records are published by CAS (see {@linkplain #publish(long, long)}).
+	 *                 May be null
+	 */
+	RingBuffer( final Sequencer sequencer,
+	            final ICircularLongsBuffer buffer,
+	            final WaitingStrategy waitingStrategy,
+	            final OverflowPolicy overflowPolicy,
+	            final DrainerIdleStrategy drainerIdleStrategy,
+	            final UnpublishedRecordWatchdog watchdog ) {
+		checkArgument( overflowPolicy != null, "overflowPolicy can't be null" );
 		this.waitingStrategy = waitingStrategy;
 		this.sequencer = sequencer;
 		this.buffer = buffer;
+		this.overflowPolicy = overflowPolicy;
+		this.drainerIdleStrategy = drainerIdleStrategy;
+		this.highWaterMark = ( drainerIdleStrategy != null ) ?
+				drainerIdleStrategy.highWaterMark( buffer.length() ) :
+				Integer.MAX_VALUE;
+		this.watchdog = watchdog;
 	}
 
 	public int length() {
@@ -28,14 +87,92 @@ public final class RingBuffer {
 		return buffer;
 	}
 
+	/** @see Sequencer#size() */
+	public boolean isEmpty() {
+		return sequencer.size() == 0;
+	}
+
+	/** @return watchdog of the ring, null if there is none */
+	UnpublishedRecordWatchdog watchdog() {
+		return watchdog;
+	}
+
+	public long droppedRecords() {
+		return droppedRecords.get();
+	}
+
+	/**
+	 * All claims after this one fail (with any overflow policy), and are counted as
+	 * dropped -- so ring could be drained to empty. Claim already in progress (or
+	 * blocked) may still succeed
+	 */
+	public void close() {
+		closed = true;
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
 	public void drainTo( final Sequencer.Drainer drainer ) {
 		sequencer.drainTo( drainer );
 	}
 
+	/**
+	 * Header cell of record claimed gets {@linkplain RecordHelper#pendingHeader(long, int)}
+	 * marker, so drainer knows the length of the record even before it is published
+	 *
+	 * @return position claimed, or {@linkplain Sequencer#INVALID_INDEX} if record
+	 * should be dropped ({@linkplain OverflowPolicy#DROP_AND_COUNT}, or ring is
+	 * {@linkplain #close() closed})
+	 * @throws IllegalStateException if there is no space ({@linkplain OverflowPolicy#THROW})
+	 */
 	public long claim( final int size ) {
-		return sequencer.claim(
-				size,
-				waitingStrategy
-		);
+		while( true ) {
+			if( closed ) {
+				droppedRecords.incrementAndGet();
+				return INVALID_INDEX;
+			}
+			final long position = sequencer.claim(
+					size,
+					waitingStrategy
+			);
+			if( position != INVALID_INDEX ) {
+				buffer.put( position, RecordHelper.pendingHeader( position, size - 1 ) );
+				if( drainerIdleStrategy != null && sequencer.size() >= highWaterMark ) {
+					drainerIdleStrategy.wakeUp();
+				}
+				return position;
+			}
+			switch( overflowPolicy ) {
+				case DROP_AND_COUNT:
+					droppedRecords.incrementAndGet();
+					return INVALID_INDEX;
+				case THROW:
+					throw new IllegalStateException( "Can't claim " + size + " cells: buffer is full" );
+				case BLOCK:
+				default:
+					//once more
+			}
+		}
+	}
+
+	/**
+	 * Replaces pending marker of record claimed at position (or of PADDING, if
+	 * claimed record is given up) by header. If ring has watchdog, it is done by
+	 * CAS: record could be tombstoned by watchdog already, and it's cells could be
+	 * reclaimed and claimed again by now -- header must not land there then.
+	 * Without watchdog it is plain ordered store
+	 *
+	 * @return false if record was tombstoned: it is lost, and counted by watchdog
+	 */
+	public boolean publish( final long position,
+	                        final long header ) {
+		if( watchdog == null ) {
+			buffer.putOrdered( position, header );
+			return true;
+		}
+		final long pending = RecordHelper.pendingHeader( position, RecordHelper.cellsCount( header ) );
+		return buffer.compareAndSwap( position, pending, header );
 	}
 }
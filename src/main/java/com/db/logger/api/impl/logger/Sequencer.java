@@ -101,6 +101,17 @@ public abstract class Sequencer {
 	public abstract long claim( final int size,
 	                            final WaitingStrategy waitingStrategy );
 
+	/**
+	 * @return count of indexes claimed, but not yet reclaimed. It is a snapshot,
+	 *         so it is exact only if called from drainer thread and no concurrent
+	 *         claims are possible
+	 */
+	public long size() {
+		final long head = headCursor;
+		final long tail = tailCursor;
+		return tail - head;
+	}
+
 	/**
 	 * It is single-threaded method: it must be called from one thread, or be
 	 * protected by external mutex.
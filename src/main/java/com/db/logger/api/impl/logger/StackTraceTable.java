@@ -0,0 +1,125 @@
+package com.db.logger.api.impl.logger;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.*;
+
+import com.google.common.collect.Sets;
+import net.jcip.annotations.NotThreadSafe;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Drainer-side table of distinct stack traces: Throwables with same class and
+ * same frames (including frames and descriptions of causes) share one trace
+ * id, so repeated exception costs one lookup, and trace is rendered (and dumped
+ * into catalog) only once. Throwable's own description (toString()) is not part
+ * of trace, since message is usually different each time.
+ * <p/>
+ * Causes descriptions could be different each time too, so table is bounded:
+ * least recently used trace is evicted above capacity (see
+ * {@linkplain #evictedTraceId()}). Evicted trace met again is registered again,
+ * with new id
+ */
+@NotThreadSafe
+public final class StackTraceTable {
+	public static final int DEFAULT_CAPACITY = Integer.getInteger( "max-stack-traces", 4096 );
+
+	/** causes chain deeper than this is not distinguished in key */
+	private static final int MAX_CAUSES = 64;
+
+	private final int capacity;
+	/** in access order: eldest is least recently used */
+	private final Map<List<Object>, Integer> ids;
+	private final Map<Integer, String> traces = new HashMap<Integer, String>();
+	private int lastTraceId = 0;
+	/** evicted by last traceIdOf() call, 0 if none */
+	private int evictedTraceId = 0;
+
+	public StackTraceTable( final int capacity ) {
+		checkArgument( capacity > 0, "capacity(%s) must be > 0", capacity );
+		this.capacity = capacity;
+		this.ids = new LinkedHashMap<List<Object>, Integer>( 16, 0.75f, /*accessOrder=*/true ) {
+			@Override
+			protected boolean removeEldestEntry( final Map.Entry<List<Object>, Integer> eldest ) {
+				if( size() > StackTraceTable.this.capacity ) {
+					traces.remove( eldest.getValue() );
+					evictedTraceId = eldest.getValue();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	public StackTraceTable() {
+		this( DEFAULT_CAPACITY );
+	}
+
+	/** @return id > 0 of throwable's trace, registering it if it is new */
+	public int traceIdOf( final Throwable throwable ) {
+		evictedTraceId = 0;
+		final List<Object> key = key( throwable );
+		final Integer id = ids.get( key );
+		if( id != null ) {
+			return id;
+		}
+		final int newId = ++lastTraceId;
+		traces.put( newId, render( throwable ) );
+		ids.put( key, newId );
+		return newId;
+	}
+
+	/** @return id of last registered trace, or 0 if table is empty */
+	public int lastTraceId() {
+		return lastTraceId;
+	}
+
+	/** @return id of trace evicted by last {@linkplain #traceIdOf(Throwable)} call, or 0 if none */
+	public int evictedTraceId() {
+		return evictedTraceId;
+	}
+
+	/** @return trace by id, or null, if there is no such id, or it is evicted */
+	public String trace( final int id ) {
+		return traces.get( id );
+	}
+
+	private static List<Object> key( final Throwable throwable ) {
+		final List<Object> key = new ArrayList<Object>();
+		key.add( throwable.getClass() );
+		key.add( Arrays.asList( throwable.getStackTrace() ) );
+		//causes are rendered with their descriptions, so descriptions are part of key
+		final Set<Throwable> seen = Sets.newIdentityHashSet();
+		seen.add( throwable );
+		Throwable cause = throwable.getCause();
+		for( int depth = 0; cause != null && depth < MAX_CAUSES && seen.add( cause ); depth++ ) {
+			key.add( cause.toString() );
+			key.add( Arrays.asList( cause.getStackTrace() ) );
+			cause = cause.getCause();
+		}
+		return key;
+	}
+
+	/** @return printStackTrace() output without first (description) line, with '\n' as line separator */
+	private static String render( final Throwable throwable ) {
+		final StringWriter writer = new StringWriter();
+		final PrintWriter printer = new PrintWriter( writer );
+		throwable.printStackTrace( printer );
+		printer.flush();
+
+		final String lineSeparator = System.getProperty( "line.separator" );
+		String text = writer.toString();
+		final String description = throwable.toString() + lineSeparator;
+		if( text.startsWith( description ) ) {
+			text = text.substring( description.length() );
+		}
+		if( !"\n".equals( lineSeparator ) ) {
+			text = text.replace( lineSeparator, "\n" );
+		}
+		if( text.endsWith( "\n" ) ) {
+			text = text.substring( 0, text.length() - 1 );
+		}
+		return text;
+	}
+}
@@ -0,0 +1,89 @@
+package com.db.logger.api.impl.logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Registry of frequently logged string values (symbols): each gets stable id > 0,
+ * and only the id is written into record, instead of string bytes. Symbols are
+ * dumped into catalog alongside message formats (see
+ * {@linkplain com.db.logger.api.impl.io.CatalogWriter}), so decoder resolves them.
+ * <p/>
+ * Enum constants are registered by whole enum class at first use, by
+ * {@linkplain Enum#name()}, and then their ids are looked up by ordinal.
+ * <p/>
+ * Lookups of already registered values are lock-free, registration is under lock
+ */
+public class SymbolTable {
+	private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+	private final ConcurrentMap<Class<?>, int[]> enumIds = new ConcurrentHashMap<Class<?>, int[]>();
+
+	/** symbols[id-1], written only under lock */
+	private final List<String> symbols = new ArrayList<String>();
+	/** last id given, written only under lock */
+	private volatile int id = 0;
+
+	/** @return id of symbol, registering it if it is new */
+	public int register( final CharSequence symbol ) {
+		checkArgument( symbol != null, "symbol can't be null" );
+		final String key = symbol.toString();
+		final Integer id = ids.get( key );
+		if( id != null ) {
+			return id;
+		}
+		return registerNew( key );
+	}
+
+	/** @return id of enum constant name, registering whole enum if it is new */
+	public int idOf( final Enum<?> constant ) {
+		final Class<?> enumClass = constant.getDeclaringClass();
+		int[] ids = enumIds.get( enumClass );
+		if( ids == null ) {
+			ids = registerEnum( constant.getDeclaringClass().getEnumConstants() );
+			enumIds.putIfAbsent( enumClass, ids );
+		}
+		return ids[constant.ordinal()];
+	}
+
+	private int[] registerEnum( final Enum<?>[] constants ) {
+		final int[] ids = new int[constants.length];
+		for( int i = 0; i < constants.length; i++ ) {
+			ids[i] = register( constants[i].name() );
+		}
+		return ids;
+	}
+
+	private synchronized int registerNew( final String symbol ) {
+		final Integer existing = ids.get( symbol );
+		if( existing != null ) {
+			return existing;
+		}
+		symbols.add( symbol );
+		final int newId = symbols.size();
+		ids.put( symbol, newId );
+		id = newId;
+		return newId;
+	}
+
+	/** @return symbol by id, or null, if there is no such id */
+	public synchronized String symbol( final int id ) {
+		if( id <= 0 || id > symbols.size() ) {
+			return null;
+		}
+		return symbols.get( id - 1 );
+	}
+
+	/** @return id of last registered symbol, or 0 if table is empty */
+	public int lastSymbolId() {
+		return id;
+	}
+
+	/** @return symbols with ids in (sinceId, lastSymbolId()], in order of ids */
+	public synchronized List<String> symbolsSince( final int sinceId ) {
+		return new ArrayList<String>( symbols.subList( Math.max( sinceId, 0 ), symbols.size() ) );
+	}
+}
@@ -0,0 +1,92 @@
+package com.db.logger.api.impl.logger;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Hand-off of logged Throwables from producers to drainer. Producer only takes
+ * next id, and puts Throwable into slot (id % capacity) of fixed-size array: no
+ * allocation, no stack trace walking on producer thread. Record keeps only the
+ * id (see {@linkplain RecordHelper}), and drainer takes Throwable by id later,
+ * renders it (see {@linkplain StackTraceTable}), and writes into binary log.
+ * <p/>
+ * If producers register more than capacity Throwables before drainer takes them,
+ * oldest are overwritten, and lost: such ids are {@linkplain #isLost(int)}.
+ * Id taken by producer which never finished register() (died, or stalled) is
+ * neither taken nor lost: drainer gives up on it after timeout.
+ * <p/>
+ * Slot is guarded by it's id cell: it is {@linkplain #LOCKED} while Throwable is
+ * written/taken, and ids in slot only grow, so older register() never overwrites
+ * newer one
+ */
+public class ThrowableTable {
+	public static final int DEFAULT_CAPACITY = Integer.getInteger( "pending-throwables", 1024 );
+
+	private static final int LOCKED = -1;
+
+	private final AtomicInteger lastId = new AtomicInteger( 0 );
+	/** id of Throwable in slot, 0 if none yet, or LOCKED */
+	private final AtomicIntegerArray ids;
+	private final AtomicReferenceArray<Throwable> throwables;
+	private final int mask;
+
+	public ThrowableTable( final int capacity ) {
+		checkArgument( Integer.bitCount( capacity ) == 1, "capacity(%s) must be power of 2", capacity );
+		this.ids = new AtomicIntegerArray( capacity );
+		this.throwables = new AtomicReferenceArray<Throwable>( capacity );
+		this.mask = capacity - 1;
+	}
+
+	public ThrowableTable() {
+		this( DEFAULT_CAPACITY );
+	}
+
+	/** @return id > 0 to be written into record */
+	public int register( final Throwable throwable ) {
+		checkArgument( throwable != null, "throwable can't be null" );
+		final int id = lastId.incrementAndGet();
+		final int index = id & mask;
+		while( true ) {
+			final int current = ids.get( index );
+			if( current > id ) {
+				return id;//slot already taken by newer one: this one is lost
+			}
+			if( current != LOCKED && ids.compareAndSet( index, current, LOCKED ) ) {
+				break;
+			}
+		}
+		throwables.set( index, throwable );
+		ids.set( index, id );
+		return id;
+	}
+
+	/** @return id of last registered Throwable, or 0 if none */
+	public int lastThrowableId() {
+		return lastId.get();
+	}
+
+	/**
+	 * Drainer only: takes Throwable out of slot, so it is not referenced anymore
+	 *
+	 * @return Throwable registered with id, or null if it is lost, or register() is
+	 * still in progress (see {@linkplain #isLost(int)})
+	 */
+	public Throwable take( final int id ) {
+		final int index = id & mask;
+		if( ids.get( index ) != id || !ids.compareAndSet( index, id, LOCKED ) ) {
+			return null;
+		}
+		final Throwable throwable = throwables.get( index );
+		throwables.set( index, null );
+		ids.set( index, id );
+		return throwable;
+	}
+
+	/** @return true if Throwable with id was overwritten by newer one before it was taken */
+	public boolean isLost( final int id ) {
+		return ids.get( id & mask ) > id;
+	}
+}
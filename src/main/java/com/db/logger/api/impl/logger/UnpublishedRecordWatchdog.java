@@ -0,0 +1,95 @@
+package com.db.logger.api.impl.logger;
+
+import java.util.concurrent.TimeUnit;
+
+import com.db.logger.api.impl.logger.buffer.ICircularLongsBuffer;
+import net.jcip.annotations.NotThreadSafe;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import static com.db.logger.api.impl.logger.RecordHelper.*;
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Watches the hole drain of one ring buffer stops at: record claimed, but not
+ * published. If it's producer died (or thrown) between claim and submit, the
+ * hole will never be published, and ring is wedged forever -- so hole staying
+ * the same longer than timeout is overwritten by PADDING header of the same
+ * length (tombstone), and drain goes on past it.
+ * <p/>
+ * Length of the hole is known from it's pending marker (see
+ * {@linkplain RecordHelper#pendingHeader(long, int)}): hole without the marker can't
+ * be tombstoned. Marker is replaced by CAS, and producers of watched ring publish
+ * by CAS over the marker too (see {@linkplain RingBuffer#publish(long, long)}), so
+ * either record is published, or it is tombstoned, never both. Producer just
+ * stalled longer than timeout loses it's record -- and argument cells it writes
+ * after resume could still corrupt records claimed later in the same cells, so
+ * timeout should be far above any sane scheduling delay. Watchdog is disabled
+ * by default, see {@linkplain FastLoggerImpl}
+ * <p/>
+ * Used by drainer thread only, but {@linkplain #tombstones()} could be read by
+ * any thread
+ */
+@NotThreadSafe
+final class UnpublishedRecordWatchdog {
+	private static final Log log = LogFactory.getLog( UnpublishedRecordWatchdog.class );
+
+	private static final long NO_HOLE = -1;
+
+	private final long timeoutNanos;
+
+	private long holeSequence = NO_HOLE;
+	private long holeSinceNanos = 0;
+
+	/** written by drainer thread only */
+	private volatile long tombstones = 0;
+
+	UnpublishedRecordWatchdog( final long timeout,
+	                           final TimeUnit unit ) {
+		checkArgument( timeout > 0, "timeout(%s) must be > 0", timeout );
+		this.timeoutNanos = unit.toNanos( timeout );
+	}
+
+	/** @return records tombstoned so far */
+	public long tombstones() {
+		return tombstones;
+	}
+
+	/** drain has reached sentinel: there is no hole */
+	public void noHole() {
+		holeSequence = NO_HOLE;
+	}
+
+	/**
+	 * @param holeSequence first cell drain stopped at
+	 * @return true if hole was there longer than timeout, and is tombstoned now
+	 */
+	public boolean tombstoneIfExpired( final ICircularLongsBuffer buffer,
+	                                   final long holeSequence ) {
+		final long now = System.nanoTime();
+		if( holeSequence != this.holeSequence ) {
+			this.holeSequence = holeSequence;
+			this.holeSinceNanos = now;
+			return false;
+		}
+		if( now - holeSinceNanos < timeoutNanos ) {
+			return false;
+		}
+		final long header = buffer.getVolatile( holeSequence );
+		if( !isPendingHeader( header ) ) {
+			//published just now, or length is unknown
+			return false;
+		}
+		final int cellsCount = pendingCellsCount( header );
+		if( !buffer.compareAndSwap( holeSequence, header, paddingHeader( cellsCount ) ) ) {
+			//published just now
+			return false;
+		}
+		tombstones++;
+		log.warn( "Record of " + ( cellsCount + 1 ) + " cells at " + holeSequence
+				          + " was not published for " + TimeUnit.NANOSECONDS.toMillis( now - holeSinceNanos )
+				          + " ms: producer is supposed to be lost, record is dropped" );
+		this.holeSequence = NO_HOLE;
+		return true;
+	}
+}
@@ -1,6 +1,8 @@
 package com.db.logger.api.impl.logger;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 
@@ -34,4 +36,41 @@ public class UnsafeHelper {
 	public static Unsafe unsafe() {
 		return unsafe;
 	}
+
+	/**
+	 * Releases memory of direct (or mapped) buffer right now, without waiting for
+	 * GC. Buffer must not be accessed after that! Best effort: if there is no way
+	 * to do it on current JVM, buffer is left for GC
+	 *
+	 * @return true if buffer was released
+	 */
+	public static boolean unmap( final ByteBuffer buffer ) {
+		if( buffer == null || !buffer.isDirect() ) {
+			return false;
+		}
+		try {
+			//java 9+
+			final Method invokeCleaner = Unsafe.class.getMethod( "invokeCleaner", ByteBuffer.class );
+			invokeCleaner.invoke( unsafe, buffer );
+			return true;
+		} catch( NoSuchMethodException e ) {
+			//java 6-8: ((DirectBuffer)buffer).cleaner().clean()
+			try {
+				final Method cleanerMethod = buffer.getClass().getMethod( "cleaner" );
+				cleanerMethod.setAccessible( true );
+				final Object cleaner = cleanerMethod.invoke( buffer );
+				if( cleaner == null ) {
+					return false;
+				}
+				final Method cleanMethod = cleaner.getClass().getMethod( "clean" );
+				cleanMethod.setAccessible( true );
+				cleanMethod.invoke( cleaner );
+				return true;
+			} catch( Exception ex ) {
+				return false;
+			}
+		} catch( Exception e ) {
+			return false;
+		}
+	}
 }
\ No newline at end of file
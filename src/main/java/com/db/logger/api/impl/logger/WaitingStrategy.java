@@ -1,6 +1,16 @@
 package com.db.logger.api.impl.logger;
 
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
 /**
+ * How producer waits for space in full buffer: {@linkplain #waitFor(int)} is
+ * called with number of failed claim tries so far, and returns false if producer
+ * should give up (what happens next is up to {@linkplain OverflowPolicy})
+ *
  * @author ruslan
  *         created 22.11.13 at 0:46
  */
@@ -55,4 +65,118 @@ public interface WaitingStrategy {
 			return true;
 		}
 	}
+
+	/**
+	 * Strategy parks waiting producers, so consumer must call {@linkplain #wakeUp()}
+	 * after it reclaims space, to not make them wait for the whole park period
+	 */
+	public interface Wakeable extends WaitingStrategy {
+		public void wakeUp();
+	}
+
+	/**
+	 * Spins for first spinTries, then yields for next yieldTries, then parks for
+	 * parkNanos per try, until drainer wakes it up. Gives up after maxTries (pass
+	 * {@linkplain Integer#MAX_VALUE} to wait forever).
+	 * <p/>
+	 * Park is timed: producer registers itself as waiter only after it has seen
+	 * buffer full, so wake up could be missed if drainer reclaims space in
+	 * between. Timeout bounds the delay in this case -- and the case there are more
+	 * parked producers than waiter slots (see {@linkplain #WAITER_SLOTS}): extra
+	 * ones park unregistered. Nothing is allocated on park
+	 */
+	public static class SpinYieldPark implements Wakeable {
+		public static final long DEFAULT_PARK_NANOS = 100000;//100us
+		/** 2^N */
+		public static final int WAITER_SLOTS = 64;
+
+		private final int spinTries;
+		private final int yieldTries;
+		private final long parkNanos;
+		private final int maxTries;
+
+		/** parked producers, null for free slot. Slot is cleared by it's producer only */
+		private final AtomicReferenceArray<Thread> waiters = new AtomicReferenceArray<Thread>( WAITER_SLOTS );
+		private final AtomicInteger waitersCount = new AtomicInteger( 0 );
+
+		public SpinYieldPark( final int spinTries,
+		                      final int yieldTries,
+		                      final long parkNanos,
+		                      final int maxTries ) {
+			checkArgument( spinTries >= 0, "spinTries(%s) must be >= 0", spinTries );
+			checkArgument( yieldTries >= 0, "yieldTries(%s) must be >= 0", yieldTries );
+			checkArgument( parkNanos > 0, "parkNanos(%s) must be > 0", parkNanos );
+			checkArgument( maxTries > 0, "maxTries(%s) must be > 0", maxTries );
+			this.spinTries = spinTries;
+			this.yieldTries = yieldTries;
+			this.parkNanos = parkNanos;
+			this.maxTries = maxTries;
+		}
+
+		/** Parks from the first try, and waits forever */
+		public SpinYieldPark() {
+			this( 0, 0, DEFAULT_PARK_NANOS, Integer.MAX_VALUE );
+		}
+
+		@Override
+		public boolean waitFor( final int tries ) {
+			if( tries >= maxTries ) {
+				return false;
+			}
+			if( tries < spinTries ) {
+				return true;//claim loop itself is the spin
+			}
+			if( tries < spinTries + yieldTries ) {
+				Thread.yield();
+				return true;
+			}
+			final Thread current = Thread.currentThread();
+			final int slot = registerWaiter( current );
+			try {
+				LockSupport.parkNanos( this, parkNanos );
+			} finally {
+				if( slot >= 0 ) {
+					waiters.set( slot, null );
+					waitersCount.decrementAndGet();
+				}
+			}
+			return true;
+		}
+
+		/** @return slot taken, or -1 if all slots are busy */
+		private int registerWaiter( final Thread thread ) {
+			final int start = ( int ) thread.getId();
+			for( int i = 0; i < WAITER_SLOTS; i++ ) {
+				final int slot = ( start + i ) & ( WAITER_SLOTS - 1 );
+				if( waiters.get( slot ) == null
+						&& waiters.compareAndSet( slot, null, thread ) ) {
+					waitersCount.incrementAndGet();
+					return slot;
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		public void wakeUp() {
+			//cheap if nobody waits: it is called by drainer after each pass
+			if( waitersCount.get() == 0 ) {
+				return;
+			}
+			for( int slot = 0; slot < WAITER_SLOTS; slot++ ) {
+				final Thread thread = waiters.get( slot );
+				if( thread != null ) {
+					LockSupport.unpark( thread );
+				}
+			}
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"SpinYieldPark[spin %d, yield %d, park %d ns, max %d]",
+					spinTries, yieldTries, parkNanos, maxTries
+			);
+		}
+	}
 }
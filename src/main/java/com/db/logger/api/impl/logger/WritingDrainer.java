@@ -0,0 +1,389 @@
+package com.db.logger.api.impl.logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.db.logger.api.impl.io.ChunkedRawWriter;
+import com.db.logger.api.impl.io.RawWriter;
+import com.db.logger.api.impl.logger.buffer.DirectMemoryLongsBuffer;
+import com.db.logger.api.impl.logger.buffer.ICircularLongsBuffer;
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import net.jcip.annotations.NotThreadSafe;
+
+import static com.db.logger.api.impl.logger.RecordHelper.*;
+
+/**
+ * Copies records from ring buffer to writer, reclaiming cells. LOG_RECORD
+ * timestamps are written as deltas from last TIMESTAMP record, which is written
+ * (before the record) once the delta becomes too large.
+ * <p/>
+ * If ring buffer is {@linkplain DirectMemoryLongsBuffer} records are not copied
+ * cell by cell: timestamps are replaced by deltas in place, and contiguous region
+ * of records is handed to writer as a whole (in 2 chunks, if region wraps
+ * around), then reclaimed by bulk memory fill. {@linkplain ChunkedRawWriter}
+ * writes chunks right from ring memory (zero-copy), others get chunks bulk-copied
+ * into their buffers. Region is split only by TIMESTAMP records, or by records
+ * not fitting into writer buffer, so records never span writer flush.
+ * PADDING records are reclaimed, but not written.
+ * <p/>
+ * Drain stops at the first record claimed, but not yet published: if it's producer
+ * was descheduled in between, all the records claimed after it wait too. In
+ * out-of-order mode drainer then looks further: records published after the hole
+ * are written right away, each preceded by SEQUENCE record with it's position in
+ * ring, and are replaced in ring by PADDING of the same length. Their cells are
+ * reclaimed later, with the contiguous prefix, once the hole is published. Scan
+ * goes over claimed-but-unpublished records by their pending marker (see
+ * {@linkplain RecordHelper#pendingHeader(long, int)}), and stops at the cell it can't
+ * tell the length of.
+ * <p/>
+ * Hole, which producer is lost, is tombstoned by
+ * {@linkplain UnpublishedRecordWatchdog} of the buffer, if any
+ */
+@NotThreadSafe
+final class WritingDrainer implements Sequencer.Drainer {
+	private static final int SPINS_PER_TURN = 256;
+	/** re-anchor timestamps at least once per this period (in timestamp units) */
+	private static final long ANCHOR_PERIOD_NANOS = 1000000000L;
+	/** TIMESTAMP record size */
+	private static final int ANCHOR_BYTES = 2 * 8;
+	/** SEQUENCE record size */
+	private static final int SEQUENCE_BYTES = 2 * 8;
+	/** RUN record size */
+	private static final int RUN_BYTES = 2 * 8;
+	/** THROWABLE record description is truncated to this many bytes */
+	private static final int MAX_DESCRIPTION_BYTES = 4096;
+
+	public static final boolean DEFAULT_OUT_OF_ORDER = Boolean.getBoolean( "out-of-order-drain" );
+
+	static {
+		//fillBytes() is used to reclaim
+		if( NOT_SET != -1L ) {
+			throw new AssertionError( "NOT_SET(" + NOT_SET + ") must be all bits set" );
+		}
+	}
+
+	private final RawWriter writer;
+	/** writer, if it could write chunks directly, null otherwise */
+	private final ChunkedRawWriter chunkedWriter;
+	/** write records published after not-yet-published one ahead of it */
+	private final boolean outOfOrder;
+
+	/** buffer to drain records from */
+	private ICircularLongsBuffer buffer;
+	/** buffer, if bulk drain could be used for it, null otherwise */
+	private DirectMemoryLongsBuffer directBuffer;
+	/** watchdog of buffer, null if holes are not watched */
+	private UnpublishedRecordWatchdog watchdog;
+
+	/** last TIMESTAMP record value written */
+	private long anchorTimestamp = 0;
+	private boolean anchorWritten = false;
+
+	private int spinsAvailable;
+
+	/** records written ahead of unpublished ones, see {@linkplain #DEFAULT_OUT_OF_ORDER} */
+	private long recordsDrainedAhead = 0;
+
+	WritingDrainer( final RawWriter writer ) {
+		this( writer, DEFAULT_OUT_OF_ORDER );
+	}
+
+	WritingDrainer( final RawWriter writer,
+	                final boolean outOfOrder ) {
+		this.writer = writer;
+		this.outOfOrder = outOfOrder;
+		this.chunkedWriter = ( writer instanceof ChunkedRawWriter ) ?
+				( ChunkedRawWriter ) writer :
+				null;
+	}
+
+	public void drainFrom( final ICircularLongsBuffer buffer ) {
+		drainFrom( buffer, null );
+	}
+
+	/** @param watchdog tombstones lost records of the buffer, may be null */
+	public void drainFrom( final ICircularLongsBuffer buffer,
+	                       final UnpublishedRecordWatchdog watchdog ) {
+		this.buffer = buffer;
+		this.watchdog = watchdog;
+		this.directBuffer = ( buffer instanceof DirectMemoryLongsBuffer ) ?
+				( DirectMemoryLongsBuffer ) buffer :
+				null;
+	}
+
+	/** writes RUN record, see {@linkplain RecordHelper.RecordType#RUN}. Call it before any record is drained */
+	public void writeRun( final long runId ) throws IOException {
+		ByteBuffer output = writer.buffer();
+		if( output.remaining() < RUN_BYTES ) {
+			writer.flush();
+			output = writer.buffer();
+		}
+		output.putLong( runHeader() );
+		output.putLong( runId );
+	}
+
+	/**
+	 * writes THROWABLE record, see {@linkplain RecordHelper.RecordType#THROWABLE}.
+	 * Description is truncated to fit into writer buffer
+	 */
+	public void writeThrowable( final int throwableId,
+	                            final int traceId,
+	                            final String description ) throws IOException {
+		final byte[] bytes = description.getBytes( Charsets.UTF_8 );
+		ByteBuffer output = writer.buffer();
+		//[header][throwableId][traceId][length] + bytes
+		final int length = Math.min(
+				bytes.length,
+				Math.min( MAX_DESCRIPTION_BYTES, output.capacity() - 4 * 8 )
+		);
+		final int recordBytes = ( cellsCount( throwableHeader( length ) ) + 1 ) * 8;
+		if( output.remaining() < recordBytes ) {
+			writer.flush();
+			output = writer.buffer();
+		}
+		output.putLong( throwableHeader( length ) );
+		output.putLong( throwableId );
+		output.putLong( traceId );
+		output.putLong( length );
+		for( int i = 0; i < length; i += 8 ) {
+			long cell = 0;
+			for( int j = 0; j < 8 && i + j < length; j++ ) {
+				cell |= ( bytes[i + j] & 0xFFL ) << ( j << 3 );
+			}
+			output.putLong( cell );
+		}
+	}
+
+	public long recordsDrainedAhead() {
+		return recordsDrainedAhead;
+	}
+
+	@Override
+	public int available( final long startSequence,
+	                      final long sentinelSequence ) {
+		spinsAvailable = SPINS_PER_TURN;
+		try {
+			long pos = startSequence;
+			while( true ) {
+				pos += ( directBuffer != null ) ?
+						drainBulk( pos, sentinelSequence ) :
+						drainByCell( pos, sentinelSequence );
+				if( pos == sentinelSequence ) {
+					if( watchdog != null ) {
+						watchdog.noHole();
+					}
+					break;
+				}
+				if( outOfOrder ) {
+					drainAhead( pos, sentinelSequence );
+				}
+				if( watchdog == null || !watchdog.tombstoneIfExpired( buffer, pos ) ) {
+					break;
+				}
+				//hole is PADDING now: go on
+				spinsAvailable = SPINS_PER_TURN;
+			}
+			return ( int ) ( pos - startSequence );
+		} catch( IOException e ) {
+			throw Throwables.propagate( e );
+		}
+	}
+
+	private int drainByCell( final long startSequence,
+	                         final long sentinelSequence ) throws IOException {
+		ByteBuffer output = writer.buffer();
+		for( long pos = startSequence; pos < sentinelSequence; pos++ ) {
+			final long header = readHeader( pos );
+			if( !isValidHeader( header ) ) {
+				return ( int ) ( pos - startSequence );
+			}
+			final int cellsCount = cellsCount( header );
+			if( type( header ) == RecordType.PADDING ) {
+				for( int i = 0; i <= cellsCount; i++ ) {
+					buffer.put( pos + i, NOT_SET );//need to reclaim each cell!
+				}
+				pos += cellsCount;
+				continue;
+			}
+
+			//ensure output has space for record and, possible, anchor before it
+			final int maxBytes = ( cellsCount + 1 ) * 8 + ANCHOR_BYTES;
+			if( output.remaining() < maxBytes ) {
+				writer.flush();
+				output = writer.buffer();
+			}
+
+			int cellsCopied = 0;
+			if( type( header ) == RecordType.LOG_RECORD ) {
+				final long timestamp = buffer.get( pos + TIMESTAMP_OFFSET );
+				if( needsAnchor( timestamp ) ) {
+					writeAnchor( output, timestamp );
+				}
+				output.putLong( header );
+				output.putLong( timestamp - anchorTimestamp );
+				buffer.put( pos + TIMESTAMP_OFFSET, NOT_SET );
+				cellsCopied = 1;
+			} else {
+				output.putLong( header );
+			}
+			buffer.put( pos, NOT_SET );//need to reclaim each cell!
+
+			//write rest of cells
+			for( int i = cellsCopied + 1; i <= cellsCount; i++ ) {
+				final long arg = buffer.get( pos + i );
+				buffer.put( pos + i, NOT_SET );//need to reclaim each cell!
+				output.putLong( arg );
+			}
+
+			pos += cellsCount;
+		}
+		return ( int ) ( sentinelSequence - startSequence );
+	}
+
+	private int drainBulk( final long startSequence,
+	                       final long sentinelSequence ) throws IOException {
+		//[chunkStart, pos) are records ready to be written
+		long chunkStart = startSequence;
+		long pos = startSequence;
+		while( pos < sentinelSequence ) {
+			final long header = readHeader( pos );
+			if( !isValidHeader( header ) ) {
+				break;
+			}
+			final int cellsCount = cellsCount( header );
+			if( type( header ) == RecordType.PADDING ) {
+				writeChunk( chunkStart, pos );
+				pos += cellsCount + 1;
+				chunkStart = pos;
+				continue;
+			}
+			final boolean logRecord = ( type( header ) == RecordType.LOG_RECORD );
+			final long timestamp = logRecord ? buffer.get( pos + TIMESTAMP_OFFSET ) : 0;
+			final boolean anchor = logRecord && needsAnchor( timestamp );
+
+			if( chunkedWriter == null ) {
+				//chunk is copied into writer buffer: record must fit into it with the chunk
+				final int anchorBytes = anchor ? ANCHOR_BYTES : 0;
+				final int recordBytes = ( cellsCount + 1 ) * 8;
+				final long chunkBytes = ( pos - chunkStart ) * 8;
+				if( anchor || writer.buffer().remaining() < chunkBytes + anchorBytes + recordBytes ) {
+					writeChunk( chunkStart, pos );
+					chunkStart = pos;
+					if( writer.buffer().remaining() < anchorBytes + recordBytes ) {
+						writer.flush();
+					}
+				}
+			} else if( anchor ) {
+				writeChunk( chunkStart, pos );
+				chunkStart = pos;
+				if( writer.buffer().remaining() < ANCHOR_BYTES ) {
+					writer.flush();
+				}
+			}
+
+			if( anchor ) {
+				writeAnchor( writer.buffer(), timestamp );
+			}
+			if( logRecord ) {
+				buffer.put( pos + TIMESTAMP_OFFSET, timestamp - anchorTimestamp );
+			}
+			pos += cellsCount + 1;
+		}
+		writeChunk( chunkStart, pos );
+
+		final int drained = ( int ) ( pos - startSequence );
+		directBuffer.fillBytes( startSequence, drained, ( byte ) NOT_SET );
+		return drained;
+	}
+
+	/**
+	 * Writes records published in [holeSequence, sentinelSequence), up to the first
+	 * cell which length of is unknown, each preceded by SEQUENCE record, and
+	 * replaces them by PADDING. Nothing is reclaimed here
+	 */
+	private void drainAhead( final long holeSequence,
+	                         final long sentinelSequence ) throws IOException {
+		long pos = holeSequence;
+		while( pos < sentinelSequence ) {
+			final long header = buffer.getVolatile( pos );
+			if( isPendingHeader( header ) ) {
+				pos += pendingCellsCount( header ) + 1;
+				continue;
+			}
+			if( !isValidHeader( header ) ) {
+				//claimed, but pending marker is not yet visible, or garbage
+				return;
+			}
+			final int cellsCount = cellsCount( header );
+			if( type( header ) == RecordType.LOG_RECORD ) {
+				writeAhead( pos, header );
+				buffer.put( pos, paddingHeader( cellsCount ) );
+				recordsDrainedAhead++;
+			}
+			pos += cellsCount + 1;
+		}
+	}
+
+	private void writeAhead( final long pos,
+	                         final long header ) throws IOException {
+		final int cellsCount = cellsCount( header );
+		ByteBuffer output = writer.buffer();
+		final int maxBytes = SEQUENCE_BYTES + ANCHOR_BYTES + ( cellsCount + 1 ) * 8;
+		if( output.remaining() < maxBytes ) {
+			writer.flush();
+			output = writer.buffer();
+		}
+		final long timestamp = buffer.get( pos + TIMESTAMP_OFFSET );
+		if( needsAnchor( timestamp ) ) {
+			writeAnchor( output, timestamp );
+		}
+		output.putLong( sequenceHeader() );
+		output.putLong( pos );
+		output.putLong( header );
+		output.putLong( timestamp - anchorTimestamp );
+		for( int i = TIMESTAMP_OFFSET + 1; i <= cellsCount; i++ ) {
+			output.putLong( buffer.get( pos + i ) );
+		}
+	}
+
+	/** writes [from, to) cells, in 2 chunks if region wraps around */
+	private void writeChunk( final long from,
+	                         final long to ) throws IOException {
+		for( long pos = from; pos < to; ) {
+			final int cells = directBuffer.contiguousCells( pos, to );
+			final ByteBuffer chunk = directBuffer.view( pos, cells );
+			if( chunkedWriter != null ) {
+				chunkedWriter.write( chunk );
+			} else {
+				writer.buffer().put( chunk );
+			}
+			pos += cells;
+		}
+	}
+
+	private boolean needsAnchor( final long timestamp ) {
+		final long delta = timestamp - anchorTimestamp;
+		return !anchorWritten
+				|| delta > ANCHOR_PERIOD_NANOS
+				|| delta < -ANCHOR_PERIOD_NANOS;
+	}
+
+	private void writeAnchor( final ByteBuffer output,
+	                          final long timestamp ) {
+		output.putLong( timestampHeader() );
+		output.putLong( timestamp );
+		anchorTimestamp = timestamp;
+		anchorWritten = true;
+	}
+
+	private long readHeader( final long pos ) {
+		for(; spinsAvailable >= 0; spinsAvailable-- ) {
+			final long header = buffer.getVolatile( pos );
+			if( isValidHeader( header ) ) {
+				return header;
+			}
+		}
+		return NOT_SET;
+	}
+}
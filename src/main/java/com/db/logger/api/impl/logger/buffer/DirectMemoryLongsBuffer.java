@@ -9,6 +9,11 @@ import sun.nio.ch.DirectBuffer;
 import static com.google.common.base.Preconditions.checkArgument;
 
 /**
+ * Besides {@linkplain ICircularLongsBuffer} methods, gives access to underlying
+ * memory in bulk: {@linkplain #view(long, int)} and {@linkplain #fillBytes(long, int, byte)}
+ * -- for drainer to write/reclaim regions of records without per-cell copying.
+ * Cells are in {@linkplain java.nio.ByteOrder#nativeOrder() native} byte order
+ *
  * @author ruslan
  *         created 11.12.13 at 22:38
  */
@@ -21,14 +26,17 @@ public class DirectMemoryLongsBuffer implements ICircularLongsBuffer {
 	private transient final int mask;
 	private transient final long address;
 
+	/** reused by {@linkplain #view(long, int)} */
+	private transient final ByteBuffer view;
+
 	public DirectMemoryLongsBuffer( final ByteBuffer buffer,
 	                                final int length ) {
 		checkArgument( ( length & ( length - 1 ) ) == 0,
 		               "length(%s) must be 2^N", length );
 		checkArgument( buffer.isDirect(),
 		               "Can't use non-direct buffers" );
-		checkArgument( buffer.capacity() >= length,
-		               "buffer.capacity(%s) < length(%s)", buffer.capacity(), length );
+		checkArgument( buffer.capacity() >= length * 8,
+		               "buffer.capacity(%s) < length(%s)*8", buffer.capacity(), length );
 
 
 		this.buffer = buffer;
@@ -36,6 +44,16 @@ public class DirectMemoryLongsBuffer implements ICircularLongsBuffer {
 
 		this.mask = length - 1;
 		this.address = ( ( DirectBuffer ) buffer ).address();
+		this.view = buffer.duplicate();
+	}
+
+	public DirectMemoryLongsBuffer( final ByteBuffer buffer,
+	                                final int length,
+	                                final long fillWithValue ) {
+		this( buffer, length );
+		for( int i = 0; i < length; i++ ) {
+			put( i, fillWithValue );
+		}
 	}
 
 	@Override
@@ -43,6 +61,11 @@ public class DirectMemoryLongsBuffer implements ICircularLongsBuffer {
 		return length;
 	}
 
+	/** @return memory address of the first cell */
+	public long address() {
+		return address;
+	}
+
 	@Override
 	public void put( final long position,
 	                 final long value ) {
@@ -76,6 +99,50 @@ public class DirectMemoryLongsBuffer implements ICircularLongsBuffer {
 		return UNSAFE.getLongVolatile( null, address + offset );
 	}
 
+	@Override
+	public boolean compareAndSwap( final long position,
+	                               final long expected,
+	                               final long value ) {
+		final long offset = offset( position );
+		return UNSAFE.compareAndSwapLong( null, address + offset, expected, value );
+	}
+
+	/** @return count of cells from position up to sentinel, or up to the end of underlying memory, whatever is less */
+	public int contiguousCells( final long position,
+	                            final long sentinel ) {
+		final long tillEnd = length - ( position & mask );
+		return ( int ) Math.min( sentinel - position, tillEnd );
+	}
+
+	/**
+	 * @return view of memory of [position, position+cells) cells, as bytes
+	 * [position(), limit()). View object is reused between calls, so it's not
+	 * thread-safe. Region must not wrap around end of buffer (see {@linkplain #contiguousCells(long, long)})
+	 */
+	public ByteBuffer view( final long position,
+	                        final int cells ) {
+		final int offset = ( int ) offset( position );
+		checkArgument( cells >= 0 && offset + cells * 8 <= length * 8,
+		               "[%s, +%s) is out of memory or wraps around", position, cells );
+		view.clear();
+		view.position( offset );
+		view.limit( offset + cells * 8 );
+		return view;
+	}
+
+	/** Fills each byte of [position, position+cells) cells with value. Region may wrap around */
+	public void fillBytes( final long position,
+	                       final int cells,
+	                       final byte value ) {
+		long current = position;
+		final long sentinel = position + cells;
+		while( current < sentinel ) {
+			final int contiguous = contiguousCells( current, sentinel );
+			UNSAFE.setMemory( address + offset( current ), contiguous * 8L, value );
+			current += contiguous;
+		}
+	}
+
 	/*=================== DARK MAGIC =========================*/
 
 	private static final Unsafe UNSAFE = UnsafeHelper.unsafe();
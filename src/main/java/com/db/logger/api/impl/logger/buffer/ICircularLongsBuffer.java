@@ -26,4 +26,9 @@ public interface ICircularLongsBuffer {
 	public long get( final long position );
 
 	public long getVolatile( final long position );
+
+	/** @return true if value at position was expected, and is replaced with value */
+	public boolean compareAndSwap( final long position,
+	                               final long expected,
+	                               final long value );
 }
@@ -0,0 +1,121 @@
+package com.db.logger.api.impl.logger.buffer;
+
+import java.io.*;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.db.logger.api.impl.logger.RecordHelper;
+import com.db.logger.api.impl.logger.UnsafeHelper;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Ring buffer memory in memory-mapped file: records not yet drained are in page
+ * cache, so they survive process crash (kill -9, but not OS crash), and could be
+ * recovered post-mortem from the file.
+ * <p/>
+ * File layout: [header x HEADER_BYTES][cell x length]. Header is [magic][length],
+ * ints in native byte order -- so file must be read on machine with the same
+ * byte order, as cells are native-ordered too (see {@linkplain DirectMemoryLongsBuffer}).
+ * Header takes whole page, so cells are page-aligned
+ */
+public final class MappedRingFile implements Closeable {
+	public static final int MAGIC = 0x474E5246;//'FRNG'
+	public static final int HEADER_BYTES = 4096;
+
+	private final RandomAccessFile raf;
+	private final MappedByteBuffer mapping;
+	private final DirectMemoryLongsBuffer buffer;
+
+	private MappedRingFile( final RandomAccessFile raf,
+	                        final MappedByteBuffer mapping,
+	                        final int length ) {
+		this.raf = raf;
+		this.mapping = mapping;
+		mapping.position( HEADER_BYTES );
+		this.buffer = new DirectMemoryLongsBuffer( mapping.slice().order( ByteOrder.nativeOrder() ), length );
+		mapping.position( 0 );
+	}
+
+	/**
+	 * Creates (or overwrites) file, and fills all cells with {@linkplain RecordHelper#NOT_SET},
+	 * so all pages are faulted in now
+	 *
+	 * @param length in cells, must be 2^N
+	 */
+	public static MappedRingFile create( final File file,
+	                                     final int length ) throws IOException {
+		checkArgument( ( length & ( length - 1 ) ) == 0 && length > 0,
+		               "length(%s) must be 2^N", length );
+		final RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+		try {
+			final long size = HEADER_BYTES + length * 8L;
+			raf.setLength( size );
+			final MappedByteBuffer mapping = raf.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, size );
+			mapping.order( ByteOrder.nativeOrder() );
+			final MappedRingFile ring = new MappedRingFile( raf, mapping, length );
+			for( int i = 0; i < length; i++ ) {
+				ring.buffer.put( i, RecordHelper.NOT_SET );
+			}
+			mapping.putInt( 4, length );
+			mapping.putInt( 0, MAGIC );
+			return ring;
+		} catch( IOException e ) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens file written by ring of (probably) crashed process. Cells are mapped
+	 * read-only: ring is supposed to be only read
+	 *
+	 * @throws IOException if file is not ring file, or was written with other byte order
+	 */
+	public static MappedRingFile open( final File file ) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile( file, "r" );
+		try {
+			final long size = raf.length();
+			if( size < HEADER_BYTES ) {
+				throw new IOException( file + ": " + size + " bytes is too short for ring file" );
+			}
+			final MappedByteBuffer mapping = raf.getChannel().map( FileChannel.MapMode.READ_ONLY, 0, size );
+			mapping.order( ByteOrder.nativeOrder() );
+			final int magic = mapping.getInt( 0 );
+			if( magic != MAGIC ) {
+				throw new IOException( ( magic == Integer.reverseBytes( MAGIC ) ) ?
+						                       file + ": ring file was written with other byte order" :
+						                       file + ": not a ring file (magic " + Integer.toHexString( magic ) + ")" );
+			}
+			final int length = mapping.getInt( 4 );
+			if( length <= 0 || ( length & ( length - 1 ) ) != 0 || HEADER_BYTES + length * 8L > size ) {
+				throw new IOException( file + ": ring length " + length + " is corrupted, or file is truncated" );
+			}
+			return new MappedRingFile( raf, mapping, length );
+		} catch( IOException e ) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	public int length() {
+		return buffer.length();
+	}
+
+	/** cells of the ring. It is unusable after {@linkplain #close()} */
+	public DirectMemoryLongsBuffer buffer() {
+		return buffer;
+	}
+
+	/** Forces cells to disk, so they'll survive OS crash too */
+	public void sync() {
+		mapping.force();
+	}
+
+	@Override
+	public void close() throws IOException {
+		UnsafeHelper.unmap( mapping );
+		raf.close();
+	}
+}
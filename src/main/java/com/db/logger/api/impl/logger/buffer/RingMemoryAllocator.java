@@ -0,0 +1,103 @@
+package com.db.logger.api.impl.logger.buffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import com.db.logger.api.impl.logger.RecordHelper;
+import com.google.common.base.Supplier;
+import sun.nio.ch.DirectBuffer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Allocates ring buffer memory ready for hot path: region is aligned to
+ * {@linkplain #HUGE_PAGE_SIZE}, and all it's pages are faulted in at allocation
+ * (by filling cells with {@linkplain RecordHelper#NOT_SET}) -- so the first lap
+ * around the ring does not pay page faults.
+ * <ul>
+ * <li>{@linkplain #allocate(int)}: direct memory. Aligned region could be backed
+ * by transparent huge pages, if THP is enabled for all memory ('always' mode)</li>
+ * <li>{@linkplain #allocate(File, int)}: mapping of file in given directory --
+ * on hugetlbfs mount it is backed by huge pages for sure, on tmpfs it is just
+ * shared memory. File is deleted right after mapping, so memory is released
+ * with the mapping</li>
+ * </ul>
+ * Java can't bind memory to NUMA node, but pages are placed (first-touch policy)
+ * on the node of the thread faulting them in -- so allocate ring on the thread
+ * (or on the node) which is going to use it most
+ */
+public final class RingMemoryAllocator {
+	public static final int HUGE_PAGE_SIZE = 2 << 20;
+
+	private RingMemoryAllocator() {
+		throw new AssertionError( "Not for instantiation" );
+	}
+
+	/** @param length in cells, must be 2^N */
+	public static DirectMemoryLongsBuffer allocate( final int length ) {
+		checkLength( length );
+		final long size = length * 8L;
+		checkArgument( size + HUGE_PAGE_SIZE <= Integer.MAX_VALUE,
+		               "length(%s) is too large for direct buffer", length );
+		final ByteBuffer memory = ByteBuffer.allocateDirect( ( int ) size + HUGE_PAGE_SIZE );
+		final long address = ( ( DirectBuffer ) memory ).address();
+		final int offset = ( int ) ( ( HUGE_PAGE_SIZE - ( address & ( HUGE_PAGE_SIZE - 1 ) ) ) & ( HUGE_PAGE_SIZE - 1 ) );
+		memory.position( offset );
+		memory.limit( offset + ( int ) size );
+		return new DirectMemoryLongsBuffer(
+				memory.slice().order( ByteOrder.nativeOrder() ),
+				length,
+				RecordHelper.NOT_SET
+		);
+	}
+
+	/**
+	 * @param directory where to create backing file: hugetlbfs or tmpfs mount,
+	 *                  i.e. /dev/hugepages or /dev/shm
+	 * @param length    in cells, must be 2^N
+	 */
+	public static DirectMemoryLongsBuffer allocate( final File directory,
+	                                                final int length ) throws IOException {
+		checkLength( length );
+		checkArgument( directory.isDirectory(), "%s is not a directory", directory );
+		final long size = length * 8L;
+		//hugetlbfs can't map less than whole huge page
+		final long fileSize = ( size + HUGE_PAGE_SIZE - 1 ) & ~( long ) ( HUGE_PAGE_SIZE - 1 );
+		final File file = File.createTempFile( "ring", ".mem", directory );
+		final RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+		try {
+			final ByteBuffer memory = raf.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, fileSize );
+			return new DirectMemoryLongsBuffer(
+					memory.order( ByteOrder.nativeOrder() ),
+					length,
+					RecordHelper.NOT_SET
+			);
+		} finally {
+			//mapping stays valid after file is closed and deleted
+			raf.close();
+			if( !file.delete() ) {
+				file.deleteOnExit();
+			}
+		}
+	}
+
+	/** for per-thread rings: each get() allocates new ring by {@linkplain #allocate(int)} */
+	public static Supplier<DirectMemoryLongsBuffer> supplier( final int length ) {
+		checkLength( length );
+		return new Supplier<DirectMemoryLongsBuffer>() {
+			@Override
+			public DirectMemoryLongsBuffer get() {
+				return allocate( length );
+			}
+		};
+	}
+
+	private static void checkLength( final int length ) {
+		checkArgument( length > 0 && ( length & ( length - 1 ) ) == 0,
+		               "length(%s) must be 2^N", length );
+	}
+}
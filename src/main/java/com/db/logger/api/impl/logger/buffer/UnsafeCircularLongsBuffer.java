@@ -72,6 +72,14 @@ public class UnsafeCircularLongsBuffer implements ICircularLongsBuffer {
 		return UNSAFE.getLongVolatile( array, rawIndex );
 	}
 
+	@Override
+	public boolean compareAndSwap( final long position,
+	                               final long expected,
+	                               final long value ) {
+		final long rawIndex = rawIndex( index( position ) );
+		return UNSAFE.compareAndSwapLong( array, rawIndex, expected, value );
+	}
+
 	/*=================== DARK MAGIC =========================*/
 
 	private static final Unsafe UNSAFE = UnsafeHelper.unsafe();
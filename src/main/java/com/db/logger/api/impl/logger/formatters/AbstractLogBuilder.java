@@ -1,92 +1,151 @@
 package com.db.logger.api.impl.logger.formatters;
 
 import com.db.logger.api.FluentLogBuilder;
+import com.db.logger.api.impl.logger.MessageTemplate;
 import com.db.logger.api.impl.logger.RingBuffer;
 import com.db.logger.api.impl.logger.RecordHelper;
+import com.db.logger.api.impl.logger.SymbolTable;
+import com.db.logger.api.impl.logger.ThrowableTable;
+import com.db.logger.timesource.ITimestampSource;
 import net.jcip.annotations.NotThreadSafe;
 
-import static com.db.logger.api.impl.logger.MCSDSequencer.INVALID_INDEX;
-import static com.db.logger.api.impl.logger.RecordHelper.RecordType.LOG_RECORD;
-import static com.google.common.base.Preconditions.checkArgument;
-import static com.google.common.base.Preconditions.checkState;
+import static com.db.logger.api.impl.logger.RecordHelper.ARGUMENTS_OFFSET;
 
 /**
+ * Record is published (header written) on submit() even if not all arguments were
+ * given: missing arguments are padded with {@linkplain #MISSING_ARGUMENT}, so drainer
+ * never reads cells nobody wrote. Arguments beyond argumentsCount() are ignored,
+ * so they never overwrite following records.
+ * <p/>
+ * With {@linkplain #VALIDATE_ARGUMENTS} (-Dvalidate-arguments=true) arity and types
+ * of arguments are also checked against {@linkplain MessageTemplate}, and
+ * IllegalStateException is thrown on mismatch (record is still published, padded).
+ * Flag is static final, so with validation off JIT folds the checks away.
+ * <p/>
+ * Records of formats with string arguments are staged in {@linkplain RecordStage},
+ * and claimed on submit(), since their size is not known in advance. Record with
+ * Throwable attached takes one more cell, so if it was already claimed, it is
+ * moved into stage, and claimed cells are published as PADDING record.
+ * <p/>
+ * Record is started on first with()/submit(): all the work is done by
+ * {@linkplain RecordBuilder}, shared with {@linkplain RawLogMessage}
+ *
  * @author ruslan
  *         created 05.12.13 at 0:52
  */
 @NotThreadSafe
 public abstract class AbstractLogBuilder implements FluentLogBuilder {
 	public static final int NOT_SET = -1;
+	/** argumentIndex value for record dropped by {@linkplain com.db.logger.api.impl.logger.OverflowPolicy#DROP_AND_COUNT} */
+	public static final int DROPPED = -2;
+
+	public static final boolean VALIDATE_ARGUMENTS = Boolean.getBoolean( "validate-arguments" );
+	/** written into cells of arguments not given before submit() */
+	public static final long MISSING_ARGUMENT = 0L;
+	/** string arguments are truncated to this length (in UTF-8 bytes) */
+	public static final int MAX_STRING_BYTES = Integer.getInteger( "max-string-bytes", 1024 );
+
+	/** @return max cells string-containing record arguments could take in buffer */
+	static int maxStagedCells( final RingBuffer buffer ) {
+		//header.cellsCount is 16 bits, and includes timestamp
+		return Math.min( 0xFFFF - 1, buffer.buffer().length() - ARGUMENTS_OFFSET );
+	}
 
-	private final RingBuffer buffer;
+	/** claim/stage/publish of current record */
+	private final RecordBuilder record;
 
-	protected int argumentIndex = NOT_SET;
-	protected long position = INVALID_INDEX;
+	public AbstractLogBuilder( final RingBuffer buffer,
+	                           final ITimestampSource timestampSource ) {
+		this( buffer, timestampSource, null );
+	}
 
-	public AbstractLogBuilder( final RingBuffer buffer ) {
-		checkArgument( buffer != null, "buffer can't be null" );
-		this.buffer = buffer;
+	/** @param symbols to resolve enums ids, may be null */
+	public AbstractLogBuilder( final RingBuffer buffer,
+	                           final ITimestampSource timestampSource,
+	                           final SymbolTable symbols ) {
+		this( buffer, timestampSource, symbols, null );
+	}
+
+	/**
+	 * @param symbols    to resolve enums ids, may be null
+	 * @param throwables to pass attached Throwables to drainer, may be null
+	 */
+	public AbstractLogBuilder( final RingBuffer buffer,
+	                           final ITimestampSource timestampSource,
+	                           final SymbolTable symbols,
+	                           final ThrowableTable throwables ) {
+		this.record = new RecordBuilder( buffer, timestampSource, symbols, throwables );
 	}
 
 	@Override
 	public FluentLogBuilder with( final double value ) {
-		return with( Double.doubleToLongBits( value ) );
+		ensureStarted();
+		record.withDouble( value );
+		return this;
 	}
 
 	@Override
 	public FluentLogBuilder with( final long value ) {
 		ensureStarted();
-//		checkState(
-//				argumentIndex < argumentsCount(),
-//				"Only %s arguments allowed but %s (%s) here",
-//				argumentsCount(), argumentIndex, value
-//		);
-
-		argumentIndex++;//0 reserved for header!
-		buffer.buffer().put(
-				position + argumentIndex,
-				value
-		);
+		record.withLong( value );
+		return this;
+	}
 
+	@Override
+	public FluentLogBuilder with( final CharSequence value ) {
+		ensureStarted();
+		record.withString( value );
 		return this;
 	}
 
 	@Override
-	public void submit() {
+	public FluentLogBuilder with( final byte[] value,
+	                              final int offset,
+	                              final int length ) {
 		ensureStarted();
-		try {
-//			checkState(
-//					argumentIndex == argumentsCount(),
-//					"early submit: %s < %s",
-//					argumentIndex, argumentsCount()
-//			);
-
-			final long header = RecordHelper.header(
-					LOG_RECORD,
-					formatId(),
-					argumentsCount()
-			);
-			buffer.buffer().putOrdered( position, header );
-		} finally {
-			reset();
-		}
+		record.withBytes( value, offset, length );
+		return this;
 	}
 
-	protected void reset() {
-		argumentIndex = NOT_SET;
-		position = INVALID_INDEX;
+	@Override
+	public FluentLogBuilder with( final Enum<?> value ) {
+		ensureStarted();
+		record.withEnum( value );
+		return this;
 	}
 
-	protected void ensureStarted() {
-		if( position == INVALID_INDEX ) {
-			position = buffer.claim( argumentsCount() + 1 );//1 for header
-			checkState( position != INVALID_INDEX, "Claim failed" );
+	@Override
+	public FluentLogBuilder withSymbol( final int symbolId ) {
+		ensureStarted();
+		record.withSymbol( symbolId );
+		return this;
+	}
+
+	@Override
+	public FluentLogBuilder with( final Throwable throwable ) {
+		ensureStarted();
+		record.withThrowable( throwable );
+		return this;
+	}
 
-			argumentIndex = 0;
+	@Override
+	public void submit() {
+		ensureStarted();
+		record.submit();
+	}
+
+	protected void ensureStarted() {
+		if( !record.isStarted() ) {
+			record.setup( template(), formatId(), RecordHelper.NO_LEVEL );
+			record.start();
 		}
 	}
 
 	protected abstract int formatId();
 
 	protected abstract int argumentsCount();
+
+	protected abstract String format();
+
+	protected abstract MessageTemplate template();
 }
@@ -1,19 +1,32 @@
 package com.db.logger.api.impl.logger.formatters;
 
 import com.db.logger.api.FluentLogBuilder;
+import com.db.logger.api.LogMessage;
 import net.jcip.annotations.Immutable;
 
 /**
+ * No-op message: returned for disabled levels, so nothing is claimed nor written
+ *
  * @author ruslan
  *         created 05.12.13 at 23:41
  */
 @Immutable
-public class DummyLogBuilder implements FluentLogBuilder {
+public class DummyLogBuilder implements FluentLogBuilder, LogMessage {
 	public static final DummyLogBuilder INSTANCE = new DummyLogBuilder();
 
 	protected DummyLogBuilder() {
 	}
 
+	@Override
+	public String format() {
+		return "";
+	}
+
+	@Override
+	public int argumentsCount() {
+		return 0;
+	}
+
 	@Override
 	public FluentLogBuilder with( final double value ) {
 		return this;
@@ -24,6 +37,33 @@ public class DummyLogBuilder implements FluentLogBuilder {
 		return this;
 	}
 
+	@Override
+	public FluentLogBuilder with( final CharSequence value ) {
+		return this;
+	}
+
+	@Override
+	public FluentLogBuilder with( final byte[] value,
+	                              final int offset,
+	                              final int length ) {
+		return this;
+	}
+
+	@Override
+	public FluentLogBuilder with( final Enum<?> value ) {
+		return this;
+	}
+
+	@Override
+	public FluentLogBuilder withSymbol( final int symbolId ) {
+		return this;
+	}
+
+	@Override
+	public FluentLogBuilder with( final Throwable throwable ) {
+		return this;
+	}
+
 	@Override
 	public void submit() {
 
@@ -1,53 +1,196 @@
 package com.db.logger.api.impl.logger.formatters;
 
+import com.db.logger.api.LogBatch;
 import com.db.logger.api.LogMessage;
 import com.db.logger.api.FluentLogBuilder;
+import com.db.logger.api.Level;
 import com.db.logger.api.impl.logger.RingBuffer;
 import com.db.logger.api.impl.logger.MessageInfo;
+import com.db.logger.api.impl.logger.MessageTemplate;
 import com.db.logger.api.impl.logger.RecordHelper;
+import com.db.logger.api.impl.logger.SymbolTable;
+import com.db.logger.api.impl.logger.ThrowableTable;
+import com.db.logger.api.impl.logger.buffer.ICircularLongsBuffer;
+import com.db.logger.timesource.ITimestampSource;
 
-import static com.db.logger.api.impl.logger.formatters.AbstractLogBuilder.NOT_SET;
 import static com.db.logger.api.impl.logger.MCSDSequencer.INVALID_INDEX;
-import static com.db.logger.api.impl.logger.RecordHelper.RecordType.LOG_RECORD;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 
 /**
+ * Same padding/validation rules as {@linkplain AbstractLogBuilder}, and the same
+ * {@linkplain RecordBuilder} does the work, but record is started explicitly, by
+ * start(), and could have level. Records of formats with string arguments are
+ * staged in {@linkplain RecordStage}, and claimed on submit(), since their size
+ * is not known at start(). Same for records with Throwable attached: already
+ * claimed record is moved into stage then, and claimed cells are published as
+ * PADDING record.
+ * <p/>
+ * As {@linkplain LogBatch} it claims space for several records of the same
+ * fixed-size format at once (up to {@linkplain #MAX_BATCH_RECORDS}), and next()
+ * takes records from the range claimed, while it lasts. Batch remembers it's
+ * format and level, so records started by setup()/start() in between (i.e. by
+ * other log calls of the same thread) neither change records of batch, nor take
+ * it's cells
+ *
  * @author ruslan
  *         created 20.11.13 at 23:48
  */
-public final class RawLogMessage implements LogMessage, FluentLogBuilder {
+public final class RawLogMessage implements LogMessage, FluentLogBuilder, LogBatch {
+	/**
+	 * Records claimed by batch at once: drainer can't go past batch until it is
+	 * ended, so batch is kept small, whatever count is asked for
+	 */
+	public static final int MAX_BATCH_RECORDS = 64;
 
+	/** claim/stage/publish of current record */
+	private final RecordBuilder record;
 	private final RingBuffer buffer;
 
-	private int argumentIndex = NOT_SET;
-	private long position = INVALID_INDEX;
-
+	private MessageInfo messageInfo;
 	private String format;
+	private MessageTemplate template;
 	private int formatId;
-
 	private int argumentsCount;
+	/** written into header */
+	private int level = RecordHelper.NO_LEVEL;
+
+	/** format of batch started by {@linkplain #startBatch(int)}, null if there is none */
+	private MessageInfo batchMessageInfo = null;
+	private int batchLevel;
+	/** records claimed by {@linkplain #startBatch(int)}, and not yet used */
+	private int batchRecords = 0;
+	/** position of next record claimed by batch */
+	private long batchPosition = INVALID_INDEX;
+	private int batchRecordSize;
+
+	public RawLogMessage( final RingBuffer ringBuffer,
+	                      final ITimestampSource timestampSource ) {
+		this( ringBuffer, timestampSource, null );
+	}
+
+	/** @param symbols to resolve enums ids, may be null */
+	public RawLogMessage( final RingBuffer ringBuffer,
+	                      final ITimestampSource timestampSource,
+	                      final SymbolTable symbols ) {
+		this( ringBuffer, timestampSource, symbols, null );
+	}
 
-	public RawLogMessage( final RingBuffer ringBuffer ) {
+	/**
+	 * @param symbols    to resolve enums ids, may be null
+	 * @param throwables to pass attached Throwables to drainer, may be null
+	 */
+	public RawLogMessage( final RingBuffer ringBuffer,
+	                      final ITimestampSource timestampSource,
+	                      final SymbolTable symbols,
+	                      final ThrowableTable throwables ) {
+		checkArgument( ringBuffer != null, "ringBuffer can't be null" );
+		this.record = new RecordBuilder( ringBuffer, timestampSource, symbols, throwables );
 		this.buffer = ringBuffer;
 	}
 
 	public RawLogMessage setup( final MessageInfo messageInfo ) {
+		return setup( messageInfo, null );
+	}
+
+	/** @param level of records, may be null */
+	public RawLogMessage setup( final MessageInfo messageInfo,
+	                            final Level level ) {
 		checkArgument( messageInfo != null, "messageInfo can't be null" );
+		return setup( messageInfo, ( level != null ) ? level.id() : RecordHelper.NO_LEVEL );
+	}
+
+	private RawLogMessage setup( final MessageInfo messageInfo,
+	                             final int level ) {
+		this.level = level;
 		this.format = messageInfo.format;
+		this.template = messageInfo.template;
 		this.formatId = messageInfo.formatId;
 		this.argumentsCount = messageInfo.argumentsCount;
+		this.messageInfo = messageInfo;
 		return this;
 	}
 
+	/** Starts record of current format: it is claimed alone, never from batch */
 	public RawLogMessage start() {
-		checkState( argumentIndex == NOT_SET, "Submit first!" );
-		position = buffer.claim( argumentsCount + 1 );//1 for header
-		checkState( position != INVALID_INDEX, "Can't claim position" );
-		argumentIndex = 0;
+		checkState( !record.isStarted(), "Submit first!" );
+		record.setup( template, formatId, level );
+		record.start();
+		return this;
+	}
+
+	/**
+	 * Starts batch of records of current format and level: claims space for up to
+	 * records records at once -- at most {@linkplain #MAX_BATCH_RECORDS}, and at
+	 * most half of ring buffer. Nothing is claimed if format has string arguments
+	 */
+	public RawLogMessage startBatch( final int records ) {
+		checkArgument( records > 0, "records(%s) must be > 0", records );
+		checkState( !record.isStarted(), "Submit first!" );
+		checkState( batchMessageInfo == null, "End previous batch first" );
+		batchMessageInfo = messageInfo;
+		batchLevel = level;
+		if( !template.isFixedSize() ) {
+			return this;
+		}
+		final int recordSize = RecordHelper.logRecordSize( argumentsCount );
+		final int count = Math.min(
+				Math.min( records, MAX_BATCH_RECORDS ),
+				Math.max( 1, buffer.length() / 2 / recordSize )
+		);
+		final long position = buffer.claim( count * recordSize );
+		if( position != INVALID_INDEX ) {
+			//each record of batch is pending on it's own
+			final ICircularLongsBuffer cells = buffer.buffer();
+			for( int i = 0; i < count; i++ ) {
+				final long recordPosition = position + i * recordSize;
+				cells.put( recordPosition, RecordHelper.pendingHeader( recordPosition, recordSize - 1 ) );
+			}
+			batchPosition = position;
+			batchRecords = count;
+			batchRecordSize = recordSize;
+		}
+		return this;
+	}
+
+	/** Starts next record of batch, in batch format and level, whatever was set up since batch start */
+	@Override
+	public FluentLogBuilder next() {
+		checkState( batchMessageInfo != null, "Start batch first" );
+		checkState( !record.isStarted(), "Submit first!" );
+		setup( batchMessageInfo, batchLevel );
+		record.setup( template, formatId, level );
+		if( batchRecords > 0 ) {
+			record.startAt( batchPosition );
+			batchPosition += batchRecordSize;
+			batchRecords--;
+		} else {
+			record.start();
+		}
 		return this;
 	}
 
+	/** records claimed, but not used, are published as PADDING */
+	@Override
+	public void end() {
+		checkState( !record.isStarted(), "Submit first!" );
+		batchMessageInfo = null;
+		if( batchRecords == 0 ) {
+			return;
+		}
+		final long padding = RecordHelper.paddingHeader( batchRecordSize - 1 );
+		for( ; batchRecords > 0; batchRecords-- ) {
+			buffer.publish( batchPosition, padding );
+			batchPosition += batchRecordSize;
+		}
+		batchPosition = INVALID_INDEX;
+	}
+
+	@Override
+	public void close() {
+		end();
+	}
+
 	public int formatId() {
 		return formatId;
 	}
@@ -65,47 +208,50 @@ public final class RawLogMessage implements LogMessage, FluentLogBuilder {
 
 	@Override
 	public FluentLogBuilder with( final long value ) {
-		checkState( position != INVALID_INDEX, "Not started" );
-		//		checkState(
-		//				argumentIndex < argumentsCount(),
-		//				"Only %s arguments allowed but %s is",
-		//				argumentsCount(), argumentIndex
-		//		);
-
-		argumentIndex++;//0 reserved for header!
-		buffer.buffer().put(
-				position + argumentIndex,
-				value
-		);
-
+		record.withLong( value );
 		return this;
 	}
 
 	@Override
 	public FluentLogBuilder with( final double value ) {
-		return with( Double.doubleToLongBits( value ) );
+		record.withDouble( value );
+		return this;
 	}
 
 	@Override
-	public void submit() {
-		checkState( position != INVALID_INDEX, "Not started" );
-		try {
-			//			checkState(
-			//					argumentIndex == argumentsCount(),
-			//					"early submit: %s < %s",
-			//					argumentIndex, argumentsCount()
-			//			);
-
-			final long header = RecordHelper.header(
-					LOG_RECORD,
-					formatId(),
-					argumentsCount()
-			);
-			buffer.buffer().putOrdered( position, header );
-		} finally {
-			argumentIndex = NOT_SET;
-			position = INVALID_INDEX;
-		}
+	public FluentLogBuilder with( final CharSequence value ) {
+		record.withString( value );
+		return this;
 	}
 
+	@Override
+	public FluentLogBuilder with( final byte[] value,
+	                              final int offset,
+	                              final int length ) {
+		record.withBytes( value, offset, length );
+		return this;
+	}
+
+	@Override
+	public FluentLogBuilder with( final Enum<?> value ) {
+		record.withEnum( value );
+		return this;
+	}
+
+	@Override
+	public FluentLogBuilder withSymbol( final int symbolId ) {
+		record.withSymbol( symbolId );
+		return this;
+	}
+
+	@Override
+	public FluentLogBuilder with( final Throwable throwable ) {
+		record.withThrowable( throwable );
+		return this;
+	}
+
+	@Override
+	public void submit() {
+		record.submit();
+	}
 }
@@ -0,0 +1,364 @@
+package com.db.logger.api.impl.logger.formatters;
+
+import com.db.logger.api.impl.logger.MessageTemplate;
+import com.db.logger.api.impl.logger.MessageTemplate.ArgumentType;
+import com.db.logger.api.impl.logger.RecordHelper;
+import com.db.logger.api.impl.logger.RingBuffer;
+import com.db.logger.api.impl.logger.SymbolTable;
+import com.db.logger.api.impl.logger.ThrowableTable;
+import com.db.logger.api.impl.logger.buffer.ICircularLongsBuffer;
+import com.db.logger.timesource.ITimestampSource;
+import net.jcip.annotations.NotThreadSafe;
+
+import static com.db.logger.api.impl.logger.MCSDSequencer.INVALID_INDEX;
+import static com.db.logger.api.impl.logger.RecordHelper.ARGUMENTS_OFFSET;
+import static com.db.logger.api.impl.logger.RecordHelper.TIMESTAMP_OFFSET;
+import static com.db.logger.api.impl.logger.formatters.AbstractLogBuilder.*;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Claim/stage/publish of one record at a time, shared by {@linkplain AbstractLogBuilder}
+ * and {@linkplain RawLogMessage}: they differ only in how record is started.
+ * See {@linkplain AbstractLogBuilder} for padding/validation rules.
+ * <p/>
+ * Calls before {@linkplain #start()} throw IllegalStateException, calls on record
+ * dropped by {@linkplain com.db.logger.api.impl.logger.OverflowPolicy#DROP_AND_COUNT}
+ * do nothing
+ */
+@NotThreadSafe
+final class RecordBuilder {
+	private final RingBuffer buffer;
+	private final ITimestampSource timestampSource;
+	/** may be null: enums are written as inline strings then */
+	private final SymbolTable symbols;
+	/** may be null: Throwables are ignored then */
+	private final ThrowableTable throwables;
+	/** see {@linkplain AbstractLogBuilder#maxStagedCells(RingBuffer)} */
+	private final int maxStagedCells;
+
+	private MessageTemplate template;
+	private int formatId;
+	private int argumentsCount;
+	/** written into header */
+	private int level = RecordHelper.NO_LEVEL;
+
+	private int argumentIndex = NOT_SET;
+	private long position = INVALID_INDEX;
+
+	/** created on first record with string arguments */
+	private RecordStage stage = null;
+	/** current record is collected in stage */
+	private boolean staging = false;
+	/** timestamp of staged record, taken at start() */
+	private long stagedTimestamp;
+	/** id of Throwable attached to current record, 0 if none */
+	private int throwableId = 0;
+
+	RecordBuilder( final RingBuffer buffer,
+	               final ITimestampSource timestampSource,
+	               final SymbolTable symbols,
+	               final ThrowableTable throwables ) {
+		checkArgument( buffer != null, "buffer can't be null" );
+		checkArgument( timestampSource != null, "timestampSource can't be null" );
+		this.buffer = buffer;
+		this.timestampSource = timestampSource;
+		this.symbols = symbols;
+		this.throwables = throwables;
+		this.maxStagedCells = maxStagedCells( buffer );
+	}
+
+	public RingBuffer buffer() {
+		return buffer;
+	}
+
+	/** format of records started next */
+	public void setup( final MessageTemplate template,
+	                   final int formatId,
+	                   final int level ) {
+		this.template = template;
+		this.formatId = formatId;
+		this.argumentsCount = template.argumentsCount();
+		this.level = level;
+	}
+
+	public MessageTemplate template() {
+		return template;
+	}
+
+	public int formatId() {
+		return formatId;
+	}
+
+	/** @return true from start() to submit(), dropped record included */
+	public boolean isStarted() {
+		return argumentIndex != NOT_SET;
+	}
+
+	/**
+	 * Claims record, or starts staging it, if format has string arguments. If
+	 * there is no space, and overflow policy is to drop, record is dropped.
+	 * <p/>
+	 * Each argument takes at least one cell, and one more cell is reserved for
+	 * Throwable id: record with more arguments can't be staged
+	 *
+	 * @throws IllegalStateException if format has too many arguments for ring buffer
+	 */
+	public void start() {
+		checkArgumentsFit();
+		if( !template.isFixedSize() ) {
+			if( stage == null ) {
+				stage = new RecordStage( maxStagedCells );
+			}
+			stage.clear();
+			stagedTimestamp = timestampSource.timestampNanos();
+			staging = true;
+			argumentIndex = 0;
+			return;
+		}
+		startAt( buffer.claim( RecordHelper.logRecordSize( argumentsCount ) ) );
+	}
+
+	/**
+	 * Starts fixed-size record in cells already claimed
+	 *
+	 * @param position claimed, or INVALID_INDEX for dropped record
+	 */
+	public void startAt( final long position ) {
+		checkArgumentsFit();
+		this.position = position;
+		if( position == INVALID_INDEX ) {
+			//with()/submit() will do nothing
+			argumentIndex = DROPPED;
+			return;
+		}
+		buffer.buffer().put(
+				position + TIMESTAMP_OFFSET,
+				timestampSource.timestampNanos()
+		);
+		argumentIndex = 0;
+	}
+
+	private void checkArgumentsFit() {
+		//not checkState(): varargs would allocate on each call
+		if( argumentsCount >= maxStagedCells ) {
+			throw new IllegalStateException( "[" + template.format() + "]: too many arguments for ring buffer" );
+		}
+	}
+
+	public void withLong( final long value ) {
+		if( accept( ArgumentType.LONG ) ) {
+			putCell( value );
+		}
+	}
+
+	public void withDouble( final double value ) {
+		if( accept( ArgumentType.DOUBLE ) ) {
+			putCell( Double.doubleToLongBits( value ) );
+		}
+	}
+
+	public void withString( final CharSequence value ) {
+		if( accept( ArgumentType.STRING ) ) {
+			if( isStringSlot() ) {
+				//arguments after this one, and cell reserved for throwable id
+				stage.putString( value != null ? value : "null", argumentsCount - argumentIndex );
+				argumentIndex++;
+			} else {
+				putCell( MISSING_ARGUMENT );
+			}
+		}
+	}
+
+	public void withBytes( final byte[] value,
+	                       final int offset,
+	                       final int length ) {
+		if( accept( ArgumentType.STRING ) ) {
+			if( isStringSlot() ) {
+				stage.putBytes( value, offset, length, argumentsCount - argumentIndex );
+				argumentIndex++;
+			} else {
+				putCell( MISSING_ARGUMENT );
+			}
+		}
+	}
+
+	public void withEnum( final Enum<?> value ) {
+		if( value == null ) {
+			withString( null );
+		} else if( symbols == null ) {
+			withString( value.name() );
+		} else {
+			withSymbol( symbols.idOf( value ) );
+		}
+	}
+
+	public void withSymbol( final int symbolId ) {
+		if( accept( ArgumentType.STRING ) ) {
+			if( isStringSlot() ) {
+				if( VALIDATE_ARGUMENTS && symbolId <= 0 ) {
+					submitAndFail( "symbolId(" + symbolId + ") must be > 0" );
+				}
+				//invalid id would be read as string length: write empty string instead
+				stage.putLong( symbolId > 0 ? RecordHelper.symbolCell( symbolId ) : 0 );
+				argumentIndex++;
+			} else {
+				putCell( MISSING_ARGUMENT );
+			}
+		}
+	}
+
+	public void withThrowable( final Throwable throwable ) {
+		if( position == INVALID_INDEX && !staging ) {
+			checkState( argumentIndex == DROPPED, "Not started" );
+			return;
+		}
+		if( throwable == null || throwables == null ) {
+			return;
+		}
+		if( !staging ) {
+			restage();
+		}
+		throwableId = throwables.register( throwable );
+	}
+
+	public void submit() {
+		if( position == INVALID_INDEX && !staging ) {
+			checkState( argumentIndex == DROPPED, "Not started" );
+			argumentIndex = NOT_SET;
+			return;
+		}
+		final int given = argumentIndex;
+		publish();
+		if( VALIDATE_ARGUMENTS && given < argumentsCount ) {
+			throw new IllegalStateException(
+					String.format( "early submit: %s < %s", given, argumentsCount )
+			);
+		}
+	}
+
+	/** moves claimed record into stage, so it could grow: claimed cells are published as PADDING */
+	private void restage() {
+		if( stage == null ) {
+			stage = new RecordStage( maxStagedCells );
+		}
+		stage.clear();
+		final ICircularLongsBuffer cells = buffer.buffer();
+		for( int i = 0; i < argumentIndex; i++ ) {
+			stage.putLong( cells.get( position + ARGUMENTS_OFFSET + i ) );
+		}
+		stagedTimestamp = cells.get( position + TIMESTAMP_OFFSET );
+		//if record is tombstoned already, it's cells are not ours anymore: it doesn't matter
+		buffer.publish( position, RecordHelper.paddingHeader( RecordHelper.logRecordSize( argumentsCount ) - 1 ) );
+		position = INVALID_INDEX;
+		staging = true;
+	}
+
+	/** @return true if argument of type should be written to current slot */
+	private boolean accept( final ArgumentType type ) {
+		if( position == INVALID_INDEX && !staging ) {
+			checkState( argumentIndex == DROPPED, "Not started" );
+			return false;
+		}
+		if( argumentIndex >= argumentsCount ) {
+			if( VALIDATE_ARGUMENTS ) {
+				submitAndFail( String.format(
+						"Only %s arguments allowed but %s is",
+						argumentsCount, argumentIndex
+				) );
+			}
+			return false;
+		}
+		if( VALIDATE_ARGUMENTS ) {
+			final ArgumentType expected = template.argumentType( argumentIndex );
+			if( expected != type ) {
+				submitAndFail( String.format(
+						"[%s]: argument %s is %s, but %s expected",
+						template.format(), argumentIndex, type, expected
+				) );
+			}
+		}
+		return true;
+	}
+
+	private boolean isStringSlot() {
+		return staging && template.argumentType( argumentIndex ) == ArgumentType.STRING;
+	}
+
+	/** long/double into current slot, whatever it's type is */
+	private void putCell( final long value ) {
+		if( !staging ) {
+			buffer.buffer().put(
+					position + ARGUMENTS_OFFSET + argumentIndex,
+					value
+			);
+		} else if( template.argumentType( argumentIndex ) == ArgumentType.STRING ) {
+			//wrong type: string slot can't take number, since it's cell is string length
+			stage.putEmptyString();
+		} else {
+			stage.putLong( value );
+		}
+		argumentIndex++;
+	}
+
+	private void submitAndFail( final String message ) {
+		publish();
+		throw new IllegalStateException( message );
+	}
+
+	/** pads missing arguments, if any, and writes header */
+	private void publish() {
+		try {
+			if( staging ) {
+				publishStaged();
+				return;
+			}
+			final ICircularLongsBuffer cells = buffer.buffer();
+			for( int i = argumentIndex; i < argumentsCount; i++ ) {
+				cells.put( position + ARGUMENTS_OFFSET + i, MISSING_ARGUMENT );
+			}
+
+			final long header = RecordHelper.logRecordHeader(
+					formatId,
+					argumentsCount,
+					level
+			);
+			//false if record is tombstoned: it is counted by watchdog
+			buffer.publish( position, header );
+		} finally {
+			argumentIndex = NOT_SET;
+			position = INVALID_INDEX;
+			staging = false;
+			throwableId = 0;
+		}
+	}
+
+	private void publishStaged() {
+		for( int i = argumentIndex; i < argumentsCount; i++ ) {
+			if( template.argumentType( i ) == ArgumentType.STRING ) {
+				stage.putEmptyString();
+			} else {
+				stage.putLong( MISSING_ARGUMENT );
+			}
+		}
+		if( throwableId != 0 ) {
+			//always fits: cell is reserved, see start()
+			stage.putLong( throwableId );
+		}
+		final int argumentsCells = stage.count();
+		final long position = buffer.claim( RecordHelper.logRecordSize( argumentsCells ) );
+		if( position == INVALID_INDEX ) {
+			return;//dropped
+		}
+		final ICircularLongsBuffer cells = buffer.buffer();
+		cells.put( position + TIMESTAMP_OFFSET, stagedTimestamp );
+		stage.copyTo( cells, position + ARGUMENTS_OFFSET );
+
+		final long header = RecordHelper.logRecordHeader(
+				formatId,
+				argumentsCells,
+				level
+		);
+		buffer.publish( position, header );
+	}
+}
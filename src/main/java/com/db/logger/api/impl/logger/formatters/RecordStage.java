@@ -0,0 +1,157 @@
+package com.db.logger.api.impl.logger.formatters;
+
+import com.db.logger.api.impl.logger.RecordHelper;
+import com.db.logger.api.impl.logger.buffer.ICircularLongsBuffer;
+import net.jcip.annotations.NotThreadSafe;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Arguments cells of record with string arguments: size of such record is not
+ * known until all arguments are given, so they are collected here, and record
+ * is claimed and copied into ring buffer on submit.
+ * <p/>
+ * Strings are encoded into UTF-8 right into cells (see {@linkplain RecordHelper}
+ * for layout), without any intermediate objects. Cells array grows on demand (up
+ * to maxCells), so it is allocated only by the first records of new max size --
+ * after warm up there is no allocation at all
+ */
+@NotThreadSafe
+final class RecordStage {
+	private static final int INITIAL_CELLS = 64;
+
+	private final int maxCells;
+	private long[] cells;
+	private int count = 0;
+
+	/** @param maxCells max total cells of arguments */
+	RecordStage( final int maxCells ) {
+		checkArgument( maxCells > 0, "maxCells(%s) must be > 0", maxCells );
+		this.maxCells = maxCells;
+		this.cells = new long[Math.min( INITIAL_CELLS, maxCells )];
+	}
+
+	public void clear() {
+		count = 0;
+	}
+
+	public int count() {
+		return count;
+	}
+
+	/** @return cells still free, after reserving 1 cell for each of slotsAfter arguments to come */
+	public int free( final int slotsAfter ) {
+		return maxCells - count - slotsAfter;
+	}
+
+	public void putLong( final long value ) {
+		ensureCapacity( count + 1 );
+		cells[count++] = value;
+	}
+
+	public void putEmptyString() {
+		putLong( 0 );
+	}
+
+	/** @param slotsAfter arguments to come after this one -- they should fit too */
+	public void putString( final CharSequence value,
+	                       final int slotsAfter ) {
+		final int maxBytes = maxStringBytes( slotsAfter );
+		final int lengthIndex = count++;
+		int length = 0;
+		final int chars = value.length();
+		for( int i = 0; i < chars; i++ ) {
+			final char ch = value.charAt( i );
+			if( ch < 0x80 ) {
+				if( length + 1 > maxBytes ) {
+					break;
+				}
+				length = putByte( length, ch );
+			} else if( ch < 0x800 ) {
+				if( length + 2 > maxBytes ) {
+					break;
+				}
+				length = putByte( length, 0xC0 | ( ch >> 6 ) );
+				length = putByte( length, 0x80 | ( ch & 0x3F ) );
+			} else if( Character.isHighSurrogate( ch )
+					&& i + 1 < chars
+					&& Character.isLowSurrogate( value.charAt( i + 1 ) ) ) {
+				if( length + 4 > maxBytes ) {
+					break;
+				}
+				final int codePoint = Character.toCodePoint( ch, value.charAt( ++i ) );
+				length = putByte( length, 0xF0 | ( codePoint >> 18 ) );
+				length = putByte( length, 0x80 | ( ( codePoint >> 12 ) & 0x3F ) );
+				length = putByte( length, 0x80 | ( ( codePoint >> 6 ) & 0x3F ) );
+				length = putByte( length, 0x80 | ( codePoint & 0x3F ) );
+			} else if( ch >= Character.MIN_SURROGATE && ch <= Character.MAX_SURROGATE ) {
+				//unpaired surrogate is encoded as '?', as String.getBytes() does
+				if( length + 1 > maxBytes ) {
+					break;
+				}
+				length = putByte( length, '?' );
+			} else {
+				if( length + 3 > maxBytes ) {
+					break;
+				}
+				length = putByte( length, 0xE0 | ( ch >> 12 ) );
+				length = putByte( length, 0x80 | ( ( ch >> 6 ) & 0x3F ) );
+				length = putByte( length, 0x80 | ( ch & 0x3F ) );
+			}
+		}
+		cells[lengthIndex] = length;
+		count = lengthIndex + RecordHelper.stringCells( length );
+	}
+
+	/** @param slotsAfter arguments to come after this one -- they should fit too */
+	public void putBytes( final byte[] value,
+	                      final int offset,
+	                      final int length,
+	                      final int slotsAfter ) {
+		final int actualLength = Math.min( length, maxStringBytes( slotsAfter ) );
+		final int lengthIndex = count++;
+		for( int i = 0; i < actualLength; i++ ) {
+			putByte( i, value[offset + i] );
+		}
+		cells[lengthIndex] = actualLength;
+		count = lengthIndex + RecordHelper.stringCells( actualLength );
+	}
+
+	public void copyTo( final ICircularLongsBuffer buffer,
+	                    final long position ) {
+		for( int i = 0; i < count; i++ ) {
+			buffer.put( position + i, cells[i] );
+		}
+	}
+
+	private int maxStringBytes( final int slotsAfter ) {
+		//-1 for length cell
+		final int freeCells = free( slotsAfter ) - 1;
+		final int maxBytes = Math.min( AbstractLogBuilder.MAX_STRING_BYTES, Math.max( freeCells, 0 ) * 8 );
+		ensureCapacity( count + RecordHelper.stringCells( maxBytes ) );
+		return maxBytes;
+	}
+
+	/**
+	 * byte #index of string, which length cell is at count-1, is written
+	 *
+	 * @return index + 1
+	 */
+	private int putByte( final int index,
+	                     final int value ) {
+		final int cellIndex = count + ( index >> 3 );
+		final int shift = ( index & 7 ) << 3;
+		final long cell = ( ( index & 7 ) == 0 ) ? 0 : cells[cellIndex];
+		cells[cellIndex] = cell | ( ( value & 0xFFL ) << shift );
+		return index + 1;
+	}
+
+	private void ensureCapacity( final int required ) {
+		if( required > cells.length ) {
+			checkArgument( required <= maxCells, "%s cells required, but only %s allowed", required, maxCells );
+			final long[] newCells = new long[Math.min( Math.max( required, cells.length * 2 ), maxCells )];
+			System.arraycopy( cells, 0, newCells, 0, count );
+			cells = newCells;
+		}
+	}
+}
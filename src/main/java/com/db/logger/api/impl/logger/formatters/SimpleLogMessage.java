@@ -1,10 +1,15 @@
 package com.db.logger.api.impl.logger.formatters;
 
 import com.db.logger.api.LogMessage;
+import com.db.logger.api.impl.logger.MessageInfo;
+import com.db.logger.api.impl.logger.MessageTemplate;
 import com.db.logger.api.impl.logger.RingBuffer;
+import com.db.logger.api.impl.logger.SymbolTable;
+import com.db.logger.api.impl.logger.ThrowableTable;
+import com.db.logger.timesource.ITimestampSource;
 import net.jcip.annotations.NotThreadSafe;
 
-import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.base.Preconditions.checkArgument;
 
 /**
  * @author ruslan
@@ -13,21 +18,41 @@ import static com.google.common.base.Preconditions.checkState;
 @NotThreadSafe
 public final class SimpleLogMessage extends AbstractLogBuilder implements LogMessage {
 
-	private final String format;
+	private final MessageTemplate template;
 	private final int formatId;
 
 	private final int argumentsCount;
 
 
-	public SimpleLogMessage( final String format,
-	                         final int formatId,
-	                         final int argumentsCount,
-	                         final RingBuffer ringBuffer ) {
-		super( ringBuffer );
-		this.format = format;
+	public SimpleLogMessage( final MessageInfo messageInfo,
+	                         final RingBuffer ringBuffer,
+	                         final ITimestampSource timestampSource ) {
+		this( messageInfo, ringBuffer, timestampSource, null );
+	}
+
+	/** @param symbols to resolve enums ids, may be null */
+	public SimpleLogMessage( final MessageInfo messageInfo,
+	                         final RingBuffer ringBuffer,
+	                         final ITimestampSource timestampSource,
+	                         final SymbolTable symbols ) {
+		this( messageInfo, ringBuffer, timestampSource, symbols, null );
+	}
+
+	/**
+	 * @param symbols    to resolve enums ids, may be null
+	 * @param throwables to pass attached Throwables to drainer, may be null
+	 */
+	public SimpleLogMessage( final MessageInfo messageInfo,
+	                         final RingBuffer ringBuffer,
+	                         final ITimestampSource timestampSource,
+	                         final SymbolTable symbols,
+	                         final ThrowableTable throwables ) {
+		super( ringBuffer, timestampSource, symbols, throwables );
+		checkArgument( messageInfo != null, "messageInfo can't be null" );
+		this.template = messageInfo.template;
 
-		this.formatId = formatId;
-		this.argumentsCount = argumentsCount;
+		this.formatId = messageInfo.formatId;
+		this.argumentsCount = messageInfo.argumentsCount;
 	}
 
 	public int formatId() {
@@ -36,11 +61,16 @@ public final class SimpleLogMessage extends AbstractLogBuilder implements LogMes
 
 	@Override
 	public String format() {
-		return format;
+		return template.format();
 	}
 
 	@Override
 	public int argumentsCount() {
 		return argumentsCount;
 	}
+
+	@Override
+	protected MessageTemplate template() {
+		return template;
+	}
 }
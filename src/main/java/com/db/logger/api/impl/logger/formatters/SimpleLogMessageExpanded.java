@@ -4,9 +4,12 @@ import com.db.logger.api.FluentLogBuilder;
 import com.db.logger.api.LogMessage;
 import com.db.logger.api.impl.logger.RingBuffer;
 import com.db.logger.api.impl.logger.RecordHelper;
+import com.db.logger.timesource.ITimestampSource;
 
 import static com.db.logger.api.impl.logger.MCSDSequencer.INVALID_INDEX;
-import static com.db.logger.api.impl.logger.RecordHelper.RecordType.LOG_RECORD;
+import static com.db.logger.api.impl.logger.RecordHelper.ARGUMENTS_OFFSET;
+import static com.db.logger.api.impl.logger.RecordHelper.TIMESTAMP_OFFSET;
+import static com.db.logger.api.impl.logger.formatters.AbstractLogBuilder.MISSING_ARGUMENT;
 import static com.db.logger.api.impl.logger.formatters.AbstractLogBuilder.NOT_SET;
 import static com.google.common.base.Preconditions.checkState;
 
@@ -19,6 +22,7 @@ import static com.google.common.base.Preconditions.checkState;
 public final class SimpleLogMessageExpanded implements LogMessage, FluentLogBuilder {
 
 	private final RingBuffer buffer;
+	private final ITimestampSource timestampSource;
 
 	private int argumentIndex = NOT_SET;
 	private long position = INVALID_INDEX;
@@ -31,8 +35,10 @@ public final class SimpleLogMessageExpanded implements LogMessage, FluentLogBuil
 	public SimpleLogMessageExpanded( final String format,
 	                                 final int formatId,
 	                                 final int argumentsCount,
-	                                 final RingBuffer ringBuffer ) {
+	                                 final RingBuffer ringBuffer,
+	                                 final ITimestampSource timestampSource ) {
 		this.buffer = ringBuffer;
+		this.timestampSource = timestampSource;
 		this.format = format;
 
 		this.formatId = formatId;
@@ -55,8 +61,12 @@ public final class SimpleLogMessageExpanded implements LogMessage, FluentLogBuil
 
 	protected void ensureStarted() {
 		if( position == INVALID_INDEX ) {
-			position = buffer.claim( argumentsCount() + 1 );//1 for header
+			position = buffer.claim( RecordHelper.logRecordSize( argumentsCount() ) );
 			checkState( position != INVALID_INDEX, "Claim failed" );
+			buffer.buffer().put(
+					position + TIMESTAMP_OFFSET,
+					timestampSource.timestampNanos()
+			);
 
 			argumentIndex = 0;
 		}
@@ -72,11 +82,11 @@ public final class SimpleLogMessageExpanded implements LogMessage, FluentLogBuil
 		//				argumentsCount(), argumentIndex
 		//		);
 
-		argumentIndex++;//0 reserved for header!
 		buffer.buffer().put(
-				position + argumentIndex,
+				position + ARGUMENTS_OFFSET + argumentIndex,
 				value
 		);
+		argumentIndex++;
 
 		return this;
 	}
@@ -87,6 +97,43 @@ public final class SimpleLogMessageExpanded implements LogMessage, FluentLogBuil
 		return with( Double.doubleToLongBits( value ) );
 	}
 
+	/**
+	 * Benchmark-only builder knows nothing about format but arguments count, so
+	 * all slots are numeric: string is written as {@linkplain AbstractLogBuilder#MISSING_ARGUMENT},
+	 * as any builder does for string given to numeric slot
+	 */
+	@Override
+	public FluentLogBuilder with( final CharSequence value ) {
+		ensureStarted();
+		return with( MISSING_ARGUMENT );
+	}
+
+	@Override
+	public FluentLogBuilder with( final byte[] value,
+	                              final int offset,
+	                              final int length ) {
+		ensureStarted();
+		return with( MISSING_ARGUMENT );
+	}
+
+	@Override
+	public FluentLogBuilder with( final Enum<?> value ) {
+		ensureStarted();
+		return with( MISSING_ARGUMENT );
+	}
+
+	@Override
+	public FluentLogBuilder withSymbol( final int symbolId ) {
+		ensureStarted();
+		return with( MISSING_ARGUMENT );
+	}
+
+	/** there is no {@linkplain com.db.logger.api.impl.logger.ThrowableTable}: ignored */
+	@Override
+	public FluentLogBuilder with( final Throwable throwable ) {
+		return this;
+	}
+
 	@Override
 	public void submit() {
 //		ensureStarted();
@@ -97,8 +144,7 @@ public final class SimpleLogMessageExpanded implements LogMessage, FluentLogBuil
 			//					argumentIndex, argumentsCount()
 			//			);
 
-			final long header = RecordHelper.header(
-					LOG_RECORD,
+			final long header = RecordHelper.logRecordHeader(
 					formatId(),
 					argumentsCount()
 			);
@@ -214,7 +214,7 @@ public class ArrayWriteAndDrainBenchmark {
 				}
 				final RecordHelper.RecordType type = type( header );
 				final int formatId = formatId( header );
-				final int argumentsCount = argumentsCount( header );
+				final int argumentsCount = cellsCount( header );
 
 				buffer.put( headerIndex, NOT_SET );
 				if( headerIndex + argumentsCount < buffer.length() ) {
@@ -42,7 +42,7 @@ public class ConsumingDrainer implements Sequencer.Drainer {
 			}
 			final RecordHelper.RecordType type = type( header );
 			final int formatId = formatId( header );
-			final int argumentsCount = argumentsCount( header );
+			final int argumentsCount = cellsCount( header );
 
 			buffer.put( pos, NOT_SET );
 			for( int i = 1; i <= argumentsCount; i++ ) {
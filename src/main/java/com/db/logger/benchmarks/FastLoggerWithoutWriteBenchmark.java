@@ -9,6 +9,8 @@ import com.db.logger.api.LogMessage;
 import com.db.logger.api.impl.logger.*;
 import com.db.logger.api.impl.logger.buffer.ICircularLongsBuffer;
 import com.db.logger.api.impl.logger.buffer.UnsafeCircularLongsBuffer;
+import com.db.logger.timesource.SystemTimeMillisSource;
+import com.google.common.base.Supplier;
 import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.Logger;
 import org.openjdk.jmh.annotations.*;
@@ -35,6 +37,8 @@ public class FastLoggerWithoutWriteBenchmark {
 	 */
 	public static final int CELLS_PER_RECORD = Integer.getInteger( "cells-per-record", 8 );//8longs = 1 cache line
 	public static final int PAYLOAD = Integer.getInteger( "writer-backoff", 20 );
+	/** use per-thread SPSC buffers instead of one shared MPSC buffer */
+	public static final boolean PER_THREAD_BUFFERS = Boolean.getBoolean( "per-thread-buffers" );
 
 	public static final WaitingStrategy WAITING_STRATEGY = new WaitingStrategy.LimitedSpinning( 1024 * 128 );
 
@@ -42,7 +46,7 @@ public class FastLoggerWithoutWriteBenchmark {
 
 	static {
 		BasicConfigurator.configure();
-		System.out.printf( "len=%d, record=%d, payload=%d\n", LENGTH, CELLS_PER_RECORD, PAYLOAD );
+		System.out.printf( "len=%d, record=%d, payload=%d, per-thread=%b\n", LENGTH, CELLS_PER_RECORD, PAYLOAD, PER_THREAD_BUFFERS );
 	}
 
 	public ICircularLongsBuffer buffer;
@@ -52,19 +56,45 @@ public class FastLoggerWithoutWriteBenchmark {
 
 	@Setup
 	public void setup() {
-		buffer = new UnsafeCircularLongsBuffer( LENGTH, RecordHelper.NOT_SET );
-		sequencer = new MCSDSequencer( LENGTH );
-		logger = new FastLoggerImpl(
-				new ThreadFactory() {
-					@Override
-					public Thread newThread( final Runnable r ) {
-						return new Thread( r );
-					}
-				},
-				buffer,
-				WAITING_STRATEGY,
-				new FakeRawWriter()
-		);
+		final ThreadFactory threadFactory = new ThreadFactory() {
+			@Override
+			public Thread newThread( final Runnable r ) {
+				return new Thread( r );
+			}
+		};
+		if( PER_THREAD_BUFFERS ) {
+			logger = new FastLoggerImpl(
+					threadFactory,
+					new Supplier<ICircularLongsBuffer>() {
+						@Override
+						public ICircularLongsBuffer get() {
+							return new UnsafeCircularLongsBuffer( LENGTH, RecordHelper.NOT_SET );
+						}
+					},
+					WAITING_STRATEGY,
+					OverflowPolicy.THROW,
+					//spin/yield a bit before park: benchmark measures producer side, drainer must keep up
+					new DrainerIdleStrategy(
+							1024,
+							64,
+							DrainerIdleStrategy.DEFAULT_MIN_PARK_NANOS,
+							DrainerIdleStrategy.DEFAULT_MAX_PARK_NANOS,
+							DrainerIdleStrategy.DEFAULT_HIGH_WATER_MARK
+					),
+					new FakeRawWriter(),
+					null,
+					new SystemTimeMillisSource()
+			);
+		} else {
+			buffer = new UnsafeCircularLongsBuffer( LENGTH, RecordHelper.NOT_SET );
+			sequencer = new MCSDSequencer( LENGTH );
+			logger = new FastLoggerImpl(
+					threadFactory,
+					buffer,
+					WAITING_STRATEGY,
+					new FakeRawWriter()
+			);
+		}
 		logger.startDraining();
 	}
 
@@ -161,7 +191,9 @@ public class FastLoggerWithoutWriteBenchmark {
 			sb.append( id );
 			//actually, it's CELLS-1 arguments + 1 cell for header -- to be consistent
 			//with previous benchmarks
-			for( int i = 1; i < CELLS_PER_RECORD; i++ ) {
+			//first argument is double
+			sb.append( " %f" );
+			for( int i = 2; i < CELLS_PER_RECORD; i++ ) {
 				sb.append( " %d" );
 			}
 			message = sb.toString();
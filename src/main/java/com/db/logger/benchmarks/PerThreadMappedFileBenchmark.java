@@ -1,19 +1,28 @@
 package com.db.logger.benchmarks;
 
+import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.*;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import com.db.logger.api.impl.logger.*;
+import com.db.logger.api.impl.io.MappedFileWriter;
 import org.openjdk.jmh.annotations.*;
 import org.openjdk.jmh.logic.BlackHole;
 
+import static com.db.logger.api.impl.logger.RecordHelper.RecordType.LOG_RECORD;
+import static com.db.logger.api.impl.logger.RecordHelper.header;
+
 /**
- * We use many (3) single-writer single-reader ring buffers, one per each
- * 'logging' thread, instead of one multi-writer single reader ring buffer
- * for all them at once.
+ * Each 'logging' thread writes records directly into it's own memory-mapped
+ * file ({@linkplain MappedFileWriter}), instead of ring buffer + drainer. So
+ * there is no inter-thread communication at all, and write is just memory
+ * stores -- this is lower bound for any buffered logging into files.
+ * <p/>
+ * Segments are -Dsegment-size bytes (default 64Mb) and are created in
+ * -Dbenchmark-dir (default java.io.tmpdir). They are deleted after each
+ * iteration
  *
  * @author ruslan
  *         created 22.11.13 at 20:04
@@ -22,101 +31,63 @@ import org.openjdk.jmh.logic.BlackHole;
 @OutputTimeUnit( TimeUnit.NANOSECONDS )
 @State( Scope.Group )
 public class PerThreadMappedFileBenchmark {
-	public static final int LENGTH_POW = Integer.getInteger( "length-pow", 14 );
+	public static final int SEGMENT_SIZE = Integer.getInteger( "segment-size", 1 << 26 );
 	public static final int CELLS_PER_RECORD = Integer.getInteger( "cells-per-record", 8 );//8longs = 1 cache line
 	public static final int WRITER_BACKOFF = Integer.getInteger( "writer-backoff", 20 );
-
-	public static final WaitingStrategy WAITING_STRATEGY = new WaitingStrategy.LimitedSpinning( 1024 * 128 );
+	public static final File DIRECTORY = new File( System.getProperty( "benchmark-dir", System.getProperty( "java.io.tmpdir" ) ) );
 
 	public static final AtomicInteger ID_GENERATOR = new AtomicInteger( 1 );
 
-	public static final Sequencer.Drainer DRAIN_DUMMY = new MCSDSequencer.Drainer() {
+	public static final ThreadFactory DAEMON_FACTORY = new ThreadFactory() {
 		@Override
-		public int available( final long startSequence,
-		                      final long sentinelSequence ) {
-			return ( int ) ( sentinelSequence - startSequence );
+		public Thread newThread( final Runnable r ) {
+			final Thread thread = new Thread( r, "segment-preparer" );
+			thread.setDaemon( true );
+			return thread;
 		}
 	};
 
 	static {
-		System.out.printf( "len=2^%d, record=%d, payload=%d\n", LENGTH_POW, CELLS_PER_RECORD, WRITER_BACKOFF );
-	}
-
-
-	@Setup
-	public void setup() {
-	}
-
-	@TearDown
-	public void tearDown() {
-		states.clear();
-	}
-
-	@Setup( Level.Iteration )
-	public void attachThread() {
-		//TODO set thread affinity
+		System.out.printf( "segment=%d, record=%d, payload=%d, dir=%s\n", SEGMENT_SIZE, CELLS_PER_RECORD, WRITER_BACKOFF, DIRECTORY );
 	}
 
-	public static final List<ThreadState> states = new CopyOnWriteArrayList<ThreadState>();
-
 	/*=============================================================================*/
 	@GenerateMicroBenchmark
 	@Group( "payload" )
-	@GroupThreads( 4 )
+	@GroupThreads( 3 )
 	public void backoffAlone() {
 		BlackHole.consumeCPU( WRITER_BACKOFF );
 	}
 
 	/*=============================================================================*/
 	@GenerateMicroBenchmark
-	@Group( "writeAndPayloadAndDummyDrain" )
+	@Group( "writeAndPayload" )
 	@GroupThreads( 3 )//actually it's (CORES-1)
-	public void writer( final ThreadState ts ) {
+	public void writer( final ThreadState ts ) throws IOException {
 		writeEntry( ts, ts.id, ts.count );
 		BlackHole.consumeCPU( WRITER_BACKOFF );
 	}
 
-	@GenerateMicroBenchmark
-	@Group( "writeAndPayloadAndDummyDrain" )
-	@GroupThreads( 1 )
-	public void dummyDrainer() {
-		//mostly we do not care about drain latency here, measure just to be aware of it
-		try {
-			for( final ThreadState ts : states ) {
-				ts.sequencer.drainTo( DRAIN_DUMMY );
-			}
-			BlackHole.consumeCPU( 10 );
-		} catch( Throwable e ) {
-			e.printStackTrace();
-		}
-	}
-
-	/*=============================================================================*/
-
 	/*=============================================================================*/
 
-	private void writeEntry( final ThreadState ts,
-	                         final int writerId,
-	                         final int cellsCount ) {
-		final long position = ts.sequencer.claim( cellsCount );
-		if( position < 0 ) {
-			System.err.println( "Timeout" );
-			return;
+	private static void writeEntry( final ThreadState ts,
+	                                final int writerId,
+	                                final int cellsCount ) throws IOException {
+		ByteBuffer data = ts.writer.buffer();
+		if( data.remaining() < cellsCount * 8 ) {
+			ts.writer.flush();
+			data = ts.writer.buffer();
+		}
+		data.putLong(
+				header(
+						LOG_RECORD,
+						writerId,
+						cellsCount - 1
+				)
+		);
+		for( int i = 1; i < cellsCount; i++ ) {
+			data.putLong( i );
 		}
-		//reserve 0-th cell for header
-		final ByteBuffer data = ts.buffer;
-//		for( int i = 1; i < cellsCount; i++ ) {
-//			data.put( position + i, i );
-//		}
-//		//write header with SA
-//		data.put(
-//				position,
-//				header(
-//						LOG_RECORD,
-//						writerId,
-//						cellsCount - 1
-//				)
-//		);
 	}
 
 	@State( Scope.Thread )
@@ -124,63 +95,44 @@ public class PerThreadMappedFileBenchmark {
 		public final int id = ID_GENERATOR.incrementAndGet();
 		public final int count = CELLS_PER_RECORD;//but 1 for header
 
-		public SCSDSequencer sequencer;
-		public Sequencer.Drainer consumingDrainer;
-		public ByteBuffer buffer;
-
-//		public ThreadState() throws Exception {
-//			final int length = ( 1 << LENGTH_POW );
-//
-//			this.sequencer = new SCSDSequencer( length );
-//			final File file = new File( "" );
-//			final FileChannel channel = new FileOutputStream( file ).getChannel();
-//			this.buffer = channel.map(
-//					FileChannel.MapMode.READ_WRITE,
-//					0,
-//					length << 3
-//			);
-//		}
-
-		@Setup
-		public void setup() {
-			states.add( this );
+		public File base;
+		public MappedFileWriter writer;
+
+		@Setup( Level.Iteration )
+		public void setup() throws IOException {
+			base = new File( DIRECTORY, "mapped-benchmark-" + id + ".bin" );
+			writer = new MappedFileWriter( base, SEGMENT_SIZE, DAEMON_FACTORY );
 		}
 
-		@TearDown
-		public void destroy() {
-			states.remove( this );
+		@TearDown( Level.Iteration )
+		public void destroy() throws IOException {
+			writer.close();
+			for( final File segment : MappedFileWriter.segmentFiles( base ) ) {
+				segment.delete();
+			}
 		}
 	}
 
 	public static void main( final String[] args ) throws Exception {
-//		final PerThreadMappedFileBenchmark benchmark = new PerThreadMappedFileBenchmark();
-//
-//		benchmark.setup();
-//
-//		final ThreadState[] states = new ThreadState[3];
-//		for( int i = 0; i < states.length; i++ ) {
-//			final ThreadState state = new ThreadState();
-//			states[i] = state;
-//			new Thread() {
-//				@Override
-//				public void run() {
-//					for(; ; ) {
-//						benchmark.writer2( state );
-//					}
-//				}
-//			}.start();
-//		}
-//
-//		new Thread() {
-//			@Override
-//			public void run() {
-//				for(; ; ) {
-//					benchmark.readingDrainer();
-//				}
-//			}
-//		}.start();
-//
-//		Thread.sleep( 300000 );
+		final PerThreadMappedFileBenchmark benchmark = new PerThreadMappedFileBenchmark();
+		final ThreadState state = new ThreadState();
+		state.setup();
+		try {
+			final int records = 100000000;
+			final long startedAt = System.nanoTime();
+			for( int i = 0; i < records; i++ ) {
+				benchmark.writer( state );
+			}
+			final long finishedAt = System.nanoTime();
+			System.out.printf(
+					"%d records in %d segments: %.1f ns/record\n",
+					records,
+					state.writer.segmentNo() + 1,
+					( finishedAt - startedAt ) * 1.0 / records
+			);
+		} finally {
+			state.destroy();
+		}
 	}
 
 }
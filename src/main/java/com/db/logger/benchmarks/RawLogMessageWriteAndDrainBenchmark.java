@@ -8,6 +8,10 @@ import com.db.logger.api.impl.logger.*;
 import com.db.logger.api.impl.logger.buffer.ICircularLongsBuffer;
 import com.db.logger.api.impl.logger.buffer.UnsafeCircularLongsBuffer;
 import com.db.logger.api.impl.logger.formatters.RawLogMessage;
+import com.db.logger.timesource.ITimestampSource;
+import com.db.logger.timesource.impl.JDKCombinedTimestampSource;
+import com.db.logger.timesource.impl.SynchronousJDKOffsetCalculator;
+import com.google.common.base.Strings;
 import org.openjdk.jmh.annotations.*;
 import org.openjdk.jmh.logic.BlackHole;
 
@@ -27,6 +31,8 @@ public class RawLogMessageWriteAndDrainBenchmark {
 
 	public static final WaitingStrategy WAITING_STRATEGY = new WaitingStrategy.LimitedSpinning( 1024 * 128 );
 
+	public static final ITimestampSource TIMESTAMP_SOURCE = new JDKCombinedTimestampSource( new SynchronousJDKOffsetCalculator() );
+
 	public static final AtomicInteger ID_GENERATOR = new AtomicInteger( 1 );
 
 	static {
@@ -102,12 +108,13 @@ public class RawLogMessageWriteAndDrainBenchmark {
 
 		public void setup( final RawLogMessageWriteAndDrainBenchmark b ) {
 			formatter = new RawLogMessage(
-					new RingBuffer( b.sequencer, b.buffer, WAITING_STRATEGY )
+					new RingBuffer( b.sequencer, b.buffer, WAITING_STRATEGY ),
+					TIMESTAMP_SOURCE
 			).setup(
 					new MessageInfo(
-							"",
-							id,
-							CELLS_PER_RECORD - 1
+							"%f " + Strings.repeat( "%d ", CELLS_PER_RECORD - 3 ),//header + timestamp
+							CELLS_PER_RECORD - 2,
+							id
 					)
 			);
 		}
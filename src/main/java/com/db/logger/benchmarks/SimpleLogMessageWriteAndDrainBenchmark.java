@@ -8,6 +8,9 @@ import com.db.logger.api.impl.logger.*;
 import com.db.logger.api.impl.logger.buffer.ICircularLongsBuffer;
 import com.db.logger.api.impl.logger.buffer.UnsafeCircularLongsBuffer;
 import com.db.logger.api.impl.logger.formatters.SimpleLogMessageExpanded;
+import com.db.logger.timesource.ITimestampSource;
+import com.db.logger.timesource.impl.JDKCombinedTimestampSource;
+import com.db.logger.timesource.impl.SynchronousJDKOffsetCalculator;
 import org.openjdk.jmh.annotations.*;
 import org.openjdk.jmh.logic.BlackHole;
 
@@ -25,6 +28,8 @@ public class SimpleLogMessageWriteAndDrainBenchmark {
 
 	public static final WaitingStrategy WAITING_STRATEGY = new WaitingStrategy.LimitedSpinning( 1024 * 128 );
 
+	public static final ITimestampSource TIMESTAMP_SOURCE = new JDKCombinedTimestampSource( new SynchronousJDKOffsetCalculator() );
+
 	public static final AtomicInteger ID_GENERATOR = new AtomicInteger( 1 );
 
 	static {
@@ -101,8 +106,9 @@ public class SimpleLogMessageWriteAndDrainBenchmark {
 			formatter = new SimpleLogMessageExpanded(
 					"",
 					id,
-					CELLS_PER_RECORD - 1,
-					new RingBuffer( b.sequencer, b.buffer, WAITING_STRATEGY )
+					CELLS_PER_RECORD - 2, //header + timestamp
+					new RingBuffer( b.sequencer, b.buffer, WAITING_STRATEGY ),
+					TIMESTAMP_SOURCE
 			);
 		}
 	}
@@ -0,0 +1,186 @@
+package com.db.logger.api.impl.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.db.logger.api.Level;
+import com.db.logger.api.impl.logger.MessageInfo;
+import com.google.common.io.CharStreams;
+import org.junit.Test;
+
+import static com.db.logger.api.impl.logger.RecordHelper.logRecordHeader;
+import static com.db.logger.api.impl.logger.RecordHelper.timestampHeader;
+import static com.db.logger.api.impl.logger.TestTimestamps.ANCHOR_NANOS;
+import static org.junit.Assert.*;
+
+public class AppenderPipelineTest {
+	private static final MessageInfo MESSAGE = new MessageInfo( "value %d", 1, 1 );
+
+	private final DecodingCatalog catalog = new DecodingCatalog();
+	private final CatalogWriter catalogWriter = new CatalogWriter( CharStreams.nullWriter(), catalog );
+
+	@Test
+	public void everyAppenderGetsAllRecords() throws Exception {
+		final StringWriter text = new StringWriter();
+		final StringWriter errors = new StringWriter();
+		final ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		final TailAppender tail = new TailAppender( catalog, 2 );
+		final AppenderPipeline pipeline = new AppenderPipeline(
+				Executors.defaultThreadFactory(),
+				new TextAppender( catalog, text ),
+				new LevelFilterAppender( new TextAppender( catalog, errors ), Level.ERROR ),
+				tail,
+				new RawWriterAppender( new ChannelRawWriter( Channels.newChannel( binary ), 64 ) )
+		);
+		catalogWriter.writeMessage( MESSAGE );
+
+		write( pipeline, Level.INFO, 1 );
+		write( pipeline, Level.ERROR, 2 );
+		pipeline.deliver();
+		write( pipeline, Level.WARN, 3 );
+		pipeline.close();
+
+		assertEquals(
+				"2013-10-18 12:00:00.000000001 INFO  value 1\n"
+						+ "2013-10-18 12:00:00.000000002 ERROR value 2\n"
+						+ "2013-10-18 12:00:00.000000003 WARN  value 3\n",
+				text.toString()
+		);
+		assertEquals( "2013-10-18 12:00:00.000000002 ERROR value 2\n", errors.toString() );
+		final List<String> lastRecords = tail.tail();
+		assertEquals( 2, lastRecords.size() );
+		assertEquals( "2013-10-18 12:00:00.000000003 WARN  value 3\n", lastRecords.get( 1 ) );
+		//each write() is anchor + record: 2 + 3 cells
+		assertEquals( 3 * 5 * 8, binary.size() );
+	}
+
+	@Test
+	public void stuckAppenderDoesNotBlockOthers() throws Exception {
+		final CountDownLatch release = new CountDownLatch( 1 );
+		final Appender stuck = new Appender() {
+			@Override
+			public void append( final ByteBuffer records ) throws IOException {
+				try {
+					release.await();
+				} catch( InterruptedException e ) {
+					throw new IOException( e );
+				}
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		final Appender failing = new Appender() {
+			@Override
+			public void append( final ByteBuffer records ) throws IOException {
+				throw new IOException( "disk full" );
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		final TailAppender tail = new TailAppender( catalog, 16 );
+		final AppenderPipeline pipeline = new AppenderPipeline(
+				Executors.defaultThreadFactory(),
+				1024,
+				/*queueChunks=*/1,
+				stuck,
+				failing,
+				tail
+		);
+		catalogWriter.writeMessage( MESSAGE );
+
+		for( int i = 0; i < 8; i++ ) {
+			write( pipeline, Level.INFO, i );
+			pipeline.deliver();//must not block
+			waitForTail( tail, i + 1 );
+		}
+		release.countDown();
+		pipeline.close();
+
+		assertTrue( pipeline.droppedChunks( 0 ) > 0 );
+		//failing appender could also miss chunks, if it is slow to fail
+		assertEquals( 8, pipeline.failures( 1 ) + pipeline.droppedChunks( 1 ) );
+		assertEquals( 0, pipeline.droppedChunks( 2 ) );
+		assertEquals( 8, tail.tail().size() );
+	}
+
+	@Test( timeout = 10000 )
+	public void appenderStuckOnCloseIsAbandonedAfterTimeout() throws Exception {
+		final CountDownLatch interrupted = new CountDownLatch( 1 );
+		final Appender stuck = new Appender() {
+			@Override
+			public void append( final ByteBuffer records ) throws IOException {
+				try {
+					new CountDownLatch( 1 ).await();
+				} catch( InterruptedException e ) {
+					interrupted.countDown();
+					throw new IOException( e );
+				}
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		final TailAppender tail = new TailAppender( catalog, 16 );
+		final AppenderPipeline pipeline = new AppenderPipeline(
+				Executors.defaultThreadFactory(),
+				1024,
+				/*queueChunks=*/1,
+				stuck,
+				tail
+		);
+		catalogWriter.writeMessage( MESSAGE );
+		write( pipeline, Level.INFO, 1 );
+		pipeline.deliver();
+		waitForTail( tail, 1 );
+		//stuck appender is in append() now, and close() fills it's queue
+		write( pipeline, Level.INFO, 2 );
+
+		assertFalse( pipeline.close( 100, TimeUnit.MILLISECONDS ) );
+		assertTrue( interrupted.await( 1, TimeUnit.SECONDS ) );
+		assertEquals( 2, tail.tail().size() );
+	}
+
+	private static void waitForTail( final TailAppender tail,
+	                                 final int size ) throws InterruptedException {
+		for( int i = 0; i < 1000 && tail.tail().size() < size; i++ ) {
+			Thread.sleep( 1 );
+		}
+	}
+
+	private static void write( final AppenderPipeline pipeline,
+	                           final Level level,
+	                           final long value ) {
+		final ByteBuffer buffer = pipeline.buffer();
+		assertEquals( ByteOrder.nativeOrder(), buffer.order() );
+		buffer.putLong( timestampHeader() )
+				.putLong( ANCHOR_NANOS );
+		buffer.putLong( logRecordHeader( MESSAGE.formatId, 1, level.id() ) )
+				.putLong( value )
+				.putLong( value );
+	}
+}
@@ -0,0 +1,98 @@
+package com.db.logger.api.impl.io;
+
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AsciiNumbersTest {
+	private static final long[] LONGS = {
+			0, 1, -1, 9, 10, -10, 99, 100, Integer.MAX_VALUE, Integer.MIN_VALUE,
+			Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE - 1, Long.MIN_VALUE + 1
+	};
+
+	private static final double[] DOUBLES = {
+			0.0, -0.0, 1.0, -1.0, 0.5, 1.5, 2.5, -2.5, 0.125, 0.1, 0.7, 2.675, 1.005,
+			123456.789, 9.9999999, 0.000001, 0.0000005, 1e-20, 999999.9999995,
+			Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.MIN_VALUE
+	};
+
+	private final byte[] scratch = new byte[AsciiNumbers.SCRATCH_LENGTH];
+
+	@Test
+	public void longsAreRenderedAsFormatterDoes() throws Exception {
+		final Random rnd = new Random( 42 );
+		for( final long value : LONGS ) {
+			checkLong( value );
+		}
+		for( int i = 0; i < 100000; i++ ) {
+			checkLong( rnd.nextLong() >> rnd.nextInt( 64 ) );
+		}
+	}
+
+	@Test
+	public void doublesAreRenderedAsFormatterDoesOrRefused() throws Exception {
+		final Random rnd = new Random( 42 );
+		for( int precision = 0; precision <= AsciiNumbers.MAX_PRECISION; precision++ ) {
+			for( final double value : DOUBLES ) {
+				checkFixed( value, precision );
+			}
+		}
+		int refused = 0;
+		for( int i = 0; i < 100000; i++ ) {
+			final int precision = rnd.nextInt( AsciiNumbers.MAX_PRECISION + 1 );
+			//scaled by precision, all are < 10^11
+			final double value = ( rnd.nextDouble() - 0.5 ) * Math.pow( 10, rnd.nextInt( 12 - precision ) );
+			if( !checkFixed( value, precision ) ) {
+				refused++;
+			}
+		}
+		//fallback must be rare for values in range
+		assertTrue( "refused: " + refused, refused < 1000 );
+	}
+
+	@Test
+	public void halfwayValuesAreRoundedUpOrRefused() throws Exception {
+		for( int i = 0; i < 10000; i++ ) {
+			checkFixed( i + 0.5, 0 );
+			checkFixed( i / 100.0 + 0.005, 2 );
+		}
+	}
+
+	@Test
+	public void tooLargeOrTooPreciseDoublesAreRefused() throws Exception {
+		assertEquals( -1, AsciiNumbers.formatFixed( 1e20, 2, scratch ) );
+		assertEquals( -1, AsciiNumbers.formatFixed( 1.0, AsciiNumbers.MAX_PRECISION + 1, scratch ) );
+	}
+
+	private void checkLong( final long value ) {
+		assertEquals( Long.toString( value ), text( AsciiNumbers.formatLong( value, scratch ) ) );
+		assertEquals( Long.toHexString( value ), text( AsciiNumbers.formatUnsigned( value, 4, false, scratch ) ) );
+		assertEquals(
+				Long.toHexString( value ).toUpperCase( Locale.ROOT ),
+				text( AsciiNumbers.formatUnsigned( value, 4, true, scratch ) )
+		);
+		assertEquals( Long.toOctalString( value ), text( AsciiNumbers.formatUnsigned( value, 3, false, scratch ) ) );
+	}
+
+	/** @return false if value was refused */
+	private boolean checkFixed( final double value,
+	                            final int precision ) {
+		final int start = AsciiNumbers.formatFixed( value, precision, scratch );
+		if( start < 0 ) {
+			return false;
+		}
+		assertEquals(
+				value + " %." + precision + "f",
+				String.format( Locale.ROOT, "%." + precision + "f", value ),
+				text( start )
+		);
+		return true;
+	}
+
+	private String text( final int start ) {
+		return new String( scratch, start, scratch.length - start );
+	}
+}
@@ -0,0 +1,166 @@
+package com.db.logger.api.impl.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.junit.Test;
+
+import static com.db.logger.api.impl.logger.RecordHelper.logRecordHeader;
+import static org.junit.Assert.*;
+
+public class AsyncRawWriterTest {
+	private static final int RECORD_BYTES = 3 * 8;
+
+	@Test
+	public void everythingIsWrittenInOrder() throws Exception {
+		final ByteArrayOutputStream written = new ByteArrayOutputStream();
+		final AsyncRawWriter writer = new AsyncRawWriter(
+				new ChannelRawWriter( Channels.newChannel( written ), 100 ),
+				Executors.defaultThreadFactory(),
+				2,
+				10 * RECORD_BYTES,
+				AsyncRawWriter.WhenAllBuffersBusy.BLOCK
+		);
+		for( int i = 0; i < 1000; i++ ) {
+			writeRecord( writer, i );
+		}
+		writer.close();
+
+		final ByteBuffer records = ByteBuffer.wrap( written.toByteArray() ).order( ByteOrder.nativeOrder() );
+		assertEquals( 1000 * RECORD_BYTES, records.limit() );
+		for( int i = 0; i < 1000; i++ ) {
+			assertEquals( i, records.getLong( i * RECORD_BYTES + 16 ) );
+		}
+		assertEquals( 0, writer.droppedBuffers() );
+		assertEquals( 0, writer.failures() );
+	}
+
+	@Test( timeout = 10000 )
+	public void stuckOutputDoesNotBlockFlushWithDropPolicy() throws Exception {
+		final CountDownLatch release = new CountDownLatch( 1 );
+		final StuckWriter stuck = new StuckWriter( release );
+		final AsyncRawWriter writer = new AsyncRawWriter(
+				stuck,
+				Executors.defaultThreadFactory(),
+				2,
+				RECORD_BYTES,
+				AsyncRawWriter.WhenAllBuffersBusy.DROP
+		);
+		for( int i = 0; i < 10; i++ ) {
+			writeRecord( writer, i );
+			writer.flush();//must not block
+		}
+		assertTrue( writer.droppedBuffers() > 0 );
+		assertEquals( 0, writer.blockedFlushes() );
+		release.countDown();
+		writer.close();
+	}
+
+	@Test( timeout = 10000 )
+	public void flushWaitsForFreeBufferWithBlockPolicy() throws Exception {
+		final CountDownLatch release = new CountDownLatch( 1 );
+		final AsyncRawWriter writer = new AsyncRawWriter(
+				new StuckWriter( release ),
+				Executors.defaultThreadFactory(),
+				2,
+				RECORD_BYTES,
+				AsyncRawWriter.WhenAllBuffersBusy.BLOCK
+		);
+		final Thread releaser = new Thread() {
+			@Override
+			public void run() {
+				while( writer.blockedFlushes() == 0 ) {
+					Thread.yield();
+				}
+				release.countDown();
+			}
+		};
+		releaser.start();
+		for( int i = 0; i < 10; i++ ) {
+			writeRecord( writer, i );
+			writer.flush();
+		}
+		writer.close();
+		releaser.join();
+		assertTrue( writer.blockedFlushes() > 0 );
+		assertEquals( 0, writer.droppedBuffers() );
+	}
+
+	@Test( timeout = 10000 )
+	public void flushFailsIfIOThreadIsDeadWithBlockPolicy() throws Exception {
+		final Thread[] ioThread = new Thread[1];
+		final AsyncRawWriter writer = new AsyncRawWriter(
+				new ChannelRawWriter( Channels.newChannel( new ByteArrayOutputStream() ), 100 ),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread( final Runnable r ) {
+						ioThread[0] = new Thread( r );
+						return ioThread[0];
+					}
+				},
+				2,
+				RECORD_BYTES,
+				AsyncRawWriter.WhenAllBuffersBusy.BLOCK
+		);
+		ioThread[0].interrupt();
+		ioThread[0].join();
+
+		writeRecord( writer, 1 );
+		writer.flush();//takes the only free buffer
+		writeRecord( writer, 2 );
+		try {
+			writer.flush();
+			fail( "flush() must fail: nobody frees buffers" );
+		} catch( IOException e ) {
+			//expected
+		}
+		assertEquals( 1, writer.blockedFlushes() );
+	}
+
+	/** flushes before writing, as drainer does */
+	private static void writeRecord( final RawWriter writer,
+	                                 final long value ) throws IOException {
+		if( writer.buffer().remaining() < RECORD_BYTES ) {
+			writer.flush();
+		}
+		writer.buffer()
+				.putLong( logRecordHeader( 1, 1 ) )
+				.putLong( 0 )
+				.putLong( value );
+	}
+
+	/** flush() waits for release */
+	private static final class StuckWriter implements RawWriter {
+		private final CountDownLatch release;
+		private final ByteBuffer buffer = ByteBuffer.allocate( 1024 ).order( ByteOrder.nativeOrder() );
+
+		private StuckWriter( final CountDownLatch release ) {
+			this.release = release;
+		}
+
+		@Override
+		public ByteBuffer buffer() {
+			return buffer;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			try {
+				release.await();
+			} catch( InterruptedException e ) {
+				throw new IOException( e );
+			}
+			buffer.clear();
+		}
+
+		@Override
+		public void close() throws IOException {
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package com.db.logger.api.impl.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.util.Random;
+
+import com.db.logger.api.Level;
+import com.db.logger.api.impl.logger.MessageInfo;
+import com.google.common.io.CharStreams;
+import org.junit.Test;
+
+import static com.db.logger.api.impl.logger.RecordHelper.*;
+import static com.db.logger.api.impl.logger.TestTimestamps.ANCHOR_NANOS;
+import static org.junit.Assert.*;
+
+public class CompressingRawWriterTest {
+	private static final int RECORDS = 5000;
+
+	private static final MessageInfo[] MESSAGES = {
+			new MessageInfo( "order %d filled at %.4f", 2, 1 ),
+			new MessageInfo( "id %x, size %d, flags %d", 3, 2 ),
+			new MessageInfo( "%d", 1, 3 )
+	};
+
+	private final DecodingCatalog catalog = new DecodingCatalog();
+
+	public CompressingRawWriterTest() throws IOException {
+		final CatalogWriter catalogWriter = new CatalogWriter( CharStreams.nullWriter(), catalog );
+		for( final MessageInfo message : MESSAGES ) {
+			catalogWriter.writeMessage( message );
+		}
+	}
+
+	@Test
+	public void recordsRoundTripWithLz() throws Exception {
+		checkRoundTrip( true );
+	}
+
+	@Test
+	public void recordsRoundTripWithoutLz() throws Exception {
+		checkRoundTrip( false );
+	}
+
+	@Test
+	public void blockIsDecodableWithoutPreviousBlocks() throws Exception {
+		final ByteBuffer raw = generateRecords( new Random( 42 ) );
+		final byte[] compressed = compress( raw, 4096, true );
+
+		//skip first block
+		final ByteBuffer frame = ByteBuffer.wrap( compressed ).order( ByteOrder.LITTLE_ENDIAN );
+		final boolean anchored = ( frame.get( 4 ) & CompressingRawWriter.FLAG_ANCHOR ) != 0;
+		final int firstBlockBytes = CompressingRawWriter.FRAME_HEADER_BYTES
+				+ ( anchored ? 8 : 0 )
+				+ frame.getInt( 13 );
+		final String tail = decompressAndDecode(
+				new ByteArrayInputStream( compressed, firstBlockBytes, compressed.length - firstBlockBytes )
+		);
+
+		final String all = decode( raw );
+		assertFalse( tail.isEmpty() );
+		assertTrue( tail.length() < all.length() );
+		assertTrue( all.endsWith( tail ) );
+	}
+
+	@Test( expected = IOException.class )
+	public void corruptedBlockFrameIsDetected() throws Exception {
+		final byte[] compressed = compress( generateRecords( new Random( 42 ) ), 4096, true );
+		//encoded length
+		compressed[9] ^= 0x55;
+		decompressAndDecode( new ByteArrayInputStream( compressed ) );
+	}
+
+	private void checkRoundTrip( final boolean lz ) throws Exception {
+		final ByteBuffer raw = generateRecords( new Random( 42 ) );
+		final byte[] compressed = compress( raw, 4096, lz );
+
+		assertEquals( decode( raw ), decompressAndDecode( new ByteArrayInputStream( compressed ) ) );
+		//typical records are mostly zero bytes
+		assertTrue(
+				"compressed " + compressed.length + " of " + raw.limit(),
+				compressed.length < raw.limit() / 2
+		);
+	}
+
+	private static ByteBuffer generateRecords( final Random rnd ) {
+		final ByteBuffer records = ByteBuffer.allocate( RECORDS * 6 * 8 ).order( ByteOrder.nativeOrder() );
+		long timestamp = 0;
+		for( int i = 0; i < RECORDS; i++ ) {
+			if( i % 1000 == 0 ) {
+				records.putLong( timestampHeader() ).putLong( ANCHOR_NANOS + i * 1000000L );
+				timestamp = 0;
+			}
+			timestamp += rnd.nextInt( 1000 );
+			final int formatId = 1 + rnd.nextInt( MESSAGES.length );
+			final int levelId = Level.values()[rnd.nextInt( 5 )].id();
+			final MessageInfo message = MESSAGES[formatId - 1];
+			records.putLong( logRecordHeader( formatId, message.argumentsCount, levelId ) )
+					.putLong( timestamp );
+			switch( formatId ) {
+				case 1:
+					records.putLong( 100000 + i )
+							.putLong( Double.doubleToLongBits( 100 + rnd.nextInt( 10000 ) / 100.0 ) );
+					break;
+				case 2:
+					records.putLong( rnd.nextLong() )
+							.putLong( rnd.nextInt( 100 ) * 100 )
+							.putLong( -rnd.nextInt( 3 ) );
+					break;
+				default:
+					records.putLong( i );
+			}
+		}
+		records.flip();
+		return records;
+	}
+
+	/** writes records as drainer does: never spanning flush */
+	private static byte[] compress( final ByteBuffer raw,
+	                                final int blockSize,
+	                                final boolean lz ) throws IOException {
+		final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		final CompressingRawWriter writer = new CompressingRawWriter(
+				new ChannelRawWriter( Channels.newChannel( compressed ), 1024 ),
+				blockSize,
+				lz
+		);
+		for( int position = 0; position < raw.limit(); ) {
+			final int recordBytes = ( cellsCount( raw.getLong( position ) ) + 1 ) * 8;
+			if( writer.buffer().remaining() < recordBytes ) {
+				writer.flush();
+			}
+			for( int i = 0; i < recordBytes; i += 8 ) {
+				writer.buffer().putLong( raw.getLong( position + i ) );
+			}
+			position += recordBytes;
+		}
+		writer.close();
+		assertEquals( raw.limit(), writer.rawBytes() );
+		assertEquals( compressed.size(), writer.writtenBytes() );
+		return compressed.toByteArray();
+	}
+
+	private String decompressAndDecode( final ByteArrayInputStream compressed ) throws IOException {
+		final LogDecoder decoder = new LogDecoder( catalog, 0 );
+		final StringWriter text = new StringWriter();
+		final CompressedLogReader reader = new CompressedLogReader( Channels.newChannel( compressed ) );
+		for( ByteBuffer block = reader.nextBlock(); block != null; block = reader.nextBlock() ) {
+			decoder.decode( new RawLogReader( block ), text );
+		}
+		reader.close();
+		return text.toString();
+	}
+
+	private String decode( final ByteBuffer raw ) throws IOException {
+		final StringWriter text = new StringWriter();
+		new LogDecoder( catalog, 0 ).decode( new RawLogReader( raw ), text );
+		return text.toString();
+	}
+}
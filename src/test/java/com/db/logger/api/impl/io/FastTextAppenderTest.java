@@ -0,0 +1,155 @@
+package com.db.logger.api.impl.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import com.db.logger.api.Level;
+import com.db.logger.api.impl.logger.MessageInfo;
+import com.google.common.base.Charsets;
+import com.google.common.io.CharStreams;
+import org.junit.Test;
+
+import static com.db.logger.api.impl.logger.RecordHelper.*;
+import static com.db.logger.api.impl.logger.TestTimestamps.ANCHOR_NANOS;
+import static org.junit.Assert.*;
+
+public class FastTextAppenderTest {
+	private static final MessageInfo[] MESSAGES = {
+			new MessageInfo( "No args", 0, 1 ),
+			new MessageInfo( "Long %d and double %f", 2, 2 ),
+			new MessageInfo( "[%5d|%-5d|%05d|%x|%X|%o|%08X]", 7, 3 ),
+			new MessageInfo( "[%.2f|%10.3f|%-10.1f|%010.4f|%.0f|%e|%,.2f]", 7, 4 ),
+			new MessageInfo( "[%s|%8s|%-8s|%.3s|%S]", 5, 5 ),
+			new MessageInfo( "%s was thrown", 1, 6 )
+	};
+
+	private final DecodingCatalog catalog = new DecodingCatalog();
+
+	public FastTextAppenderTest() throws IOException {
+		final CatalogWriter catalogWriter = new CatalogWriter( CharStreams.nullWriter(), catalog );
+		for( final MessageInfo message : MESSAGES ) {
+			catalogWriter.writeMessage( message );
+		}
+		catalogWriter.writeSymbol( 1, "symbol" );
+		catalog.addTrace( 1, "\tat Foo.bar(Foo.java:42)" );
+		catalog.addThrowable( 1, 1, "java.lang.IllegalStateException: \u00fcber" );
+	}
+
+	@Test
+	public void recordsRenderedSameAsDecoderDoes() throws Exception {
+		final ByteBuffer records = ByteBuffer.allocate( 4096 ).order( ByteOrder.nativeOrder() );
+		records.putLong( timestampHeader() )
+				.putLong( ANCHOR_NANOS );
+		records.putLong( logRecordHeader( 1, 0, Level.INFO.id() ) )
+				.putLong( 0 );
+		records.putLong( logRecordHeader( 2, 2 ) )
+				.putLong( 1500 )
+				.putLong( -42 )
+				.putLong( Double.doubleToLongBits( 2.5 ) );
+		putLongs( records, 3, -7, 42, -42, 255, 255, -1, 48879 );
+		putDoubles( records, 4, 2.675, -3.14159, 1e6, -0.5, Double.NaN, 12345.678, 1234567.891 );
+		putDoubles( records, 4, 0.1, Double.POSITIVE_INFINITY, -0.0, 1e20, 2.5, 1e-10, -1.0 );
+
+		final String[] strings = { "plain", "\u043f\u0440\u0438\u0432\u0435\u0442", "\uD83D\uDE00abcdef", "up" };
+		records.putLong( logRecordHeader( 5, 1 + stringsCells( strings ), Level.WARN.id() ) )
+				.putLong( 77 );
+		putString( records, strings[0] );
+		putString( records, strings[1] );
+		records.putLong( symbolCell( 1 ) );
+		putString( records, strings[2] );
+		putString( records, strings[3] );
+
+		records.putLong( logRecordHeader( 6, 1, Level.ERROR.id() ) )
+				.putLong( 78 )
+				.putLong( symbolCell( 42 ) );
+		records.putLong( logRecordHeader( 6, 2, Level.ERROR.id() ) )
+				.putLong( 78 )
+				.putLong( symbolCell( 1 ) )
+				.putLong( 1 );
+		records.putLong( logRecordHeader( 6, 2, Level.ERROR.id() ) )
+				.putLong( 78 )
+				.putLong( symbolCell( 1 ) )
+				.putLong( 2 );
+		records.putLong( logRecordHeader( 77, 1 ) )
+				.putLong( 79 )
+				.putLong( 1 );
+		records.flip();
+
+		final StringWriter expected = new StringWriter();
+		new LogDecoder( catalog, 0 ).decode( new RawLogReader( records ), expected );
+
+		//small buffer: lines span flushes
+		final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		final FastTextAppender appender = new FastTextAppender(
+				catalog,
+				new ChannelRawWriter( Channels.newChannel( actual ), 16 )
+		);
+		appender.append( records );
+		appender.close();
+
+		assertEquals( expected.toString(), new String( actual.toByteArray(), Charsets.UTF_8 ) );
+	}
+
+	@Test
+	public void secondsFormattedAsSimpleDateFormatDoes() throws Exception {
+		final SimpleDateFormat format = new SimpleDateFormat( "yyyy-MM-dd HH:mm:ss" );
+		format.setTimeZone( TimeZone.getTimeZone( "UTC" ) );
+		final byte[] text = new byte[19];
+		final Random rnd = new Random( 42 );
+		for( int i = 0; i < 10000; i++ ) {
+			//years 1970..2300, and a bit before epoch
+			final long second = ( long ) ( ( rnd.nextDouble() - 0.01 ) * 330 * 365.25 * 86400 );
+			FastTextAppender.formatSecond( second, text );
+			assertEquals( format.format( new Date( second * 1000 ) ), new String( text, Charsets.US_ASCII ) );
+		}
+	}
+
+	private static void putLongs( final ByteBuffer records,
+	                              final int formatId,
+	                              final long... values ) {
+		records.putLong( logRecordHeader( formatId, values.length ) )
+				.putLong( 100 + formatId );
+		for( final long value : values ) {
+			records.putLong( value );
+		}
+	}
+
+	private static void putDoubles( final ByteBuffer records,
+	                                final int formatId,
+	                                final double... values ) {
+		records.putLong( logRecordHeader( formatId, values.length ) )
+				.putLong( 100 + formatId );
+		for( final double value : values ) {
+			records.putLong( Double.doubleToLongBits( value ) );
+		}
+	}
+
+	private static int stringsCells( final String... values ) {
+		int cells = 0;
+		for( final String value : values ) {
+			cells += stringCells( value.getBytes( Charsets.UTF_8 ).length );
+		}
+		return cells;
+	}
+
+	private static void putString( final ByteBuffer records,
+	                               final String value ) {
+		final byte[] bytes = value.getBytes( Charsets.UTF_8 );
+		records.putLong( bytes.length );
+		for( int cell = 0; cell < stringCells( bytes.length ) - 1; cell++ ) {
+			long packed = 0;
+			for( int i = 0; i < 8 && cell * 8 + i < bytes.length; i++ ) {
+				packed |= ( bytes[cell * 8 + i] & 0xFFL ) << ( i * 8 );
+			}
+			records.putLong( packed );
+		}
+	}
+}
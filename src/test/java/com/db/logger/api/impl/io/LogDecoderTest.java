@@ -0,0 +1,323 @@
+package com.db.logger.api.impl.io;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.db.logger.api.Level;
+import com.db.logger.api.impl.logger.DrainerIdleStrategy;
+import com.db.logger.api.impl.logger.FastLoggerImpl;
+import com.db.logger.api.impl.logger.MessageInfo;
+import com.db.logger.api.impl.logger.OverflowPolicy;
+import com.db.logger.api.impl.logger.TestTimestamps.SteppingTimestampSource;
+import com.db.logger.api.impl.logger.WaitingStrategy;
+import com.db.logger.api.impl.logger.buffer.PlainCircularLongsBuffer;
+import com.google.common.io.CharStreams;
+import org.junit.Test;
+
+import static com.db.logger.api.impl.logger.RecordHelper.NOT_SET;
+import static com.db.logger.api.impl.logger.RecordHelper.logRecordHeader;
+import static com.db.logger.api.impl.logger.RecordHelper.runHeader;
+import static com.db.logger.api.impl.logger.RecordHelper.throwableHeader;
+import static com.db.logger.api.impl.logger.RecordHelper.timestampHeader;
+import static com.db.logger.api.impl.logger.TestTimestamps.ANCHOR_NANOS;
+import static org.junit.Assert.*;
+
+public class LogDecoderTest {
+	private static final MessageInfo[] MESSAGES = {
+			new MessageInfo( "No args", 0, 1 ),
+			new MessageInfo( "Long %d and double %f", 2, 2 ),
+			new MessageInfo( "Tab\tnew line\nback slash\\ %d%%", 1, 3 )
+	};
+
+	@Test
+	public void catalogRoundTripsThroughText() throws Exception {
+		final DecodingCatalog catalog = writeAndLoadCatalog();
+		for( final MessageInfo expected : MESSAGES ) {
+			final MessageInfo actual = catalog.messageInfo( expected.formatId );
+			assertEquals( expected.format, actual.format );
+			assertEquals( expected.argumentsCount, actual.argumentsCount );
+		}
+	}
+
+	@Test
+	public void recordsDecodedToText() throws Exception {
+		final ByteBuffer stream = ByteBuffer.allocate( 1024 ).order( ByteOrder.nativeOrder() );
+		stream.putLong( timestampHeader() )
+				.putLong( ANCHOR_NANOS );
+		stream.putLong( logRecordHeader( 1, 0 ) )
+				.putLong( 0 );
+		stream.putLong( logRecordHeader( 2, 2 ) )
+				.putLong( 1500 )
+				.putLong( 42 )
+				.putLong( Double.doubleToLongBits( 2.5 ) );
+		stream.putLong( logRecordHeader( 3, 1 ) )
+				.putLong( 123456789 )
+				.putLong( -7 );
+		stream.flip();
+
+		final String text = decode( stream );
+
+		assertEquals(
+				"2013-10-18 12:00:00.000000000 No args\n"
+						+ "2013-10-18 12:00:00.000001500 Long 42 and double 2.500000\n"
+						+ "2013-10-18 12:00:00.123456789 Tab\tnew line\nback slash\\ -7%\n",
+				text
+		);
+	}
+
+	@Test
+	public void recordsReorderedByTimestampsRestoredFromAnchors() throws Exception {
+		final ByteBuffer stream = ByteBuffer.allocate( 1024 ).order( ByteOrder.nativeOrder() );
+		stream.putLong( timestampHeader() )
+				.putLong( ANCHOR_NANOS );
+		stream.putLong( logRecordHeader( 3, 1 ) )
+				.putLong( 200 )
+				.putLong( 2 );
+		stream.putLong( logRecordHeader( 3, 1 ) )
+				.putLong( -100 )//before anchor
+				.putLong( 1 );
+		stream.putLong( timestampHeader() )
+				.putLong( ANCHOR_NANOS + 2000000000L );
+		stream.putLong( logRecordHeader( 3, 1 ) )
+				.putLong( -1999999700L )
+				.putLong( 3 );
+		stream.flip();
+
+		final String text = decode( stream );
+
+		assertEquals(
+				"2013-10-18 11:59:59.999999900 Tab\tnew line\nback slash\\ 1%\n"
+						+ "2013-10-18 12:00:00.000000200 Tab\tnew line\nback slash\\ 2%\n"
+						+ "2013-10-18 12:00:00.000000300 Tab\tnew line\nback slash\\ 3%\n",
+				text
+		);
+	}
+
+	@Test
+	public void streamLargerThenReaderBufferDecodedCompletely() throws Exception {
+		final int records = RawLogReader.DEFAULT_BUFFER_SIZE / 8;//~3 buffers
+		final ByteBuffer stream = ByteBuffer.allocate( records * 3 * 8 ).order( ByteOrder.nativeOrder() );
+		for( int i = 0; i < records; i++ ) {
+			stream.putLong( logRecordHeader( 2, 1 ) )
+					.putLong( i )
+					.putLong( Double.doubleToLongBits( i ) );
+		}
+		stream.flip();
+
+		final RawLogReader reader = new RawLogReader(
+				Channels.newChannel( new ByteArrayInputStream( stream.array(), 0, stream.limit() ) ),
+				ByteOrder.nativeOrder()
+		);
+		int count = 0;
+		while( reader.next() ) {
+			assertEquals( 2, reader.cellsCount() );
+			assertEquals( count, reader.cell( 0 ) );
+			assertEquals( ( double ) count, Double.longBitsToDouble( reader.cell( 1 ) ), 0 );
+			count++;
+		}
+		assertEquals( records, count );
+	}
+
+	@Test
+	public void levelFollowsTimestamp() throws Exception {
+		final ByteBuffer stream = ByteBuffer.allocate( 1024 ).order( ByteOrder.nativeOrder() );
+		stream.putLong( timestampHeader() )
+				.putLong( ANCHOR_NANOS );
+		stream.putLong( logRecordHeader( 1, 0, Level.WARN.id() ) )
+				.putLong( 0 );
+		stream.putLong( logRecordHeader( 1, 0, Level.ERROR.id() ) )
+				.putLong( 1 );
+		stream.flip();
+
+		assertEquals(
+				"2013-10-18 12:00:00.000000000 WARN  No args\n"
+						+ "2013-10-18 12:00:00.000000001 ERROR No args\n",
+				decode( stream )
+		);
+	}
+
+	@Test
+	public void truncatedTailRecordIsIgnored() throws Exception {
+		final ByteBuffer stream = ByteBuffer.allocate( 1024 ).order( ByteOrder.nativeOrder() );
+		stream.putLong( timestampHeader() )
+				.putLong( ANCHOR_NANOS );
+		stream.putLong( logRecordHeader( 1, 0 ) )
+				.putLong( 0 );
+		stream.putLong( logRecordHeader( 2, 2 ) )
+				.putLong( 0 )
+				.putLong( 42 );//second argument is missing
+		stream.flip();
+
+		assertEquals( "2013-10-18 12:00:00.000000000 No args\n", decode( stream ) );
+	}
+
+	@Test
+	public void recordsLookedUpInCatalogRunOfLastRunRecord() throws Exception {
+		final StringWriter text = new StringWriter();
+		final CatalogWriter writer = new CatalogWriter( text );
+		writer.writeRun( 7 );
+		writer.writeMessage( new MessageInfo( "first run %d", 1, 1 ) );
+		writer.writeRun( 8 );
+		writer.writeMessage( new MessageInfo( "second run %d", 1, 1 ) );
+		writer.close();
+		final DecodingCatalog catalog = DecodingCatalog.load( new StringReader( text.toString() ) );
+
+		final ByteBuffer stream = ByteBuffer.allocate( 1024 ).order( ByteOrder.nativeOrder() );
+		stream.putLong( runHeader() )
+				.putLong( 7 );
+		stream.putLong( timestampHeader() )
+				.putLong( ANCHOR_NANOS );
+		stream.putLong( logRecordHeader( 1, 1 ) )
+				.putLong( 0 )
+				.putLong( 1 );
+		stream.putLong( runHeader() )
+				.putLong( 8 );
+		stream.putLong( timestampHeader() )
+				.putLong( ANCHOR_NANOS );
+		stream.putLong( logRecordHeader( 1, 1 ) )
+				.putLong( 1 )
+				.putLong( 2 );
+		stream.flip();
+
+		assertEquals(
+				"2013-10-18 12:00:00.000000000 first run 1\n"
+						+ "2013-10-18 12:00:00.000000001 second run 2\n",
+				decode( stream, catalog )
+		);
+	}
+
+	@Test
+	public void recordsWithoutRunRecordLookedUpInLastCatalogRun() throws Exception {
+		final StringWriter text = new StringWriter();
+		final CatalogWriter writer = new CatalogWriter( text );
+		writer.writeRun( 7 );
+		writer.writeMessage( new MessageInfo( "first run %d", 1, 1 ) );
+		writer.writeRun( 8 );
+		writer.writeMessage( new MessageInfo( "second run %d", 1, 1 ) );
+		writer.close();
+		final DecodingCatalog catalog = DecodingCatalog.load( new StringReader( text.toString() ) );
+
+		assertEquals( "second run %d", catalog.messageInfo( 1 ).format );
+		assertFalse( catalog.selectRun( 9 ) );
+		assertNull( catalog.messageInfo( 1 ) );
+		assertTrue( catalog.selectRun( 7 ) );
+		assertEquals( "first run %d", catalog.messageInfo( 1 ).format );
+	}
+
+	@Test( timeout = 10000 )
+	public void logAndCatalogContinuedByNextLoggerDecodedByRuns() throws Exception {
+		final ByteArrayOutputStream log = new ByteArrayOutputStream();
+		final StringWriter catalogText = new StringWriter();
+		final String[] formats = { "first logger %d", "second logger %d" };
+		for( int i = 0; i < formats.length; i++ ) {
+			final FastLoggerImpl logger = new FastLoggerImpl(
+					Executors.defaultThreadFactory(),
+					new PlainCircularLongsBuffer( 1 << 10, NOT_SET ),
+					WaitingStrategy.NO_WAIT,
+					OverflowPolicy.THROW,
+					new DrainerIdleStrategy(),
+					new ChannelRawWriter( Channels.newChannel( log ), 1 << 12 ),
+					new CatalogWriter( catalogText ),
+					new SteppingTimestampSource( ANCHOR_NANOS, 1000 )
+			);
+			//both formats get id 1
+			logger.log( formats[i] ).with( i ).submit();
+			assertTrue( logger.shutdown( 1, TimeUnit.SECONDS ) );
+		}
+
+		final DecodingCatalog catalog = DecodingCatalog.load( new StringReader( catalogText.toString() ) );
+		final ByteBuffer stream = ByteBuffer.wrap( log.toByteArray() ).order( ByteOrder.nativeOrder() );
+		assertEquals(
+				"2013-10-18 12:00:00.000001000 first logger 0\n"
+						+ "2013-10-18 12:00:00.000001000 second logger 1\n",
+				decode( stream, catalog )
+		);
+	}
+
+	@Test
+	public void recordWaitsForThrowableWrittenAfterIt() throws Exception {
+		final String description = "java.lang.Exception: late";
+		final ByteBuffer stream = ByteBuffer.allocate( 1024 ).order( ByteOrder.nativeOrder() );
+		stream.putLong( timestampHeader() )
+				.putLong( ANCHOR_NANOS );
+		stream.putLong( logRecordHeader( 1, 1 ) )
+				.putLong( 0 )
+				.putLong( 5 );//throwable id
+		stream.putLong( logRecordHeader( 1, 0 ) )
+				.putLong( 1 );
+		stream.putLong( throwableHeader( description.length() ) )
+				.putLong( 5 )
+				.putLong( 1 );//trace id, unknown
+		putString( stream, description );
+		stream.flip();
+
+		assertEquals(
+				"2013-10-18 12:00:00.000000000 No args\n"
+						+ description + "\n"
+						+ "2013-10-18 12:00:00.000000001 No args\n",
+				decode( stream )
+		);
+	}
+
+	@Test
+	public void mirrorKeepsRecentThrowablesAndNotEvictedTraces() throws Exception {
+		final DecodingCatalog mirror = new DecodingCatalog();
+		final CatalogWriter writer = new CatalogWriter( CharStreams.nullWriter(), mirror );
+		writer.writeTrace( 1, "\tat first" );
+		writer.mirrorThrowable( 1, 1, "java.lang.Exception: first" );
+		assertEquals( "java.lang.Exception: first\n\tat first", mirror.throwable( 1 ) );
+
+		writer.forgetTrace( 1 );
+		assertNull( mirror.trace( 1 ) );
+		assertEquals( "java.lang.Exception: first", mirror.throwable( 1 ) );
+
+		final int last = 1 + DecodingCatalog.MAX_MIRRORED_THROWABLES;
+		writer.mirrorThrowable( last, 1, "java.lang.Exception: last" );
+		assertNull( mirror.throwable( 1 ) );
+		assertEquals( "java.lang.Exception: last", mirror.throwable( last ) );
+	}
+
+	/** [length][bytes packed 8 per cell], see {@linkplain com.db.logger.api.impl.logger.RecordHelper} */
+	private static void putString( final ByteBuffer stream,
+	                               final String ascii ) {
+		stream.putLong( ascii.length() );
+		for( int i = 0; i < ascii.length(); i += 8 ) {
+			long cell = 0;
+			for( int j = 0; j < 8 && i + j < ascii.length(); j++ ) {
+				cell |= ( ( long ) ascii.charAt( i + j ) ) << ( j * 8 );
+			}
+			stream.putLong( cell );
+		}
+	}
+
+	private static String decode( final ByteBuffer stream ) throws IOException {
+		return decode( stream, writeAndLoadCatalog() );
+	}
+
+	private static String decode( final ByteBuffer stream,
+	                              final DecodingCatalog catalog ) throws IOException {
+		final LogDecoder decoder = new LogDecoder( catalog );
+		final RawLogReader reader = new RawLogReader(
+				Channels.newChannel( new ByteArrayInputStream( stream.array(), 0, stream.limit() ) ),
+				ByteOrder.nativeOrder()
+		);
+		final StringBuilder sb = new StringBuilder();
+		decoder.decode( reader, sb );
+		return sb.toString();
+	}
+
+	private static DecodingCatalog writeAndLoadCatalog() throws IOException {
+		final StringWriter text = new StringWriter();
+		final CatalogWriter writer = new CatalogWriter( text );
+		for( final MessageInfo message : MESSAGES ) {
+			writer.writeMessage( message );
+		}
+		writer.close();
+
+		return DecodingCatalog.load( new StringReader( text.toString() ) );
+	}
+}
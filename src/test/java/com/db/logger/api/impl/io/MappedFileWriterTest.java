@@ -0,0 +1,109 @@
+package com.db.logger.api.impl.io;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ThreadFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.db.logger.api.impl.logger.RecordHelper.logRecordHeader;
+import static org.junit.Assert.*;
+
+public class MappedFileWriterTest {
+	private static final int SEGMENT_SIZE = 1 << 20;
+	/** + header + timestamp = 8 cells = 64 bytes */
+	private static final int ARGUMENTS = 6;
+	private static final int RECORD_SIZE = ( ARGUMENTS + 2 ) * 8;
+
+	private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+		@Override
+		public Thread newThread( final Runnable r ) {
+			final Thread thread = new Thread( r );
+			thread.setDaemon( true );
+			return thread;
+		}
+	};
+
+	private File base;
+
+	@Before
+	public void setUp() throws Exception {
+		base = File.createTempFile( "mapped-writer", ".bin" );
+		base.delete();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for( final File segment : MappedFileWriter.segmentFiles( base ) ) {
+			segment.delete();
+		}
+	}
+
+	@Test
+	public void writerRollsToNextSegmentsAndAllRecordsCouldBeReadBack() throws Exception {
+		final int records = 3 * SEGMENT_SIZE / RECORD_SIZE;
+		writeRecords( records );
+
+		final List<File> segments = MappedFileWriter.segmentFiles( base );
+		assertTrue( "Expected >= 3 segments, but " + segments, segments.size() >= 3 );
+
+		int count = 0;
+		for( final File segment : segments ) {
+			final RawLogReader reader = new RawLogReader( segment );
+			try {
+				while( reader.next() ) {
+					assertEquals( logRecordHeader( 1, ARGUMENTS ), reader.header() );
+					assertEquals( count, reader.cell( 1 ) );
+					count++;
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		assertEquals( records, count );
+	}
+
+	@Test
+	public void lastSegmentTruncatedToDataOnClose() throws Exception {
+		writeRecords( 10 );
+
+		final List<File> segments = MappedFileWriter.segmentFiles( base );
+		assertEquals( 1, segments.size() );
+		assertEquals( 10 * RECORD_SIZE, segments.get( 0 ).length() );
+	}
+
+	@Test
+	public void restartedWriterContinuesAfterLastSegment() throws Exception {
+		writeRecords( 10 );
+		writeRecords( 20 );
+
+		final List<File> segments = MappedFileWriter.segmentFiles( base );
+		assertEquals( 2, segments.size() );
+		assertEquals( 10 * RECORD_SIZE, segments.get( 0 ).length() );
+		assertEquals( 20 * RECORD_SIZE, segments.get( 1 ).length() );
+	}
+
+	private void writeRecords( final int records ) throws Exception {
+		final MappedFileWriter writer = new MappedFileWriter( base, SEGMENT_SIZE, THREAD_FACTORY );
+		try {
+			ByteBuffer buffer = writer.buffer();
+			for( int i = 0; i < records; i++ ) {
+				if( buffer.remaining() < RECORD_SIZE ) {
+					writer.flush();
+					buffer = writer.buffer();
+				}
+				buffer.putLong( logRecordHeader( 1, ARGUMENTS ) );
+				buffer.putLong( 0 );//timestamp
+				buffer.putLong( i );
+				for( int arg = 1; arg < ARGUMENTS; arg++ ) {
+					buffer.putLong( arg );
+				}
+			}
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package com.db.logger.api.impl.io;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import com.db.logger.api.impl.logger.MessageInfo;
+import com.db.logger.api.impl.logger.RingBuffer;
+import com.db.logger.api.impl.logger.SCSDSequencer;
+import com.db.logger.api.impl.logger.Sequencer;
+import com.db.logger.api.impl.logger.TestTimestamps.SteppingTimestampSource;
+import com.db.logger.api.impl.logger.WaitingStrategy;
+import com.db.logger.api.impl.logger.buffer.ICircularLongsBuffer;
+import com.db.logger.api.impl.logger.buffer.MappedRingFile;
+import com.db.logger.api.impl.logger.formatters.RawLogMessage;
+import org.junit.Test;
+
+import static com.db.logger.api.impl.logger.RecordHelper.*;
+import static com.db.logger.api.impl.logger.TestTimestamps.ANCHOR_NANOS;
+import static org.junit.Assert.*;
+
+public class RingRecoveryReaderTest {
+	private static final int LENGTH = 64;
+	private static final long TIMESTAMP_STEP = 1000;
+
+	private static final MessageInfo MESSAGE = new MessageInfo( "record %d %d", 2, 1 );
+
+	@Test
+	public void recordsLeftInRingAreRecoveredInClaimOrder() throws Exception {
+		final File file = File.createTempFile( "ring", ".bin" );
+		file.deleteOnExit();
+		final MappedRingFile ringFile = MappedRingFile.create( file, LENGTH );
+		final RingBuffer ringBuffer = new RingBuffer(
+				new SCSDSequencer( LENGTH ),
+				ringFile.buffer(),
+				WaitingStrategy.NO_WAIT
+		);
+		final RawLogMessage message = new RawLogMessage( ringBuffer, new SteppingTimestampSource( ANCHOR_NANOS, TIMESTAMP_STEP ) )
+				.setup( MESSAGE );
+		final RawLogMessage stalled = new RawLogMessage( ringBuffer, new SteppingTimestampSource( ANCHOR_NANOS, TIMESTAMP_STEP ) )
+				.setup( MESSAGE );
+
+		//drain first records, so the rest wraps around the end of ring
+		for( int i = 0; i < 10; i++ ) {
+			message.start().with( i ).with( -1 ).submit();
+		}
+		ringBuffer.drainTo( new NullDrainer( ringFile.buffer() ) );
+		for( int i = 10; i < 14; i++ ) {
+			message.start().with( i ).with( -1 ).submit();
+		}
+		//torn: claimed, but not published at crash
+		stalled.start().with( 100 );
+		for( int i = 14; i < 18; i++ ) {
+			message.start().with( i ).with( -1 ).submit();
+		}
+		ringFile.close();
+
+		final MappedRingFile recovered = MappedRingFile.open( file );
+		try {
+			final DecodingCatalog catalog = new DecodingCatalog();
+			catalog.add( MESSAGE );
+			final RingRecoveryReader reader = new RingRecoveryReader( recovered.buffer(), catalog );
+			final ByteBuffer records = reader.recover();
+			assertEquals( 8, reader.recoveredRecords() );
+			assertEquals( 1, reader.tornRecords() );
+
+			final StringBuilder text = new StringBuilder();
+			new LogDecoder( catalog, 0 ).decode( new RawLogReader( records ), text );
+			final String[] lines = text.toString().split( "\n" );
+			assertEquals( 8, lines.length );
+			for( int i = 0; i < 4; i++ ) {
+				assertTrue( lines[i], lines[i].endsWith( "record " + ( 10 + i ) + " -1" ) );
+				assertTrue( lines[i + 4], lines[i + 4].endsWith( "record " + ( 14 + i ) + " -1" ) );
+			}
+			assertTrue( lines[0], lines[0].startsWith( "2013-10-18 12:00:00.000011000" ) );
+		} finally {
+			recovered.close();
+		}
+	}
+
+	@Test
+	public void garbageIsSkipped() throws Exception {
+		final MappedRingFile ringFile = MappedRingFile.create( tempFile(), LENGTH );
+		final ICircularLongsBuffer ring = ringFile.buffer();
+		ring.put( 0, 12345 );//not a header
+		ring.put( 1, logRecordHeader( 1, 2 ) );
+		ring.put( 2, ANCHOR_NANOS );
+		ring.put( 3, 7 );
+		ring.put( 4, 8 );
+		ring.put( 5, header( RecordType.LOG_RECORD, 1, 40 ) );//longer than ring has
+
+		final DecodingCatalog catalog = new DecodingCatalog();
+		catalog.add( MESSAGE );
+		final RingRecoveryReader reader = new RingRecoveryReader( ring, catalog );
+		final StringBuilder text = new StringBuilder();
+		new LogDecoder( catalog, 0 ).decode( new RawLogReader( reader.recover() ), text );
+		assertEquals( "2013-10-18 12:00:00.000000000 record 7 8\n", text.toString() );
+		assertEquals( 1, reader.recoveredRecords() );
+		assertEquals( 2, reader.skippedCells() );
+		ringFile.close();
+	}
+
+	private static File tempFile() throws Exception {
+		final File file = File.createTempFile( "ring", ".bin" );
+		file.deleteOnExit();
+		return file;
+	}
+
+	/** reclaims records without writing them */
+	private static final class NullDrainer implements Sequencer.Drainer {
+		private final ICircularLongsBuffer buffer;
+
+		private NullDrainer( final ICircularLongsBuffer buffer ) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int available( final long startSequence,
+		                      final long sentinelSequence ) {
+			for( long pos = startSequence; pos < sentinelSequence; pos++ ) {
+				buffer.put( pos, NOT_SET );
+			}
+			return ( int ) ( sentinelSequence - startSequence );
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package com.db.logger.api.impl.logger;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.concurrent.Executors;
+
+import com.db.logger.api.Category;
+import com.db.logger.api.Level;
+import com.db.logger.api.LogMessage;
+import com.db.logger.api.impl.io.ChannelRawWriter;
+import com.db.logger.api.impl.logger.buffer.PlainCircularLongsBuffer;
+import com.db.logger.api.impl.logger.formatters.DummyLogBuilder;
+import org.junit.Test;
+
+import static com.db.logger.api.impl.logger.RecordHelper.NOT_SET;
+import static org.junit.Assert.*;
+
+public class CategoryTest {
+	private static final int LENGTH = 1 << 10;
+
+	private final FastLoggerImpl logger = new FastLoggerImpl(
+			Executors.defaultThreadFactory(),
+			new PlainCircularLongsBuffer( LENGTH, NOT_SET ),
+			WaitingStrategy.NO_WAIT,
+			new ChannelRawWriter( Channels.newChannel( new ByteArrayOutputStream() ), 1 << 12 )
+	);
+
+	@Test
+	public void sameNameGivesSameCategory() throws Exception {
+		assertSame( logger.category( "orders" ), logger.category( "orders" ) );
+		assertNotSame( logger.category( "orders" ), logger.category( "quotes" ) );
+	}
+
+	@Test
+	public void levelsBelowThresholdAreDisabled() throws Exception {
+		final Category category = logger.category( "orders" );
+		category.setLevel( Level.WARN );
+		assertFalse( category.isEnabled( Level.INFO ) );
+		assertTrue( category.isEnabled( Level.WARN ) );
+		assertTrue( category.isEnabled( Level.ERROR ) );
+
+		category.setLevel( Level.OFF );
+		assertFalse( category.isEnabled( Level.ERROR ) );
+		assertFalse( category.isEnabled( Level.OFF ) );
+	}
+
+	@Test
+	public void disabledLevelClaimsNothing() throws Exception {
+		final Category category = logger.category( "orders" );
+		category.setLevel( Level.INFO );
+		assertSame( DummyLogBuilder.INSTANCE, category.debug( "order %d" ) );
+
+		final LogMessage message = category.info( "order %d" );
+		assertNotSame( DummyLogBuilder.INSTANCE, message );
+		message.with( 1 ).submit();
+	}
+
+	@Test
+	public void levelChangeIsSeenByHandles() throws Exception {
+		final Category category = logger.category( "orders" );
+		final LogMessage handle = category.message( Level.DEBUG, "order %d" );
+
+		category.setLevel( Level.INFO );
+		assertSame( DummyLogBuilder.INSTANCE, handle.with( 1 ) );
+
+		category.setLevel( Level.DEBUG );
+		assertNotSame( DummyLogBuilder.INSTANCE, handle.with( 2 ) );
+	}
+}
@@ -0,0 +1,64 @@
+package com.db.logger.api.impl.logger;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DrainerIdleStrategyTest {
+	private static final int RING_LENGTH = 1024;
+	private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos( 1 );
+	private static final long MAX_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos( 64 );
+
+	@Test
+	public void parkPeriodGrowsUpToMaxWhileIdle() throws Exception {
+		final DrainerIdleStrategy strategy = new DrainerIdleStrategy( 0, 0, MIN_PARK_NANOS, MAX_PARK_NANOS, 0.5 );
+		for( int i = 0; i < 16; i++ ) {
+			strategy.idle( 0, RING_LENGTH );
+		}
+		assertEquals( MAX_PARK_NANOS, strategy.parkNanos() );
+	}
+
+	@Test
+	public void parkPeriodShrinksDownToMinUnderLoad() throws Exception {
+		final DrainerIdleStrategy strategy = new DrainerIdleStrategy( 0, 0, MIN_PARK_NANOS, MAX_PARK_NANOS, 0.5 );
+		for( int i = 0; i < 16; i++ ) {
+			strategy.idle( 0, RING_LENGTH );
+		}
+		for( int i = 0; i < 16; i++ ) {
+			strategy.idle( RING_LENGTH, RING_LENGTH );
+		}
+		assertEquals( MIN_PARK_NANOS, strategy.parkNanos() );
+	}
+
+	@Test
+	public void highWaterMarkIsFractionOfRingLength() throws Exception {
+		final DrainerIdleStrategy strategy = new DrainerIdleStrategy( 0, 0, MIN_PARK_NANOS, MAX_PARK_NANOS, 0.75 );
+		assertEquals( 768, strategy.highWaterMark( RING_LENGTH ) );
+	}
+
+	@Test( timeout = 10000 )
+	public void parkedDrainerIsWokenUpEarly() throws Exception {
+		final long longPark = TimeUnit.SECONDS.toNanos( 60 );//much longer then test timeout
+		final DrainerIdleStrategy strategy = new DrainerIdleStrategy( 0, 0, longPark, longPark, 0.5 );
+		final Thread drainer = new Thread() {
+			@Override
+			public void run() {
+				strategy.idle( 0, RING_LENGTH );
+			}
+		};
+		drainer.start();
+		while( drainer.getState() != Thread.State.TIMED_WAITING ) {
+			Thread.sleep( 1 );
+		}
+
+		strategy.wakeUp();
+		drainer.join();
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void maxParkPeriodCanNotBeLessThenMin() throws Exception {
+		new DrainerIdleStrategy( 0, 0, MAX_PARK_NANOS, MIN_PARK_NANOS, 0.5 );
+	}
+}
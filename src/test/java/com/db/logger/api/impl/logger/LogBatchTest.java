@@ -0,0 +1,188 @@
+package com.db.logger.api.impl.logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+
+import com.db.logger.api.Level;
+import com.db.logger.api.LogBatch;
+import com.db.logger.api.impl.io.ChannelRawWriter;
+import com.db.logger.api.impl.io.DecodingCatalog;
+import com.db.logger.api.impl.io.LogDecoder;
+import com.db.logger.api.impl.io.RawLogReader;
+import com.db.logger.api.impl.logger.buffer.PlainCircularLongsBuffer;
+import com.db.logger.api.impl.logger.formatters.RawLogMessage;
+import com.db.logger.timesource.SystemTimeMillisSource;
+import org.junit.Test;
+
+import static com.db.logger.api.impl.logger.RecordHelper.NOT_SET;
+import static com.db.logger.api.impl.logger.RecordHelper.logRecordSize;
+import static org.junit.Assert.*;
+
+public class LogBatchTest {
+	private static final int LENGTH = 1 << 10;
+	/** "yyyy-MM-dd HH:mm:ss.nnnnnnnnn " */
+	private static final int TIMESTAMP_PREFIX = 30;
+
+	private static final MessageInfo FILLED = new MessageInfo( "order %d filled: %d", 2, 1 );
+	private static final MessageInfo OTHER = new MessageInfo( "other %d", 1, 2 );
+	private static final MessageInfo STRINGS = new MessageInfo( "order %d [%s]", 2, 3 );
+
+	private final RingBuffer ringBuffer = new RingBuffer(
+			new SCSDSequencer( LENGTH ),
+			new PlainCircularLongsBuffer( LENGTH, NOT_SET ),
+			WaitingStrategy.NO_WAIT
+	);
+	private final RawLogMessage message = new RawLogMessage( ringBuffer, new SystemTimeMillisSource() );
+
+	@Test
+	public void batchIsClaimedAtOnceAndUnusedRecordsAreReleased() throws Exception {
+		message.setup( FILLED ).startBatch( 5 );
+		assertEquals( 5 * logRecordSize( 2 ), claimed( ringBuffer ) );
+
+		for( int i = 0; i < 3; i++ ) {
+			message.next().with( i ).with( i * 10 ).submit();
+		}
+		assertEquals( 5 * logRecordSize( 2 ), claimed( ringBuffer ) );
+		message.end();
+
+		assertEquals(
+				"order 0 filled: 0\n"
+						+ "order 1 filled: 10\n"
+						+ "order 2 filled: 20\n",
+				drainAndDecode()
+		);
+		assertEquals( 0, claimed( ringBuffer ) );
+	}
+
+	@Test
+	public void recordsBeyondBatchAreClaimedAlone() throws Exception {
+		message.setup( FILLED ).startBatch( 1 );
+		message.next().with( 1 ).with( 1 ).submit();
+		message.next().with( 2 ).with( 2 ).submit();
+		message.end();
+
+		assertEquals( "order 1 filled: 1\norder 2 filled: 2\n", drainAndDecode() );
+	}
+
+	@Test
+	public void otherFormatsDoNotTakeBatchRecords() throws Exception {
+		message.setup( FILLED ).startBatch( 2 );
+		message.next().with( 1 ).with( 1 ).submit();
+		message.setup( OTHER ).start().with( 42 ).submit();
+		message.setup( FILLED ).next().with( 2 ).with( 2 ).submit();
+		message.end();
+
+		//other is claimed after the batch
+		assertEquals( "order 1 filled: 1\norder 2 filled: 2\nother 42\n", drainAndDecode() );
+	}
+
+	@Test
+	public void recordsLoggedBetweenNextCallsDoNotChangeOrTakeBatchRecords() throws Exception {
+		final LogBatch batch = message.setup( FILLED ).startBatch( 2 );
+		batch.next().with( 1 ).with( 1 ).submit();
+		//other log calls of the same thread set up the same message
+		message.setup( OTHER, Level.WARN ).start().with( 42 ).submit();
+		message.setup( FILLED, Level.ERROR ).start().with( 3 ).with( 3 ).submit();
+		batch.next().with( 2 ).with( 2 ).submit();
+		batch.end();
+
+		assertEquals(
+				"order 1 filled: 1\n"
+						+ "order 2 filled: 2\n"
+						+ "WARN  other 42\n"
+						+ "ERROR order 3 filled: 3\n",
+				drainAndDecode()
+		);
+		assertEquals( 0, claimed( ringBuffer ) );
+	}
+
+	@Test
+	public void batchOfRecordsWithStringsClaimsNothing() throws Exception {
+		message.setup( STRINGS ).startBatch( 10 );
+		assertEquals( 0, claimed( ringBuffer ) );
+		message.next().with( 1 ).with( "AAPL" ).submit();
+		message.end();
+
+		assertEquals( "order 1 [AAPL]\n", drainAndDecode() );
+	}
+
+	@Test
+	public void batchIsLimitedByMaxBatchRecords() throws Exception {
+		message.setup( FILLED ).startBatch( LENGTH );
+		assertEquals( RawLogMessage.MAX_BATCH_RECORDS * logRecordSize( 2 ), claimed( ringBuffer ) );
+		message.end();
+		assertEquals( "", drainAndDecode() );
+	}
+
+	@Test
+	public void batchIsLimitedByHalfOfRing() throws Exception {
+		final int length = 64;
+		final RingBuffer smallRing = new RingBuffer(
+				new SCSDSequencer( length ),
+				new PlainCircularLongsBuffer( length, NOT_SET ),
+				WaitingStrategy.NO_WAIT
+		);
+		final RawLogMessage smallRingMessage = new RawLogMessage( smallRing, new SystemTimeMillisSource() );
+		smallRingMessage.setup( FILLED ).startBatch( length );
+		assertEquals( ( length / 2 / logRecordSize( 2 ) ) * logRecordSize( 2 ), claimed( smallRing ) );
+		smallRingMessage.end();
+	}
+
+	@Test
+	public void closeReleasesUnusedRecords() throws Exception {
+		final LogBatch batch = message.setup( FILLED ).startBatch( 5 );
+		try {
+			batch.next().with( 1 ).with( 1 ).submit();
+		} finally {
+			batch.close();
+		}
+
+		assertEquals( "order 1 filled: 1\n", drainAndDecode() );
+		assertEquals( 0, claimed( ringBuffer ) );
+	}
+
+	/** @return cells claimed, but not yet reclaimed */
+	private static long claimed( final RingBuffer ringBuffer ) {
+		final long[] size = new long[1];
+		//drainer which reclaims nothing: just to see claimed range
+		ringBuffer.drainTo( new Sequencer.Drainer() {
+			@Override
+			public int available( final long startSequence,
+			                      final long sentinelSequence ) {
+				size[0] = sentinelSequence - startSequence;
+				return 0;
+			}
+		} );
+		return size[0];
+	}
+
+	private String drainAndDecode() throws Exception {
+		final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		final ChannelRawWriter writer = new ChannelRawWriter( Channels.newChannel( stream ), 1 << 16 );
+		final WritingDrainer drainer = new WritingDrainer( writer );
+		drainer.drainFrom( ringBuffer.buffer() );
+		ringBuffer.drainTo( drainer );
+		writer.close();
+
+		final DecodingCatalog catalog = new DecodingCatalog();
+		catalog.add( FILLED );
+		catalog.add( OTHER );
+		catalog.add( STRINGS );
+		final RawLogReader reader = new RawLogReader(
+				Channels.newChannel( new ByteArrayInputStream( stream.toByteArray() ) ),
+				ByteOrder.nativeOrder()
+		);
+		final StringBuilder text = new StringBuilder();
+		new LogDecoder( catalog, 0 ).decode( reader, text );
+
+		final StringBuilder withoutTimestamps = new StringBuilder();
+		for( final String line : text.toString().split( "\n" ) ) {
+			if( !line.isEmpty() ) {
+				withoutTimestamps.append( line.substring( TIMESTAMP_PREFIX ) ).append( '\n' );
+			}
+		}
+		return withoutTimestamps.toString();
+	}
+}
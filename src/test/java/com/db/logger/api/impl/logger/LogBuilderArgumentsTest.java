@@ -0,0 +1,72 @@
+package com.db.logger.api.impl.logger;
+
+import com.db.logger.api.FluentLogBuilder;
+import com.db.logger.api.impl.logger.buffer.PlainCircularLongsBuffer;
+import com.db.logger.api.impl.logger.formatters.RawLogMessage;
+import com.db.logger.api.impl.logger.formatters.SimpleLogMessage;
+import com.db.logger.timesource.SystemTimeMillisSource;
+import org.junit.Test;
+
+import static com.db.logger.api.impl.logger.RecordHelper.ARGUMENTS_OFFSET;
+import static com.db.logger.api.impl.logger.RecordHelper.NOT_SET;
+import static com.db.logger.api.impl.logger.formatters.AbstractLogBuilder.MISSING_ARGUMENT;
+import static com.db.logger.api.impl.logger.formatters.AbstractLogBuilder.VALIDATE_ARGUMENTS;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeFalse;
+
+/**
+ * Release-mode (no -Dvalidate-arguments) behavior of builders on wrong arity
+ */
+public class LogBuilderArgumentsTest {
+	private static final int LENGTH = 16;
+	private static final MessageInfo MESSAGE = new MessageInfo( "%d %f %d", 3, 1 );
+
+	private final RingBuffer ringBuffer = new RingBuffer(
+			new SCSDSequencer( LENGTH ),
+			new PlainCircularLongsBuffer( LENGTH, NOT_SET ),
+			WaitingStrategy.NO_WAIT
+	);
+
+	@Test
+	public void underFilledRawMessageIsPaddedAndPublished() throws Exception {
+		assumeFalse( VALIDATE_ARGUMENTS );
+		final RawLogMessage message = new RawLogMessage( ringBuffer, new SystemTimeMillisSource() )
+				.setup( MESSAGE );
+		message.start().with( 42 ).submit();
+
+		assertPadded( 0 );
+	}
+
+	@Test
+	public void underFilledSimpleMessageIsPaddedAndPublished() throws Exception {
+		assumeFalse( VALIDATE_ARGUMENTS );
+		final SimpleLogMessage message = new SimpleLogMessage( MESSAGE, ringBuffer, new SystemTimeMillisSource() );
+		message.with( 42 ).submit();
+
+		assertPadded( 0 );
+	}
+
+	@Test
+	public void extraArgumentsDoNotOverwriteNextRecord() throws Exception {
+		assumeFalse( VALIDATE_ARGUMENTS );
+		final SimpleLogMessage message = new SimpleLogMessage( MESSAGE, ringBuffer, new SystemTimeMillisSource() );
+		FluentLogBuilder builder = message.with( 1 ).with( 2.0 ).with( 3 );
+		for( int i = 0; i < LENGTH; i++ ) {
+			builder = builder.with( -1000 - i );
+		}
+		builder.submit();
+		message.with( 4 ).with( 5.0 ).with( 6 ).submit();
+
+		final int recordSize = RecordHelper.logRecordSize( 3 );
+		assertEquals( RecordHelper.logRecordHeader( 1, 3 ), ringBuffer.buffer().get( recordSize ) );
+		assertEquals( 4, ringBuffer.buffer().get( recordSize + ARGUMENTS_OFFSET ) );
+		assertEquals( 6, ringBuffer.buffer().get( recordSize + ARGUMENTS_OFFSET + 2 ) );
+	}
+
+	private void assertPadded( final long position ) {
+		assertEquals( RecordHelper.logRecordHeader( 1, 3 ), ringBuffer.buffer().get( position ) );
+		assertEquals( 42, ringBuffer.buffer().get( position + ARGUMENTS_OFFSET ) );
+		assertEquals( MISSING_ARGUMENT, ringBuffer.buffer().get( position + ARGUMENTS_OFFSET + 1 ) );
+		assertEquals( MISSING_ARGUMENT, ringBuffer.buffer().get( position + ARGUMENTS_OFFSET + 2 ) );
+	}
+}
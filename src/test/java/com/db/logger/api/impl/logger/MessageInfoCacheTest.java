@@ -0,0 +1,40 @@
+package com.db.logger.api.impl.logger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MessageInfoCacheTest {
+	private static final String FORMAT = "%d %d";
+	private static final MessageInfo INFO = new MessageInfo( FORMAT, 2, 1 );
+
+	@Test
+	public void sameFormatInstanceHits() throws Exception {
+		final MessageInfoCache cache = new MessageInfoCache();
+		cache.put( FORMAT, INFO );
+		assertSame( INFO, cache.get( FORMAT ) );
+	}
+
+	@Test
+	public void equalButNotSameFormatMisses() throws Exception {
+		final MessageInfoCache cache = new MessageInfoCache();
+		cache.put( FORMAT, INFO );
+		assertNull( cache.get( new String( FORMAT ) ) );
+	}
+
+	@Test
+	public void collidingFormatEvictsPrevious() throws Exception {
+		final MessageInfoCache cache = new MessageInfoCache( 1 );
+		final String other = "%d";
+		final MessageInfo otherInfo = new MessageInfo( other, 1, 2 );
+		cache.put( FORMAT, INFO );
+		cache.put( other, otherInfo );
+		assertNull( cache.get( FORMAT ) );
+		assertSame( otherInfo, cache.get( other ) );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void sizeMustBePowerOf2() throws Exception {
+		new MessageInfoCache( 3 );
+	}
+}
@@ -0,0 +1,112 @@
+package com.db.logger.api.impl.logger;
+
+import java.util.Locale;
+
+import org.junit.Test;
+
+import static com.db.logger.api.impl.logger.MessageTemplate.ArgumentType.DOUBLE;
+import static com.db.logger.api.impl.logger.MessageTemplate.ArgumentType.LONG;
+import static com.db.logger.api.impl.logger.MessageTemplate.ArgumentType.STRING;
+import static org.junit.Assert.*;
+
+public class MessageTemplateTest {
+
+	@Test
+	public void formatWithoutPlaceholdersIsSingleLiteral() throws Exception {
+		final MessageTemplate template = MessageTemplate.parse( "Abc" );
+		assertEquals( 0, template.argumentsCount() );
+		assertEquals( "Abc", template.literal( 0 ) );
+	}
+
+	@Test
+	public void escapedPercentAndNewLineAreNotSlots() throws Exception {
+		final MessageTemplate template = MessageTemplate.parse( "%d%% done%n" );
+		assertEquals( 1, template.argumentsCount() );
+		assertEquals( "", template.literal( 0 ) );
+		assertEquals( "% done\n", template.literal( 1 ) );
+	}
+
+	@Test
+	public void slotsAreTypedByConversion() throws Exception {
+		final MessageTemplate template = MessageTemplate.parse( "%d %x %s %f %.3e %-8G" );
+		assertEquals( 6, template.argumentsCount() );
+		assertEquals( LONG, template.argumentType( 0 ) );
+		assertEquals( LONG, template.argumentType( 1 ) );
+		assertEquals( STRING, template.argumentType( 2 ) );
+		assertEquals( DOUBLE, template.argumentType( 3 ) );
+		assertEquals( DOUBLE, template.argumentType( 4 ) );
+		assertEquals( DOUBLE, template.argumentType( 5 ) );
+	}
+
+	@Test
+	public void widthAndPrecisionAreParsed() throws Exception {
+		final MessageTemplate.Slot slot = MessageTemplate.parse( "[%-+12.4f]" ).slot( 0 );
+		assertEquals( "-+", slot.flags );
+		assertEquals( 12, slot.width );
+		assertEquals( 4, slot.precision );
+		assertEquals( 'f', slot.conversion );
+	}
+
+	@Test
+	public void slotsAreRenderedAsFormatterDoes() throws Exception {
+		final String[] specs = { "%d", "%x", "%X", "%o", "%08d", "%,d", "%-6x|" };
+		final long[] values = { 0, 42, -42, Long.MAX_VALUE, Long.MIN_VALUE };
+		for( final String spec : specs ) {
+			final MessageTemplate.Slot slot = MessageTemplate.parse( spec ).slot( 0 );
+			for( final long value : values ) {
+				final StringBuilder sb = new StringBuilder();
+				slot.appendTo( sb, value );
+				assertEquals(
+						spec + " of " + value,
+						String.format( Locale.ROOT, slot.spec, value ),
+						sb.toString()
+				);
+			}
+		}
+		final MessageTemplate.Slot doubleSlot = MessageTemplate.parse( "%.2f" ).slot( 0 );
+		final StringBuilder sb = new StringBuilder();
+		doubleSlot.appendTo( sb, Double.doubleToLongBits( 3.14159 ) );
+		assertEquals( "3.14", sb.toString() );
+	}
+
+	@Test
+	public void messageInfoTakesArgumentsCountFromTemplate() throws Exception {
+		final MessageInfo info = new MessageInfo( MessageTemplate.parse( "100%% of %d" ), 1 );
+		assertEquals( 1, info.argumentsCount );
+		assertEquals( "100%% of %d", info.format );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void declaredArgumentsCountMustMatchTemplate() throws Exception {
+		new MessageInfo( "%d%%", 2, 1 );
+	}
+
+	@Test
+	public void danglingPercentIsLiteral() throws Exception {
+		final MessageTemplate template = MessageTemplate.parse( "100%" );
+		assertEquals( 0, template.argumentsCount() );
+		assertEquals( "100%", template.literal( 0 ) );
+	}
+
+	@Test
+	public void unsupportedConversionIsLiteral() throws Exception {
+		final MessageTemplate template = MessageTemplate.parse( "%c and %b of %d" );
+		assertEquals( 1, template.argumentsCount() );
+		assertEquals( "%c and %b of ", template.literal( 0 ) );
+	}
+
+	@Test
+	public void explicitArgumentIndexIsLiteral() throws Exception {
+		final MessageTemplate template = MessageTemplate.parse( "%1$d" );
+		assertEquals( 0, template.argumentsCount() );
+		assertEquals( "%1$d", template.literal( 0 ) );
+	}
+
+	@Test
+	public void specRejectedByFormatterIsLiteral() throws Exception {
+		final MessageTemplate template = MessageTemplate.parse( "%.2d %-d %#s %,x %5.f %d" );
+		assertEquals( 1, template.argumentsCount() );
+		assertEquals( "%.2d %-d %#s %,x %5.f ", template.literal( 0 ) );
+		assertEquals( "%d", template.slot( 0 ).spec );
+	}
+}
@@ -1,12 +1,13 @@
 package com.db.logger.api.impl.logger;
 
+import java.util.concurrent.atomic.AtomicReference;
+
 import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
 import org.junit.Assert;
 import org.junit.Test;
 
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertSame;
+import static org.junit.Assert.*;
 
 /**
  * @author ruslan
@@ -41,4 +42,54 @@ public class MessagesCatalogTest {
 		}
 		assertEquals( MESSAGES.length, ids.size() );
 	}
+
+	@Test
+	public void catalogGrowsBeyondInitialSize() throws Exception {
+		final MessagesCatalog catalog = new MessagesCatalog( 32 );
+		final int count = 6000;
+		final MessageInfo[] infos = new MessageInfo[count];
+		for( int i = 0; i < count; i++ ) {
+			infos[i] = catalog.lookupMessageInfo( "Message " + i + " %d" );
+			assertEquals( i + 1, infos[i].formatId );
+		}
+		assertTrue( catalog.capacity() >= count );
+		for( int i = 0; i < count; i++ ) {
+			assertSame( infos[i], catalog.lookupMessageInfo( "Message " + i + " %d" ) );
+		}
+		assertEquals( count, catalog.messagesSince( 0 ).size() );
+	}
+
+	@Test( timeout = 30000 )
+	public void readersSeeSameInstancesWhileCatalogGrows() throws Exception {
+		final MessagesCatalog catalog = new MessagesCatalog( 2 );
+		final MessageInfo[] infos = new MessageInfo[MESSAGES.length];
+		for( int i = 0; i < MESSAGES.length; i++ ) {
+			infos[i] = catalog.lookupMessageInfo( MESSAGES[i] );
+		}
+
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final Thread reader = new Thread() {
+			@Override
+			public void run() {
+				try {
+					while( !isInterrupted() ) {
+						for( int i = 0; i < MESSAGES.length; i++ ) {
+							assertSame( infos[i], catalog.lookupMessageInfo( MESSAGES[i] ) );
+						}
+					}
+				} catch( Throwable t ) {
+					failure.set( t );
+				}
+			}
+		};
+		reader.start();
+		for( int i = 0; i < 20000; i++ ) {
+			catalog.lookupMessageInfo( "Growing " + i );
+		}
+		reader.interrupt();
+		reader.join();
+
+		assertNull( failure.get() );
+		assertEquals( MESSAGES.length + 20000, catalog.lastFormatId() );
+	}
 }
@@ -0,0 +1,164 @@
+package com.db.logger.api.impl.logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.db.logger.api.impl.io.ChannelRawWriter;
+import com.db.logger.api.impl.io.RawLogReader;
+import com.db.logger.api.impl.logger.buffer.ICircularLongsBuffer;
+import com.db.logger.api.impl.logger.buffer.PlainCircularLongsBuffer;
+import com.db.logger.timesource.SystemTimeMillisSource;
+import com.google.common.base.Supplier;
+import org.junit.Test;
+
+import static com.db.logger.api.impl.logger.RecordHelper.*;
+import static org.junit.Assert.*;
+
+public class PerThreadRingsTest {
+	private static final int LENGTH = 1 << 12;
+	private static final int RECORDS = 500;
+
+	private final AtomicInteger allocatedBuffers = new AtomicInteger( 0 );
+	private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+	private final FastLoggerImpl logger = new FastLoggerImpl(
+			Executors.defaultThreadFactory(),
+			new Supplier<ICircularLongsBuffer>() {
+				@Override
+				public ICircularLongsBuffer get() {
+					allocatedBuffers.incrementAndGet();
+					return new PlainCircularLongsBuffer( LENGTH, NOT_SET );
+				}
+			},
+			WaitingStrategy.SPINNING,
+			OverflowPolicy.THROW,
+			new DrainerIdleStrategy(),
+			new ChannelRawWriter( Channels.newChannel( output ), 1 << 12 ),
+			null,
+			new SystemTimeMillisSource()
+	);
+
+	@Test
+	public void ringIsRegisteredOnFirstLogCallOfThread() throws Exception {
+		assertEquals( 0, logger.registeredRings() );
+		assertEquals( 0, allocatedBuffers.get() );
+
+		logger.log( "record %d %d" ).with( 0 ).with( 1 ).submit();
+		logger.log( "record %d %d" ).with( 0 ).with( 2 ).submit();
+		assertEquals( 1, logger.registeredRings() );
+		assertEquals( 1, allocatedBuffers.get() );
+
+		final Thread other = new Thread() {
+			@Override
+			public void run() {
+				logger.log( "record %d %d" ).with( 1 ).with( 1 ).submit();
+			}
+		};
+		other.start();
+		other.join();
+		assertEquals( 2, logger.registeredRings() );
+		assertEquals( 2, allocatedBuffers.get() );
+
+		assertTrue( logger.shutdown( 1, TimeUnit.SECONDS ) );
+		assertRecordsWrittenOnceInOrder( new int[]{ 2, 1 } );
+	}
+
+	@Test( timeout = 30000 )
+	public void recordsOfAllProducerThreadsAreDrained() throws Exception {
+		final int threads = 4;
+		final CountDownLatch start = new CountDownLatch( 1 );
+		final Thread[] producers = new Thread[threads];
+		for( int t = 0; t < threads; t++ ) {
+			final int producer = t;
+			producers[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch( InterruptedException e ) {
+						return;
+					}
+					for( int i = 1; i <= RECORDS; i++ ) {
+						logger.log( "record %d %d" ).with( producer ).with( i ).submit();
+					}
+				}
+			};
+			producers[t].start();
+		}
+		logger.startDraining();
+		start.countDown();
+		for( final Thread producer : producers ) {
+			producer.join();
+		}
+		assertTrue( logger.shutdown( 10, TimeUnit.SECONDS ) );
+
+		final int[] expected = new int[threads];
+		Arrays.fill( expected, RECORDS );
+		assertRecordsWrittenOnceInOrder( expected );
+		//thread finished early could give it's buffer to thread started late
+		assertTrue( allocatedBuffers.get() <= threads );
+	}
+
+	@Test( timeout = 30000 )
+	public void bufferOfDeadThreadIsReusedWithoutLosingRecords() throws Exception {
+		final int generations = 5;
+		logger.startDraining();
+		for( int g = 0; g < generations; g++ ) {
+			final int producer = g;
+			final Thread thread = new Thread() {
+				@Override
+				public void run() {
+					for( int i = 1; i <= RECORDS; i++ ) {
+						logger.log( "record %d %d" ).with( producer ).with( i ).submit();
+					}
+				}
+			};
+			thread.start();
+			thread.join();
+			//ring of dead thread is unregistered only after it is drained, and
+			//only then it's buffer is ready to reuse
+			while( logger.registeredRings() > 0 || logger.reusableBuffers() == 0 ) {
+				Thread.sleep( 1 );
+			}
+		}
+		assertTrue( logger.shutdown( 10, TimeUnit.SECONDS ) );
+
+		assertEquals( 1, allocatedBuffers.get() );
+		final int[] expected = new int[generations];
+		Arrays.fill( expected, RECORDS );
+		assertRecordsWrittenOnceInOrder( expected );
+	}
+
+	@Test( expected = IllegalStateException.class )
+	public void messageSimpleIsNotSupported() throws Exception {
+		logger.messageSimple( "record %d %d" );
+	}
+
+	/**
+	 * records are [producer, 1..expected[producer]]: each producer's records must
+	 * go in order, with no gaps and no duplicates
+	 */
+	private void assertRecordsWrittenOnceInOrder( final int[] expected ) throws IOException {
+		final RawLogReader reader = new RawLogReader(
+				ByteBuffer.wrap( output.toByteArray() ).order( ByteOrder.nativeOrder() )
+		);
+		final int[] last = new int[expected.length];
+		while( reader.next() ) {
+			if( type( reader.header() ) != RecordType.LOG_RECORD ) {
+				continue;
+			}
+			final int producer = ( int ) reader.cell( ARGUMENTS_OFFSET - 1 );
+			final int index = ( int ) reader.cell( ARGUMENTS_OFFSET );
+			assertEquals( "producer " + producer, last[producer] + 1, index );
+			last[producer] = index;
+		}
+		assertArrayEquals( expected, last );
+	}
+}
@@ -0,0 +1,54 @@
+package com.db.logger.api.impl.logger;
+
+import com.db.logger.api.Level;
+import org.junit.Test;
+
+import static com.db.logger.api.impl.logger.RecordHelper.*;
+import static org.junit.Assert.*;
+
+public class RecordHelperTest {
+	@Test
+	public void headerFieldsRoundTrip() throws Exception {
+		final int[] formatIds = { 1, 0xFFFF, 0x10000, Integer.MAX_VALUE, -1 };
+		for( final int formatId : formatIds ) {
+			for( final Level level : Level.values() ) {
+				final long header = logRecordHeader( formatId, 0xFFFE, level.id() );
+				assertTrue( isValidHeader( header ) );
+				assertEquals( RecordType.LOG_RECORD, type( header ) );
+				assertEquals( level.id(), level( header ) );
+				assertEquals( formatId, formatId( header ) );
+				assertEquals( 0xFFFF, cellsCount( header ) );
+			}
+		}
+	}
+
+	@Test
+	public void headerWithoutLevel() throws Exception {
+		final long header = logRecordHeader( 42, 3 );
+		assertEquals( NO_LEVEL, level( header ) );
+		assertEquals( 42, formatId( header ) );
+		assertEquals( RecordType.TIMESTAMP, type( timestampHeader() ) );
+	}
+
+	@Test
+	public void pendingHeaderIsNeitherValidHeaderNorNotSet() throws Exception {
+		final int[] cellsCounts = { 0, 1, 0xFFFF, 0x10000 };
+		final long[] positions = { 0, 1, 1 << 20, Integer.MAX_VALUE, Long.MAX_VALUE };
+		for( final int cellsCount : cellsCounts ) {
+			for( final long position : positions ) {
+				final long pending = pendingHeader( position, cellsCount );
+				assertFalse( isValidHeader( pending ) );
+				assertTrue( isPendingHeader( pending ) );
+				assertEquals( cellsCount, pendingCellsCount( pending ) );
+			}
+		}
+		assertFalse( isPendingHeader( NOT_SET ) );
+		//the same cell on the next lap
+		assertTrue( pendingHeader( 5, 3 ) != pendingHeader( 5 + 1024, 3 ) );
+		assertFalse( isPendingHeader( logRecordHeader( 1, 2 ) ) );
+		assertEquals( RecordType.SEQUENCE, type( sequenceHeader() ) );
+		assertEquals( RecordType.RUN, type( runHeader() ) );
+		assertEquals( RecordType.THROWABLE, type( throwableHeader( 9 ) ) );
+		assertEquals( 2 + 1 + 2, cellsCount( throwableHeader( 9 ) ) );
+	}
+}
@@ -0,0 +1,100 @@
+package com.db.logger.api.impl.logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.db.logger.api.impl.logger.buffer.PlainCircularLongsBuffer;
+import com.db.logger.api.impl.logger.formatters.RawLogMessage;
+import com.db.logger.timesource.SystemTimeMillisSource;
+import org.junit.Test;
+
+import static com.db.logger.api.impl.logger.Sequencer.INVALID_INDEX;
+import static org.junit.Assert.*;
+
+public class RingBufferOverflowTest {
+	private static final int LENGTH = 8;
+
+	private static RingBuffer createRingBuffer( final WaitingStrategy waitingStrategy,
+	                                            final OverflowPolicy overflowPolicy ) {
+		return new RingBuffer(
+				new MCSDSequencer( LENGTH ),
+				new PlainCircularLongsBuffer( LENGTH, RecordHelper.NOT_SET ),
+				waitingStrategy,
+				overflowPolicy
+		);
+	}
+
+	@Test
+	public void claimOnFullBufferIsDroppedAndCounted() throws Exception {
+		final RingBuffer ringBuffer = createRingBuffer( WaitingStrategy.NO_WAIT, OverflowPolicy.DROP_AND_COUNT );
+		assertNotEquals( INVALID_INDEX, ringBuffer.claim( LENGTH ) );
+
+		assertEquals( INVALID_INDEX, ringBuffer.claim( 1 ) );
+		assertEquals( INVALID_INDEX, ringBuffer.claim( 1 ) );
+		assertEquals( 2, ringBuffer.droppedRecords() );
+	}
+
+	@Test( expected = IllegalStateException.class )
+	public void claimOnFullBufferThrowsException() throws Exception {
+		final RingBuffer ringBuffer = createRingBuffer( WaitingStrategy.NO_WAIT, OverflowPolicy.THROW );
+		ringBuffer.claim( LENGTH );
+
+		ringBuffer.claim( 1 );
+	}
+
+	@Test
+	public void droppedMessageIgnoresArgumentsAndSubmit() throws Exception {
+		final RingBuffer ringBuffer = createRingBuffer( WaitingStrategy.NO_WAIT, OverflowPolicy.DROP_AND_COUNT );
+		final long position = ringBuffer.claim( LENGTH );
+
+		final RawLogMessage message = new RawLogMessage( ringBuffer, new SystemTimeMillisSource() )
+				.setup( new MessageInfo( "%d %d", 2, 1 ) );
+		message.start().with( 1 ).with( 2 ).submit();
+
+		assertEquals( 1, ringBuffer.droppedRecords() );
+		//header cell of claimed region holds only it's pending marker
+		assertEquals( RecordHelper.pendingHeader( position, LENGTH - 1 ), ringBuffer.buffer().get( position ) );
+		for( int i = 1; i < LENGTH; i++ ) {
+			assertEquals( RecordHelper.NOT_SET, ringBuffer.buffer().get( position + i ) );
+		}
+		//message is reusable after drop
+		message.start().with( 1 ).with( 2 ).submit();
+		assertEquals( 2, ringBuffer.droppedRecords() );
+	}
+
+	@Test( timeout = 10000 )
+	public void blockedProducerIsWokenUpAfterSpaceReclaimed() throws Exception {
+		final WaitingStrategy.SpinYieldPark waitingStrategy = new WaitingStrategy.SpinYieldPark(
+				16, 16,
+				TimeUnit.SECONDS.toNanos( 60 ),//much longer then test timeout
+				Integer.MAX_VALUE
+		);
+		final RingBuffer ringBuffer = createRingBuffer( waitingStrategy, OverflowPolicy.BLOCK );
+		ringBuffer.claim( LENGTH );
+
+		final AtomicLong claimed = new AtomicLong( INVALID_INDEX );
+		final Thread producer = new Thread() {
+			@Override
+			public void run() {
+				claimed.set( ringBuffer.claim( 1 ) );
+			}
+		};
+		producer.start();
+		while( producer.getState() != Thread.State.TIMED_WAITING ) {
+			Thread.sleep( 1 );
+		}
+
+		ringBuffer.drainTo( new Sequencer.Drainer() {
+			@Override
+			public int available( final long startSequence,
+			                      final long sentinelSequence ) {
+				return ( int ) ( sentinelSequence - startSequence );
+			}
+		} );
+		waitingStrategy.wakeUp();
+
+		producer.join();
+		assertEquals( LENGTH, claimed.get() );
+		assertEquals( 0, ringBuffer.droppedRecords() );
+	}
+}
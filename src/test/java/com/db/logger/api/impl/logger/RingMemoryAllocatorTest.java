@@ -0,0 +1,44 @@
+package com.db.logger.api.impl.logger;
+
+import java.io.File;
+
+import com.db.logger.api.impl.logger.buffer.DirectMemoryLongsBuffer;
+import com.db.logger.api.impl.logger.buffer.ICircularLongsBuffer;
+import com.db.logger.api.impl.logger.buffer.RingMemoryAllocator;
+import org.junit.Assume;
+import org.junit.Test;
+
+import static com.db.logger.api.impl.logger.RecordHelper.NOT_SET;
+import static org.junit.Assert.assertEquals;
+
+public class RingMemoryAllocatorTest extends LongBufferTestBase {
+	public RingMemoryAllocatorTest( final int length ) {
+		super( length );
+	}
+
+	@Override
+	protected ICircularLongsBuffer buffer( final int length ) {
+		return RingMemoryAllocator.allocate( length );
+	}
+
+	@Test
+	public void memoryIsHugePageAlignedAndFilled() throws Exception {
+		final DirectMemoryLongsBuffer buffer = RingMemoryAllocator.allocate( 1 << 10 );
+		assertEquals( 0, buffer.address() % RingMemoryAllocator.HUGE_PAGE_SIZE );
+		for( int i = 0; i < buffer.length(); i++ ) {
+			assertEquals( NOT_SET, buffer.get( i ) );
+		}
+	}
+
+	@Test
+	public void fileBackedMemoryIsFilled() throws Exception {
+		final File shm = new File( "/dev/shm" );
+		Assume.assumeTrue( shm.isDirectory() && shm.canWrite() );
+		final DirectMemoryLongsBuffer buffer = RingMemoryAllocator.allocate( shm, 1 << 10 );
+		for( int i = 0; i < buffer.length(); i++ ) {
+			assertEquals( NOT_SET, buffer.get( i ) );
+		}
+		buffer.put( 5, 42 );
+		assertEquals( 42, buffer.get( 5 ) );
+	}
+}
@@ -0,0 +1,109 @@
+package com.db.logger.api.impl.logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.db.logger.api.impl.io.ChannelRawWriter;
+import com.db.logger.api.impl.io.RawLogReader;
+import com.db.logger.api.impl.logger.buffer.MappedRingFile;
+import com.db.logger.api.impl.logger.buffer.PlainCircularLongsBuffer;
+import org.junit.Test;
+
+import static com.db.logger.api.impl.logger.RecordHelper.*;
+import static org.junit.Assert.*;
+
+public class ShutdownTest {
+	private static final int LENGTH = 1 << 10;
+	private static final int RECORDS = 100;
+
+	private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+	private final FastLoggerImpl logger = new FastLoggerImpl(
+			Executors.defaultThreadFactory(),
+			new PlainCircularLongsBuffer( LENGTH, NOT_SET ),
+			WaitingStrategy.NO_WAIT,
+			new ChannelRawWriter( Channels.newChannel( output ), 1 << 12 )
+	);
+
+	@Test( timeout = 10000 )
+	public void shutdownDrainsRunningLoggerToEmpty() throws Exception {
+		logger.startDraining();
+		for( int i = 0; i < RECORDS; i++ ) {
+			logger.log( "record %d" ).with( i ).submit();
+		}
+		assertTrue( logger.shutdown( 5, TimeUnit.SECONDS ) );
+		assertEquals( RECORDS, logRecordsWritten() );
+	}
+
+	@Test
+	public void shutdownDrainsRingsWithoutDrainerThread() throws Exception {
+		for( int i = 0; i < RECORDS; i++ ) {
+			logger.log( "record %d" ).with( i ).submit();
+		}
+		assertTrue( logger.shutdown( 1, TimeUnit.SECONDS ) );
+		assertEquals( RECORDS, logRecordsWritten() );
+		//repeated call does nothing
+		assertTrue( logger.shutdown( 1, TimeUnit.SECONDS ) );
+	}
+
+	@Test
+	public void recordsAfterShutdownAreDroppedAndCounted() throws Exception {
+		logger.log( "record %d" ).with( 1 ).submit();
+		logger.shutdown( 1, TimeUnit.SECONDS );
+
+		logger.log( "record %d" ).with( 2 ).submit();
+		assertEquals( 1, logger.droppedRecords() );
+		assertEquals( 1, logRecordsWritten() );
+	}
+
+	@Test
+	public void shutdownGivesUpOnRecordNeverPublished() throws Exception {
+		logger.log( "record %d %d" ).with( 1 );//...and never submitted
+		assertFalse( logger.shutdown( 10, TimeUnit.MILLISECONDS ) );
+	}
+
+	@Test
+	public void recordsNotDrainedSurviveInMappedRingFile() throws Exception {
+		final File file = File.createTempFile( "ring", ".bin" );
+		file.deleteOnExit();
+		final MappedRingFile ring = MappedRingFile.create( file, LENGTH );
+		final FastLoggerImpl mappedLogger = new FastLoggerImpl(
+				Executors.defaultThreadFactory(),
+				ring.buffer(),
+				WaitingStrategy.NO_WAIT,
+				new ChannelRawWriter( Channels.newChannel( new ByteArrayOutputStream() ), 1 << 12 )
+		);
+		mappedLogger.log( "record %d" ).with( 42 ).submit();
+		ring.close();
+
+		final MappedRingFile recovered = MappedRingFile.open( file );
+		try {
+			assertEquals( LENGTH, recovered.length() );
+			final long header = recovered.buffer().get( 0 );
+			assertTrue( isValidHeader( header ) );
+			assertEquals( RecordType.LOG_RECORD, type( header ) );
+			assertEquals( 42, recovered.buffer().get( ARGUMENTS_OFFSET ) );
+			assertEquals( NOT_SET, recovered.buffer().get( logRecordSize( 1 ) ) );
+		} finally {
+			recovered.close();
+		}
+	}
+
+	private int logRecordsWritten() throws IOException {
+		final RawLogReader reader = new RawLogReader(
+				ByteBuffer.wrap( output.toByteArray() ).order( ByteOrder.nativeOrder() )
+		);
+		int records = 0;
+		while( reader.next() ) {
+			if( type( reader.header() ) == RecordType.LOG_RECORD ) {
+				records++;
+			}
+		}
+		return records;
+	}
+}
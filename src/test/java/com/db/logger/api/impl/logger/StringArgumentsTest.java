@@ -0,0 +1,167 @@
+package com.db.logger.api.impl.logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+
+import com.db.logger.api.impl.io.ChannelRawWriter;
+import com.db.logger.api.impl.io.DecodingCatalog;
+import com.db.logger.api.impl.io.LogDecoder;
+import com.db.logger.api.impl.io.RawLogReader;
+import com.db.logger.api.impl.logger.buffer.PlainCircularLongsBuffer;
+import com.db.logger.api.impl.logger.formatters.AbstractLogBuilder;
+import com.db.logger.api.impl.logger.formatters.RawLogMessage;
+import com.db.logger.api.impl.logger.formatters.SimpleLogMessage;
+import com.db.logger.timesource.SystemTimeMillisSource;
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import org.junit.Test;
+
+import static com.db.logger.api.impl.logger.RecordHelper.NOT_SET;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeFalse;
+
+/**
+ * Strings written by builders inline into ring buffer, drained, and decoded back
+ */
+public class StringArgumentsTest {
+	private static final int LENGTH = 1 << 12;
+	/** "yyyy-MM-dd HH:mm:ss.nnnnnnnnn " */
+	private static final int TIMESTAMP_PREFIX = 30;
+
+	private static final MessageInfo MESSAGE = new MessageInfo( "%d [%s] %.1f [%s]", 4, 1 );
+	private static final MessageInfo PADDED_MESSAGE = new MessageInfo( "[%-6s|%5s]", 2, 2 );
+
+	private final SymbolTable symbols = new SymbolTable();
+	private final RingBuffer ringBuffer = new RingBuffer(
+			new SCSDSequencer( LENGTH ),
+			new PlainCircularLongsBuffer( LENGTH, NOT_SET ),
+			WaitingStrategy.NO_WAIT
+	);
+
+	@Test
+	public void stringsAndBytesAreDecoded() throws Exception {
+		final RawLogMessage message = new RawLogMessage( ringBuffer, new SystemTimeMillisSource() )
+				.setup( MESSAGE );
+		final byte[] bytes = "xxVENUExx".getBytes( Charsets.UTF_8 );
+		message.start()
+				.with( 42 )
+				.with( "AAPL" )
+				.with( 1.5 )
+				.with( bytes, 2, 5 )
+				.submit();
+		//cyrillic (2 bytes in UTF-8) and emoji (surrogate pair, 4 bytes)
+		message.start()
+				.with( -1 )
+				.with( new StringBuilder( "\u041F\u0440\u0438\u0432\u0435\u0442, \uD83D\uDE00!" ) )
+				.with( 0.25 )
+				.with( "" )
+				.submit();
+		final SimpleLogMessage simple = new SimpleLogMessage( PADDED_MESSAGE, ringBuffer, new SystemTimeMillisSource() );
+		simple.with( "ab" ).with( "cd" ).submit();
+
+		assertEquals(
+				"42 [AAPL] 1.5 [VENUE]\n"
+						+ "-1 [\u041F\u0440\u0438\u0432\u0435\u0442, \uD83D\uDE00!] 0.3 []\n"
+						+ "[ab    |   cd]\n",
+				drainAndDecode()
+		);
+	}
+
+	@Test
+	public void missingStringArgumentIsPaddedAsEmpty() throws Exception {
+		assumeFalse( AbstractLogBuilder.VALIDATE_ARGUMENTS );
+		final RawLogMessage message = new RawLogMessage( ringBuffer, new SystemTimeMillisSource() )
+				.setup( MESSAGE );
+		message.start().with( 7 ).with( "X" ).submit();
+
+		assertEquals( "7 [X] 0.0 []\n", drainAndDecode() );
+	}
+
+	@Test
+	public void tooLongStringIsTruncated() throws Exception {
+		final SimpleLogMessage simple = new SimpleLogMessage( PADDED_MESSAGE, ringBuffer, new SystemTimeMillisSource() );
+		final String longString = Strings.repeat( "z", AbstractLogBuilder.MAX_STRING_BYTES + 100 );
+		simple.with( longString ).with( "end" ).submit();
+
+		assertEquals(
+				"[" + longString.substring( 0, AbstractLogBuilder.MAX_STRING_BYTES ) + "|  end]\n",
+				drainAndDecode()
+		);
+	}
+
+	@Test
+	public void truncatedStringIsCutAtCharacterBoundary() throws Exception {
+		final SimpleLogMessage simple = new SimpleLogMessage( PADDED_MESSAGE, ringBuffer, new SystemTimeMillisSource() );
+		//cyrillic, 2 bytes each in UTF-8, so last one does not fit if limit is odd
+		final String longString = "z" + Strings.repeat( "\u0416", AbstractLogBuilder.MAX_STRING_BYTES );
+		simple.with( longString ).with( "end" ).submit();
+
+		final String decoded = drainAndDecode();
+		final int expectedChars = 1 + ( AbstractLogBuilder.MAX_STRING_BYTES - 1 ) / 2;
+		assertEquals( "[" + longString.substring( 0, expectedChars ) + "|  end]\n", decoded );
+	}
+
+	private enum Side {
+		BUY, SELL
+	}
+
+	@Test
+	public void symbolsAndEnumsAreResolvedByCatalog() throws Exception {
+		final RawLogMessage message = new RawLogMessage( ringBuffer, new SystemTimeMillisSource(), symbols )
+				.setup( MESSAGE );
+		final int venue = symbols.register( "XNAS" );
+		message.start()
+				.with( 1 )
+				.with( Side.SELL )
+				.with( 2.0 )
+				.withSymbol( venue )
+				.submit();
+		final SimpleLogMessage simple = new SimpleLogMessage( PADDED_MESSAGE, ringBuffer, new SystemTimeMillisSource(), symbols );
+		simple.with( Side.BUY ).withSymbol( venue ).submit();
+
+		assertEquals(
+				"1 [SELL] 2.0 [XNAS]\n"
+						+ "[BUY   | XNAS]\n",
+				drainAndDecode()
+		);
+	}
+
+	@Test
+	public void enumIsWrittenInlineWithoutSymbolTable() throws Exception {
+		final SimpleLogMessage simple = new SimpleLogMessage( PADDED_MESSAGE, ringBuffer, new SystemTimeMillisSource() );
+		simple.with( Side.BUY ).with( ( Enum<?> ) null ).submit();
+
+		assertEquals( "[BUY   | null]\n", drainAndDecode() );
+	}
+
+	private String drainAndDecode() throws Exception {
+		final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		final ChannelRawWriter writer = new ChannelRawWriter( Channels.newChannel( stream ), 1 << 16 );
+		final WritingDrainer drainer = new WritingDrainer( writer );
+		drainer.drainFrom( ringBuffer.buffer() );
+		ringBuffer.drainTo( drainer );
+		writer.close();
+
+		final DecodingCatalog catalog = new DecodingCatalog();
+		catalog.add( MESSAGE );
+		catalog.add( PADDED_MESSAGE );
+		for( int id = 1; id <= symbols.lastSymbolId(); id++ ) {
+			catalog.addSymbol( id, symbols.symbol( id ) );
+		}
+		final RawLogReader reader = new RawLogReader(
+				Channels.newChannel( new ByteArrayInputStream( stream.toByteArray() ) ),
+				ByteOrder.nativeOrder()
+		);
+		final StringBuilder text = new StringBuilder();
+		new LogDecoder( catalog, 0 ).decode( reader, text );
+
+		//strip timestamps
+		final StringBuilder withoutTimestamps = new StringBuilder();
+		for( final String line : text.toString().split( "\n" ) ) {
+			withoutTimestamps.append( line.substring( TIMESTAMP_PREFIX ) ).append( '\n' );
+		}
+		return withoutTimestamps.toString();
+	}
+}
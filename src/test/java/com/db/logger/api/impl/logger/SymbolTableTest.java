@@ -0,0 +1,56 @@
+package com.db.logger.api.impl.logger;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SymbolTableTest {
+	private enum Color {
+		RED, GREEN, BLUE
+	}
+
+	private final SymbolTable table = new SymbolTable();
+
+	@Test
+	public void sameSymbolGetsSameId() throws Exception {
+		final int id = table.register( "XNAS" );
+		assertEquals( id, table.register( new StringBuilder( "XNAS" ) ) );
+		assertEquals( "XNAS", table.symbol( id ) );
+	}
+
+	@Test
+	public void idsArePositiveAndSequential() throws Exception {
+		assertEquals( 0, table.lastSymbolId() );
+		assertEquals( 1, table.register( "a" ) );
+		assertEquals( 2, table.register( "b" ) );
+		assertEquals( 2, table.lastSymbolId() );
+	}
+
+	@Test
+	public void unknownIdResolvesToNull() throws Exception {
+		table.register( "a" );
+		assertNull( table.symbol( 0 ) );
+		assertNull( table.symbol( 2 ) );
+	}
+
+	@Test
+	public void wholeEnumIsRegisteredAtFirstUse() throws Exception {
+		final int greenId = table.idOf( Color.GREEN );
+		assertEquals( 3, table.lastSymbolId() );
+		assertEquals( "GREEN", table.symbol( greenId ) );
+		assertEquals( table.register( "BLUE" ), table.idOf( Color.BLUE ) );
+	}
+
+	@Test
+	public void symbolsSinceReturnsOnlyNewOnes() throws Exception {
+		table.register( "a" );
+		final int since = table.lastSymbolId();
+		table.register( "b" );
+		table.register( "c" );
+		assertEquals( Arrays.asList( "b", "c" ), table.symbolsSince( since ) );
+		assertEquals( Collections.<String>emptyList(), table.symbolsSince( table.lastSymbolId() ) );
+	}
+}
@@ -0,0 +1,34 @@
+package com.db.logger.api.impl.logger;
+
+import com.db.logger.timesource.BaseTimestampSource;
+
+/**
+ * Timestamps shared by tests of drainer output: anchor value to write by hand,
+ * and source of predictable timestamps for records logged through ring
+ */
+public final class TestTimestamps {
+	/** 2013-10-18 12:00:00 UTC */
+	public static final long ANCHOR_NANOS = 1382097600L * 1000000000L;
+
+	private TestTimestamps() {
+		throw new AssertionError( "Not for instantiation" );
+	}
+
+	/** each call returns previous value + step, the first one is start + step */
+	public static final class SteppingTimestampSource extends BaseTimestampSource {
+		private final long step;
+		private long timestamp;
+
+		public SteppingTimestampSource( final long start,
+		                                final long step ) {
+			this.timestamp = start;
+			this.step = step;
+		}
+
+		@Override
+		public long timestampNanos() {
+			timestamp += step;
+			return timestamp;
+		}
+	}
+}
@@ -0,0 +1,188 @@
+package com.db.logger.api.impl.logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.db.logger.api.impl.io.CatalogWriter;
+import com.db.logger.api.impl.io.ChannelRawWriter;
+import com.db.logger.api.impl.io.DecodingCatalog;
+import com.db.logger.api.impl.io.LogDecoder;
+import com.db.logger.api.impl.io.RawLogReader;
+import com.db.logger.api.impl.logger.buffer.PlainCircularLongsBuffer;
+import com.db.logger.api.impl.logger.formatters.RawLogMessage;
+import com.db.logger.api.impl.logger.formatters.SimpleLogMessage;
+import com.db.logger.timesource.SystemTimeMillisSource;
+import org.junit.Test;
+
+import static com.db.logger.api.impl.logger.RecordHelper.NOT_SET;
+import static org.junit.Assert.*;
+
+/**
+ * Throwables attached by builders, rendered by drainer-side tables, and decoded back
+ */
+public class ThrowableLoggingTest {
+	private static final int LENGTH = 1 << 12;
+	/** "yyyy-MM-dd HH:mm:ss.nnnnnnnnn " */
+	private static final int TIMESTAMP_PREFIX = 30;
+
+	private static final MessageInfo NUMBERS = new MessageInfo( "order %d failed: %.1f", 2, 1 );
+	private static final MessageInfo STRINGS = new MessageInfo( "order %d [%s]", 2, 2 );
+
+	private final ThrowableTable throwables = new ThrowableTable();
+	private final RingBuffer ringBuffer = new RingBuffer(
+			new SCSDSequencer( LENGTH ),
+			new PlainCircularLongsBuffer( LENGTH, NOT_SET ),
+			WaitingStrategy.NO_WAIT
+	);
+
+	@Test
+	public void throwableIsPrintedAfterMessage() throws Exception {
+		final RawLogMessage message = new RawLogMessage( ringBuffer, new SystemTimeMillisSource(), null, throwables )
+				.setup( NUMBERS );
+		final Exception e = new IllegalStateException( "no liquidity" );
+		//fixed-size record: it is already claimed, and is moved into stage
+		message.start().with( 1 ).with( e ).with( 2.5 ).submit();
+		message.start().with( 2 ).with( 3.5 ).submit();
+
+		final String[] lines = drainAndDecode().split( "\n" );
+		assertEquals( "order 1 failed: 2.5", lines[0] );
+		assertEquals( "java.lang.IllegalStateException: no liquidity", lines[1] );
+		assertEquals( "\tat " + getClass().getName() + ".throwableIsPrintedAfterMessage", lines[2].substring( 0, lines[2].indexOf( '(' ) ) );
+		assertEquals( "order 2 failed: 3.5", lines[lines.length - 1] );
+	}
+
+	@Test
+	public void throwableIsAttachedToRecordWithStrings() throws Exception {
+		final SimpleLogMessage simple = new SimpleLogMessage( STRINGS, ringBuffer, new SystemTimeMillisSource(), null, throwables );
+		simple.with( new RuntimeException( "first" ) ).with( 1 ).with( "AAPL" ).submit();
+		simple.with( 2 ).with( "MSFT" ).with( new RuntimeException( "second" ) ).submit();
+
+		final String decoded = drainAndDecode();
+		assertTrue( decoded, decoded.startsWith( "order 1 [AAPL]\njava.lang.RuntimeException: first\n\tat " ) );
+		assertTrue( decoded, decoded.contains( "order 2 [MSFT]\njava.lang.RuntimeException: second\n\tat " ) );
+	}
+
+	@Test
+	public void throwableIsIgnoredWithoutTable() throws Exception {
+		final SimpleLogMessage simple = new SimpleLogMessage( STRINGS, ringBuffer, new SystemTimeMillisSource() );
+		simple.with( 1 ).with( new Exception() ).with( "X" ).submit();
+
+		assertEquals( "order 1 [X]\n", drainAndDecode() );
+	}
+
+	@Test
+	public void cellForThrowableIdIsReservedInFullRecord() throws Exception {
+		//6 cells of ring are for arguments: 5 arguments and Throwable id
+		final RingBuffer small = new RingBuffer(
+				new SCSDSequencer( 8 ),
+				new PlainCircularLongsBuffer( 8, NOT_SET ),
+				WaitingStrategy.NO_WAIT
+		);
+		final MessageInfo info = new MessageInfo( "%s %s %s %s %s", 5, 3 );
+		final SimpleLogMessage simple = new SimpleLogMessage( info, small, new SystemTimeMillisSource(), null, throwables );
+		final String value = "value too long for ring";
+		simple.with( value ).with( value ).with( value ).with( value ).with( value )
+				.with( new Exception() )
+				.submit();
+
+		final long header = small.buffer().get( 0 );
+		assertEquals( 6 + 1, RecordHelper.cellsCount( header ) );
+		assertEquals( throwables.lastThrowableId(), small.buffer().get( RecordHelper.ARGUMENTS_OFFSET + 5 ) );
+	}
+
+	@Test( expected = IllegalStateException.class )
+	public void formatWithoutCellForThrowableIdIsRejected() throws Exception {
+		final RingBuffer small = new RingBuffer(
+				new SCSDSequencer( 8 ),
+				new PlainCircularLongsBuffer( 8, NOT_SET ),
+				WaitingStrategy.NO_WAIT
+		);
+		final MessageInfo info = new MessageInfo( "%s %s %s %s %s %s", 6, 3 );
+		new SimpleLogMessage( info, small, new SystemTimeMillisSource(), null, throwables ).with( "X" );
+	}
+
+	@Test( timeout = 10000 )
+	public void throwablesAreWrittenIntoBinaryLogAndTraceOnceIntoCatalog() throws Exception {
+		final ByteArrayOutputStream log = new ByteArrayOutputStream();
+		final StringWriter catalogText = new StringWriter();
+		final FastLoggerImpl logger = new FastLoggerImpl(
+				Executors.defaultThreadFactory(),
+				new PlainCircularLongsBuffer( LENGTH, NOT_SET ),
+				WaitingStrategy.NO_WAIT,
+				OverflowPolicy.THROW,
+				new DrainerIdleStrategy(),
+				new ChannelRawWriter( Channels.newChannel( log ), 1 << 12 ),
+				new CatalogWriter( catalogText ),
+				new SystemTimeMillisSource()
+		);
+		for( int i = 0; i < 3; i++ ) {
+			//same call site: same trace, different descriptions
+			logger.log( "try %d" ).with( i ).with( new IllegalStateException( "failure " + i ) ).submit();
+		}
+		assertTrue( logger.shutdown( 1, TimeUnit.SECONDS ) );
+
+		int traceEntries = 0;
+		for( final String entry : catalogText.toString().split( "\n" ) ) {
+			assertFalse( entry, entry.contains( "failure" ) );
+			if( entry.charAt( 0 ) == CatalogWriter.TRACE_ENTRY ) {
+				traceEntries++;
+			}
+		}
+		assertEquals( 1, traceEntries );
+
+		final DecodingCatalog catalog = DecodingCatalog.load( new StringReader( catalogText.toString() ) );
+		final String decoded = decode( log.toByteArray(), catalog );
+		for( int i = 0; i < 3; i++ ) {
+			final String expected = "try " + i + "\njava.lang.IllegalStateException: failure " + i + "\n\tat ";
+			assertTrue( decoded, decoded.contains( expected ) );
+		}
+	}
+
+	private String drainAndDecode() throws Exception {
+		final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		final ChannelRawWriter writer = new ChannelRawWriter( Channels.newChannel( stream ), 1 << 16 );
+		final WritingDrainer drainer = new WritingDrainer( writer );
+		drainer.drainFrom( ringBuffer.buffer() );
+		ringBuffer.drainTo( drainer );
+
+		//same as FastLoggerImpl's drainer dumps traces into catalog, and Throwables
+		//into binary log, after records
+		final DecodingCatalog catalog = new DecodingCatalog();
+		catalog.add( NUMBERS );
+		catalog.add( STRINGS );
+		final StackTraceTable traces = new StackTraceTable();
+		for( int id = 1; id <= throwables.lastThrowableId(); id++ ) {
+			final Throwable throwable = throwables.take( id );
+			final int traceId = traces.traceIdOf( throwable );
+			catalog.addTrace( traceId, traces.trace( traceId ) );
+			drainer.writeThrowable( id, traceId, throwable.toString() );
+		}
+		writer.close();
+
+		return decode( stream.toByteArray(), catalog );
+	}
+
+	private static String decode( final byte[] log,
+	                              final DecodingCatalog catalog ) throws Exception {
+		final RawLogReader reader = new RawLogReader(
+				Channels.newChannel( new ByteArrayInputStream( log ) ),
+				ByteOrder.nativeOrder()
+		);
+		final StringBuilder text = new StringBuilder();
+		new LogDecoder( catalog, 0 ).decode( reader, text );
+
+		//strip timestamps of record lines
+		final StringBuilder withoutTimestamps = new StringBuilder();
+		for( final String line : text.toString().split( "\n" ) ) {
+			final boolean recordLine = line.length() > TIMESTAMP_PREFIX && line.charAt( 4 ) == '-' && line.charAt( 19 ) == '.';
+			withoutTimestamps.append( recordLine ? line.substring( TIMESTAMP_PREFIX ) : line ).append( '\n' );
+		}
+		return withoutTimestamps.toString();
+	}
+}
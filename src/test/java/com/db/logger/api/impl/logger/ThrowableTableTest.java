@@ -0,0 +1,86 @@
+package com.db.logger.api.impl.logger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ThrowableTableTest {
+	private final ThrowableTable table = new ThrowableTable( 4 );
+
+	@Test
+	public void registeredThrowableIsTakenOnce() throws Exception {
+		final Exception e = new Exception( "test" );
+		final int id = table.register( e );
+		assertEquals( id, table.lastThrowableId() );
+		assertSame( e, table.take( id ) );
+		assertNull( table.take( id ) );
+		assertFalse( table.isLost( id ) );
+	}
+
+	@Test
+	public void oldestThrowablesAreLostOnOverflow() throws Exception {
+		final int first = table.register( new Exception( "1" ) );
+		for( int i = 0; i < 4; i++ ) {
+			table.register( new Exception() );
+		}
+		assertNull( table.take( first ) );
+		assertTrue( table.isLost( first ) );
+		assertNotNull( table.take( first + 1 ) );
+	}
+
+	@Test
+	public void notYetRegisteredIdIsNotLost() throws Exception {
+		assertNull( table.take( 1 ) );
+		assertFalse( table.isLost( 1 ) );
+	}
+
+	@Test
+	public void sameClassAndFramesShareTrace() throws Exception {
+		final StackTraceTable traces = new StackTraceTable();
+		final int[] ids = new int[2];
+		for( int i = 0; i < 2; i++ ) {
+			//same call site: same frames, different messages
+			ids[i] = traces.traceIdOf( new IllegalStateException( "attempt " + i ) );
+		}
+		assertEquals( ids[0], ids[1] );
+		assertEquals( 1, traces.lastTraceId() );
+
+		final String trace = traces.trace( ids[0] );
+		assertTrue( trace, trace.startsWith( "\tat " + getClass().getName() + ".sameClassAndFramesShareTrace" ) );
+		assertFalse( trace, trace.contains( "attempt" ) );
+	}
+
+	@Test
+	public void differentCausesMakeDifferentTraces() throws Exception {
+		final StackTraceTable traces = new StackTraceTable();
+		final Exception cause1 = new Exception( "cause 1" );
+		final Exception cause2 = new Exception( "cause 2" );
+		final int[] ids = new int[2];
+		for( int i = 0; i < 2; i++ ) {
+			ids[i] = traces.traceIdOf( new RuntimeException( i == 0 ? cause1 : cause2 ) );
+		}
+		assertNotEquals( ids[0], ids[1] );
+		assertTrue( traces.trace( ids[1] ).contains( "Caused by: java.lang.Exception: cause 2" ) );
+	}
+
+	@Test
+	public void leastRecentlyUsedTraceIsEvictedAboveCapacity() throws Exception {
+		final StackTraceTable traces = new StackTraceTable( 2 );
+		final Exception[] throwables = new Exception[3];
+		for( int i = 0; i < throwables.length; i++ ) {
+			//same frames, causes differ by description only
+			throwables[i] = new RuntimeException( new Exception( "cause " + i ) );
+		}
+		final int first = traces.traceIdOf( throwables[0] );
+		final int second = traces.traceIdOf( throwables[1] );
+		assertEquals( first, traces.traceIdOf( throwables[0] ) );
+		assertEquals( 0, traces.evictedTraceId() );
+		final int third = traces.traceIdOf( throwables[2] );
+
+		assertEquals( second, traces.evictedTraceId() );
+		assertNull( "second is least recently used", traces.trace( second ) );
+		assertNotNull( traces.trace( first ) );
+		assertNotNull( traces.trace( third ) );
+		assertEquals( third + 1, traces.traceIdOf( throwables[1] ) );
+	}
+}
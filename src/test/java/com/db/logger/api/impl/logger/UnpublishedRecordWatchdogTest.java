@@ -0,0 +1,132 @@
+package com.db.logger.api.impl.logger;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.concurrent.TimeUnit;
+
+import com.db.logger.api.impl.io.ChannelRawWriter;
+import com.db.logger.api.impl.logger.buffer.ICircularLongsBuffer;
+import com.db.logger.api.impl.logger.buffer.UnsafeCircularLongsBuffer;
+import com.db.logger.api.impl.logger.formatters.RawLogMessage;
+import com.db.logger.timesource.SystemTimeMillisSource;
+import org.junit.Test;
+
+import static com.db.logger.api.impl.logger.RecordHelper.*;
+import static org.junit.Assert.*;
+
+public class UnpublishedRecordWatchdogTest {
+	private static final int LENGTH = 64;
+	private static final int RECORD_BYTES = ( 2 + 2 ) * 8;
+
+	@Test
+	public void lostRecordIsTombstonedAfterTimeout() throws Exception {
+		final ICircularLongsBuffer buffer = new UnsafeCircularLongsBuffer( LENGTH, NOT_SET );
+		final UnpublishedRecordWatchdog watchdog = new UnpublishedRecordWatchdog( 1, TimeUnit.MILLISECONDS );
+		final RingBuffer ringBuffer = watchedRing( buffer, watchdog );
+		final MessageInfo info = new MessageInfo( "%d %d", 2, 1 );
+		final RawLogMessage lost = new RawLogMessage( ringBuffer, new SystemTimeMillisSource() )
+				.setup( info );
+		final RawLogMessage message = new RawLogMessage( ringBuffer, new SystemTimeMillisSource() )
+				.setup( info );
+		final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		final ChannelRawWriter writer = new ChannelRawWriter( Channels.newChannel( stream ), 1 << 10 );
+		final WritingDrainer drainer = new WritingDrainer( writer, false );
+		drainer.drainFrom( buffer, watchdog );
+
+		//never submitted
+		lost.start().with( 1 );
+		message.start().with( 2 ).with( 2 ).submit();
+
+		ringBuffer.drainTo( drainer );
+		assertFalse( ringBuffer.isEmpty() );
+		assertEquals( 0, watchdog.tombstones() );
+
+		Thread.sleep( 10 );
+		ringBuffer.drainTo( drainer );
+		assertTrue( ringBuffer.isEmpty() );
+		assertEquals( 1, watchdog.tombstones() );
+		writer.close();
+		//anchor + record after the hole
+		assertEquals( 2 * 8 + RECORD_BYTES, stream.size() );
+		for( int i = 0; i < LENGTH; i++ ) {
+			assertEquals( "cell " + i, NOT_SET, buffer.get( i ) );
+		}
+	}
+
+	@Test
+	public void holePublishedInTimeIsNotTombstoned() throws Exception {
+		final ICircularLongsBuffer buffer = new UnsafeCircularLongsBuffer( LENGTH, NOT_SET );
+		final UnpublishedRecordWatchdog watchdog = new UnpublishedRecordWatchdog( 1, TimeUnit.HOURS );
+		final RingBuffer ringBuffer = watchedRing( buffer, watchdog );
+		final RawLogMessage message = new RawLogMessage( ringBuffer, new SystemTimeMillisSource() )
+				.setup( new MessageInfo( "%d %d", 2, 1 ) );
+		final WritingDrainer drainer = new WritingDrainer(
+				new ChannelRawWriter( Channels.newChannel( new ByteArrayOutputStream() ), 1 << 10 ),
+				false
+		);
+		drainer.drainFrom( buffer, watchdog );
+
+		message.start().with( 1 );
+		ringBuffer.drainTo( drainer );
+		ringBuffer.drainTo( drainer );
+		assertFalse( ringBuffer.isEmpty() );
+
+		message.with( 1 ).submit();
+		ringBuffer.drainTo( drainer );
+		assertTrue( ringBuffer.isEmpty() );
+		assertEquals( 0, watchdog.tombstones() );
+	}
+
+	@Test
+	public void stalledProducerDoesNotPublishTombstonedRecord() throws Exception {
+		final ICircularLongsBuffer buffer = new UnsafeCircularLongsBuffer( LENGTH, NOT_SET );
+		final UnpublishedRecordWatchdog watchdog = new UnpublishedRecordWatchdog( 1, TimeUnit.MILLISECONDS );
+		final RingBuffer ringBuffer = watchedRing( buffer, watchdog );
+		final RawLogMessage stalled = new RawLogMessage( ringBuffer, new SystemTimeMillisSource() )
+				.setup( new MessageInfo( "%d %d", 2, 1 ) );
+		final WritingDrainer drainer = new WritingDrainer(
+				new ChannelRawWriter( Channels.newChannel( new ByteArrayOutputStream() ), 1 << 10 ),
+				false
+		);
+		drainer.drainFrom( buffer, watchdog );
+
+		stalled.start().with( 1 ).with( 2 );
+		ringBuffer.drainTo( drainer );
+		Thread.sleep( 10 );
+		ringBuffer.drainTo( drainer );
+		assertEquals( 1, watchdog.tombstones() );
+		assertTrue( ringBuffer.isEmpty() );
+
+		//producer resumes: it's header must not land into reclaimed cell
+		stalled.submit();
+		assertEquals( NOT_SET, buffer.get( 0 ) );
+	}
+
+	@Test
+	public void recordOfLaterLapIsNotPublishedByStalledProducer() throws Exception {
+		final ICircularLongsBuffer buffer = new UnsafeCircularLongsBuffer( LENGTH, NOT_SET );
+		final RingBuffer ringBuffer = watchedRing(
+				buffer,
+				new UnpublishedRecordWatchdog( 1, TimeUnit.HOURS )
+		);
+		final long header = logRecordHeader( 1, 2 );
+		final long position = ringBuffer.claim( cellsCount( header ) + 1 );
+		//the same cell, claimed on the next lap
+		buffer.put( position, pendingHeader( position + LENGTH, cellsCount( header ) ) );
+
+		assertFalse( ringBuffer.publish( position, header ) );
+		assertTrue( isPendingHeader( buffer.get( position ) ) );
+	}
+
+	private static RingBuffer watchedRing( final ICircularLongsBuffer buffer,
+	                                       final UnpublishedRecordWatchdog watchdog ) {
+		return new RingBuffer(
+				new SCSDSequencer( LENGTH ),
+				buffer,
+				WaitingStrategy.NO_WAIT,
+				OverflowPolicy.THROW,
+				null,
+				watchdog
+		);
+	}
+}
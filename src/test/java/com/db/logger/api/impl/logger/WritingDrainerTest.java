@@ -0,0 +1,221 @@
+package com.db.logger.api.impl.logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+
+import com.db.logger.api.impl.io.ChannelRawWriter;
+import com.db.logger.api.impl.io.RawWriter;
+import com.db.logger.api.impl.logger.buffer.DirectMemoryLongsBuffer;
+import com.db.logger.api.impl.logger.buffer.ICircularLongsBuffer;
+import com.db.logger.api.impl.logger.buffer.UnsafeCircularLongsBuffer;
+import com.db.logger.api.impl.logger.TestTimestamps.SteppingTimestampSource;
+import com.db.logger.api.impl.logger.formatters.RawLogMessage;
+import org.junit.Test;
+
+import static com.db.logger.api.impl.logger.RecordHelper.NOT_SET;
+import static com.db.logger.api.impl.logger.TestTimestamps.ANCHOR_NANOS;
+import static org.junit.Assert.*;
+
+public class WritingDrainerTest {
+	private static final int LENGTH = 64;
+	private static final int ARGUMENTS = 3;//+header+timestamp = 5 cells, so records wrap around
+	private static final int RECORDS_PER_ROUND = 9;
+	private static final int ROUNDS = 20;
+	/** so anchor is written every few records */
+	private static final long TIMESTAMP_STEP = 300000000L;
+
+	@Test
+	public void bulkDrainOfDirectBufferWritesSameBytesAsCellByCellDrain() throws Exception {
+		final byte[] expected = drain(
+				new UnsafeCircularLongsBuffer( LENGTH, NOT_SET ),
+				new CollectingWriter( 1 << 10 )
+		);
+		final byte[] bulk = drain(
+				new DirectMemoryLongsBuffer( ByteBuffer.allocateDirect( LENGTH * 8 ), LENGTH, NOT_SET ),
+				new CollectingWriter( 1 << 10 )
+		);
+		assertArrayEquals( expected, bulk );
+	}
+
+	@Test
+	public void bulkDrainIntoSmallWriterBufferSplitsRegionByRecords() throws Exception {
+		final byte[] expected = drain(
+				new UnsafeCircularLongsBuffer( LENGTH, NOT_SET ),
+				new CollectingWriter( 1 << 10 )
+		);
+		//writer buffer fits only 2 records at once
+		final CollectingWriter smallWriter = new CollectingWriter( ( ARGUMENTS + 2 ) * 8 * 2 + 16 );
+		final byte[] bulk = drain(
+				new DirectMemoryLongsBuffer( ByteBuffer.allocateDirect( LENGTH * 8 ), LENGTH, NOT_SET ),
+				smallWriter
+		);
+		assertArrayEquals( expected, bulk );
+	}
+
+	@Test
+	public void bulkDrainIntoChunkedWriterWritesSameBytesAsCellByCellDrain() throws Exception {
+		final byte[] expected = drain(
+				new UnsafeCircularLongsBuffer( LENGTH, NOT_SET ),
+				new CollectingWriter( 1 << 10 )
+		);
+
+		final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		drain(
+				new DirectMemoryLongsBuffer( ByteBuffer.allocateDirect( LENGTH * 8 ), LENGTH, NOT_SET ),
+				new ChannelRawWriter( Channels.newChannel( stream ), 1 << 10 )
+		);
+		assertArrayEquals( expected, stream.toByteArray() );
+	}
+
+	@Test
+	public void bulkDrainReclaimsAllCells() throws Exception {
+		final DirectMemoryLongsBuffer buffer = new DirectMemoryLongsBuffer(
+				ByteBuffer.allocateDirect( LENGTH * 8 ),
+				LENGTH,
+				NOT_SET
+		);
+		drain( buffer, new CollectingWriter( 1 << 10 ) );
+		for( int i = 0; i < LENGTH; i++ ) {
+			assertEquals( "cell " + i, NOT_SET, buffer.get( i ) );
+		}
+	}
+
+	@Test
+	public void outOfOrderDrainWritesRecordsPublishedAfterUnpublishedOne() throws Exception {
+		final ICircularLongsBuffer[] buffers = {
+				new UnsafeCircularLongsBuffer( LENGTH, NOT_SET ),
+				new DirectMemoryLongsBuffer( ByteBuffer.allocateDirect( LENGTH * 8 ), LENGTH, NOT_SET )
+		};
+		for( final ICircularLongsBuffer buffer : buffers ) {
+			final RingBuffer ringBuffer = new RingBuffer(
+					new SCSDSequencer( LENGTH ),
+					buffer,
+					WaitingStrategy.NO_WAIT
+			);
+			final MessageInfo info = new MessageInfo( "%d %d %d", ARGUMENTS, 1 );
+			final RawLogMessage stalled = new RawLogMessage( ringBuffer, new SteppingTimestampSource( ANCHOR_NANOS, TIMESTAMP_STEP ) )
+					.setup( info );
+			final RawLogMessage message = new RawLogMessage( ringBuffer, new SteppingTimestampSource( ANCHOR_NANOS, TIMESTAMP_STEP ) )
+					.setup( info );
+			final CollectingWriter writer = new CollectingWriter( 1 << 10 );
+			final WritingDrainer drainer = new WritingDrainer( writer, true );
+			drainer.drainFrom( buffer );
+
+			message.start().with( 0 ).with( 0 ).with( 0 );
+			message.submit();
+			//claimed, but not published
+			stalled.start().with( 1 ).with( 1 );
+			for( int i = 2; i < 5; i++ ) {
+				message.start().with( i ).with( i ).with( i );
+				message.submit();
+			}
+
+			ringBuffer.drainTo( drainer );
+			assertEquals( 3, drainer.recordsDrainedAhead() );
+			assertFalse( "hole and records after it are not reclaimed", ringBuffer.isEmpty() );
+			writer.flush();
+			final int recordBytes = ( ARGUMENTS + 2 ) * 8;
+			final int sequenceBytes = 2 * 8;
+			final int anchorBytes = 2 * 8;
+			assertEquals( anchorBytes + recordBytes + 3 * ( sequenceBytes + recordBytes ), writer.bytes().length );
+
+			stalled.with( 1 );
+			stalled.submit();
+			ringBuffer.drainTo( drainer );
+			assertTrue( ringBuffer.isEmpty() );
+			writer.close();
+			//...and records drained ahead are not written twice
+			assertEquals( anchorBytes + recordBytes + 3 * ( sequenceBytes + recordBytes ) + recordBytes,
+			              writer.bytes().length );
+			for( int i = 0; i < LENGTH; i++ ) {
+				assertEquals( "cell " + i, NOT_SET, buffer.get( i ) );
+			}
+		}
+	}
+
+	@Test
+	public void inOrderDrainStopsAtUnpublishedRecord() throws Exception {
+		final ICircularLongsBuffer buffer = new UnsafeCircularLongsBuffer( LENGTH, NOT_SET );
+		final RingBuffer ringBuffer = new RingBuffer(
+				new SCSDSequencer( LENGTH ),
+				buffer,
+				WaitingStrategy.NO_WAIT
+		);
+		final MessageInfo info = new MessageInfo( "%d %d %d", ARGUMENTS, 1 );
+		final RawLogMessage stalled = new RawLogMessage( ringBuffer, new SteppingTimestampSource( ANCHOR_NANOS, TIMESTAMP_STEP ) )
+				.setup( info );
+		final RawLogMessage message = new RawLogMessage( ringBuffer, new SteppingTimestampSource( ANCHOR_NANOS, TIMESTAMP_STEP ) )
+				.setup( info );
+		final CollectingWriter writer = new CollectingWriter( 1 << 10 );
+		final WritingDrainer drainer = new WritingDrainer( writer, false );
+		drainer.drainFrom( buffer );
+
+		stalled.start();
+		message.start().with( 0 ).with( 0 ).with( 0 );
+		message.submit();
+		ringBuffer.drainTo( drainer );
+		writer.flush();
+		assertEquals( 0, drainer.recordsDrainedAhead() );
+		assertEquals( 0, writer.bytes().length );
+	}
+
+	/** @return all bytes written */
+	private static byte[] drain( final ICircularLongsBuffer buffer,
+	                             final RawWriter writer ) throws IOException {
+		final RingBuffer ringBuffer = new RingBuffer(
+				new SCSDSequencer( LENGTH ),
+				buffer,
+				WaitingStrategy.NO_WAIT
+		);
+		final RawLogMessage message = new RawLogMessage( ringBuffer, new SteppingTimestampSource( ANCHOR_NANOS, TIMESTAMP_STEP ) )
+				.setup( new MessageInfo( "%d %d %d", ARGUMENTS, 1 ) );
+		final WritingDrainer drainer = new WritingDrainer( writer );
+		drainer.drainFrom( buffer );
+
+		int records = 0;
+		for( int round = 0; round < ROUNDS; round++ ) {
+			for( int i = 0; i < RECORDS_PER_ROUND; i++, records++ ) {
+				message.start().with( records ).with( -records ).with( round );
+				message.submit();
+			}
+			ringBuffer.drainTo( drainer );
+			assertTrue( ringBuffer.isEmpty() );
+		}
+		writer.close();
+		return ( writer instanceof CollectingWriter ) ?
+				( ( CollectingWriter ) writer ).bytes() :
+				null;
+	}
+
+	private static final class CollectingWriter implements RawWriter {
+		private final ByteBuffer buffer;
+		private final ByteArrayOutputStream collected = new ByteArrayOutputStream();
+
+		private CollectingWriter( final int size ) {
+			this.buffer = ByteBuffer.allocate( size ).order( ByteOrder.nativeOrder() );
+		}
+
+		@Override
+		public ByteBuffer buffer() {
+			return buffer;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			collected.write( buffer.array(), 0, buffer.position() );
+			buffer.clear();
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+
+		public byte[] bytes() {
+			return collected.toByteArray();
+		}
+	}
+}